@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ssehub.kernel_haven.SetUpException;
+import net.ssehub.kernel_haven.block_extractor.FileScheduler.Mode;
+import net.ssehub.kernel_haven.config.Configuration;
+import net.ssehub.kernel_haven.config.DefaultSettings;
+import net.ssehub.kernel_haven.cpp_utils.CppParsingSettings;
+import net.ssehub.kernel_haven.test_utils.TestConfiguration;
+import net.ssehub.kernel_haven.util.ExtractorException;
+
+/**
+ * Runs the complete {@link CodeBlockExtractor} with multiple threads over a {@link SyntheticCorpus}, to measure the
+ * end-to-end throughput and scaling on kernel-sized trees without needing a kernel checkout. Usage:
+ * <pre>
+ * java ... net.ssehub.kernel_haven.block_extractor.CorpusBenchmark [--files N] [--threads N] [--seed N]
+ *     [--scheduling in_order|largest_first] [--keep]
+ * </pre>
+ * The corpus is generated into a temporary directory, which is deleted afterwards unless <code>--keep</code> is
+ * given. The defaults are 60000 files, one thread per processor and seed 1. After a warmup run, the extractor is
+ * run once with each {@link FileScheduler.Mode}, unless <code>--scheduling</code> selects one.
+ *
+ * @author Adam
+ */
+public final class CorpusBenchmark {
+
+    /**
+     * The result of a run over a corpus.
+     */
+    static final class Result {
+
+        private final int numFiles;
+
+        private final int numFailed;
+
+        private final long numBytes;
+
+        private final FileScheduler.Statistics statistics;
+
+        private final long peakHeapBytes;
+
+        private final long[] fileNanos;
+
+        /**
+         * Creates a result.
+         *
+         * @param numFiles The number of processed files.
+         * @param numFailed The number of files that could not be extracted.
+         * @param numBytes The size of all files.
+         * @param statistics The statistics of the scheduler, including the wall-clock time of the run.
+         * @param peakHeapBytes The peak heap usage during the run.
+         * @param fileNanos The time per file; sorted ascending.
+         */
+        Result(int numFiles, int numFailed, long numBytes, FileScheduler.Statistics statistics, long peakHeapBytes,
+                long[] fileNanos) {
+            this.numFiles = numFiles;
+            this.numFailed = numFailed;
+            this.numBytes = numBytes;
+            this.statistics = statistics;
+            this.peakHeapBytes = peakHeapBytes;
+            this.fileNanos = fileNanos;
+        }
+
+        /**
+         * Returns the number of files that could not be extracted.
+         *
+         * @return The number of failed files.
+         */
+        int getNumFailed() {
+            return numFailed;
+        }
+
+        /**
+         * Returns the statistics of the scheduler.
+         *
+         * @return The statistics.
+         */
+        FileScheduler.Statistics getStatistics() {
+            return statistics;
+        }
+
+        /**
+         * Returns the time needed for a file at the given percentile.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         *
+         * @return The time in nanoseconds.
+         */
+        long getLatencyPercentile(double percentile) {
+            if (fileNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * fileNanos.length) - 1;
+            return fileNanos[Math.max(0, Math.min(fileNanos.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            double seconds = statistics.getWallNanos() / 1e9;
+            return String.format(Locale.ROOT, "%d files (%d failed), %.1f MiB in %.2f s: %.0f files/s, %.2f MiB/s, "
+                    + "peak heap %.1f MiB, per-file latency p50 %.3f ms, p99 %.3f ms, max %.3f ms, "
+                    + "%d tasks, tail idle time %.3f s",
+                    numFiles, numFailed, numBytes / (1024.0 * 1024.0), seconds, numFiles / seconds,
+                    numBytes / (1024.0 * 1024.0) / seconds, peakHeapBytes / (1024.0 * 1024.0),
+                    getLatencyPercentile(50) / 1e6, getLatencyPercentile(99) / 1e6,
+                    getLatencyPercentile(100) / 1e6, statistics.getNumTasks(), statistics.getTailIdleNanos() / 1e9);
+        }
+
+    }
+
+    /**
+     * Don't allow any instances.
+     */
+    private CorpusBenchmark() {
+    }
+
+    /**
+     * Runs the extractor over the given files.
+     *
+     * @param sourceTree The directory that contains the files.
+     * @param files The files to extract, relative to the source tree.
+     * @param numThreads The number of extractor threads.
+     * @param mode The order in which the files are dispatched to the threads.
+     *
+     * @return The measured result.
+     *
+     * @throws SetUpException If creating the extractor fails.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    static Result run(File sourceTree, List<File> files, int numThreads, Mode mode)
+            throws SetUpException, InterruptedException {
+
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, sourceTree);
+        config.registerSetting(CppParsingSettings.HANDLE_LINUX_MACROS);
+        config.setValue(CppParsingSettings.HANDLE_LINUX_MACROS, true);
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+
+        long numBytes = 0;
+        for (File file : files) {
+            numBytes += new File(sourceTree, file.getPath()).length();
+        }
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>(ManagementFactory.getMemoryPoolMXBeans());
+        heapPools.removeIf(pool -> pool.getType() != MemoryType.HEAP);
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long[] fileNanos = new long[files.size()];
+        AtomicInteger numDone = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        FileScheduler scheduler = new FileScheduler(sourceTree, numThreads, mode, 64 * 1024);
+        FileScheduler.Statistics statistics = scheduler.run(files, (file) -> {
+            long fileStart = System.nanoTime();
+            try {
+                extractor.runOnFile(file);
+            } catch (ExtractorException e) {
+                failed.incrementAndGet();
+            }
+            fileNanos[numDone.getAndIncrement()] = System.nanoTime() - fileStart;
+        });
+
+        // the sum of the peaks of all pools is an upper bound, since the pools may peak at different times
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        Arrays.sort(fileNanos);
+        return new Result(files.size(), failed.get(), numBytes, statistics, peakHeap, fileNanos);
+    }
+
+    /**
+     * Generates a corpus and runs the extractor over it. See the class comment for the command line arguments.
+     *
+     * @param args The command line arguments.
+     *
+     * @throws Exception If generating the corpus or running the extractor fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int numFiles = 60000;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        boolean keep = false;
+        List<Mode> modes = Arrays.asList(Mode.values());
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--files") && i + 1 < args.length) {
+                    numFiles = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--scheduling") && i + 1 < args.length) {
+                    modes = Arrays.asList(Mode.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                } else if (args[i].equals("--keep")) {
+                    keep = true;
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Usage: CorpusBenchmark [--files N] [--threads N] [--seed N] "
+                    + "[--scheduling in_order|largest_first] [--keep]");
+            System.exit(1);
+        }
+
+        File directory = Files.createTempDirectory("synthetic_corpus").toFile();
+        try {
+            long start = System.nanoTime();
+            List<File> files = new SyntheticCorpus(seed).generate(directory, numFiles);
+            System.out.printf(Locale.ROOT, "Generated %d files in %s (%.1f s)%n", files.size(), directory,
+                    (System.nanoTime() - start) / 1e9);
+
+            // warm up the JIT and the file system cache, so that the first measured mode has no disadvantage
+            run(directory, files, numThreads, Mode.LARGEST_FIRST);
+
+            for (Mode mode : modes) {
+                Result result = run(directory, files, numThreads, mode);
+                System.out.println(mode + ", " + numThreads + " threads: " + result);
+            }
+
+        } finally {
+            if (!keep) {
+                GitRepositoryTest.delete(directory);
+            }
+        }
+    }
+
+}
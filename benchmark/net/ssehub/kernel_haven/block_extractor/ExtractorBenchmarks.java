@@ -0,0 +1,398 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.config.Configuration;
+import net.ssehub.kernel_haven.config.DefaultSettings;
+import net.ssehub.kernel_haven.cpp_utils.CppParsingSettings;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.test_utils.TestConfiguration;
+
+/**
+ * Throughput benchmarks for {@link BlockParser#readBlocks()} and {@link CodeBlockExtractor#runOnFile(File)}. The
+ * inputs are the files in <code>testdata/scenario</code> and the generated {@link WorstCaseInputs}.
+ * <p>
+ * Each benchmark is warmed up, and then measured in several rounds of a fixed duration. The result is the median
+ * throughput of the rounds in files, lines and bytes per second, and the number of bytes allocated per file (if the
+ * JVM supports measuring the allocations of a thread). Usage:
+ * <pre>
+ * java ... net.ssehub.kernel_haven.block_extractor.ExtractorBenchmarks [--quick] [--output FILE] [--baseline FILE]
+ * </pre>
+ * <code>--output</code> writes the results as tab-separated values; passing such a file of a previous commit as
+ * <code>--baseline</code> prints the relative change of each benchmark. <code>--quick</code> uses short rounds, which
+ * is only useful to check that the benchmarks work. Run this on an otherwise idle machine and with the same JVM
+ * options for all compared commits.
+ *
+ * @author Adam
+ */
+public final class ExtractorBenchmarks {
+
+    private static final File SCENARIO_DIR = new File("testdata/scenario");
+
+    private static final int ROUNDS = 5;
+
+    private static final String TSV_HEADER = "benchmark\tfiles/s\tlines/s\tMB/s\tbytes allocated/file";
+
+    /**
+     * Receives the values computed by the benchmarked operations, so that the JIT can not eliminate them.
+     */
+    private static volatile int sink;
+
+    private final long warmupMillis;
+
+    private final long roundMillis;
+
+    /**
+     * A single benchmarked operation, which processes one file.
+     */
+    private interface Operation {
+
+        /**
+         * Runs the operation once.
+         *
+         * @return A value computed from the result, so that the work can not be eliminated.
+         *
+         * @throws Exception If the operation fails; aborts the benchmark.
+         */
+        public int run() throws Exception;
+
+    }
+
+    /**
+     * The result of a benchmark.
+     */
+    static final class Result {
+
+        private final String name;
+
+        private final double filesPerSecond;
+
+        private final double linesPerSecond;
+
+        private final double megabytesPerSecond;
+
+        private final long allocatedBytesPerFile;
+
+        /**
+         * Creates a result.
+         *
+         * @param name The name of the benchmark.
+         * @param filesPerSecond The number of processed files per second.
+         * @param linesPerSecond The number of processed lines per second.
+         * @param megabytesPerSecond The number of processed MiB per second.
+         * @param allocatedBytesPerFile The number of bytes allocated per file, or -1 if unknown.
+         */
+        Result(String name, double filesPerSecond, double linesPerSecond, double megabytesPerSecond,
+                long allocatedBytesPerFile) {
+            this.name = name;
+            this.filesPerSecond = filesPerSecond;
+            this.linesPerSecond = linesPerSecond;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.allocatedBytesPerFile = allocatedBytesPerFile;
+        }
+
+        /**
+         * Formats this result as a tab-separated line.
+         *
+         * @return The line.
+         */
+        String toTsv() {
+            return String.format(Locale.ROOT, "%s\t%.1f\t%.0f\t%.2f\t%d", name, filesPerSecond, linesPerSecond,
+                    megabytesPerSecond, allocatedBytesPerFile);
+        }
+
+        /**
+         * Parses a line created by {@link #toTsv()}.
+         *
+         * @param line The line.
+         *
+         * @return The result.
+         *
+         * @throws IOException If the line is malformed.
+         */
+        static Result fromTsv(String line) throws IOException {
+            String[] parts = line.split("\t");
+            if (parts.length != 5) {
+                throw new IOException("Invalid benchmark result: " + line);
+            }
+            try {
+                return new Result(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                        Double.parseDouble(parts[3]), Long.parseLong(parts[4]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid benchmark result: " + line, e);
+            }
+        }
+
+    }
+
+    /**
+     * Creates a benchmark runner.
+     *
+     * @param warmupMillis The duration of the warmup of each benchmark.
+     * @param roundMillis The duration of each measured round.
+     */
+    ExtractorBenchmarks(long warmupMillis, long roundMillis) {
+        this.warmupMillis = warmupMillis;
+        this.roundMillis = roundMillis;
+    }
+
+    /**
+     * Runs all benchmarks.
+     *
+     * @param log The stream to print progress to.
+     *
+     * @return The results of all benchmarks.
+     *
+     * @throws Exception If any benchmark fails.
+     */
+    List<Result> runAll(PrintStream log) throws Exception {
+        Map<String, byte[]> inputs = new LinkedHashMap<>();
+        File[] scenarioFiles = SCENARIO_DIR.listFiles((dir, name) -> name.endsWith(".c"));
+        if (scenarioFiles == null) {
+            throw new IOException("Can't list " + SCENARIO_DIR.getAbsolutePath());
+        }
+        Arrays.sort(scenarioFiles);
+        for (File file : scenarioFiles) {
+            inputs.put(file.getName(), Files.readAllBytes(file.toPath()));
+        }
+        inputs.put("deep_nesting", WorstCaseInputs.deepNesting(200).getBytes(StandardCharsets.US_ASCII));
+        inputs.put("elif_ladder", WorstCaseInputs.elifLadder(200).getBytes(StandardCharsets.US_ASCII));
+        inputs.put("long_continuation", WorstCaseInputs.longContinuationLines(50, 100)
+                .getBytes(StandardCharsets.US_ASCII));
+        inputs.put("comment_heavy", WorstCaseInputs.commentHeavy(1000).getBytes(StandardCharsets.US_ASCII));
+
+        List<Result> results = new ArrayList<>();
+
+        Charset charset = Charset.defaultCharset();
+        for (Map.Entry<String, byte[]> input : inputs.entrySet()) {
+            byte[] content = input.getValue();
+            results.add(run(log, "parser/" + input.getKey(), content, () -> {
+                try (BlockParser parser = new BlockParser(ByteBuffer.wrap(content), charset,
+                        new File(input.getKey()), true, false, InvalidConditionHandling.EXCEPTION)) {
+                    return parser.readBlocks().size();
+                }
+            }));
+        }
+
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, SCENARIO_DIR);
+        config.registerSetting(CppParsingSettings.HANDLE_LINUX_MACROS);
+        config.setValue(CppParsingSettings.HANDLE_LINUX_MACROS, true);
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        for (File file : scenarioFiles) {
+            File relative = new File(file.getName());
+            results.add(run(log, "extractor/" + file.getName(), inputs.get(file.getName()), () -> {
+                SourceFile<CodeBlock> result = extractor.runOnFile(relative);
+                return result != null ? result.getTopElementCount() : 0;
+            }));
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs a single benchmark.
+     *
+     * @param log The stream to print progress to.
+     * @param name The name of the benchmark.
+     * @param content The content of the processed file, used to compute the lines and bytes per second.
+     * @param operation The operation to measure.
+     *
+     * @return The result.
+     *
+     * @throws Exception If the operation fails.
+     */
+    private Result run(PrintStream log, String name, byte[] content, Operation operation) throws Exception {
+        log.print(name + "...");
+        int blackhole = 0;
+
+        long warmupEnd = System.nanoTime() + warmupMillis * 1_000_000;
+        while (System.nanoTime() < warmupEnd) {
+            blackhole += operation.run();
+        }
+
+        double[] opsPerSecond = new double[ROUNDS];
+        long totalOps = 0;
+        long totalAllocated = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            long end = start + roundMillis * 1_000_000;
+            long ops = 0;
+            long now;
+            do {
+                blackhole += operation.run();
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            long allocatedAfter = getAllocatedBytes();
+
+            opsPerSecond[round] = ops * 1e9 / (now - start);
+            totalOps += ops;
+            totalAllocated += allocatedAfter - allocatedBefore;
+        }
+
+        Arrays.sort(opsPerSecond);
+        double median = opsPerSecond[ROUNDS / 2];
+        int lines = countLines(content);
+        long allocatedPerFile = getAllocatedBytes() >= 0 ? totalAllocated / totalOps : -1;
+
+        sink = blackhole;
+        log.printf(Locale.ROOT, " %.0f lines/s (rounds: %.0f..%.0f)%n", median * lines,
+                opsPerSecond[0] * lines, opsPerSecond[ROUNDS - 1] * lines);
+        return new Result(name, median, median * lines, median * content.length / (1024.0 * 1024.0),
+                allocatedPerFile);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far.
+     *
+     * @return The number of bytes, or -1 if the JVM does not support measuring it.
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the lines of the given content. A last line without trailing line break is counted, too.
+     *
+     * @param content The content.
+     *
+     * @return The number of lines.
+     */
+    static int countLines(byte[] content) {
+        int lines = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        if (content.length > 0 && content[content.length - 1] != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Prints the results, compared to the given baseline results.
+     *
+     * @param out The stream to print to.
+     * @param results The results to print.
+     * @param baseline The baseline results by benchmark name. May be empty.
+     */
+    static void printComparison(PrintStream out, List<Result> results, Map<String, Result> baseline) {
+        out.printf(Locale.ROOT, "%-30s %14s %10s %16s %10s%n", "benchmark", "lines/s", "change", "bytes alloc/file",
+                "change");
+        for (Result result : results) {
+            Result base = baseline.get(result.name);
+            out.printf(Locale.ROOT, "%-30s %14.0f %10s %16d %10s%n", result.name, result.linesPerSecond,
+                    base != null ? formatChange(base.linesPerSecond, result.linesPerSecond) : "",
+                    result.allocatedBytesPerFile,
+                    base != null && base.allocatedBytesPerFile > 0 && result.allocatedBytesPerFile >= 0
+                        ? formatChange(base.allocatedBytesPerFile, result.allocatedBytesPerFile) : "");
+        }
+    }
+
+    /**
+     * Formats the relative change between two values.
+     *
+     * @param before The old value.
+     * @param after The new value.
+     *
+     * @return The change in percent, with sign.
+     */
+    private static String formatChange(double before, double after) {
+        return String.format(Locale.ROOT, "%+.1f%%", (after - before) * 100 / before);
+    }
+
+    /**
+     * Runs all benchmarks. See the class comment for the command line arguments.
+     *
+     * @param args The command line arguments.
+     *
+     * @throws Exception If a benchmark fails or the files can not be read or written.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean quick = false;
+        File output = null;
+        File baselineFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--quick")) {
+                quick = true;
+            } else if (args[i].equals("--output") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baselineFile = new File(args[++i]);
+            } else {
+                System.err.println("Usage: ExtractorBenchmarks [--quick] [--output FILE] [--baseline FILE]");
+                System.exit(1);
+            }
+        }
+
+        Map<String, Result> baseline = new HashMap<>();
+        if (baselineFile != null) {
+            List<String> lines = Files.readAllLines(baselineFile.toPath(), StandardCharsets.UTF_8);
+            for (String line : lines.subList(1, lines.size())) {
+                Result result = Result.fromTsv(line);
+                baseline.put(result.name, result);
+            }
+        }
+
+        ExtractorBenchmarks benchmarks = quick ? new ExtractorBenchmarks(100, 100)
+                : new ExtractorBenchmarks(5000, 2000);
+        List<Result> results = benchmarks.runAll(System.out);
+
+        System.out.println();
+        printComparison(System.out, results, baseline);
+
+        if (output != null) {
+            List<String> lines = new ArrayList<>();
+            lines.add(TSV_HEADER);
+            for (Result result : results) {
+                lines.add(result.toTsv());
+            }
+            Files.write(output.toPath(), lines, StandardCharsets.UTF_8);
+        }
+    }
+
+}
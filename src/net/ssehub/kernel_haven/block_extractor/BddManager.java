@@ -0,0 +1,808 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A manager for reduced ordered binary decision diagrams (BDDs), used to canonicalize presence conditions. Each BDD is
+ * identified by the index of its root node; since the nodes are unique, two formulas are equivalent if, and only if,
+ * their BDDs have the same index. The variables are ordered by their first appearance.
+ * <p>
+ * {@link #toFormula(int)} turns a BDD back into a compact {@link Formula}, which is the same instance for the same
+ * BDD. Thus equivalent presence conditions become identical, and unsatisfiable presence conditions become
+ * {@link False#INSTANCE}. The formula shares the sub-formulas of shared nodes, so expanding it into a tree (e.g. by
+ * {@link Formula#toString()} or when it is serialized) may be exponentially larger than the BDD; callers should check
+ * {@link #getFormulaSize(int)} first.
+ * <p>
+ * Nodes are never freed, since the BDDs of the open blocks must stay valid; a manager is meant to be used for a
+ * single file and then discarded. The number of nodes is limited, since BDDs can grow exponentially for some
+ * formulas. Once the limit is reached, the methods return {@link #UNKNOWN} for all formulas that would need new
+ * nodes, and the caller has to keep its original formula. This class is not thread-safe.
+ *
+ * @author Adam
+ */
+public final class BddManager {
+
+    /**
+     * The index of the constant false BDD.
+     */
+    public static final int FALSE = 0;
+
+    /**
+     * The index of the constant true BDD.
+     */
+    public static final int TRUE = 1;
+
+    /**
+     * Returned instead of a BDD if the node limit was reached.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int OP_AND = 1;
+
+    private static final int OP_OR = 2;
+
+    private static final int OP_NOT = 3;
+
+    private static final int MAX_CACHE_SIZE = 1 << 16;
+
+    /**
+     * The "variable" of the two terminal nodes; larger than all real variables, so that it is last in the order.
+     */
+    private static final int TERMINAL = Integer.MAX_VALUE;
+
+    /**
+     * Thrown internally to abort an operation when the node limit is reached.
+     */
+    private static final class LimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates the exception, without a stack trace.
+         */
+        LimitExceededException() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * Collects the statistics of multiple managers, e.g. of all files of a run. This class is thread-safe.
+     */
+    public static final class Statistics {
+
+        private final @NonNull LongAdder numManagers = new LongAdder();
+
+        private final @NonNull LongAdder numNodes = new LongAdder();
+
+        private final @NonNull LongAccumulator maxNodes = new LongAccumulator(Math::max, 0);
+
+        private final @NonNull LongAdder numCacheLookups = new LongAdder();
+
+        private final @NonNull LongAdder numCacheHits = new LongAdder();
+
+        private final @NonNull LongAdder numLimitExceeded = new LongAdder();
+
+        /**
+         * Adds the statistics of a manager that is no longer used.
+         *
+         * @param manager The manager.
+         */
+        public void add(@NonNull BddManager manager) {
+            numManagers.increment();
+            numNodes.add(manager.getNumNodes());
+            maxNodes.accumulate(manager.getNumNodes());
+            numCacheLookups.add(manager.getNumCacheLookups());
+            numCacheHits.add(manager.getNumCacheHits());
+            numLimitExceeded.add(manager.getNumLimitExceeded());
+        }
+
+        /**
+         * Returns the number of managers that were added.
+         *
+         * @return The number of managers.
+         */
+        public long getNumManagers() {
+            return numManagers.sum();
+        }
+
+        /**
+         * Returns the total number of nodes of all managers, including their terminals.
+         *
+         * @return The number of nodes.
+         */
+        public long getNumNodes() {
+            return numNodes.sum();
+        }
+
+        /**
+         * Returns the number of nodes of the largest manager.
+         *
+         * @return The maximum number of nodes.
+         */
+        public long getMaxNodes() {
+            return maxNodes.get();
+        }
+
+        /**
+         * Returns how often an operation was aborted because the node limit of a manager was reached.
+         *
+         * @return The number of aborted operations.
+         */
+        public long getNumLimitExceeded() {
+            return numLimitExceeded.sum();
+        }
+
+        /**
+         * Returns a human-readable summary of the statistics.
+         *
+         * @return The summary.
+         */
+        public @NonNull String getSummary() {
+            return "BDD managers: " + getNumManagers() + " files with " + getNumNodes() + " nodes in total and at most "
+                    + getMaxNodes() + " nodes per file, " + numCacheHits.sum() + " of " + numCacheLookups.sum()
+                    + " operation cache lookups hit, node limit reached " + getNumLimitExceeded() + " times";
+        }
+
+    }
+
+    private final int maxNodes;
+
+    private int numNodes;
+
+    private int @NonNull [] nodeVariable;
+
+    private int @NonNull [] nodeLow;
+
+    private int @NonNull [] nodeHigh;
+
+    /**
+     * The unique table: an open addressing hash table of node indices, {@link #UNKNOWN} for empty slots.
+     */
+    private int @NonNull [] uniqueTable;
+
+    /**
+     * The formulas that were already created for the nodes, by {@link #toFormula(int)}.
+     */
+    private Formula @NonNull [] formulas;
+
+    /**
+     * The tree sizes of the formulas of the nodes, by {@link #getFormulaSize(int)}; 0 if not computed yet.
+     */
+    private long @NonNull [] formulaSizes;
+
+    private final @NonNull Map<@NonNull String, Integer> variableIds;
+
+    private final @NonNull List<@NonNull Variable> variables;
+
+    /**
+     * The computed table: a direct-mapped cache of the results of previous operations. Grows with the nodes, up to
+     * {@link #MAX_CACHE_SIZE}, so that small managers stay small.
+     */
+    private int @NonNull [] cacheOperation;
+
+    private int @NonNull [] cacheLeft;
+
+    private int @NonNull [] cacheRight;
+
+    private int @NonNull [] cacheResult;
+
+    private long numCacheLookups;
+
+    private long numCacheHits;
+
+    private long numLimitExceeded;
+
+    /**
+     * The factory that {@link #toFormula(int)} creates the formulas with. <code>null</code> if they are created
+     * directly.
+     */
+    private @Nullable FormulaFactory formulaFactory;
+
+    /**
+     * Creates a manager with only the two terminal nodes.
+     *
+     * @param maxNodes The maximum number of nodes, including the terminals.
+     */
+    public BddManager(int maxNodes) {
+        if (maxNodes < 2) {
+            throw new IllegalArgumentException("Need at least 2 nodes, got " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+
+        int capacity = Math.min(1024, maxNodes);
+        this.nodeVariable = new int[capacity];
+        this.nodeLow = new int[capacity];
+        this.nodeHigh = new int[capacity];
+        this.formulas = new Formula[capacity];
+        this.formulaSizes = new long[capacity];
+        this.uniqueTable = new int[getTableSize(capacity)];
+        Arrays.fill(uniqueTable, UNKNOWN);
+
+        nodeVariable[FALSE] = TERMINAL;
+        nodeVariable[TRUE] = TERMINAL;
+        formulas[FALSE] = False.INSTANCE;
+        formulas[TRUE] = True.INSTANCE;
+        this.numNodes = 2;
+
+        this.variableIds = new HashMap<>();
+        this.variables = new ArrayList<>();
+
+        int cacheSize = getCacheSize(capacity);
+        this.cacheOperation = new int[cacheSize];
+        this.cacheLeft = new int[cacheSize];
+        this.cacheRight = new int[cacheSize];
+        this.cacheResult = new int[cacheSize];
+    }
+
+    /**
+     * Sets a factory that {@link #toFormula(int)} creates the formulas with, so that they are shared with the formulas
+     * of other files. Must be set before the first formula is created. By default, the formulas are created directly.
+     *
+     * @param formulaFactory The factory to use, or <code>null</code> to not share formulas.
+     */
+    public void setFormulaFactory(@Nullable FormulaFactory formulaFactory) {
+        this.formulaFactory = formulaFactory;
+    }
+
+    /**
+     * Creates the BDD for the given formula.
+     *
+     * @param formula The formula. Must only consist of variables, negations, conjunctions, disjunctions and the
+     *      constants.
+     *
+     * @return The BDD, or {@link #UNKNOWN} if the node limit was reached.
+     *
+     * @throws IllegalArgumentException If the formula contains an unknown type of {@link Formula}.
+     */
+    public int fromFormula(@NonNull Formula formula) throws IllegalArgumentException {
+        int result;
+        try {
+            result = build(formula, new IdentityHashMap<>());
+        } catch (LimitExceededException e) {
+            numLimitExceeded++;
+            result = UNKNOWN;
+        }
+        return result;
+    }
+
+    /**
+     * Creates the BDD for the conjunction of the given BDD and formula. This is the presence condition of a block
+     * with the given condition inside a block with the given presence condition.
+     *
+     * @param bdd The BDD, or {@link #UNKNOWN}.
+     * @param formula The formula. Must only consist of variables, negations, conjunctions, disjunctions and the
+     *      constants.
+     *
+     * @return The BDD of the conjunction, or {@link #UNKNOWN} if the node limit was reached or the given BDD is
+     *      {@link #UNKNOWN}.
+     *
+     * @throws IllegalArgumentException If the formula contains an unknown type of {@link Formula}.
+     */
+    public int and(int bdd, @NonNull Formula formula) throws IllegalArgumentException {
+        int result;
+        if (bdd == UNKNOWN) {
+            result = UNKNOWN;
+        } else {
+            try {
+                result = apply(OP_AND, bdd, build(formula, new IdentityHashMap<>()));
+            } catch (LimitExceededException e) {
+                numLimitExceeded++;
+                result = UNKNOWN;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a compact formula for the given BDD: each node becomes an if-then-else over its variable, which is
+     * simplified if one of its children is a constant. Nodes that are shared in the BDD are shared in the formula.
+     *
+     * @param bdd The BDD.
+     *
+     * @return The formula; always the same instance for the same BDD.
+     */
+    public @NonNull Formula toFormula(int bdd) {
+        if (bdd < 0 || bdd >= numNodes) {
+            throw new IllegalArgumentException("Not a BDD: " + bdd);
+        }
+        return createFormula(bdd);
+    }
+
+    /**
+     * Returns the number of nodes of the formula created by {@link #toFormula(int)}, if it is expanded into a tree
+     * (i.e. shared sub-formulas are counted each time they are used).
+     *
+     * @param bdd The BDD.
+     *
+     * @return The tree size of the formula; {@link Long#MAX_VALUE} if it is larger.
+     */
+    public long getFormulaSize(int bdd) {
+        if (bdd < 0 || bdd >= numNodes) {
+            throw new IllegalArgumentException("Not a BDD: " + bdd);
+        }
+        return computeFormulaSize(bdd);
+    }
+
+    /**
+     * Returns the number of nodes in the unique table, including the two terminals.
+     *
+     * @return The number of nodes.
+     */
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Returns the number of distinct variables.
+     *
+     * @return The number of variables.
+     */
+    public int getNumVariables() {
+        return variables.size();
+    }
+
+    /**
+     * Returns the number of lookups in the cache of operation results.
+     *
+     * @return The number of lookups.
+     */
+    public long getNumCacheLookups() {
+        return numCacheLookups;
+    }
+
+    /**
+     * Returns the number of lookups in the cache of operation results that found a result.
+     *
+     * @return The number of cache hits.
+     */
+    public long getNumCacheHits() {
+        return numCacheHits;
+    }
+
+    /**
+     * Returns how often an operation was aborted because the node limit was reached.
+     *
+     * @return The number of aborted operations.
+     */
+    public long getNumLimitExceeded() {
+        return numLimitExceeded;
+    }
+
+    /**
+     * Returns a human-readable summary of the statistics.
+     *
+     * @return The summary.
+     */
+    public @NonNull String getSummary() {
+        return "BDD manager: " + numNodes + " of at most " + maxNodes + " nodes, " + variables.size()
+                + " variables, " + numCacheHits + " of " + numCacheLookups + " operation cache lookups hit, "
+                + "node limit reached " + numLimitExceeded + " times";
+    }
+
+    /**
+     * Recursively creates the BDD for the given formula. Sub-formulas that are shared (e.g. by a
+     * {@link FormulaFactory}) are only converted once.
+     *
+     * @param formula The formula.
+     * @param built The BDDs of the operator sub-formulas that were already converted, by identity.
+     *
+     * @return The BDD.
+     *
+     * @throws IllegalArgumentException If the formula contains an unknown type of {@link Formula}.
+     */
+    private int build(@NonNull Formula formula, @NonNull Map<Formula, Integer> built)
+            throws IllegalArgumentException {
+
+        if (formula instanceof Conjunction || formula instanceof Disjunction || formula instanceof Negation) {
+            Integer existing = built.get(formula);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        int result;
+        if (formula instanceof Variable) {
+            result = variable((Variable) formula);
+        } else if (formula instanceof Conjunction) {
+            Conjunction conjunction = (Conjunction) formula;
+            result = apply(OP_AND, build(conjunction.getLeft(), built), build(conjunction.getRight(), built));
+            built.put(formula, result);
+        } else if (formula instanceof Disjunction) {
+            Disjunction disjunction = (Disjunction) formula;
+            result = apply(OP_OR, build(disjunction.getLeft(), built), build(disjunction.getRight(), built));
+            built.put(formula, result);
+        } else if (formula instanceof Negation) {
+            result = not(build(((Negation) formula).getFormula(), built));
+            built.put(formula, result);
+        } else if (formula instanceof True) {
+            result = TRUE;
+        } else if (formula instanceof False) {
+            result = FALSE;
+        } else {
+            throw new IllegalArgumentException("Unsupported formula: " + formula.getClass().getName());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the BDD for a single variable; new variables are added at the end of the variable order.
+     *
+     * @param variable The variable.
+     *
+     * @return The BDD.
+     */
+    private int variable(@NonNull Variable variable) {
+        Integer id = variableIds.get(variable.getName());
+        if (id == null) {
+            id = variables.size();
+            variableIds.put(variable.getName(), id);
+            variables.add(variable);
+        }
+        return node(id, FALSE, TRUE);
+    }
+
+    /**
+     * Computes the conjunction or disjunction of two BDDs.
+     *
+     * @param operation {@link #OP_AND} or {@link #OP_OR}.
+     * @param left The left operand.
+     * @param right The right operand.
+     *
+     * @return The BDD of the result.
+     */
+    private int apply(int operation, int left, int right) {
+        int absorbing = operation == OP_AND ? FALSE : TRUE;
+        int neutral = operation == OP_AND ? TRUE : FALSE;
+        if (left == absorbing || right == absorbing) {
+            return absorbing;
+        }
+        if (left == neutral || left == right) {
+            return right;
+        }
+        if (right == neutral) {
+            return left;
+        }
+
+        // both operations are commutative, so normalize the order for the cache
+        int a = Math.min(left, right);
+        int b = Math.max(left, right);
+        int slot = cacheSlot(operation, a, b);
+        numCacheLookups++;
+        if (cacheOperation[slot] == operation && cacheLeft[slot] == a && cacheRight[slot] == b) {
+            numCacheHits++;
+            return cacheResult[slot];
+        }
+
+        int variableA = nodeVariable[a];
+        int variableB = nodeVariable[b];
+        int top = Math.min(variableA, variableB);
+        int low = apply(operation, variableA == top ? nodeLow[a] : a, variableB == top ? nodeLow[b] : b);
+        int high = apply(operation, variableA == top ? nodeHigh[a] : a, variableB == top ? nodeHigh[b] : b);
+        int result = node(top, low, high);
+
+        cacheOperation[slot] = operation;
+        cacheLeft[slot] = a;
+        cacheRight[slot] = b;
+        cacheResult[slot] = result;
+        return result;
+    }
+
+    /**
+     * Computes the negation of a BDD.
+     *
+     * @param bdd The BDD to negate.
+     *
+     * @return The BDD of the negation.
+     */
+    private int not(int bdd) {
+        if (bdd == FALSE || bdd == TRUE) {
+            return TRUE - bdd;
+        }
+
+        int slot = cacheSlot(OP_NOT, bdd, 0);
+        numCacheLookups++;
+        if (cacheOperation[slot] == OP_NOT && cacheLeft[slot] == bdd) {
+            numCacheHits++;
+            return cacheResult[slot];
+        }
+
+        int result = node(nodeVariable[bdd], not(nodeLow[bdd]), not(nodeHigh[bdd]));
+
+        cacheOperation[slot] = OP_NOT;
+        cacheLeft[slot] = bdd;
+        cacheRight[slot] = 0;
+        cacheResult[slot] = result;
+        return result;
+    }
+
+    /**
+     * Returns the unique node with the given variable and children; creates it if it does not exist yet. A node
+     * whose children are equal is redundant, so its child is returned instead.
+     *
+     * @param variable The variable of the node.
+     * @param low The child if the variable is false.
+     * @param high The child if the variable is true.
+     *
+     * @return The index of the node.
+     *
+     * @throws LimitExceededException If a new node is needed, but the limit is reached.
+     */
+    private int node(int variable, int low, int high) throws LimitExceededException {
+        if (low == high) {
+            return low;
+        }
+
+        int mask = uniqueTable.length - 1;
+        int slot = hash(variable, low, high) & mask;
+        int existing;
+        while ((existing = uniqueTable[slot]) != UNKNOWN) {
+            if (nodeVariable[existing] == variable && nodeLow[existing] == low && nodeHigh[existing] == high) {
+                return existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (numNodes >= maxNodes) {
+            throw new LimitExceededException();
+        }
+        if (numNodes == nodeVariable.length) {
+            grow();
+            // the unique table was rehashed
+            mask = uniqueTable.length - 1;
+            slot = hash(variable, low, high) & mask;
+            while (uniqueTable[slot] != UNKNOWN) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int result = numNodes++;
+        nodeVariable[result] = variable;
+        nodeLow[result] = low;
+        nodeHigh[result] = high;
+        uniqueTable[slot] = result;
+        return result;
+    }
+
+    /**
+     * Doubles the capacity of the node arrays (up to {@link #maxNodes}) and rehashes the unique table, so that its
+     * load factor stays at most 0.5.
+     */
+    private void grow() {
+        int capacity = (int) Math.min((long) nodeVariable.length * 2, maxNodes);
+        this.nodeVariable = Arrays.copyOf(nodeVariable, capacity);
+        this.nodeLow = Arrays.copyOf(nodeLow, capacity);
+        this.nodeHigh = Arrays.copyOf(nodeHigh, capacity);
+        this.formulas = Arrays.copyOf(formulas, capacity);
+        this.formulaSizes = Arrays.copyOf(formulaSizes, capacity);
+
+        int cacheSize = getCacheSize(capacity);
+        if (cacheSize > cacheOperation.length) {
+            // the cached results are dropped
+            this.cacheOperation = new int[cacheSize];
+            this.cacheLeft = new int[cacheSize];
+            this.cacheRight = new int[cacheSize];
+            this.cacheResult = new int[cacheSize];
+        }
+
+        int tableSize = getTableSize(capacity);
+        int[] table = new int[tableSize];
+        Arrays.fill(table, UNKNOWN);
+        int mask = tableSize - 1;
+        for (int i = 2; i < numNodes; i++) {
+            int slot = hash(nodeVariable[i], nodeLow[i], nodeHigh[i]) & mask;
+            while (table[slot] != UNKNOWN) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+        this.uniqueTable = table;
+    }
+
+    /**
+     * Recursively creates the formula for the given node, see {@link #toFormula(int)}.
+     *
+     * @param bdd The node.
+     *
+     * @return The formula.
+     */
+    private @NonNull Formula createFormula(int bdd) {
+        Formula result = formulas[bdd];
+        if (result == null) {
+            Variable variable = variables.get(nodeVariable[bdd]);
+            int low = nodeLow[bdd];
+            int high = nodeHigh[bdd];
+
+            if (low == FALSE && high == TRUE) {
+                result = variable;
+            } else if (low == TRUE && high == FALSE) {
+                result = not(variable);
+            } else if (low == FALSE) {
+                result = and(variable, createFormula(high));
+            } else if (high == FALSE) {
+                result = and(not(variable), createFormula(low));
+            } else if (high == TRUE) {
+                result = or(variable, createFormula(low));
+            } else if (low == TRUE) {
+                result = or(not(variable), createFormula(high));
+            } else {
+                result = or(and(variable, createFormula(high)), and(not(variable), createFormula(low)));
+            }
+            formulas[bdd] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Creates the negation of the given formula, through the {@link #formulaFactory}, if one is set.
+     *
+     * @param formula The formula to negate.
+     *
+     * @return The negation.
+     */
+    private @NonNull Formula not(@NonNull Formula formula) {
+        FormulaFactory factory = this.formulaFactory;
+        return factory != null ? factory.not(formula) : new Negation(formula);
+    }
+
+    /**
+     * Creates the conjunction of the given formulas, through the {@link #formulaFactory}, if one is set.
+     *
+     * @param left The left operand.
+     * @param right The right operand.
+     *
+     * @return The conjunction.
+     */
+    private @NonNull Formula and(@NonNull Formula left, @NonNull Formula right) {
+        FormulaFactory factory = this.formulaFactory;
+        return factory != null ? factory.and(left, right) : new Conjunction(left, right);
+    }
+
+    /**
+     * Creates the disjunction of the given formulas, through the {@link #formulaFactory}, if one is set.
+     *
+     * @param left The left operand.
+     * @param right The right operand.
+     *
+     * @return The disjunction.
+     */
+    private @NonNull Formula or(@NonNull Formula left, @NonNull Formula right) {
+        FormulaFactory factory = this.formulaFactory;
+        return factory != null ? factory.or(left, right) : new Disjunction(left, right);
+    }
+
+    /**
+     * Recursively computes the tree size of the formula for the given node, see {@link #getFormulaSize(int)}. The
+     * sizes correspond to the structure created by {@link #createFormula(int)}.
+     *
+     * @param bdd The node.
+     *
+     * @return The tree size, saturated at {@link Long#MAX_VALUE}.
+     */
+    private long computeFormulaSize(int bdd) {
+        if (bdd == FALSE || bdd == TRUE) {
+            return 1;
+        }
+        long result = formulaSizes[bdd];
+        if (result == 0) {
+            int low = nodeLow[bdd];
+            int high = nodeHigh[bdd];
+
+            if (low == FALSE && high == TRUE) {
+                result = 1;
+            } else if (low == TRUE && high == FALSE) {
+                result = 2;
+            } else if (low == FALSE) {
+                result = add(2, computeFormulaSize(high));
+            } else if (high == FALSE) {
+                result = add(3, computeFormulaSize(low));
+            } else if (high == TRUE) {
+                result = add(2, computeFormulaSize(low));
+            } else if (low == TRUE) {
+                result = add(3, computeFormulaSize(high));
+            } else {
+                result = add(6, add(computeFormulaSize(high), computeFormulaSize(low)));
+            }
+            formulaSizes[bdd] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Adds two non-negative numbers, saturating at {@link Long#MAX_VALUE}.
+     *
+     * @param first The first number.
+     * @param second The second number.
+     *
+     * @return The sum.
+     */
+    private static long add(long first, long second) {
+        long result = first + second;
+        return result < 0 ? Long.MAX_VALUE : result;
+    }
+
+    /**
+     * Returns the size of the unique table for the given node capacity: a power of two that is at least twice as
+     * large.
+     *
+     * @param capacity The number of nodes.
+     *
+     * @return The number of slots.
+     */
+    private static int getTableSize(int capacity) {
+        return Integer.highestOneBit(capacity - 1) * 4;
+    }
+
+    /**
+     * Returns the size of the computed table for the given node capacity: a power of two that is at least as large,
+     * but at most {@link #MAX_CACHE_SIZE}.
+     *
+     * @param capacity The number of nodes.
+     *
+     * @return The number of slots.
+     */
+    private static int getCacheSize(int capacity) {
+        return Math.min(MAX_CACHE_SIZE, Integer.highestOneBit(capacity - 1) * 2);
+    }
+
+    /**
+     * Returns the slot in the computed table for the given operation.
+     *
+     * @param operation The operation.
+     * @param left The left operand.
+     * @param right The right operand.
+     *
+     * @return The slot.
+     */
+    private int cacheSlot(int operation, int left, int right) {
+        return hash(operation, left, right) & (cacheOperation.length - 1);
+    }
+
+    /**
+     * Hashes three integers.
+     *
+     * @param first The first integer.
+     * @param second The second integer.
+     * @param third The third integer.
+     *
+     * @return The hash.
+     */
+    private static int hash(int first, int second, int third) {
+        int hash = first * 0x9E3779B1 + second;
+        hash = hash * 0x9E3779B1 + third;
+        return hash ^ (hash >>> 16);
+    }
+
+}
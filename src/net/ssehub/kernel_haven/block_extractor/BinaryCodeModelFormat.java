@@ -0,0 +1,556 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A compact binary encoding of the {@link CodeBlock}s of a single {@link SourceFile}. An encoded file consists of
+ * three sections:
+ * <ol>
+ *      <li>A string table with all variable names.</li>
+ *      <li>All formulas as one postfix stream of operations. Every operation (except {@link #OP_REFERENCE}) creates
+ *      a new formula node and pushes it on a stack; operators pop their operands from the stack. Equal
+ *      sub-formulas are only encoded once and pushed again with {@link #OP_REFERENCE}.</li>
+ *      <li>The blocks in pre-order. Each block consists of the difference of its start line to the start line of
+ *      the previous block, the number of lines, the node indices of its condition and presence condition and the
+ *      number of nested blocks.</li>
+ * </ol>
+ * All numbers are unsigned variable-length integers (7 bits per byte, least significant group first); signed
+ * numbers are zig-zag encoded before. The path of the source file is not part of the encoding; all blocks get the
+ * path that is passed to {@link #decode(ByteBuffer, File)}.
+ *
+ * @author Adam
+ */
+final class BinaryCodeModelFormat {
+
+    private static final int OP_TRUE = 0;
+
+    private static final int OP_FALSE = 1;
+
+    /**
+     * A variable, followed by the index of its name in the string table.
+     */
+    private static final int OP_VARIABLE = 2;
+
+    private static final int OP_NEGATION = 3;
+
+    private static final int OP_CONJUNCTION = 4;
+
+    private static final int OP_DISJUNCTION = 5;
+
+    /**
+     * Pushes an already existing node again, followed by the index of the node.
+     */
+    private static final int OP_REFERENCE = 6;
+
+    /**
+     * Don't allow any instances.
+     */
+    private BinaryCodeModelFormat() {
+    }
+
+    /**
+     * Encodes the blocks of the given source file.
+     *
+     * @param file The source file to encode.
+     *
+     * @return The encoded source file.
+     *
+     * @throws IOException If the source file contains a {@link Formula} that can not be encoded.
+     */
+    public static byte @NonNull [] encode(@NonNull SourceFile<CodeBlock> file) throws IOException {
+        Encoder encoder = new Encoder();
+        int numBlocks = 0;
+        for (CodeBlock block : file) {
+            encoder.encodeBlock(notNull(block));
+            numBlocks++;
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(encoder.strings.size() * 16
+                + encoder.formulas.size() + encoder.blocks.size() + 16);
+        writeVarInt(result, encoder.strings.size());
+        for (String string : encoder.stringList) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(result, bytes.length);
+            result.write(bytes, 0, bytes.length);
+        }
+        writeVarInt(result, encoder.numOperations);
+        encoder.formulas.writeTo(result);
+        writeVarInt(result, numBlocks);
+        encoder.blocks.writeTo(result);
+
+        return notNull(result.toByteArray());
+    }
+
+    /**
+     * Decodes a source file created by {@link #encode(SourceFile)}. All remaining bytes of the buffer must belong to
+     * the encoded source file.
+     *
+     * @param data The encoded source file, between position and limit. The position is moved to the limit.
+     * @param path The path to assign to the {@link SourceFile} and all blocks.
+     *
+     * @return The decoded source file.
+     *
+     * @throws FormatException If the data is malformed or truncated.
+     */
+    public static @NonNull SourceFile<CodeBlock> decode(@NonNull ByteBuffer data, @NonNull File path)
+            throws FormatException {
+
+        try {
+            Decoder decoder = new Decoder(data, path);
+            decoder.readStrings();
+            decoder.readFormulas();
+
+            SourceFile<CodeBlock> result = new SourceFile<>(path);
+            int numBlocks = decoder.readCount();
+            for (int i = 0; i < numBlocks; i++) {
+                result.addElement(decoder.readBlock());
+            }
+
+            if (data.hasRemaining()) {
+                throw new FormatException("Unexpected data after the last block");
+            }
+            return result;
+
+        } catch (BufferUnderflowException e) {
+            throw new FormatException("Unexpected end of data");
+        }
+    }
+
+    /**
+     * Writes an unsigned variable-length integer.
+     *
+     * @param out The stream to write to.
+     * @param value The value to write; interpreted as unsigned.
+     */
+    static void writeVarInt(@NonNull ByteArrayOutputStream out, int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    /**
+     * Writes an unsigned variable-length long.
+     *
+     * @param out The stream to write to.
+     * @param value The value to write; interpreted as unsigned.
+     */
+    static void writeVarLong(@NonNull ByteArrayOutputStream out, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer written by {@link #writeVarInt(ByteArrayOutputStream, int)}.
+     *
+     * @param in The buffer to read from.
+     *
+     * @return The value.
+     *
+     * @throws FormatException If the value is longer than 5 bytes.
+     * @throws BufferUnderflowException If the buffer ends before the value.
+     */
+    static int readVarInt(@NonNull ByteBuffer in) throws FormatException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new FormatException("Invalid variable-length integer");
+    }
+
+    /**
+     * Reads an unsigned variable-length long written by {@link #writeVarLong(ByteArrayOutputStream, long)}.
+     *
+     * @param in The buffer to read from.
+     *
+     * @return The value.
+     *
+     * @throws FormatException If the value is longer than 10 bytes.
+     * @throws BufferUnderflowException If the buffer ends before the value.
+     */
+    static long readVarLong(@NonNull ByteBuffer in) throws FormatException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new FormatException("Invalid variable-length long");
+    }
+
+    /**
+     * Converts a signed integer so that numbers with a small absolute value have a short variable-length encoding.
+     *
+     * @param value The signed value.
+     *
+     * @return The zig-zag encoded value.
+     */
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigZag(int)}.
+     *
+     * @param value The zig-zag encoded value.
+     *
+     * @return The signed value.
+     */
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Builds the sections of an encoded source file.
+     */
+    private static final class Encoder {
+
+        private final @NonNull Map<String, Integer> strings;
+
+        private final @NonNull List<String> stringList;
+
+        /**
+         * The index of every formula node that was already created. Keyed by equality, so that equal sub-formulas
+         * are only encoded once.
+         */
+        private final @NonNull Map<Formula, Integer> nodes;
+
+        private final @NonNull ByteArrayOutputStream formulas;
+
+        private int numOperations;
+
+        private final @NonNull ByteArrayOutputStream blocks;
+
+        private int previousLineStart;
+
+        /**
+         * Creates an empty encoder.
+         */
+        Encoder() {
+            this.strings = new HashMap<>();
+            this.stringList = new ArrayList<>();
+            this.nodes = new HashMap<>();
+            this.formulas = new ByteArrayOutputStream();
+            this.blocks = new ByteArrayOutputStream();
+        }
+
+        /**
+         * Encodes the given block and its nested blocks.
+         *
+         * @param block The block to encode.
+         *
+         * @throws IOException If a formula can not be encoded.
+         */
+        void encodeBlock(@NonNull CodeBlock block) throws IOException {
+            // the formulas are encoded first, so that the nodes exist when the block is read
+            int condition = block.getCondition() != null ? node(notNull(block.getCondition())) + 1 : 0;
+            int presenceCondition = node(block.getPresenceCondition()) + 1;
+
+            writeVarInt(blocks, zigZag(block.getLineStart() - previousLineStart));
+            writeVarInt(blocks, zigZag(block.getLineEnd() - block.getLineStart()));
+            writeVarInt(blocks, condition);
+            writeVarInt(blocks, presenceCondition);
+            writeVarInt(blocks, block.getNestedElementCount());
+            previousLineStart = block.getLineStart();
+
+            for (CodeBlock nested : block) {
+                encodeBlock(notNull(nested));
+            }
+        }
+
+        /**
+         * Returns the node index of the given formula. Encodes the formula if it does not exist yet; in this case,
+         * the new node is left on the stack.
+         *
+         * @param formula The formula.
+         *
+         * @return The index of the node.
+         *
+         * @throws IOException If the formula can not be encoded.
+         */
+        private int node(@NonNull Formula formula) throws IOException {
+            Integer index = nodes.get(formula);
+            if (index == null) {
+                index = push(formula);
+            }
+            return index;
+        }
+
+        /**
+         * Encodes the operations that push the given formula on the stack.
+         *
+         * @param formula The formula.
+         *
+         * @return The index of the node.
+         *
+         * @throws IOException If the formula can not be encoded.
+         */
+        private int push(@NonNull Formula formula) throws IOException {
+            Integer existing = nodes.get(formula);
+            if (existing != null) {
+                writeVarInt(formulas, OP_REFERENCE);
+                writeVarInt(formulas, existing);
+                numOperations++;
+                return existing;
+            }
+
+            if (formula instanceof True) {
+                writeVarInt(formulas, OP_TRUE);
+            } else if (formula instanceof False) {
+                writeVarInt(formulas, OP_FALSE);
+            } else if (formula instanceof Variable) {
+                writeVarInt(formulas, OP_VARIABLE);
+                writeVarInt(formulas, string(((Variable) formula).getName()));
+            } else if (formula instanceof Negation) {
+                push(((Negation) formula).getFormula());
+                writeVarInt(formulas, OP_NEGATION);
+            } else if (formula instanceof Conjunction) {
+                push(((Conjunction) formula).getLeft());
+                push(((Conjunction) formula).getRight());
+                writeVarInt(formulas, OP_CONJUNCTION);
+            } else if (formula instanceof Disjunction) {
+                push(((Disjunction) formula).getLeft());
+                push(((Disjunction) formula).getRight());
+                writeVarInt(formulas, OP_DISJUNCTION);
+            } else {
+                throw new IOException("Can't encode formula of type " + formula.getClass().getName());
+            }
+            numOperations++;
+
+            int index = nodes.size();
+            nodes.put(formula, index);
+            return index;
+        }
+
+        /**
+         * Returns the index of the given string in the string table. Adds the string if it is not in the table yet.
+         *
+         * @param string The string.
+         *
+         * @return The index of the string.
+         */
+        private int string(@NonNull String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = stringList.size();
+                strings.put(string, index);
+                stringList.add(string);
+            }
+            return index;
+        }
+
+    }
+
+    /**
+     * Reads the sections of an encoded source file.
+     */
+    private static final class Decoder {
+
+        private final @NonNull ByteBuffer in;
+
+        private final @NonNull File path;
+
+        private @NonNull String @NonNull [] strings;
+
+        private @NonNull Formula @NonNull [] nodes;
+
+        private int numNodes;
+
+        private int previousLineStart;
+
+        /**
+         * Creates a decoder.
+         *
+         * @param in The buffer to read from.
+         * @param path The path to assign to all blocks.
+         */
+        Decoder(@NonNull ByteBuffer in, @NonNull File path) {
+            this.in = in;
+            this.path = path;
+            this.strings = new @NonNull String[0];
+            this.nodes = new @NonNull Formula[0];
+        }
+
+        /**
+         * Reads a number of elements. Since every element needs at least one byte, the count is checked against
+         * the remaining data, so that corrupted data does not cause huge allocations.
+         *
+         * @return The number of elements.
+         *
+         * @throws FormatException If the count is larger than the remaining data.
+         */
+        int readCount() throws FormatException {
+            int count = readVarInt(in);
+            if (count < 0 || count > in.remaining()) {
+                throw new FormatException("Invalid count " + (count & 0xFFFFFFFFL));
+            }
+            return count;
+        }
+
+        /**
+         * Reads the string table.
+         *
+         * @throws FormatException If the data is malformed.
+         */
+        void readStrings() throws FormatException {
+            strings = new @NonNull String[readCount()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readCount()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * Reads the formula operations and creates all nodes.
+         *
+         * @throws FormatException If the data is malformed.
+         */
+        void readFormulas() throws FormatException {
+            int numOperations = readCount();
+            nodes = new @NonNull Formula[numOperations];
+            Formula[] stack = new Formula[numOperations];
+            int stackSize = 0;
+
+            for (int i = 0; i < numOperations; i++) {
+                int op = readVarInt(in);
+                int arity = op == OP_NEGATION ? 1 : (op == OP_CONJUNCTION || op == OP_DISJUNCTION ? 2 : 0);
+                if (stackSize < arity) {
+                    throw new FormatException("Missing operand");
+                }
+
+                Formula formula;
+                switch (op) {
+                case OP_TRUE:
+                    formula = True.INSTANCE;
+                    break;
+                case OP_FALSE:
+                    formula = False.INSTANCE;
+                    break;
+                case OP_VARIABLE:
+                    formula = new Variable(strings[index(readVarInt(in), strings.length)]);
+                    break;
+                case OP_NEGATION:
+                    formula = new Negation(notNull(stack[--stackSize]));
+                    break;
+                case OP_CONJUNCTION:
+                    stackSize -= 2;
+                    formula = new Conjunction(notNull(stack[stackSize]), notNull(stack[stackSize + 1]));
+                    break;
+                case OP_DISJUNCTION:
+                    stackSize -= 2;
+                    formula = new Disjunction(notNull(stack[stackSize]), notNull(stack[stackSize + 1]));
+                    break;
+                case OP_REFERENCE:
+                    formula = null;
+                    stack[stackSize++] = nodes[index(readVarInt(in), numNodes)];
+                    break;
+                default:
+                    throw new FormatException("Invalid formula operation " + op);
+                }
+
+                if (formula != null) {
+                    nodes[numNodes++] = formula;
+                    stack[stackSize++] = formula;
+                }
+            }
+        }
+
+        /**
+         * Reads a block and its nested blocks.
+         *
+         * @return The block.
+         *
+         * @throws FormatException If the data is malformed.
+         */
+        @NonNull CodeBlock readBlock() throws FormatException {
+            int lineStart = previousLineStart + unZigZag(readVarInt(in));
+            int lineEnd = lineStart + unZigZag(readVarInt(in));
+            int condition = readVarInt(in);
+            int presenceCondition = readVarInt(in);
+            if (presenceCondition == 0) {
+                throw new FormatException("Missing presence condition");
+            }
+            previousLineStart = lineStart;
+
+            CodeBlock block = new CodeBlock(lineStart, lineEnd, path,
+                    condition != 0 ? nodes[index(condition - 1, numNodes)] : null,
+                    nodes[index(presenceCondition - 1, numNodes)]);
+
+            int numNested = readCount();
+            for (int i = 0; i < numNested; i++) {
+                block.addNestedElement(readBlock());
+            }
+            return block;
+        }
+
+        /**
+         * Checks that an index is valid.
+         *
+         * @param index The index to check.
+         * @param size The number of valid indices.
+         *
+         * @return The index.
+         *
+         * @throws FormatException If the index is out of range.
+         */
+        private static int index(int index, int size) throws FormatException {
+            if (index < 0 || index >= size) {
+                throw new FormatException("Invalid index " + index);
+            }
+            return index;
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Reads an archive created by a {@link BinaryCodeModelWriter}. Only the index is read when the archive is opened;
+ * the individual source files are read and decoded when they are requested. This class is thread-safe.
+ *
+ * @author Adam
+ */
+public class BinaryCodeModelReader implements Closeable {
+
+    private final @NonNull FileChannel channel;
+
+    private final @NonNull Map<@NonNull File, long[]> index;
+
+    /**
+     * Opens an archive and reads its index.
+     *
+     * @param archive The archive file.
+     *
+     * @throws IOException If reading the file fails.
+     * @throws FormatException If the file is not a valid archive.
+     */
+    public BinaryCodeModelReader(@NonNull File archive) throws IOException, FormatException {
+        this.channel = notNull(FileChannel.open(archive.toPath(), StandardOpenOption.READ));
+        this.index = new LinkedHashMap<>();
+
+        boolean success = false;
+        try {
+            readIndex();
+            success = true;
+        } finally {
+            if (!success) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the header, trailer and index of the archive.
+     *
+     * @throws IOException If reading the file fails.
+     * @throws FormatException If the file is not a valid archive.
+     */
+    private void readIndex() throws IOException, FormatException {
+        long size = channel.size();
+        if (size < BinaryCodeModelWriter.HEADER_SIZE + BinaryCodeModelWriter.TRAILER_SIZE) {
+            throw new FormatException("Archive is too short");
+        }
+
+        ByteBuffer header = read(0, BinaryCodeModelWriter.HEADER_SIZE);
+        if (header.getInt() != BinaryCodeModelWriter.MAGIC
+                || header.getInt() != BinaryCodeModelWriter.VERSION) {
+            throw new FormatException("Not an archive of version " + BinaryCodeModelWriter.VERSION);
+        }
+
+        ByteBuffer trailer = read(size - BinaryCodeModelWriter.TRAILER_SIZE, BinaryCodeModelWriter.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != BinaryCodeModelWriter.MAGIC) {
+            throw new FormatException("Archive is incomplete");
+        }
+        long indexEnd = size - BinaryCodeModelWriter.TRAILER_SIZE;
+        if (indexOffset < BinaryCodeModelWriter.HEADER_SIZE || indexOffset > indexEnd
+                || indexEnd - indexOffset > Integer.MAX_VALUE) {
+            throw new FormatException("Invalid index offset " + indexOffset);
+        }
+
+        ByteBuffer data = read(indexOffset, (int) (indexEnd - indexOffset));
+        try {
+            int numFiles = BinaryCodeModelFormat.readVarInt(data);
+            for (int i = 0; i < numFiles; i++) {
+                int pathLength = BinaryCodeModelFormat.readVarInt(data);
+                if (pathLength < 0 || pathLength > data.remaining()) {
+                    throw new FormatException("Invalid index");
+                }
+                byte[] path = new byte[pathLength];
+                data.get(path);
+                long offset = BinaryCodeModelFormat.readVarLong(data);
+                long length = BinaryCodeModelFormat.readVarLong(data);
+                if (offset < BinaryCodeModelWriter.HEADER_SIZE || length < 0 || length > Integer.MAX_VALUE
+                        || offset + length > indexOffset) {
+                    throw new FormatException("Invalid index entry for " + new String(path, StandardCharsets.UTF_8));
+                }
+                String pathString = new String(path, StandardCharsets.UTF_8).replace('/', File.separatorChar);
+                index.put(new File(pathString), new long[] {offset, length});
+            }
+        } catch (BufferUnderflowException e) {
+            throw new FormatException("Invalid index");
+        }
+    }
+
+    /**
+     * Reads a range of the archive file.
+     *
+     * @param position The position of the range in the file.
+     * @param length The length of the range.
+     *
+     * @return A buffer containing the range.
+     *
+     * @throws IOException If reading fails.
+     */
+    private @NonNull ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            // positional reads don't modify the channel position, so concurrent reads don't interfere
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the paths of all source files in the archive, in the order they were written.
+     *
+     * @return An unmodifiable set of paths.
+     */
+    public @NonNull Set<@NonNull File> getPaths() {
+        return notNull(Collections.unmodifiableSet(index.keySet()));
+    }
+
+    /**
+     * Reads and decodes a single source file from the archive.
+     *
+     * @param path The path of the source file, as it was written.
+     *
+     * @return The source file, or <code>null</code> if the archive does not contain it.
+     *
+     * @throws IOException If reading the file fails.
+     * @throws FormatException If the stored source file is malformed.
+     */
+    public @Nullable SourceFile<CodeBlock> read(@NonNull File path) throws IOException, FormatException {
+        long[] entry = index.get(path);
+        if (entry == null) {
+            return null;
+        }
+        return BinaryCodeModelFormat.decode(read(entry[0], (int) entry[1]), path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Writes {@link SourceFile}s into an archive file in the {@link BinaryCodeModelFormat}. The archive can be read with
+ * a {@link BinaryCodeModelReader}, which loads the individual source files lazily.
+ * <p>
+ * An archive has the following layout:
+ * <ol>
+ *      <li>A header: {@link #MAGIC} and {@link #VERSION} (4 bytes each).</li>
+ *      <li>The encoded source files, one after another.</li>
+ *      <li>The index: the number of files, followed by the path, offset and length of each file (variable-length
+ *      integers, the path as UTF-8 with '/' as the separator).</li>
+ *      <li>A trailer: the offset of the index (8 bytes) and {@link #MAGIC} again.</li>
+ * </ol>
+ * This class is thread-safe.
+ *
+ * @author Adam
+ */
+public class BinaryCodeModelWriter implements Closeable {
+
+    static final int MAGIC = 0x4B48_434D; // "KHCM"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8;
+
+    static final int TRAILER_SIZE = 12;
+
+    private final @NonNull DataOutputStream out;
+
+    private final @NonNull Map<String, long[]> index;
+
+    private long offset;
+
+    private boolean closed;
+
+    /**
+     * Creates a new archive. An existing file is overwritten.
+     *
+     * @param archive The archive file to create.
+     *
+     * @throws IOException If the file can not be created.
+     */
+    public BinaryCodeModelWriter(@NonNull File archive) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archive), 64 * 1024));
+        this.index = new LinkedHashMap<>();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        this.offset = HEADER_SIZE;
+    }
+
+    /**
+     * Appends the given source file to the archive.
+     *
+     * @param file The source file to write.
+     *
+     * @throws IOException If writing fails, or the source file contains a formula that can not be encoded.
+     * @throws IllegalArgumentException If a source file with the same path was already written.
+     * @throws IllegalStateException If this writer is already closed.
+     */
+    public void write(@NonNull SourceFile<CodeBlock> file) throws IOException {
+        // encode outside of the lock, so that multiple threads can encode in parallel
+        byte[] data = BinaryCodeModelFormat.encode(file);
+        // relative paths with '/' as the separator, so that archives can be read on all platforms
+        String path = notNull(file.getPath().getPath().replace(File.separatorChar, '/'));
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            if (index.containsKey(path)) {
+                throw new IllegalArgumentException("Source file " + path + " was already written");
+            }
+
+            out.write(data);
+            index.put(path, new long[] {offset, data.length});
+            offset += data.length;
+        }
+    }
+
+    /**
+     * Writes the index and closes the archive file.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            ByteArrayOutputStream indexData = new ByteArrayOutputStream();
+            BinaryCodeModelFormat.writeVarInt(indexData, index.size());
+            for (Map.Entry<String, long[]> entry : index.entrySet()) {
+                byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                BinaryCodeModelFormat.writeVarInt(indexData, path.length);
+                indexData.write(path, 0, path.length);
+                BinaryCodeModelFormat.writeVarLong(indexData, entry.getValue()[0]);
+                BinaryCodeModelFormat.writeVarLong(indexData, entry.getValue()[1]);
+            }
+
+            indexData.writeTo(out);
+            out.writeLong(offset);
+            out.writeInt(MAGIC);
+
+        } finally {
+            out.close();
+        }
+    }
+
+}
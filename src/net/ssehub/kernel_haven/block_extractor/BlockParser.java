@@ -17,72 +17,175 @@ package net.ssehub.kernel_haven.block_extractor;
 
 import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Deque;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import net.ssehub.kernel_haven.block_extractor.PhaseTimings.Phase;
 import net.ssehub.kernel_haven.code_model.CodeBlock;
 import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
 import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
 import net.ssehub.kernel_haven.util.FormatException;
 import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
 import net.ssehub.kernel_haven.util.logic.Formula;
 import net.ssehub.kernel_haven.util.logic.Negation;
 import net.ssehub.kernel_haven.util.logic.True;
 import net.ssehub.kernel_haven.util.logic.parser.ExpressionFormatException;
 import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
 
 /**
  * A parser that walks through a file and returns all found {@link CodeBlock}s.
+ * <p>
+ * The input is either read from a {@link Reader}, or scanned directly on the bytes of a {@link ByteBuffer}. Both are
+ * passed through a {@link DirectiveLexer}, which only creates {@link String}s for preprocessor directive lines; both
+ * produce the same {@link CodeBlock}s. Large buffers can be scanned in parallel, see
+ * {@link #setParallelThreshold(int)}.
  *
  * @author Adam
  */
 public class BlockParser implements Closeable {
     
-    private @NonNull LineNumberReader in;
+    private static final int READ_CHUNK_SIZE = 8192;
+    
+    /**
+     * The minimum number of bytes per chunk when parsing in parallel.
+     */
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 64 * 1024;
+    
+    private @Nullable Reader in;
+    
+    private @Nullable ByteBuffer buffer;
+    
+    private @NonNull Charset charset;
     
     private @NonNull File sourceFile;
     
     private CppConditionParser conditionParser;
     
+    private boolean handleLinuxMacros;
+    
+    private boolean fuzzyParsing;
+    
+    private @NonNull InvalidConditionHandling invalidConditionHandling;
+    
+    /**
+     * The settings of the {@link #conditionParser}, as used in the keys of the {@link #conditionCache}.
+     */
+    private @NonNull String conditionFlags;
+    
+    private @Nullable ConditionCache conditionCache;
+    
+    /**
+     * The timings to add the parsing phases to. <code>null</code> if the parser is not instrumented.
+     */
+    private @Nullable PhaseTimings timings;
+    
     private boolean addPseudoBlock;
     
     /**
-     * All blocks that are not nested inside other blocks.
+     * The index to add the variables of the blocks to. <code>null</code> if no index is built.
+     */
+    private @Nullable VariableIndex variableIndex;
+    
+    /**
+     * The factory to create all conditions and presence conditions with. <code>null</code> if formulas are not
+     * shared.
+     */
+    private @Nullable FormulaFactory formulaFactory;
+    
+    /**
+     * The manager to canonicalize the presence conditions with. <code>null</code> if the presence conditions are
+     * not canonicalized.
+     */
+    private @Nullable BddManager bddManager;
+    
+    private boolean lazyPresenceConditions;
+    
+    /**
+     * Whether the presence conditions are not built, because {@link #readBlocks()} creates {@link LazyCodeBlock}s.
+     * The immediate conditions are passed to the {@link #listener} instead.
+     */
+    private boolean skipPresenceConditions;
+    
+    private boolean lazyConditions;
+    
+    /**
+     * The context of the {@link LazyCondition}s, while {@link #readBlocks()} creates blocks with lazily parsed
+     * conditions. <code>null</code> if the conditions are parsed while parsing the file.
+     */
+    private LazyCondition.@Nullable Context lazyConditionContext;
+    
+    /**
+     * The tree builder of {@link #readBlocks()}, which receives the {@link LazyCondition}s directly.
+     * <code>null</code> if the conditions are parsed while parsing the file.
+     */
+    private @Nullable BlockTreeBuilder lazyConditionTarget;
+    
+    /**
+     * Buffers with at least this many bytes are scanned in parallel. 0 if parallel scanning is disabled.
+     */
+    private int parallelThreshold;
+    
+    /**
+     * The maximum nesting depth of the created blocks. 0 if the depth is not limited.
      */
-    private @NonNull List<@NonNull CodeBlock> topBlocks;
+    private int maxDepth;
     
     /**
-     * The current nesting hierarchy. May be empty.
+     * The number of currently open #ifs that are nested deeper than {@link #maxDepth}, and thus skipped.
      */
-    private @NonNull Deque<@NonNull CodeBlock> nesting;
+    private int skippedDepth;
     
     /**
-     * The list of conditions of the previous #if and #elif siblings. Used to construct the negated conditions for
-     * #elif and #else. A stack to preserve nesting information.
+     * Whether an #else was found on the skipped nesting levels, indexed by their {@link #skippedDepth}. Used to
+     * detect an #elif or #else after an #else.
+     */
+    private @NonNull BitSet skippedClosed;
+    
+    /**
+     * The lines of the open #ifs on the skipped nesting levels, indexed by their {@link #skippedDepth}. Used to report
+     * a missing #endif.
+     */
+    private int @NonNull [] skippedLines;
+    
+    /**
+     * The current nesting hierarchy of blocks that are not yet finished. May be empty.
+     */
+    private @NonNull Deque<@NonNull OpenBlock> nesting;
+    
+    /**
+     * The listener to send the found blocks to.
+     */
+    private @NonNull IBlockListener listener;
+    
+    /**
+     * The conditions of the previous #if and #elif siblings. Used to construct the negated conditions for #elif and
+     * #else. A stack to preserve nesting information.
      * <p>
-     * A starting #if, #ifdef or #ifndef pushes a new list with its condition as first element.
-     * An #else clears the list, so that any following #else or #elifs throw an exception.
+     * A starting #if, #ifdef or #ifndef pushes a new element with its condition. An #else marks the element as
+     * closed, so that any following #else or #elifs throw an exception.
      */
-    private @NonNull Deque<@NonNull List<@NonNull Formula>> previousConditions;
+    private @NonNull Deque<@NonNull PreviousConditions> previousConditions;
     
     /**
-     * Whether we are currently inside an inline comment.
+     * Whether we found a non-whitespace character outside of all blocks.
      */
-    private boolean inInlineComment;
+    private boolean foundContentOutsideTopBlocks;
     
     /**
-     * Use this instead of in.getLineNumber() because we may join multiple lines together because of continuation with
-     * '\'.
+     * The line number of the directive that is currently handled.
      */
     private int currentLineNumber;
     
@@ -90,8 +193,8 @@ public class BlockParser implements Closeable {
      * Creates a parser for the given input. Fuzzy parsing and Linux replacements are disabled.
      * Invalid condition handling is set to {@link InvalidConditionHandling#EXCEPTION}.
      * 
-     * @param in The reader to get the input from. Internally, this will be wrapped into a {@link BufferedReader},
-     *      so passing an unbuffered reader here is ok.
+     * @param in The reader to get the input from. The input is read in large chunks, so passing an unbuffered
+     *      reader here is ok.
      * @param sourceFile The source file to specify in the {@link CodeBlock}s.
      */
     public BlockParser(@NonNull Reader in, @NonNull File sourceFile) {
@@ -101,8 +204,8 @@ public class BlockParser implements Closeable {
     /**
      * Creates a parser for the given input.
      * 
-     * @param in The reader to get the input from. Internally, this will be wrapped into a {@link BufferedReader},
-     *      so passing an unbuffered reader here is ok.
+     * @param in The reader to get the input from. The input is read in large chunks, so passing an unbuffered
+     *      reader here is ok.
      * @param sourceFile The source file to specify in the {@link CodeBlock}s.
      * @param handleLinuxMacros Whether to handle preprocessor macros found in the Linux Kernel (i.e.
      *      IS_ENABLED, IS_BUILTIN, IS_MODULE).
@@ -112,16 +215,60 @@ public class BlockParser implements Closeable {
     public BlockParser(@NonNull Reader in, @NonNull File sourceFile, boolean handleLinuxMacros,
             boolean fuzzyParsing, @NonNull InvalidConditionHandling invalidConditionHandling) {
         
-        this.in = new LineNumberReader(in);
+        this(sourceFile, handleLinuxMacros, fuzzyParsing, invalidConditionHandling);
+        this.in = in;
+    }
+    
+    /**
+     * Creates a parser that scans the bytes of the given buffer (e.g. a memory-mapped file) instead of reading
+     * characters from a {@link Reader}. Only preprocessor directive lines are decoded into {@link String}s, using
+     * the given charset. The charset must be ASCII-compatible (e.g. UTF-8 or ISO-8859-1).
+     * 
+     * @param buffer The content of the file, between the position and the limit of the buffer. The position and limit
+     *      of the given buffer are not modified.
+     * @param charset The charset to decode directive lines with.
+     * @param sourceFile The source file to specify in the {@link CodeBlock}s.
+     * @param handleLinuxMacros Whether to handle preprocessor macros found in the Linux Kernel (i.e.
+     *      IS_ENABLED, IS_BUILTIN, IS_MODULE).
+     * @param fuzzyParsing Whether to do fuzzy parsing for non-boolean integer comparisons.
+     * @param invalidConditionHandling How to handle unparseable conditions.
+     */
+    public BlockParser(@NonNull ByteBuffer buffer, @NonNull Charset charset, @NonNull File sourceFile,
+            boolean handleLinuxMacros, boolean fuzzyParsing,
+            @NonNull InvalidConditionHandling invalidConditionHandling) {
+        
+        this(sourceFile, handleLinuxMacros, fuzzyParsing, invalidConditionHandling);
+        this.buffer = buffer;
+        this.charset = charset;
+    }
+    
+    /**
+     * Initializes the parser state shared by both input variants.
+     * 
+     * @param sourceFile The source file to specify in the {@link CodeBlock}s.
+     * @param handleLinuxMacros Whether to handle preprocessor macros found in the Linux Kernel.
+     * @param fuzzyParsing Whether to do fuzzy parsing for non-boolean integer comparisons.
+     * @param invalidConditionHandling How to handle unparseable conditions.
+     */
+    private BlockParser(@NonNull File sourceFile, boolean handleLinuxMacros, boolean fuzzyParsing,
+            @NonNull InvalidConditionHandling invalidConditionHandling) {
+        
         this.sourceFile = sourceFile;
+        this.charset = notNull(Charset.defaultCharset());
         
+        this.handleLinuxMacros = handleLinuxMacros;
+        this.fuzzyParsing = fuzzyParsing;
+        this.invalidConditionHandling = invalidConditionHandling;
         this.conditionParser = new CppConditionParser(handleLinuxMacros, fuzzyParsing, invalidConditionHandling);
+        this.conditionFlags = ConditionCache.createFlags(handleLinuxMacros, fuzzyParsing, invalidConditionHandling);
         
         this.addPseudoBlock = true;
         
-        this.topBlocks = new LinkedList<>();
         this.nesting = new LinkedList<>();
+        this.listener = new IBlockListener() { };
         this.previousConditions = new LinkedList<>();
+        this.skippedClosed = new BitSet();
+        this.skippedLines = new int[8];
     }
     
     /**
@@ -134,6 +281,124 @@ public class BlockParser implements Closeable {
         this.addPseudoBlock = addPseudoBlock;
     }
     
+    /**
+     * Sets the size from which on the input is scanned in parallel. Large inputs are split into chunks, which are
+     * scanned for directives on the common {@link ForkJoinPool}; the blocks are then built from the found directives
+     * in order. The result is the same as for sequential parsing. This only applies if this parser was created for a
+     * {@link ByteBuffer}. By default, parallel scanning is disabled.
+     * 
+     * @param parallelThreshold The minimum number of bytes for parallel scanning, or 0 to disable it.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 0) {
+            throw new IllegalArgumentException("Negative threshold: " + parallelThreshold);
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+    
+    /**
+     * Sets the maximum nesting depth of the blocks to create; top-level blocks have the depth 1 (the pseudo block is
+     * not counted). Deeper directives are still matched, so that a missing or superfluous #endif and an #elif or #else
+     * after an #else are still detected. But their conditions are not parsed (so unparseable conditions are not
+     * detected either), and no blocks are created for them. By default, the depth is not limited.
+     * 
+     * @param maxDepth The maximum depth, or 0 to create blocks at any depth.
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Negative maximum depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+    
+    /**
+     * Sets a cache for parsed conditions. The same cache may be shared by multiple parsers (in multiple threads),
+     * even if they use different parsing settings. By default, no cache is used.
+     * 
+     * @param conditionCache The cache to use, or <code>null</code> to parse every condition.
+     */
+    public void setConditionCache(@Nullable ConditionCache conditionCache) {
+        this.conditionCache = conditionCache;
+    }
+    
+    /**
+     * Sets the timings to add the time spent in the phases of parsing to: the whole parsing as
+     * {@link PhaseTimings.Phase#PARSE}, the parsing of conditions as {@link PhaseTimings.Phase#CONDITION_PARSING} and
+     * the block listener as {@link PhaseTimings.Phase#TREE_CONSTRUCTION}. The same timings may be shared by multiple
+     * parsers (in multiple threads). By default, no timings are measured.
+     * 
+     * @param timings The timings to add to, or <code>null</code> to disable time measurement.
+     */
+    public void setPhaseTimings(@Nullable PhaseTimings timings) {
+        this.timings = timings;
+    }
+    
+    /**
+     * Sets an index to add the variables of all blocks to, once the whole file is parsed. Nothing is added if the
+     * file can not be parsed. The same index may be shared by multiple parsers (in multiple threads). By default, no
+     * index is built.
+     * 
+     * @param variableIndex The index to add to, or <code>null</code> to not build an index.
+     */
+    public void setVariableIndex(@Nullable VariableIndex variableIndex) {
+        this.variableIndex = variableIndex;
+    }
+    
+    /**
+     * Sets a factory to create all conditions and presence conditions with, so that identical variables and
+     * sub-formulas are the same instances. The same factory may be shared by multiple parsers (in multiple threads).
+     * By default, each parser creates its own formulas.
+     * 
+     * @param formulaFactory The factory to use, or <code>null</code> to not share formulas.
+     */
+    public void setFormulaFactory(@Nullable FormulaFactory formulaFactory) {
+        this.formulaFactory = formulaFactory;
+    }
+    
+    /**
+     * Sets a manager to canonicalize all presence conditions with: each presence condition is reduced to its binary
+     * decision diagram and converted back to a simplified {@link Formula}. Equivalent presence conditions are then
+     * the same instance, and blocks that can never be present get {@link False#INSTANCE} as their presence condition.
+     * If the node limit of the manager is reached, the syntactic presence condition is kept. The conditions of the
+     * blocks are not changed. The same manager may be shared by multiple parsers (in multiple threads). By default,
+     * the presence conditions are not canonicalized.
+     * 
+     * @param bddManager The manager to use, or <code>null</code> to keep the syntactic presence conditions.
+     */
+    public void setBddManager(@Nullable BddManager bddManager) {
+        this.bddManager = bddManager;
+    }
+    
+    /**
+     * Sets whether the blocks created by {@link #readBlocks()} compute their presence condition only when it is first
+     * requested, from their immediate condition and the presence condition of their parent. Blocks whose presence
+     * condition is never requested don't allocate it. This has no effect on {@link #parse(IBlockListener)} and
+     * {@link #readBlockTable(FormulaTable)}, and if a {@link BddManager} is set. By default, the presence conditions
+     * are created while parsing.
+     * 
+     * @param lazyPresenceConditions Whether to create the presence conditions lazily.
+     */
+    public void setLazyPresenceConditions(boolean lazyPresenceConditions) {
+        this.lazyPresenceConditions = lazyPresenceConditions;
+    }
+    
+    /**
+     * Sets whether the blocks created by {@link #readBlocks()} keep the raw expressions of their directives and
+     * parse their conditions only when they are first requested. This implies lazy presence conditions, see
+     * {@link #setLazyPresenceConditions(boolean)}. Conditions that can not be parsed are not reported by
+     * {@link #readBlocks()}, but handled when they are requested: a condition that would fail the file in eager
+     * parsing (e.g. with {@link InvalidConditionHandling#EXCEPTION}) is reported by a
+     * {@link ConditionParseException}. This has no effect on
+     * {@link #parse(IBlockListener)} and {@link #readBlockTable(FormulaTable)}, and if a {@link BddManager} or a
+     * {@link VariableIndex} is set, since these need all conditions. By default, the conditions are parsed while
+     * parsing the file.
+     * 
+     * @param lazyConditions Whether to parse the conditions lazily.
+     */
+    public void setLazyConditions(boolean lazyConditions) {
+        this.lazyConditions = lazyConditions;
+    }
+    
     /**
      * Finds all {@link CodeBlock}s in the given input.
      * 
@@ -143,132 +408,430 @@ public class BlockParser implements Closeable {
      * @throws FormatException If the source file is not formatted correctly.
      */
     public @NonNull List<@NonNull CodeBlock> readBlocks() throws IOException, FormatException {
-        boolean foundContentOutsideTopBlocks = false;
+        boolean lazyConditions = this.lazyConditions && bddManager == null && variableIndex == null;
+        boolean lazy = (lazyPresenceConditions || lazyConditions) && bddManager == null;
+        BlockTreeBuilder treeBuilder = new BlockTreeBuilder(sourceFile, lazy, formulaFactory);
+        skipPresenceConditions = lazy;
+        if (lazyConditions) {
+            lazyConditionContext = new LazyCondition.Context(sourceFile, handleLinuxMacros, fuzzyParsing,
+                    invalidConditionHandling, conditionFlags, conditionCache, formulaFactory);
+            lazyConditionTarget = treeBuilder;
+        }
+        try {
+            parse(treeBuilder);
+        } finally {
+            skipPresenceConditions = false;
+            lazyConditionContext = null;
+            lazyConditionTarget = null;
+        }
+        return treeBuilder.getResult();
+    }
+    
+    /**
+     * Finds all blocks in the given input and stores them in a {@link BlockTable}. This needs much less memory than
+     * the {@link CodeBlock}s created by {@link #readBlocks()}.
+     * 
+     * @param formulas The table to store the conditions of the blocks in. May be shared with other files.
+     * 
+     * @return The table of all blocks.
+     * 
+     * @throws IOException If reading the input reader fails.
+     * @throws FormatException If the source file is not formatted correctly.
+     */
+    public @NonNull BlockTable readBlockTable(@NonNull FormulaTable formulas) throws IOException, FormatException {
+        BlockTableBuilder tableBuilder = new BlockTableBuilder(sourceFile, formulas);
+        parse(tableBuilder);
+        return tableBuilder.getResult();
+    }
+    
+    /**
+     * Walks through the given input and passes all found blocks to the given listener. In contrast to
+     * {@link #readBlocks()}, this does not create {@link CodeBlock}s; only the currently open blocks are kept in
+     * memory.
+     * 
+     * @param listener The listener to send the events to.
+     * 
+     * @throws IOException If reading the input reader fails.
+     * @throws FormatException If the source file is not formatted correctly. The listener is notified about this
+     *      via {@link IBlockListener#parseError(FormatException)} before this is thrown.
+     */
+    public void parse(@NonNull IBlockListener listener) throws IOException, FormatException {
+        VariableIndex variableIndex = this.variableIndex;
+        IBlockListener target = variableIndex != null ? variableIndex.createBuilder(sourceFile, listener) : listener;
+        this.listener = target;
+        PhaseTimings timings = this.timings;
+        long parseStart = timings != null ? System.nanoTime() : 0;
         
-        String line;
-        while ((line = in.readLine()) != null) {
-            currentLineNumber = in.getLineNumber();
-            StringBuilder lineBuffer = new StringBuilder(line.trim());
-            
-            if (lineBuffer.length() > 0 && lineBuffer.charAt(0) == '#') {
-                // spaces after hash
-                while (lineBuffer.length() > 1 && Character.isWhitespace(lineBuffer.charAt(1))) {
-                    lineBuffer.replace(1, 2, "");
-                }
+        int lastLineStart;
+        try {
+            boolean contentAfterLastDirective;
+            ByteBuffer buffer = this.buffer;
+            if (buffer != null && parallelThreshold > 0 && buffer.remaining() >= parallelThreshold) {
+                ForkJoinPool pool = notNull(ForkJoinPool.commonPool());
+                int chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE, buffer.remaining() / (pool.getParallelism() * 4));
                 
-                // line continuation
-                while (lineBuffer.charAt(lineBuffer.length() - 1) == '\\') {
-                    // remove trailing \
-                    lineBuffer.replace(lineBuffer.length() - 1, lineBuffer.length(), "");
+                ParallelDirectiveScanner scanner = new ParallelDirectiveScanner(buffer, charset, chunkSize, pool);
+                scanner.scan(this::handleDirective);
+                lastLineStart = scanner.getLastLineStart();
+                contentAfterLastDirective = scanner.hasContent();
+                
+            } else {
+                DirectiveLexer lexer;
+                if (buffer != null) {
+                    lexer = new DirectiveLexer(this::handleDirective, charset);
+                    lexer.feed(buffer, buffer.position(), buffer.limit());
                     
-                    String next = in.readLine();
-                    if (next != null) {
-                        lineBuffer.append(next);
+                } else {
+                    lexer = new DirectiveLexer(this::handleDirective, null);
+                    Reader in = notNull(this.in);
+                    char[] chunk = new char[READ_CHUNK_SIZE];
+                    int read;
+                    while ((read = in.read(chunk)) != -1) {
+                        lexer.feed(chunk, 0, read);
                     }
                 }
-            }
-            
-            line = removeComments(lineBuffer.toString()).trim();
-            
-            if (line.startsWith("#ifdef")) {
-                handleIf("defined(" + line.substring("#ifdef".length()).trim() + ")");
                 
-            } else if (line.startsWith("#ifndef")) {
-                handleIf("!defined(" + line.substring("#ifndef".length()).trim() + ")");
+                lexer.finish();
+                lastLineStart = lexer.getLastLineStart();
+                contentAfterLastDirective = lexer.hasContent();
+            }
             
-            } else if (line.startsWith("#if")) {
-                handleIf(notNull(line.substring("#if".length())));
-                
-            } else if (line.startsWith("#elif")) {
-                handleElif(notNull(line.substring("#elif".length())));
-                
-            } else if (line.startsWith("#else")) {
-                handleElse();
-                
-            } else if (line.startsWith("#endif")) {
-                handleEndif();
-                
-            } else if (!foundContentOutsideTopBlocks && !line.isEmpty() && nesting.isEmpty()) {
+            if (contentAfterLastDirective && nesting.isEmpty()) {
                 // we found a non-whitespace character outside of all #if blocks
                 foundContentOutsideTopBlocks = true;
             }
+            
+            if (skippedDepth > 0) {
+                // the innermost open #if, as if it was not skipped
+                throw new FormatException("Found opening at line " + skippedLines[skippedDepth]
+                        + " but no closing #endif");
+            }
+            if (!nesting.isEmpty()) {
+                throw new FormatException("Found opening at line " + notNull(nesting.peek()).lineStart
+                        + " but no closing #endif");
+            }
+            
+        } catch (FormatException e) {
+            target.parseError(e);
+            throw e;
         }
         
-        if (!nesting.isEmpty()) {
-            throw new FormatException("Found opening at line " + notNull(nesting.peek()).getLineStart()
-                    + " but no closing #endif");
+        // use last line + 1 because of trailing \n
+        long listenerStart = timings != null ? System.nanoTime() : 0;
+        target.endOfFile(lastLineStart + 1, addPseudoBlock && foundContentOutsideTopBlocks);
+        
+        if (timings != null) {
+            timings.add(Phase.TREE_CONSTRUCTION, listenerStart);
+            timings.add(Phase.PARSE, parseStart);
+        }
+    }
+    
+    /**
+     * Handles a directive found by the {@link DirectiveLexer}.
+     * 
+     * @param directive The directive line without comments.
+     * @param lineNumber The line number of the directive.
+     * @param contentBefore Whether non-whitespace characters were found since the previous directive.
+     * 
+     * @throws FormatException If the source file is not formatted correctly.
+     */
+    private void handleDirective(@NonNull String directive, int lineNumber, boolean contentBefore)
+            throws FormatException {
+        
+        currentLineNumber = lineNumber;
+        if (contentBefore && nesting.isEmpty()) {
+            // we found a non-whitespace character outside of all #if blocks
+            foundContentOutsideTopBlocks = true;
         }
         
-        return buildResult(foundContentOutsideTopBlocks);
+        handleLine(directive);
+    }
+    
+    /**
+     * Handles a single (joined) directive line with comments already removed.
+     * 
+     * @param line The trimmed line without comments.
+     * 
+     * @throws FormatException If the source file is not formatted correctly.
+     */
+    private void handleLine(@NonNull String line) throws FormatException {
+        if ((skippedDepth > 0 || maxDepth > 0 && nesting.size() >= maxDepth) && handleSkipped(line)) {
+            return;
+        }
+        
+        if (line.startsWith("#ifdef")) {
+            handleIf("defined(" + line.substring("#ifdef".length()).trim() + ")");
+            
+        } else if (line.startsWith("#ifndef")) {
+            handleIf("!defined(" + line.substring("#ifndef".length()).trim() + ")");
+        
+        } else if (line.startsWith("#if")) {
+            handleIf(notNull(line.substring("#if".length())));
+            
+        } else if (line.startsWith("#elif")) {
+            handleElif(notNull(line.substring("#elif".length())));
+            
+        } else if (line.startsWith("#else")) {
+            handleElse();
+            
+        } else if (line.startsWith("#endif")) {
+            handleEndif();
+            
+        } else if (!foundContentOutsideTopBlocks && !line.isEmpty() && nesting.isEmpty()) {
+            // we found a non-whitespace character outside of all #if blocks
+            foundContentOutsideTopBlocks = true;
+        }
     }
 
     /**
-     * Builds the final list of top blocks from {@link #topBlocks}. If foundContentOutsideTopBlocks and
-     * {@link #addPseudoBlock} are <code>true</code>, then a pseudo block is added for the whole file and the
-     * {@link #topBlocks} are nested inside of it.
+     * Handles a directive at a nesting depth of at least {@link #maxDepth}: only tracks the nesting of skipped #ifs,
+     * without parsing their conditions or creating blocks.
+     * 
+     * @param line The trimmed line without comments.
      * 
-     * @param foundContentOutsideTopBlocks Whether non-whitespace characters were found outside of all blocks.
+     * @return Whether the directive was handled; <code>false</code> if it belongs to a block that is not skipped.
      * 
-     * @return The final list of top-blocks for this file.
+     * @throws FormatException If an #elif or #else follows an #else on a skipped nesting level.
      */
-    private @NonNull List<@NonNull CodeBlock> buildResult(boolean foundContentOutsideTopBlocks) {
-        List<@NonNull CodeBlock> result;
-        if (this.addPseudoBlock && foundContentOutsideTopBlocks) {
-            // if we found code outside of #ifdefs, then add a pseudo block for the whole file
+    private boolean handleSkipped(@NonNull String line) throws FormatException {
+        boolean handled = true;
+        if (line.startsWith("#if")) {
+            // also #ifdef and #ifndef
+            skippedDepth++;
+            skippedClosed.clear(skippedDepth);
+            if (skippedDepth == skippedLines.length) {
+                skippedLines = notNull(Arrays.copyOf(skippedLines, skippedLines.length * 2));
+            }
+            skippedLines[skippedDepth] = currentLineNumber;
             
-            // use currentLineNumber + 1 because of trailing \n
-            CodeBlock topElement = new CodeBlock(1, currentLineNumber + 1, sourceFile, True.INSTANCE, True.INSTANCE);
-            for (CodeBlock element : topBlocks) {
-                topElement.addNestedElement(element);
+        } else if (skippedDepth == 0) {
+            // an #elif, #else or #endif of the last block that is not skipped
+            handled = false;
+            
+        } else if (line.startsWith("#elif")) {
+            if (skippedClosed.get(skippedDepth)) {
+                throw new FormatException("Found #elif in line " + currentLineNumber + " after an #else condition");
             }
-            result = notNull(Arrays.asList(topElement));
             
-        } else {
-            result = topBlocks;
+        } else if (line.startsWith("#else")) {
+            if (skippedClosed.get(skippedDepth)) {
+                throw new FormatException("Found #else in line " + currentLineNumber + " after an #else condition");
+            }
+            skippedClosed.set(skippedDepth);
+            
+        } else if (line.startsWith("#endif")) {
+            skippedDepth--;
         }
-        return result;
+        return handled;
     }
     
     /**
-     * Builds a new block with the given condition and adds it to the {@link #nesting}.
+     * Starts a new block with the given condition and adds it to the {@link #nesting}.
      * 
      * @param condition The immediate condition of this block.
      */
     private void buildBlock(@NonNull Formula condition) {
-        Formula pc;
-        if (!nesting.isEmpty()) {
-            pc = new Conjunction(notNull(nesting.peek()).getPresenceCondition(), condition);
-        } else {
-            pc = condition;
+        Formula pc = null;
+        int bdd = BddManager.UNKNOWN;
+        BddManager bddManager = this.bddManager;
+        if (bddManager != null) {
+            bdd = bddManager.and(nesting.isEmpty() ? BddManager.TRUE : notNull(nesting.peek()).bdd, condition);
+            if (bdd != BddManager.UNKNOWN) {
+                // keep the original presence condition if the canonical one is larger when expanded into a tree
+                long size = bddManager.getFormulaSize(bdd);
+                long originalSize = getTreeSize(condition, size);
+                if (!nesting.isEmpty()) {
+                    originalSize += 1 + getTreeSize(notNull(nesting.peek()).presenceCondition, size);
+                }
+                if (size <= originalSize) {
+                    pc = bddManager.toFormula(bdd);
+                }
+            }
         }
         
-        CodeBlock newBlock = new CodeBlock(currentLineNumber, -1, sourceFile, condition, pc);
-        nesting.push(newBlock);
+        if (pc == null) {
+            if (skipPresenceConditions) {
+                // ignored by the LazyCodeBlocks
+                pc = condition;
+            } else if (!nesting.isEmpty()) {
+                pc = and(notNull(nesting.peek()).presenceCondition, condition);
+            } else {
+                pc = condition;
+            }
+        }
+        
+        PhaseTimings timings = this.timings;
+        long listenerStart = timings != null ? System.nanoTime() : 0;
+        listener.blockOpened(currentLineNumber, condition, pc, nesting.size());
+        if (timings != null) {
+            timings.add(Phase.TREE_CONSTRUCTION, listenerStart);
+        }
+        
+        nesting.push(new OpenBlock(currentLineNumber, condition, pc, bdd));
+    }
+    
+    /**
+     * Starts a new block with the given lazy condition and adds it to the {@link #nesting}. The block is passed
+     * directly to the {@link #lazyConditionTarget}, since the {@link IBlockListener} interface requires parsed
+     * conditions; the {@link OpenBlock} only holds placeholders.
+     * 
+     * @param condition The unparsed immediate condition of this block.
+     */
+    private void buildLazyBlock(@NonNull LazyCondition condition) {
+        PhaseTimings timings = this.timings;
+        long listenerStart = timings != null ? System.nanoTime() : 0;
+        notNull(lazyConditionTarget).blockOpened(currentLineNumber, condition);
+        if (timings != null) {
+            timings.add(Phase.TREE_CONSTRUCTION, listenerStart);
+        }
+        
+        nesting.push(new OpenBlock(currentLineNumber, True.INSTANCE, True.INSTANCE, BddManager.UNKNOWN));
     }
     
     /**
-     * Call this when the block at the top of {@link #nesting} is finished. Pops it from {@link #nesting}, sets its
-     * end line number and adds it to the surround block (or {@link #topBlocks} if its a top block).
+     * Call this when the block at the top of {@link #nesting} is finished. Pops it from {@link #nesting} and notifies
+     * the {@link #listener} with its end line number.
      */
     private void finishBlock() {
-        CodeBlock block = notNull(nesting.pop());
+        OpenBlock block = notNull(nesting.pop());
+        PhaseTimings timings = this.timings;
+        long listenerStart = timings != null ? System.nanoTime() : 0;
+        listener.blockClosed(block.lineStart, currentLineNumber - 1, block.condition, block.presenceCondition,
+                nesting.size());
+        if (timings != null) {
+            timings.add(Phase.TREE_CONSTRUCTION, listenerStart);
+        }
+    }
+    
+    /**
+     * Parses the given condition expression. Uses the {@link #conditionCache}, if one is set.
+     * 
+     * @param expression The condition expression containing defined() calls.
+     * 
+     * @return The parsed condition.
+     * 
+     * @throws FormatException If the expression can not be parsed.
+     */
+    private @NonNull Formula parseCondition(@NonNull String expression) throws FormatException {
+        PhaseTimings timings = this.timings;
+        long start = timings != null ? System.nanoTime() : 0;
         
-        // copy to set the end line // TODO: this is not ideal....
-        List<@NonNull CodeBlock> nested = new ArrayList<>(block.getNestedElementCount());
-        for (CodeBlock child : block) {
-            nested.add(child);
+        Formula condition = parseCondition(conditionParser, conditionFlags, conditionCache, formulaFactory, expression,
+                currentLineNumber);
+        
+        if (timings != null) {
+            timings.add(Phase.CONDITION_PARSING, start);
         }
-        block = new CodeBlock(block.getLineStart(), currentLineNumber - 1, sourceFile, block.getCondition(),
-                block.getPresenceCondition());
-        for (CodeBlock child : nested) {
-            block.addNestedElement(child);
+        return condition;
+    }
+    
+    /**
+     * Parses the given condition expression. Uses the given cache, if one is given.
+     * 
+     * @param conditionParser The parser to use.
+     * @param conditionFlags The settings of the parser, as used in the keys of the cache.
+     * @param cache The cache of parsed conditions, or <code>null</code>.
+     * @param factory The factory to intern the parsed condition with, or <code>null</code>.
+     * @param expression The condition expression containing defined() calls.
+     * @param line The line of the expression, for the error message.
+     * 
+     * @return The parsed condition.
+     * 
+     * @throws FormatException If the expression can not be parsed.
+     */
+    static @NonNull Formula parseCondition(@NonNull CppConditionParser conditionParser,
+            @NonNull String conditionFlags, @Nullable ConditionCache cache, @Nullable FormulaFactory factory,
+            @NonNull String expression, int line) throws FormatException {
+        
+        String key = null;
+        Formula condition = null;
+        
+        if (cache != null) {
+            key = ConditionCache.createKey(conditionFlags, expression);
+            condition = cache.get(key);
         }
         
-        if (nesting.isEmpty()) {
-            topBlocks.add(block);
-        } else {
-            notNull(nesting.peek()).addNestedElement(block);
+        if (condition == null) {
+            try {
+                condition = conditionParser.parse(expression);
+            } catch (ExpressionFormatException e) {
+                throw new FormatException("Can't parse expression in line " + line + ": " + expression, e);
+            }
+            
+            if (factory != null) {
+                condition = factory.intern(condition);
+            }
+            
+            if (cache != null && key != null) {
+                cache.put(key, condition);
+            }
+            
+        } else if (factory != null) {
+            // the cache may be shared with parsers that use another factory, or none; a single lookup otherwise
+            condition = factory.intern(condition);
         }
+        
+        return condition;
+    }
+    
+    /**
+     * Computes the number of nodes of the given formula, if it is expanded into a tree (i.e. shared sub-formulas are
+     * counted each time they are used). Stops counting once the limit is exceeded.
+     * 
+     * @param formula The formula.
+     * @param limit The maximum size of interest.
+     * 
+     * @return The tree size; some value larger than the limit if it exceeds the limit.
+     */
+    private static long getTreeSize(@NonNull Formula formula, long limit) {
+        long result = 1;
+        if (limit < result) {
+            return result;
+        }
+        
+        if (formula instanceof Negation) {
+            result += getTreeSize(((Negation) formula).getFormula(), limit - result);
+            
+        } else if (formula instanceof Conjunction) {
+            Conjunction conjunction = (Conjunction) formula;
+            result += getTreeSize(conjunction.getLeft(), limit - result);
+            if (result <= limit) {
+                result += getTreeSize(conjunction.getRight(), limit - result);
+            }
+            
+        } else if (formula instanceof Disjunction) {
+            Disjunction disjunction = (Disjunction) formula;
+            result += getTreeSize(disjunction.getLeft(), limit - result);
+            if (result <= limit) {
+                result += getTreeSize(disjunction.getRight(), limit - result);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Creates the conjunction of the given formulas, through the {@link #formulaFactory}, if one is set.
+     * 
+     * @param left The left operand.
+     * @param right The right operand.
+     * 
+     * @return The conjunction.
+     */
+    private @NonNull Formula and(@NonNull Formula left, @NonNull Formula right) {
+        FormulaFactory factory = this.formulaFactory;
+        return factory != null ? factory.and(left, right) : new Conjunction(left, right);
+    }
+    
+    /**
+     * Creates the negation of the given formula, through the {@link #formulaFactory}, if one is set.
+     * 
+     * @param formula The formula to negate.
+     * 
+     * @return The negation.
+     */
+    private @NonNull Formula not(@NonNull Formula formula) {
+        FormulaFactory factory = this.formulaFactory;
+        return factory != null ? factory.not(formula) : new Negation(formula);
     }
     
     /**
@@ -280,15 +843,17 @@ public class BlockParser implements Closeable {
      * @throws FormatException If handling the #if fails.
      */
     private void handleIf(@NonNull String expression) throws FormatException {
-        Formula condition;
-        try {
-            condition = conditionParser.parse(expression);
-        } catch (ExpressionFormatException e) {
-            throw new FormatException("Can't parse expression in line " + currentLineNumber + ": " + expression, e);
+        LazyCondition.Context lazyConditionContext = this.lazyConditionContext;
+        if (lazyConditionContext != null) {
+            LazyCondition condition = new LazyCondition(lazyConditionContext, expression, null, currentLineNumber);
+            previousConditions.push(new PreviousConditions(condition));
+            
+            buildLazyBlock(condition);
+            return;
         }
-        List<@NonNull Formula> previousConditions = new LinkedList<>();
-        previousConditions.add(condition);
-        this.previousConditions.push(previousConditions);
+        
+        Formula condition = parseCondition(expression);
+        previousConditions.push(new PreviousConditions(condition));
         
         buildBlock(condition);
     }
@@ -304,29 +869,25 @@ public class BlockParser implements Closeable {
         if (previousConditions.isEmpty()) {
             throw new FormatException("Found #elif in line " + currentLineNumber + " with no previous #if condition");
         }
-        List<@NonNull Formula> previousConditions = notNull(this.previousConditions.peek());
-        if (previousConditions.isEmpty()) {
+        PreviousConditions previousConditions = notNull(this.previousConditions.peek());
+        if (previousConditions.isClosed()) {
             throw new FormatException("Found #elif in line " + currentLineNumber + " after an #else condition");
         }
         
-        Formula condition;
-        try {
-            condition = conditionParser.parse(expression);
-        } catch (ExpressionFormatException e) {
-            throw new FormatException("Can't parse expression in line " + currentLineNumber + ": " + expression, e);
-        }
-
-        // build conjunction over all negated previous conditions
-        Iterator<@NonNull Formula> previousIterator = previousConditions.iterator();
-        Formula notPrevious = new Negation(previousIterator.next());
-        while (previousIterator.hasNext()) {
-            notPrevious = new Conjunction(notPrevious, new Negation(previousIterator.next()));
+        if (lazyConditionContext != null) {
+            LazyCondition condition = previousConditions.addLazy(expression);
+            
+            finishBlock(); // finish the previous #if or #elif
+            buildLazyBlock(condition);
+            return;
         }
         
-        // add our immediate condition to the list of previous conditions
-        previousConditions.add(condition);
+        Formula condition = parseCondition(expression);
+
+        // conjunction over all negated previous conditions, and add our immediate condition to the previous conditions
+        Formula notPrevious = previousConditions.add(condition);
         
-        condition = new Conjunction(notPrevious, condition);
+        condition = and(notPrevious, condition);
         
         finishBlock(); // finish the previous #if or #elif
         buildBlock(condition);
@@ -341,22 +902,22 @@ public class BlockParser implements Closeable {
         if (previousConditions.isEmpty()) {
             throw new FormatException("Found #else in line " + currentLineNumber + " with no previous #if condition");
         }
-        List<@NonNull Formula> previousConditions = notNull(this.previousConditions.peek());
-        if (previousConditions.isEmpty()) {
+        PreviousConditions previousConditions = notNull(this.previousConditions.peek());
+        if (previousConditions.isClosed()) {
             throw new FormatException("Found #else in line " + currentLineNumber + " after an #else condition");
         }
         
-        // build conjunction over all negated previous conditions
-        Iterator<@NonNull Formula> previousIterator = previousConditions.iterator();
-        Formula notPrevious = new Negation(previousIterator.next());
-        while (previousIterator.hasNext()) {
-            notPrevious = new Conjunction(notPrevious, new Negation(previousIterator.next()));
+        if (lazyConditionContext != null) {
+            LazyCondition condition = previousConditions.closeLazy();
+            
+            finishBlock(); // finish the previous #if or #elif
+            buildLazyBlock(condition);
+            return;
         }
         
-        // clear previousConditions, because no more #elif or #else is allowed after this
-        previousConditions.clear();
-        
-        Formula condition = notPrevious;
+        // conjunction over all negated previous conditions; closes previousConditions, because no more #elif or
+        // #else is allowed after this
+        Formula condition = previousConditions.close();
         
         finishBlock(); // finish the previous #if or #elif
         buildBlock(condition);
@@ -379,52 +940,165 @@ public class BlockParser implements Closeable {
     }
     
     /**
-     * Removes inline (/* ... *&#47;)  and line (//) comments from the given line. Uses the {@link #inInlineComment}
-     * attribute to keep track whether we are inside an inline comment.
-     * 
-     * @param line The line to remove the comments from.
-     * @return The line with comments removed.
+     * A block that is not yet finished, i.e. its end line is not yet known.
      */
-    private String removeComments(String line) {
-        String replaced = line;
+    private static final class OpenBlock {
         
-        if (line.indexOf('/') != -1) {
-            StringBuilder result = new StringBuilder();
-            
-            char[] chars = line.toCharArray();
-            
-            for (int i = 0; i < chars.length; i++) {
-                if (inInlineComment) {
-                    if (chars[i] == '/' && i > 0 && chars[i - 1] == '*') {
-                        inInlineComment = false;
-                    }
-                    
-                } else {
-                    if (chars[i] == '/' && i + 1 < chars.length && chars[i + 1] == '/') {
-                        break; // line comment, everything from now on is removed
-                    } else if (chars[i] == '/' && i + 1 < chars.length && chars[i + 1] == '*') {
-                        inInlineComment = true;
-                    } else {
-                        result.append(chars[i]);
-                    }
-                }
-            }
-            
-            replaced = result.toString();
-            
-        } else if (inInlineComment) {
-            replaced = "";
+        private final int lineStart;
+        
+        private final @NonNull Formula condition;
+        
+        private final @NonNull Formula presenceCondition;
+        
+        /**
+         * The BDD of the {@link #presenceCondition}; {@link BddManager#UNKNOWN} if it is not canonicalized.
+         */
+        private final int bdd;
+        
+        /**
+         * Creates an open block that starts at the given line.
+         * 
+         * @param lineStart The line of the opening #if, #elif or #else.
+         * @param condition The immediate condition of the block.
+         * @param presenceCondition The presence condition of the block.
+         * @param bdd The BDD of the presence condition, or {@link BddManager#UNKNOWN}.
+         */
+        OpenBlock(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition, int bdd) {
+            this.lineStart = lineStart;
+            this.condition = condition;
+            this.presenceCondition = presenceCondition;
+            this.bdd = bdd;
+        }
+        
+    }
+    
+    /**
+     * The conditions of the previous #if and #elif siblings on one nesting level. Instead of a list of all previous
+     * conditions, this stores the conjunction of the negations of all but the last condition, and the last condition
+     * itself. Thus each #elif or #else only creates a constant number of new {@link Formula} nodes, and shares the
+     * conjunction of the previous siblings as a sub-tree.
+     */
+    private final class PreviousConditions {
+        
+        /**
+         * The conjunction over the negations of all previous conditions, except {@link #last}. <code>null</code> if
+         * {@link #last} is the condition of the #if.
+         */
+        private @Nullable Formula notBeforeLast;
+        
+        /**
+         * The immediate condition of the last #if or #elif. <code>null</code> after an #else.
+         */
+        private @Nullable Formula last;
+        
+        /**
+         * The lazy condition of the last #if or #elif, if conditions are parsed lazily. It refers to the conditions
+         * of all previous siblings. <code>null</code> after an #else.
+         */
+        private @Nullable LazyCondition lastLazy;
+        
+        /**
+         * Creates the previous conditions for a new #if.
+         * 
+         * @param condition The immediate condition of the #if.
+         */
+        PreviousConditions(@NonNull Formula condition) {
+            this.last = condition;
+        }
+        
+        /**
+         * Creates the previous conditions for a new #if, if conditions are parsed lazily.
+         * 
+         * @param condition The lazy condition of the #if.
+         */
+        PreviousConditions(@NonNull LazyCondition condition) {
+            this.lastLazy = condition;
+        }
+        
+        /**
+         * Returns whether an #else was already found on this nesting level.
+         * 
+         * @return Whether no more #elif or #else is allowed.
+         */
+        boolean isClosed() {
+            return last == null && lastLazy == null;
+        }
+        
+        /**
+         * Builds the conjunction over the negations of all previous conditions.
+         * 
+         * @return The conjunction over all negated previous conditions.
+         */
+        private @NonNull Formula notPrevious() {
+            Formula notBeforeLast = this.notBeforeLast;
+            Formula notLast = not(notNull(last));
+            return notBeforeLast == null ? notLast : and(notBeforeLast, notLast);
+        }
+        
+        /**
+         * Adds the condition of an #elif.
+         * 
+         * @param condition The immediate condition of the #elif.
+         * 
+         * @return The conjunction over the negations of all conditions before the #elif.
+         */
+        @NonNull Formula add(@NonNull Formula condition) {
+            Formula notPrevious = notPrevious();
+            this.notBeforeLast = notPrevious;
+            this.last = condition;
+            return notPrevious;
+        }
+        
+        /**
+         * Closes this nesting level because an #else was found.
+         * 
+         * @return The conjunction over the negations of all conditions before the #else.
+         */
+        @NonNull Formula close() {
+            Formula notPrevious = notPrevious();
+            this.notBeforeLast = null;
+            this.last = null;
+            return notPrevious;
+        }
+        
+        /**
+         * Adds the expression of an #elif, if conditions are parsed lazily.
+         * 
+         * @param expression The condition expression of the #elif.
+         * 
+         * @return The lazy condition of the #elif, including the negations of all previous conditions.
+         */
+        @NonNull LazyCondition addLazy(@NonNull String expression) {
+            LazyCondition condition = new LazyCondition(notNull(lazyConditionContext), expression, lastLazy,
+                    currentLineNumber);
+            this.lastLazy = condition;
+            return condition;
+        }
+        
+        /**
+         * Closes this nesting level because an #else was found, if conditions are parsed lazily.
+         * 
+         * @return The lazy condition of the #else.
+         */
+        @NonNull LazyCondition closeLazy() {
+            LazyCondition condition = new LazyCondition(notNull(lazyConditionContext), null, lastLazy,
+                    currentLineNumber);
+            this.lastLazy = null;
+            return condition;
         }
         
-        return replaced;
     }
     
     /**
-     * Closes the input reader that was passed to this parser in the constructor.
+     * Closes the input reader that was passed to this parser in the constructor. Does nothing if this parser was
+     * created for a {@link ByteBuffer}.
      */
     @Override
     public void close() throws IOException {
-        in.close();
+        Reader in = this.in;
+        if (in != null) {
+            in.close();
+        }
     }
     
 }
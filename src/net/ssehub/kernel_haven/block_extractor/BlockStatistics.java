@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.IVoidFormulaVisitor;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Statistics over the {@link CodeBlock}s of extracted source files. The files are folded into counters and
+ * {@link Distribution}s as they are added, so the memory use does not depend on the number or size of the files.
+ * Used by {@link CodeBlockExtractorParsingStatistics}; one instance is used per thread and the instances are
+ * {@link #merge(BlockStatistics) merged} at the end. The methods are synchronized, so the final merge sees all
+ * values written by other threads.
+ *
+ * @author Adam
+ */
+final class BlockStatistics {
+
+    private long numFiles;
+
+    private long numConditions;
+
+    private long numConditionsWithErrors;
+
+    private long numErrorVariables;
+
+    private long numLazyPresenceConditions;
+
+    private long numMaterializedPresenceConditions;
+
+    private final @NonNull Distribution blocksPerFile;
+
+    private final @NonNull Distribution nestingDepth;
+
+    private final @NonNull Distribution chainLength;
+
+    private final @NonNull Distribution conditionSize;
+
+    /**
+     * Creates empty statistics.
+     */
+    BlockStatistics() {
+        this.blocksPerFile = new Distribution();
+        this.nestingDepth = new Distribution();
+        this.chainLength = new Distribution();
+        this.conditionSize = new Distribution();
+    }
+
+    /**
+     * Adds the blocks of a source file to these statistics.
+     *
+     * @param file The source file.
+     */
+    synchronized void addFile(@NonNull SourceFile<CodeBlock> file) {
+        FileCounter counter = new FileCounter();
+        counter.countSiblings(file, 1);
+
+        numFiles++;
+        blocksPerFile.add(counter.numBlocks);
+        nestingDepth.add(counter.maxDepth);
+    }
+
+    /**
+     * Adds all values of other statistics to these ones.
+     *
+     * @param other The other statistics. Not modified.
+     */
+    synchronized void merge(@NonNull BlockStatistics other) {
+        synchronized (other) {
+            numFiles += other.numFiles;
+            numConditions += other.numConditions;
+            numConditionsWithErrors += other.numConditionsWithErrors;
+            numErrorVariables += other.numErrorVariables;
+            numLazyPresenceConditions += other.numLazyPresenceConditions;
+            numMaterializedPresenceConditions += other.numMaterializedPresenceConditions;
+            blocksPerFile.merge(other.blocksPerFile);
+            nestingDepth.merge(other.nestingDepth);
+            chainLength.merge(other.chainLength);
+            conditionSize.merge(other.conditionSize);
+        }
+    }
+
+    /**
+     * Returns the number of added files.
+     *
+     * @return The number of files.
+     */
+    synchronized long getNumFiles() {
+        return numFiles;
+    }
+
+    /**
+     * Returns the number of immediate conditions of all blocks.
+     *
+     * @return The number of conditions.
+     */
+    synchronized long getNumConditions() {
+        return numConditions;
+    }
+
+    /**
+     * Returns the number of conditions that contain the {@link CppConditionParser#ERROR_VARIBLE}, i.e. that could
+     * not be parsed.
+     *
+     * @return The number of conditions with error variables.
+     */
+    synchronized long getNumConditionsWithErrors() {
+        return numConditionsWithErrors;
+    }
+
+    /**
+     * Returns the number of {@link CppConditionParser#ERROR_VARIBLE} occurrences in all conditions.
+     *
+     * @return The number of error variables.
+     */
+    synchronized long getNumErrorVariables() {
+        return numErrorVariables;
+    }
+
+    /**
+     * Returns the number of blocks whose presence condition is created lazily, i.e. {@link LazyCodeBlock}s.
+     *
+     * @return The number of lazy presence conditions.
+     */
+    synchronized long getNumLazyPresenceConditions() {
+        return numLazyPresenceConditions;
+    }
+
+    /**
+     * Returns the number of lazy presence conditions that were already created when the file was added.
+     *
+     * @return The number of materialized presence conditions.
+     */
+    synchronized long getNumMaterializedPresenceConditions() {
+        return numMaterializedPresenceConditions;
+    }
+
+    /**
+     * Returns the distribution of the number of blocks (including nested blocks) per file.
+     *
+     * @return The distribution.
+     */
+    synchronized @NonNull Distribution getBlocksPerFile() {
+        return blocksPerFile;
+    }
+
+    /**
+     * Returns the distribution of the maximum nesting depth per file. Top-level blocks have depth 1; files without
+     * blocks have depth 0.
+     *
+     * @return The distribution.
+     */
+    synchronized @NonNull Distribution getNestingDepth() {
+        return nestingDepth;
+    }
+
+    /**
+     * Returns the distribution of the number of branches of #if chains, i.e. the number of blocks created by an #if
+     * and its #elif and #else siblings.
+     *
+     * @return The distribution.
+     */
+    synchronized @NonNull Distribution getChainLength() {
+        return chainLength;
+    }
+
+    /**
+     * Returns the distribution of the size (number of variables, constants and operators) of the immediate
+     * conditions.
+     *
+     * @return The distribution.
+     */
+    synchronized @NonNull Distribution getConditionSize() {
+        return conditionSize;
+    }
+
+    /**
+     * Counts the blocks of a single file and adds the per-block values to the surrounding statistics.
+     */
+    private final class FileCounter {
+
+        private long numBlocks;
+
+        private int maxDepth;
+
+        private final @NonNull ConditionCounter conditionCounter = new ConditionCounter();
+
+        /**
+         * Counts a list of sibling blocks and all of their nested blocks.
+         *
+         * @param siblings The sibling blocks.
+         * @param depth The nesting depth of the siblings.
+         */
+        void countSiblings(@NonNull Iterable<CodeBlock> siblings, int depth) {
+            CodeBlock previous = null;
+            int chain = 0;
+
+            for (CodeBlock block : siblings) {
+                // an #elif or #else starts in the line directly after the end of the previous sibling; after an
+                // #endif, the next #if starts at least two lines later
+                if (previous != null && block.getLineStart() == previous.getLineEnd() + 1) {
+                    chain++;
+                } else {
+                    if (chain > 0) {
+                        chainLength.add(chain);
+                    }
+                    chain = 1;
+                }
+                previous = block;
+
+                countBlock(notNull(block), depth);
+            }
+
+            if (chain > 0) {
+                chainLength.add(chain);
+            }
+        }
+
+        /**
+         * Counts a block and its nested blocks.
+         *
+         * @param block The block.
+         * @param depth The nesting depth of the block.
+         */
+        private void countBlock(@NonNull CodeBlock block, int depth) {
+            numBlocks++;
+            maxDepth = Math.max(maxDepth, depth);
+
+            if (block instanceof LazyCodeBlock) {
+                numLazyPresenceConditions++;
+                if (((LazyCodeBlock) block).isMaterialized()) {
+                    numMaterializedPresenceConditions++;
+                }
+            }
+
+            Formula condition = block.getCondition();
+            if (condition != null) {
+                conditionCounter.size = 0;
+                conditionCounter.errorVariables = 0;
+                condition.accept(conditionCounter);
+
+                numConditions++;
+                conditionSize.add(conditionCounter.size);
+                if (conditionCounter.errorVariables > 0) {
+                    numConditionsWithErrors++;
+                    numErrorVariables += conditionCounter.errorVariables;
+                }
+            }
+
+            if (block.getNestedElementCount() > 0) {
+                countSiblings(block, depth + 1);
+            }
+        }
+
+    }
+
+    /**
+     * A visitor that counts the nodes of a formula and the {@link CppConditionParser#ERROR_VARIBLE} occurrences.
+     */
+    private static final class ConditionCounter implements IVoidFormulaVisitor {
+
+        private int size;
+
+        private int errorVariables;
+
+        @Override
+        public void visitFalse(@NonNull False falseConstant) {
+            size++;
+        }
+
+        @Override
+        public void visitTrue(@NonNull True trueConstant) {
+            size++;
+        }
+
+        @Override
+        public void visitVariable(@NonNull Variable variable) {
+            size++;
+            if (variable.equals(CppConditionParser.ERROR_VARIBLE)) {
+                errorVariables++;
+            }
+        }
+
+        @Override
+        public void visitNegation(@NonNull Negation formula) {
+            size++;
+            formula.getFormula().accept(this);
+        }
+
+        @Override
+        public void visitDisjunction(@NonNull Disjunction formula) {
+            size++;
+            formula.getLeft().accept(this);
+            formula.getRight().accept(this);
+        }
+
+        @Override
+        public void visitConjunction(@NonNull Conjunction formula) {
+            size++;
+            formula.getLeft().accept(this);
+            formula.getRight().accept(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A low-memory representation of the blocks of a single source file. Instead of a hierarchy of {@link CodeBlock}
+ * objects, the blocks are stored in pre-order in a few primitive arrays; the formulas are stored as ids in a
+ * {@link FormulaTable} that may be shared with other tables. {@link CodeBlock}s are only created when they are
+ * requested via {@link #getBlock(int)} or {@link #toSourceFile()}.
+ * <p>
+ * Because of the pre-order, the nested blocks of the block at index <code>i</code> are at the indices
+ * <code>i + 1</code> to <code>i + getSubtreeSize(i) - 1</code>; the first nested block (if any) is at
+ * <code>i + 1</code> and the next sibling of a block <code>i</code> is at <code>i + getSubtreeSize(i)</code>.
+ * <p>
+ * Instances are created by {@link BlockParser#readBlockTable(FormulaTable)} and are immutable.
+ *
+ * @author Adam
+ */
+public final class BlockTable {
+
+    private final @NonNull File sourceFile;
+
+    private final @NonNull FormulaTable formulas;
+
+    private final int @NonNull [] lineStart;
+
+    private final int @NonNull [] lineEnd;
+
+    private final int @NonNull [] parent;
+
+    private final int @NonNull [] subtreeSize;
+
+    private final int @NonNull [] condition;
+
+    private final int @NonNull [] presenceCondition;
+
+    /**
+     * Creates a table. The arrays are not copied; they must all have the same length.
+     *
+     * @param sourceFile The source file of the blocks.
+     * @param formulas The table that contains the formulas of the blocks.
+     * @param lineStart The start lines of the blocks.
+     * @param lineEnd The end lines of the blocks.
+     * @param parent The indices of the parent blocks; -1 for top-level blocks.
+     * @param subtreeSize The number of blocks in the subtree of each block, including the block itself.
+     * @param condition The formula ids of the conditions.
+     * @param presenceCondition The formula ids of the presence conditions.
+     */
+    BlockTable(@NonNull File sourceFile, @NonNull FormulaTable formulas, int @NonNull [] lineStart,
+            int @NonNull [] lineEnd, int @NonNull [] parent, int @NonNull [] subtreeSize, int @NonNull [] condition,
+            int @NonNull [] presenceCondition) {
+
+        this.sourceFile = sourceFile;
+        this.formulas = formulas;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.parent = parent;
+        this.subtreeSize = subtreeSize;
+        this.condition = condition;
+        this.presenceCondition = presenceCondition;
+    }
+
+    /**
+     * Returns the source file of the blocks.
+     *
+     * @return The source file.
+     */
+    public @NonNull File getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * Returns the table that contains the formulas of the blocks.
+     *
+     * @return The formula table.
+     */
+    public @NonNull FormulaTable getFormulas() {
+        return formulas;
+    }
+
+    /**
+     * Returns the number of blocks in this table, including all nested blocks.
+     *
+     * @return The number of blocks.
+     */
+    public int size() {
+        return lineStart.length;
+    }
+
+    /**
+     * Returns the start line of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The start line.
+     */
+    public int getLineStart(int index) {
+        return lineStart[index];
+    }
+
+    /**
+     * Returns the end line of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The end line.
+     */
+    public int getLineEnd(int index) {
+        return lineEnd[index];
+    }
+
+    /**
+     * Returns the index of the parent block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The index of the parent block; -1 for top-level blocks.
+     */
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    /**
+     * Returns the number of blocks in the subtree of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The number of blocks in the subtree, including the block itself.
+     */
+    public int getSubtreeSize(int index) {
+        return subtreeSize[index];
+    }
+
+    /**
+     * Returns the formula id of the condition of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The id in the {@link FormulaTable}.
+     */
+    public int getConditionId(int index) {
+        return condition[index];
+    }
+
+    /**
+     * Returns the formula id of the presence condition of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The id in the {@link FormulaTable}.
+     */
+    public int getPresenceConditionId(int index) {
+        return presenceCondition[index];
+    }
+
+    /**
+     * Returns the condition of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The condition.
+     */
+    public @NonNull Formula getCondition(int index) {
+        return formulas.get(condition[index]);
+    }
+
+    /**
+     * Returns the presence condition of a block.
+     *
+     * @param index The index of the block.
+     *
+     * @return The presence condition.
+     */
+    public @NonNull Formula getPresenceCondition(int index) {
+        return formulas.get(presenceCondition[index]);
+    }
+
+    /**
+     * Creates a {@link CodeBlock} for a block, including all of its nested blocks. A new {@link CodeBlock} is
+     * created for every call.
+     *
+     * @param index The index of the block.
+     *
+     * @return The {@link CodeBlock}.
+     */
+    public @NonNull CodeBlock getBlock(int index) {
+        CodeBlock block = new CodeBlock(lineStart[index], lineEnd[index], sourceFile, getCondition(index),
+                getPresenceCondition(index));
+
+        int end = index + subtreeSize[index];
+        for (int child = index + 1; child < end; child += subtreeSize[child]) {
+            block.addNestedElement(getBlock(child));
+        }
+        return block;
+    }
+
+    /**
+     * Creates a {@link SourceFile} with {@link CodeBlock}s for all blocks; this is equal to the result of
+     * {@link BlockParser#readBlocks()}.
+     *
+     * @return The {@link SourceFile}.
+     */
+    public @NonNull SourceFile<CodeBlock> toSourceFile() {
+        SourceFile<CodeBlock> result = new SourceFile<>(sourceFile);
+        for (int index = 0; index < lineStart.length; index += subtreeSize[index]) {
+            result.addElement(getBlock(index));
+        }
+        return result;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return "BlockTable[" + sourceFile + ", " + size() + " blocks]";
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.util.Arrays;
+
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * An {@link IBlockListener} that creates a {@link BlockTable}. Used by
+ * {@link BlockParser#readBlockTable(FormulaTable)}.
+ * <p>
+ * Blocks get their index when they are opened, which is the pre-order. Index 0 is reserved for the pseudo block,
+ * since it is only known at the end of the file whether it is needed; if it is not, all blocks are moved by one
+ * index when the table is created.
+ *
+ * @author Adam
+ */
+class BlockTableBuilder implements IBlockListener {
+
+    private final @NonNull File sourceFile;
+
+    private final @NonNull FormulaTable formulas;
+
+    private int size;
+
+    private int @NonNull [] lineStart;
+
+    private int @NonNull [] lineEnd;
+
+    private int @NonNull [] parent;
+
+    private int @NonNull [] subtreeSize;
+
+    private int @NonNull [] condition;
+
+    private int @NonNull [] presenceCondition;
+
+    /**
+     * The indices of the blocks that are not yet closed; the innermost block is at <code>openSize - 1</code>.
+     */
+    private int @NonNull [] open;
+
+    private int openSize;
+
+    private @Nullable BlockTable result;
+
+    /**
+     * Creates a new table builder.
+     *
+     * @param sourceFile The source file of the blocks.
+     * @param formulas The table to add the formulas of the blocks to.
+     */
+    BlockTableBuilder(@NonNull File sourceFile, @NonNull FormulaTable formulas) {
+        this.sourceFile = sourceFile;
+        this.formulas = formulas;
+        this.size = 1; // index 0 is reserved for the pseudo block
+
+        int capacity = 16;
+        this.lineStart = new int[capacity];
+        this.lineEnd = new int[capacity];
+        this.parent = new int[capacity];
+        this.subtreeSize = new int[capacity];
+        this.condition = new int[capacity];
+        this.presenceCondition = new int[capacity];
+        this.open = new int[capacity];
+    }
+
+    @Override
+    public void blockOpened(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition,
+            int depth) {
+
+        if (size == this.lineStart.length) {
+            int capacity = size * 2;
+            this.lineStart = notNull(Arrays.copyOf(this.lineStart, capacity));
+            this.lineEnd = notNull(Arrays.copyOf(this.lineEnd, capacity));
+            this.parent = notNull(Arrays.copyOf(this.parent, capacity));
+            this.subtreeSize = notNull(Arrays.copyOf(this.subtreeSize, capacity));
+            this.condition = notNull(Arrays.copyOf(this.condition, capacity));
+            this.presenceCondition = notNull(Arrays.copyOf(this.presenceCondition, capacity));
+        }
+        if (openSize == open.length) {
+            open = notNull(Arrays.copyOf(open, openSize * 2));
+        }
+
+        int index = size++;
+        this.lineStart[index] = lineStart;
+        this.parent[index] = openSize > 0 ? open[openSize - 1] : 0;
+        this.condition[index] = formulas.add(condition);
+        this.presenceCondition[index] = formulas.add(presenceCondition);
+        open[openSize++] = index;
+    }
+
+    @Override
+    public void blockClosed(int lineStart, int lineEnd, @NonNull Formula condition,
+            @NonNull Formula presenceCondition, int depth) {
+
+        int index = open[--openSize];
+        this.lineEnd[index] = lineEnd;
+        this.subtreeSize[index] = size - index;
+    }
+
+    /**
+     * Creates the final table. If a pseudo block should be created, then it is added at index 0 for the whole file
+     * and all top-level blocks are nested inside of it.
+     */
+    @Override
+    public void endOfFile(int lineEnd, boolean pseudoBlock) {
+        int first;
+        if (pseudoBlock) {
+            first = 0;
+            int trueId = formulas.add(True.INSTANCE);
+            this.lineStart[0] = 1;
+            this.lineEnd[0] = lineEnd;
+            this.parent[0] = -1;
+            this.subtreeSize[0] = size;
+            this.condition[0] = trueId;
+            this.presenceCondition[0] = trueId;
+
+        } else {
+            first = 1;
+            for (int i = 1; i < size; i++) {
+                parent[i]--; // top-level blocks have parent 0, which becomes -1
+            }
+        }
+
+        result = new BlockTable(sourceFile, formulas, copy(lineStart, first), copy(this.lineEnd, first),
+                copy(parent, first), copy(subtreeSize, first), copy(condition, first), copy(presenceCondition, first));
+    }
+
+    /**
+     * Copies the used part of an array.
+     *
+     * @param array The array to copy.
+     * @param first The first index to copy.
+     *
+     * @return An array with the elements from <code>first</code> to {@link #size}.
+     */
+    private int @NonNull [] copy(int @NonNull [] array, int first) {
+        return notNull(Arrays.copyOfRange(array, first, size));
+    }
+
+    /**
+     * Returns the final table.
+     *
+     * @return The table with all blocks of the file.
+     *
+     * @throws IllegalStateException If the end of the file was not yet reached.
+     */
+    public @NonNull BlockTable getResult() throws IllegalStateException {
+        BlockTable result = this.result;
+        if (result == null) {
+            throw new IllegalStateException("End of file not yet reached");
+        }
+        return result;
+    }
+
+}
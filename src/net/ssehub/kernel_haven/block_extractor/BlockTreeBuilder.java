@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * An {@link IBlockListener} that creates the hierarchy of {@link CodeBlock}s. Used by
+ * {@link BlockParser#readBlocks()}.
+ *
+ * @author Adam
+ */
+class BlockTreeBuilder implements IBlockListener {
+
+    private @NonNull File sourceFile;
+    
+    /**
+     * All blocks that are not nested inside other blocks.
+     */
+    private @NonNull List<@NonNull CodeBlock> topBlocks;
+    
+    /**
+     * The blocks that are not yet finished.
+     */
+    private @NonNull Deque<@NonNull BlockBuilder> nesting;
+    
+    private @Nullable List<@NonNull CodeBlock> result;
+    
+    /**
+     * Whether {@link LazyCodeBlock}s are created, which ignore the presence conditions passed to this listener.
+     */
+    private boolean lazyPresenceConditions;
+    
+    private @Nullable FormulaFactory formulaFactory;
+    
+    /**
+     * Creates a new tree builder.
+     * 
+     * @param sourceFile The source file to specify in the {@link CodeBlock}s.
+     */
+    BlockTreeBuilder(@NonNull File sourceFile) {
+        this(sourceFile, false, null);
+    }
+    
+    /**
+     * Creates a new tree builder.
+     * 
+     * @param sourceFile The source file to specify in the {@link CodeBlock}s.
+     * @param lazyPresenceConditions Whether to create {@link LazyCodeBlock}s, which compute their presence
+     *      condition from their condition and their parent when it is requested. The presence conditions passed to
+     *      this listener are ignored then.
+     * @param formulaFactory The factory for the lazy presence conditions, or <code>null</code>.
+     */
+    BlockTreeBuilder(@NonNull File sourceFile, boolean lazyPresenceConditions,
+            @Nullable FormulaFactory formulaFactory) {
+        
+        this.sourceFile = sourceFile;
+        this.topBlocks = new LinkedList<>();
+        this.nesting = new LinkedList<>();
+        this.lazyPresenceConditions = lazyPresenceConditions;
+        this.formulaFactory = formulaFactory;
+    }
+    
+    @Override
+    public void blockOpened(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition,
+            int depth) {
+        
+        nesting.push(new BlockBuilder(lineStart, condition, presenceCondition));
+    }
+    
+    /**
+     * Called by the {@link BlockParser} instead of {@link #blockOpened(int, Formula, Formula, int)} if conditions are
+     * parsed lazily. The block is closed through {@link #blockClosed(int, int, Formula, Formula, int)}, as usual.
+     * Requires {@link #lazyPresenceConditions}.
+     * 
+     * @param lineStart The line of the opening #if, #elif or #else.
+     * @param condition The unparsed immediate condition of the block.
+     */
+    void blockOpened(int lineStart, @NonNull LazyCondition condition) {
+        nesting.push(new BlockBuilder(lineStart, condition));
+    }
+    
+    @Override
+    public void blockClosed(int lineStart, int lineEnd, @NonNull Formula condition,
+            @NonNull Formula presenceCondition, int depth) {
+        
+        CodeBlock block = notNull(nesting.pop()).build(lineEnd, sourceFile, lazyPresenceConditions, formulaFactory);
+        
+        if (nesting.isEmpty()) {
+            topBlocks.add(block);
+        } else {
+            notNull(nesting.peek()).addChild(block);
+        }
+    }
+    
+    /**
+     * Builds the final list of top blocks from {@link #topBlocks}. If a pseudo block should be created, then it is
+     * added for the whole file and the {@link #topBlocks} are nested inside of it.
+     */
+    @Override
+    public void endOfFile(int lineEnd, boolean pseudoBlock) {
+        if (pseudoBlock) {
+            // if we found code outside of #ifdefs, then add a pseudo block for the whole file
+            CodeBlock topElement = new CodeBlock(1, lineEnd, sourceFile, True.INSTANCE, True.INSTANCE);
+            for (CodeBlock element : topBlocks) {
+                topElement.addNestedElement(element);
+            }
+            result = notNull(Arrays.asList(topElement));
+            
+        } else {
+            result = topBlocks;
+        }
+    }
+    
+    /**
+     * Returns the final list of top-level blocks.
+     * 
+     * @return The top-level blocks.
+     * 
+     * @throws IllegalStateException If the end of the file was not yet reached.
+     */
+    public @NonNull List<@NonNull CodeBlock> getResult() throws IllegalStateException {
+        List<@NonNull CodeBlock> result = this.result;
+        if (result == null) {
+            throw new IllegalStateException("End of file not yet reached");
+        }
+        return result;
+    }
+    
+    /**
+     * A block that is not yet finished, i.e. its end line is not yet known. The {@link CodeBlock} is only created
+     * once, when the block is finished, since the end line of a {@link CodeBlock} can not be changed.
+     */
+    private static final class BlockBuilder {
+        
+        private final int lineStart;
+        
+        private final @NonNull Formula condition;
+        
+        private final @NonNull Formula presenceCondition;
+        
+        /**
+         * The unparsed condition, if conditions are parsed lazily. {@link #condition} is only a placeholder then.
+         */
+        private final @Nullable LazyCondition lazyCondition;
+        
+        /**
+         * The already finished nested blocks. <code>null</code> until the first child is added, since most blocks
+         * have no nested blocks.
+         */
+        private @Nullable List<@NonNull CodeBlock> children;
+        
+        /**
+         * Creates a builder for a block that starts at the given line.
+         * 
+         * @param lineStart The line of the opening #if, #elif or #else.
+         * @param condition The immediate condition of the block.
+         * @param presenceCondition The presence condition of the block.
+         */
+        BlockBuilder(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition) {
+            this.lineStart = lineStart;
+            this.condition = condition;
+            this.presenceCondition = presenceCondition;
+            this.lazyCondition = null;
+        }
+        
+        /**
+         * Creates a builder for a block with a lazy condition that starts at the given line.
+         * 
+         * @param lineStart The line of the opening #if, #elif or #else.
+         * @param lazyCondition The unparsed immediate condition of the block.
+         */
+        BlockBuilder(int lineStart, @NonNull LazyCondition lazyCondition) {
+            this.lineStart = lineStart;
+            this.condition = True.INSTANCE;
+            this.presenceCondition = True.INSTANCE;
+            this.lazyCondition = lazyCondition;
+        }
+        
+        /**
+         * Adds a finished nested block.
+         * 
+         * @param child The nested block.
+         */
+        void addChild(@NonNull CodeBlock child) {
+            List<@NonNull CodeBlock> children = this.children;
+            if (children == null) {
+                children = new ArrayList<>();
+                this.children = children;
+            }
+            children.add(child);
+        }
+        
+        /**
+         * Creates the final {@link CodeBlock}.
+         * 
+         * @param lineEnd The last line of the block.
+         * @param sourceFile The source file to specify in the {@link CodeBlock}.
+         * @param lazy Whether to create a {@link LazyCodeBlock}.
+         * @param formulaFactory The factory for the lazy presence condition, or <code>null</code>.
+         * 
+         * @return The finished block, including all nested blocks.
+         */
+        @NonNull CodeBlock build(int lineEnd, @NonNull File sourceFile, boolean lazy,
+                @Nullable FormulaFactory formulaFactory) {
+            
+            LazyCondition lazyCondition = this.lazyCondition;
+            CodeBlock block;
+            if (lazyCondition != null) {
+                block = new LazyCodeBlock(lineStart, lineEnd, sourceFile, lazyCondition, formulaFactory);
+            } else if (lazy) {
+                block = new LazyCodeBlock(lineStart, lineEnd, sourceFile, condition, formulaFactory);
+            } else {
+                block = new CodeBlock(lineStart, lineEnd, sourceFile, condition, presenceCondition);
+            }
+            List<@NonNull CodeBlock> children = this.children;
+            if (children != null) {
+                for (CodeBlock child : children) {
+                    if (child instanceof LazyCodeBlock) {
+                        ((LazyCodeBlock) child).setParent(block);
+                    }
+                    block.addNestedElement(child);
+                }
+            }
+            return block;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A fixed number of reusable heap buffers for file contents. {@link #acquire()} blocks while all buffers are in use,
+ * which bounds the memory used for files that are read ahead. The buffers start empty; a caller that needs more space
+ * replaces the acquired buffer with a larger one and {@link #release(ByteBuffer) releases} that one instead, so the
+ * buffers grow to the size of the largest files that were read into them.
+ *
+ * @author Adam
+ */
+final class BufferPool {
+
+    private final @NonNull BlockingQueue<@NonNull ByteBuffer> free;
+
+    private final int numBuffers;
+
+    private int numInUse;
+
+    private int maxInUse;
+
+    private long numWaits;
+
+    /**
+     * Creates a pool.
+     *
+     * @param numBuffers The number of buffers. Must be at least 1.
+     */
+    BufferPool(int numBuffers) {
+        if (numBuffers < 1) {
+            throw new IllegalArgumentException("Need at least one buffer, got " + numBuffers);
+        }
+        this.numBuffers = numBuffers;
+        this.free = new ArrayBlockingQueue<>(numBuffers);
+        for (int i = 0; i < numBuffers; i++) {
+            free.add(notNull(ByteBuffer.allocate(0)));
+        }
+    }
+
+    /**
+     * Takes a buffer from this pool. Blocks until a buffer is available.
+     *
+     * @return The buffer; its content is undefined.
+     *
+     * @throws InterruptedException If interrupted while waiting for a buffer.
+     */
+    @NonNull ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer result = free.poll();
+        if (result == null) {
+            synchronized (this) {
+                numWaits++;
+            }
+            result = free.take();
+        }
+
+        synchronized (this) {
+            numInUse++;
+            maxInUse = Math.max(maxInUse, numInUse);
+        }
+        return notNull(result);
+    }
+
+    /**
+     * Returns a buffer to this pool. This may be a larger replacement for the acquired buffer.
+     *
+     * @param buffer The buffer to return. Must not be used by the caller anymore.
+     */
+    void release(@NonNull ByteBuffer buffer) {
+        synchronized (this) {
+            if (numInUse == 0) {
+                throw new IllegalStateException("More buffers released than acquired");
+            }
+            numInUse--;
+        }
+        free.add(buffer);
+    }
+
+    /**
+     * Returns the number of buffers in this pool.
+     *
+     * @return The number of buffers.
+     */
+    int getNumBuffers() {
+        return numBuffers;
+    }
+
+    /**
+     * Returns the number of buffers that are currently acquired.
+     *
+     * @return The number of buffers in use.
+     */
+    synchronized int getNumInUse() {
+        return numInUse;
+    }
+
+    /**
+     * Returns the maximum number of buffers that were acquired at the same time.
+     *
+     * @return The maximum number of buffers in use.
+     */
+    synchronized int getMaxInUse() {
+        return maxInUse;
+    }
+
+    /**
+     * Returns how often {@link #acquire()} had to wait because all buffers were in use.
+     *
+     * @return The number of waits.
+     */
+    synchronized long getNumWaits() {
+        return numWaits;
+    }
+
+}
@@ -18,10 +18,28 @@ package net.ssehub.kernel_haven.block_extractor;
 import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import net.ssehub.kernel_haven.SetUpException;
+import net.ssehub.kernel_haven.block_extractor.FileScheduler.Mode;
+import net.ssehub.kernel_haven.block_extractor.FileScheduler.Statistics;
+import net.ssehub.kernel_haven.block_extractor.PhaseTimings.Phase;
 import net.ssehub.kernel_haven.code_model.AbstractCodeModelExtractor;
 import net.ssehub.kernel_haven.code_model.CodeBlock;
 import net.ssehub.kernel_haven.code_model.SourceFile;
@@ -34,6 +52,8 @@ import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
 import net.ssehub.kernel_haven.util.CodeExtractorException;
 import net.ssehub.kernel_haven.util.ExtractorException;
 import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.Logger;
+import net.ssehub.kernel_haven.util.logic.True;
 import net.ssehub.kernel_haven.util.null_checks.NonNull;
 import net.ssehub.kernel_haven.util.null_checks.Nullable;
 
@@ -45,11 +65,150 @@ import net.ssehub.kernel_haven.util.null_checks.Nullable;
  */
 public class CodeBlockExtractor extends AbstractCodeModelExtractor {
     
+    private static final @NonNull String GIT_BASE_REVISION_KEY = "code.extractor.git.base_revision";
+    
+    private static final @NonNull String GIT_TARGET_REVISION_KEY = "code.extractor.git.target_revision";
+    
+    private static final @NonNull String PHASE_TIMINGS_MBEAN_NAME
+            = "net.ssehub.kernel_haven.block_extractor:type=CodeBlockExtractor,name=PhaseTimings";
+    
+    private static final @NonNull Logger LOGGER = Logger.get();
+    
     public static final @NonNull Setting<@NonNull Boolean> ADD_PSEUDO_BLOCK = new Setting<>(
             "code.extractor.add_pseudo_block", Type.BOOLEAN, true, "true", "If code is found outside of all #ifdef "
                     + "blocks, this setting specifies whether to add a pseudo block for the whole file. This block "
                     + "starts at line 1, ends at the last line of the file and has the condition 'true'.");
     
+    public static final @NonNull Setting<@NonNull Integer> CONDITION_CACHE_SIZE = new Setting<>(
+            "code.extractor.condition_cache_size", Type.INTEGER, true, "10000", "The maximum number of parsed "
+                    + "#if and #elif conditions that are cached and shared between all extractor threads. Conditions "
+                    + "like defined(CONFIG_PM) are found in many files, so caching them avoids parsing them again. "
+                    + "Set to 0 to disable the cache.");
+    
+    public static final @NonNull Setting<@NonNull Integer> PARALLEL_PARSING_THRESHOLD = new Setting<>(
+            "code.extractor.parallel_parsing_threshold", Type.INTEGER, true, "4194304", "Source files with at least "
+                    + "this many bytes are split into chunks that are scanned in parallel. This avoids that a few very "
+                    + "large (e.g. generated) files are parsed by a single thread while all other extractor threads "
+                    + "are idle. The result is the same as for sequential parsing. Set to 0 to always parse "
+                    + "sequentially.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> USE_EXTRACTION_CACHE = new Setting<>(
+            "code.extractor.extraction_cache", Type.BOOLEAN, true, "false", "Whether to store the extraction "
+                    + "results in a persistent cache in " + DefaultSettings.CACHE_DIR.getKey() + ". The results are "
+                    + "keyed by a hash over the file content and the extractor settings, so files that did not change "
+                    + "since a previous run are not parsed again.");
+    
+    public static final @NonNull Setting<@NonNull Integer> EXTRACTION_CACHE_SIZE = new Setting<>(
+            "code.extractor.extraction_cache_size", Type.INTEGER, true, "1024", "The maximum size of the "
+                    + "persistent extraction cache (see " + USE_EXTRACTION_CACHE.getKey() + ") in MiB. If it is "
+                    + "exceeded, the least recently used entries are deleted. Also used for the revision store of "
+                    + "the incremental git mode (see " + GIT_BASE_REVISION_KEY + ").");
+    
+    public static final @NonNull Setting<@Nullable String> GIT_BASE_REVISION = new Setting<>(
+            GIT_BASE_REVISION_KEY, Type.STRING, false, null, "Enables the incremental git mode: "
+                    + DefaultSettings.SOURCE_TREE.getKey() + " must be the worktree of a git repository, with the "
+                    + "target revision (see " + GIT_TARGET_REVISION_KEY + ") checked out. Source files (see "
+                    + DefaultSettings.CODE_EXTRACTOR_FILE_REGEX.getKey() + ") that did not change between this base "
+                    + "revision and the target revision are not parsed; their models are loaded from a store in "
+                    + DefaultSettings.CACHE_DIR.getKey() + ". Only runs in the git mode fill this store, so the "
+                    + "first run (e.g. with the base revision as the target revision) parses all files. Any git "
+                    + "revision can be used, e.g. HEAD~1, a tag name or a commit id.");
+    
+    public static final @NonNull Setting<@NonNull String> GIT_TARGET_REVISION = new Setting<>(
+            GIT_TARGET_REVISION_KEY, Type.STRING, true, "HEAD", "The target revision for the incremental git "
+                    + "mode (see " + GIT_BASE_REVISION_KEY + "). This must be the revision that is checked out in "
+                    + DefaultSettings.SOURCE_TREE.getKey() + "; the setup fails if HEAD points to another commit. "
+                    + "Uncommitted changes to files that did not change between the revisions are not detected.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> MEASURE_PHASE_TIMINGS = new Setting<>(
+            "code.extractor.phase_timings", Type.BOOLEAN, true, "false", "Whether to measure the time spent in the "
+                    + "phases of the extraction (reading files, caches, directive scanning, condition parsing and tree "
+                    + "construction). The timings are published as the MBean " + PHASE_TIMINGS_MBEAN_NAME + " while "
+                    + "the files are extracted, and logged once all files are extracted.");
+    
+    public static final @NonNull Setting<@Nullable String> VARIABLE_INDEX_FILE = new Setting<>(
+            "code.extractor.variable_index_file", Type.STRING, false, null, "If set, an index from variable names to "
+                    + "the blocks whose conditions mention them is built while the files are parsed, and written to "
+                    + "this file once all files are extracted. The index contains all extracted files, including "
+                    + "files that were loaded from the caches. It can be read with VariableIndex.read() to find the "
+                    + "blocks and files that use a variable without walking all models. An existing file is "
+                    + "overwritten.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> SHARE_FORMULAS = new Setting<>(
+            "code.extractor.share_formulas", Type.BOOLEAN, true, "false", "Whether all parsed files share identical "
+                    + "variables and sub-formulas in their conditions and presence conditions, instead of each file "
+                    + "creating its own instances. This reduces the memory used by the extracted models. Models that "
+                    + "are loaded from the extraction cache are not shared. The shared formulas are only referenced "
+                    + "weakly, so formulas of discarded models are garbage collected; the table is cleared once all "
+                    + "files are extracted.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> BDD_PRESENCE_CONDITIONS = new Setting<>(
+            "code.extractor.bdd_presence_conditions", Type.BOOLEAN, true, "false", "Whether to canonicalize the "
+                    + "presence conditions of all blocks with a binary decision diagram, with a separate manager for "
+                    + "each file. The presence conditions are then simplified, equivalent presence conditions in a "
+                    + "file are identical, and blocks that can never be present have False as their presence "
+                    + "condition. A presence condition is kept as it is if its simplified formula would be larger. "
+                    + "Statistics of the BDD managers are logged once all files are extracted and available via "
+                    + "CodeBlockExtractor.getBddStatistics().");
+    
+    public static final @NonNull Setting<@NonNull Integer> BDD_MAX_NODES = new Setting<>(
+            "code.extractor.bdd_max_nodes", Type.INTEGER, true, "4000000", "The maximum number of nodes of the "
+                    + "binary decision diagram of a single file, if " + BDD_PRESENCE_CONDITIONS.getKey() + " is "
+                    + "enabled. Each node needs about 40 bytes, plus its simplified formula; the nodes are freed after "
+                    + "the file is parsed. Once the limit is reached, the presence conditions of the file that would "
+                    + "need new nodes are kept as they are.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> LAZY_PRESENCE_CONDITIONS = new Setting<>(
+            "code.extractor.lazy_presence_conditions", Type.BOOLEAN, true, "false", "Whether the presence conditions "
+                    + "of the blocks are only created when they are first requested, instead of while parsing. This "
+                    + "saves memory and time if the analysis only uses the immediate conditions. Storing the models in "
+                    + "the extraction cache creates all presence conditions. Such blocks are only equal to other "
+                    + "blocks with lazy presence conditions. Has no effect if " + BDD_PRESENCE_CONDITIONS.getKey()
+                    + " is enabled.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> LAZY_CONDITIONS = new Setting<>(
+            "code.extractor.lazy_conditions", Type.BOOLEAN, true, "false", "Whether the conditions of the blocks are "
+                    + "only parsed when they are first requested, instead of while parsing the file. The raw "
+                    + "expressions are kept until then. This saves time if the analysis only uses the structure of "
+                    + "the blocks. Implies " + LAZY_PRESENCE_CONDITIONS.getKey() + ". An unparseable condition is "
+                    + "handled according to " + CppParsingSettings.INVALID_CONDITION_SETTING.getKey() + " when it is "
+                    + "requested, instead of while parsing the file; an error that fails the file in eager parsing "
+                    + "(e.g. with EXCEPTION) is then thrown as an unchecked ConditionParseException by the methods of "
+                    + "the block. Ignored with a warning if " + BDD_PRESENCE_CONDITIONS.getKey() + ", "
+                    + VARIABLE_INDEX_FILE.getKey() + ", " + USE_EXTRACTION_CACHE.getKey() + ", the git mode or the "
+                    + "off-heap model store is enabled, since these need all conditions anyway.");
+    
+    public static final @NonNull Setting<@NonNull Boolean> OFF_HEAP_MODEL_STORE = new Setting<>(
+            "code.extractor.off_heap_model_store", Type.BOOLEAN, true, "false", "Whether all extracted models are "
+                    + "written into an off-heap store, from which they are decoded again only when they are requested "
+                    + "(see getModelStore()). The extractor passes read-only handles on, which decode the models from "
+                    + "the store when their elements are accessed. This keeps the heap usage and GC pauses bounded "
+                    + "when the models of whole trees are held. The store is freed once the models are no longer "
+                    + "referenced.");
+    
+    public static final @NonNull Setting<@NonNull Integer> OFF_HEAP_MODEL_STORE_BUDGET = new Setting<>(
+            "code.extractor.off_heap_model_store_budget", Type.INTEGER, true, "1024", "The maximum size of the direct "
+                    + "memory used by the off-heap model store (see " + OFF_HEAP_MODEL_STORE.getKey() + ") in MiB. "
+                    + "If it is exceeded, further models are stored in memory-mapped files in "
+                    + DefaultSettings.CACHE_DIR.getKey() + ". The JVM option -XX:MaxDirectMemorySize must allow "
+                    + "this budget.");
+    
+    public static final @NonNull Setting<@NonNull Integer> MAX_DEPTH = new Setting<>(
+            "code.extractor.max_depth", Type.INTEGER, true, "0", "The maximum nesting depth of the extracted blocks; "
+                    + "1 only extracts the top-level blocks (the pseudo block is not counted). The directives of "
+                    + "deeper blocks are still matched to find a missing #endif, but their conditions are not parsed "
+                    + "and no blocks are created for them. Set to 0 to extract blocks at any depth.");
+    
+    /**
+     * Files with at least this many bytes are memory-mapped instead of read into a heap buffer.
+     */
+    private static final long MAPPING_THRESHOLD = 1024 * 1024;
+    
+    /**
+     * Files smaller than this many bytes are batched together by {@link #runOnFiles(List, int, Consumer, Consumer)}.
+     */
+    private static final long SCHEDULING_BATCH_SIZE = 64 * 1024;
+    
     private File sourceTree;
     
     private boolean handleLinuxMacros;
@@ -60,42 +219,970 @@ public class CodeBlockExtractor extends AbstractCodeModelExtractor {
     
     private boolean addPseudoBlock;
     
+    private @Nullable ConditionCache conditionCache;
+    
+    private int parallelThreshold;
+    
+    private @Nullable ExtractionCache extractionCache;
+    
+    /**
+     * The store for models in the incremental git mode. <code>null</code> if the git mode is disabled.
+     */
+    private @Nullable ExtractionCache revisionStore;
+    
+    /**
+     * The blob ids of all files that are the same in the base and target revision. <code>null</code> if the git
+     * mode is disabled.
+     */
+    private @Nullable Map<@NonNull String, @NonNull String> unchangedFiles;
+    
+    /**
+     * The blob ids of all files in the target revision. <code>null</code> if the git mode is disabled.
+     */
+    private @Nullable Map<@NonNull String, @NonNull String> targetFiles;
+    
+    /**
+     * Whether {@link #runOnFiles(List, int, Consumer, Consumer)} reads the files ahead. See
+     * {@link #setReadAhead(int, int, int)}.
+     */
+    private boolean readAhead;
+    
+    private int readAheadIoThreads;
+    
+    private int readAheadQueueDepth;
+    
+    private int readAheadBuffers;
+    
+    /**
+     * The timings of the extraction phases. <code>null</code> if they are not measured.
+     */
+    private @Nullable PhaseTimings timings;
+    
+    /**
+     * The timings that are currently registered as the MBean {@link #PHASE_TIMINGS_MBEAN_NAME}. Guarded by the lock
+     * of this class.
+     */
+    private static @Nullable PhaseTimings registeredTimings;
+    
+    /**
+     * The number of files without conditional directives, which were extracted without a {@link BlockParser}.
+     */
+    private final @NonNull LongAdder numFastPathFiles = new LongAdder();
+    
+    /**
+     * The index from variables to blocks. <code>null</code> if it is not built.
+     */
+    private @Nullable VariableIndex variableIndex;
+    
+    /**
+     * The file that the {@link #variableIndex} is written to. <code>null</code> if it is not built.
+     */
+    private @Nullable File variableIndexFile;
+    
+    /**
+     * The factory that all parsers create their formulas with. <code>null</code> if formulas are not shared.
+     */
+    private @Nullable FormulaFactory formulaFactory;
+    
+    /**
+     * The node limit of the {@link BddManager} that is created for each file. 0 if the presence conditions are not
+     * canonicalized.
+     */
+    private int bddMaxNodes;
+    
+    /**
+     * The statistics of the {@link BddManager}s of all parsed files. <code>null</code> if the presence conditions are
+     * not canonicalized.
+     */
+    private BddManager.@Nullable Statistics bddStatistics;
+    
+    private boolean lazyPresenceConditions;
+    
+    private boolean lazyConditions;
+    
+    private int maxDepth;
+    
+    /**
+     * The store that {@link #runOnFiles(List, int, Consumer, Consumer)} writes all models into. <code>null</code> if
+     * it is disabled.
+     */
+    private @Nullable OffHeapModelStore modelStore;
+    
     @Override
     protected void init(@NonNull Configuration config) throws SetUpException {
         config.registerSetting(CppParsingSettings.INVALID_CONDITION_SETTING);
         config.registerSetting(CppParsingSettings.HANDLE_LINUX_MACROS);
         config.registerSetting(ADD_PSEUDO_BLOCK);
+        config.registerSetting(CONDITION_CACHE_SIZE);
+        config.registerSetting(PARALLEL_PARSING_THRESHOLD);
+        config.registerSetting(USE_EXTRACTION_CACHE);
+        config.registerSetting(EXTRACTION_CACHE_SIZE);
+        config.registerSetting(GIT_BASE_REVISION);
+        config.registerSetting(GIT_TARGET_REVISION);
+        config.registerSetting(MEASURE_PHASE_TIMINGS);
+        config.registerSetting(VARIABLE_INDEX_FILE);
+        config.registerSetting(SHARE_FORMULAS);
+        config.registerSetting(BDD_PRESENCE_CONDITIONS);
+        config.registerSetting(BDD_MAX_NODES);
+        config.registerSetting(LAZY_PRESENCE_CONDITIONS);
+        config.registerSetting(LAZY_CONDITIONS);
+        config.registerSetting(OFF_HEAP_MODEL_STORE);
+        config.registerSetting(OFF_HEAP_MODEL_STORE_BUDGET);
+        config.registerSetting(MAX_DEPTH);
         
         this.sourceTree = config.getValue(DefaultSettings.SOURCE_TREE);
         this.fuzzyParsing = config.getValue(DefaultSettings.FUZZY_PARSING);
         this.handleLinuxMacros = config.getValue(CppParsingSettings.HANDLE_LINUX_MACROS);
         this.invalidConditionHandling = config.getValue(CppParsingSettings.INVALID_CONDITION_SETTING);
         this.addPseudoBlock = config.getValue(ADD_PSEUDO_BLOCK);
+        
+        int conditionCacheSize = config.getValue(CONDITION_CACHE_SIZE);
+        if (conditionCacheSize < 0) {
+            throw new SetUpException(CONDITION_CACHE_SIZE.getKey() + " must not be negative");
+        }
+        this.conditionCache = conditionCacheSize > 0 ? new ConditionCache(conditionCacheSize) : null;
+        
+        this.parallelThreshold = config.getValue(PARALLEL_PARSING_THRESHOLD);
+        if (parallelThreshold < 0) {
+            throw new SetUpException(PARALLEL_PARSING_THRESHOLD.getKey() + " must not be negative");
+        }
+        
+        int extractionCacheSize = config.getValue(EXTRACTION_CACHE_SIZE);
+        if (extractionCacheSize < 0) {
+            throw new SetUpException(EXTRACTION_CACHE_SIZE.getKey() + " must not be negative");
+        }
+        long maxStoreSize = extractionCacheSize * 1024L * 1024L;
+        
+        this.maxDepth = config.getValue(MAX_DEPTH);
+        if (maxDepth < 0) {
+            throw new SetUpException(MAX_DEPTH.getKey() + " must not be negative");
+        }
+        
+        // all settings that influence the result of parsing
+        String settings = ConditionCache.createFlags(handleLinuxMacros, fuzzyParsing,
+                notNull(invalidConditionHandling)) + (addPseudoBlock ? "P" : "-")
+                + (config.getValue(BDD_PRESENCE_CONDITIONS) ? "B" : "-") + (maxDepth > 0 ? "D" + maxDepth : "-");
+        File cacheDir = config.getValue(DefaultSettings.CACHE_DIR);
+        
+        if (config.getValue(USE_EXTRACTION_CACHE)) {
+            this.extractionCache = createStore(new File(cacheDir, "code_block_extractor"), maxStoreSize, settings);
+        }
+        
+        String baseRevision = config.getValue(GIT_BASE_REVISION);
+        if (baseRevision != null) {
+            config.registerSetting(DefaultSettings.CODE_EXTRACTOR_FILE_REGEX);
+            initGitMode(baseRevision, config.getValue(GIT_TARGET_REVISION),
+                    config.getValue(DefaultSettings.CODE_EXTRACTOR_FILE_REGEX));
+            this.revisionStore = createStore(new File(cacheDir, "code_block_extractor_git"), maxStoreSize,
+                    settings);
+        }
+        
+        if (config.getValue(MEASURE_PHASE_TIMINGS)) {
+            this.timings = createPhaseTimings();
+        }
+        
+        String variableIndexFile = config.getValue(VARIABLE_INDEX_FILE);
+        if (variableIndexFile != null) {
+            this.variableIndex = new VariableIndex();
+            this.variableIndexFile = new File(variableIndexFile);
+        }
+        
+        if (config.getValue(SHARE_FORMULAS)) {
+            this.formulaFactory = new FormulaFactory();
+        }
+        
+        if (config.getValue(BDD_PRESENCE_CONDITIONS)) {
+            int maxNodes = config.getValue(BDD_MAX_NODES);
+            if (maxNodes < 2) {
+                throw new SetUpException(BDD_MAX_NODES.getKey() + " must be at least 2");
+            }
+            this.bddMaxNodes = maxNodes;
+            this.bddStatistics = new BddManager.Statistics();
+        }
+        if (config.getValue(OFF_HEAP_MODEL_STORE)) {
+            int budget = config.getValue(OFF_HEAP_MODEL_STORE_BUDGET);
+            if (budget < 0) {
+                throw new SetUpException(OFF_HEAP_MODEL_STORE_BUDGET.getKey() + " must not be negative");
+            }
+            this.modelStore = new OffHeapModelStore(budget * 1024L * 1024L,
+                    new File(cacheDir, "code_block_extractor_spill"));
+        }
+        
+        this.lazyPresenceConditions = config.getValue(LAZY_PRESENCE_CONDITIONS);
+        this.lazyConditions = config.getValue(LAZY_CONDITIONS);
+        // these parse all conditions anyway; storing the models also has to fail for unparseable ones
+        if (lazyConditions && (bddStatistics != null || variableIndex != null || extractionCache != null
+                || revisionStore != null || modelStore != null)) {
+            LOGGER.logWarning(LAZY_CONDITIONS.getKey() + " is ignored, since " + BDD_PRESENCE_CONDITIONS.getKey()
+                    + ", " + VARIABLE_INDEX_FILE.getKey() + ", " + USE_EXTRACTION_CACHE.getKey()
+                    + ", the git mode or the off-heap model store is enabled");
+            this.lazyConditions = false;
+        }
+    }
+    
+    /**
+     * Creates the timings for the extraction phases. Registers them as an MBean, replacing the timings of a previous
+     * extractor. {@link #finish()} logs them and unregisters the MBean.
+     * 
+     * @return The timings.
+     */
+    private static synchronized @NonNull PhaseTimings createPhaseTimings() {
+        PhaseTimings timings = new PhaseTimings();
+        
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(PHASE_TIMINGS_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(timings, name);
+            registeredTimings = timings;
+        } catch (JMException e) {
+            LOGGER.logException("Can't register phase timings as MBean " + PHASE_TIMINGS_MBEAN_NAME, e);
+        }
+        
+        return timings;
+    }
+    
+    /**
+     * Unregisters the MBean of the given timings. Does nothing if the MBean was already unregistered, or replaced by
+     * the timings of another extractor.
+     * 
+     * @param timings The timings to unregister.
+     */
+    private static synchronized void unregisterPhaseTimings(@NonNull PhaseTimings timings) {
+        if (registeredTimings != timings) {
+            return;
+        }
+        registeredTimings = null;
+        
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(PHASE_TIMINGS_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.logException("Can't unregister phase timings MBean " + PHASE_TIMINGS_MBEAN_NAME, e);
+        }
+    }
+    
+    /**
+     * Creates a persistent store for extraction results.
+     * 
+     * @param directory The directory of the store.
+     * @param maxSize The maximum size in bytes.
+     * @param settings The settings that influence the extraction result.
+     * 
+     * @return The store.
+     * 
+     * @throws SetUpException If creating the directory fails.
+     */
+    private static @NonNull ExtractionCache createStore(@NonNull File directory, long maxSize,
+            @NonNull String settings) throws SetUpException {
+        
+        try {
+            return new ExtractionCache(directory, maxSize, settings);
+        } catch (IOException e) {
+            throw new SetUpException("Can't create extraction cache in " + directory, e);
+        }
+    }
+    
+    /**
+     * Initializes the incremental git mode. Determines which files changed between the two revisions.
+     * 
+     * @param baseRevision The base revision.
+     * @param targetRevision The target revision, which is checked out in the source tree.
+     * @param sourceFiles The pattern for the paths of the source files. Other files are ignored.
+     * 
+     * @throws SetUpException If the source tree is not a git repository, the revisions can not be resolved, or the
+     *      target revision is not checked out.
+     */
+    private void initGitMode(@NonNull String baseRevision, @NonNull String targetRevision,
+            @NonNull Pattern sourceFiles) throws SetUpException {
+        
+        try {
+            GitRepository repository = new GitRepository(sourceTree);
+            String baseCommit = repository.resolveCommit(baseRevision);
+            String targetCommit = repository.resolveCommit(targetRevision);
+            
+            // the unchanged files are not read, so their models would be wrong for another revision
+            String headCommit = repository.resolveCommit("HEAD");
+            if (!headCommit.equals(targetCommit)) {
+                throw new SetUpException("The target revision " + targetRevision + " (" + targetCommit + ") is not "
+                        + "checked out in " + sourceTree + ", HEAD is " + headCommit);
+            }
+            
+            Map<@NonNull String, @NonNull String> baseFiles = repository.readFiles(baseCommit, sourceFiles);
+            Map<@NonNull String, @NonNull String> targetFiles = repository.readFiles(targetCommit, sourceFiles);
+            
+            Map<@NonNull String, @NonNull String> unchangedFiles = new HashMap<>();
+            for (Map.Entry<@NonNull String, @NonNull String> file : targetFiles.entrySet()) {
+                if (file.getValue().equals(baseFiles.get(file.getKey()))) {
+                    unchangedFiles.put(file.getKey(), file.getValue());
+                }
+            }
+            
+            this.targetFiles = targetFiles;
+            this.unchangedFiles = unchangedFiles;
+            
+            LOGGER.logInfo("Incremental git mode: " + (targetFiles.size() - unchangedFiles.size()) + " of "
+                    + targetFiles.size() + " files changed between " + baseRevision + " (" + baseCommit + ") and "
+                    + targetRevision + " (" + targetCommit + ")");
+            
+        } catch (IOException e) {
+            throw new SetUpException("Can't read git repository in " + sourceTree, e);
+        }
     }
 
     @Override
     protected @Nullable SourceFile<CodeBlock> runOnFile(@NonNull File target) throws ExtractorException {
         File absoulteTarget = new File(sourceTree, target.getPath());
         
+        SourceFile<CodeBlock> stored = loadUnchanged(target, absoulteTarget);
+        if (stored != null) {
+            return storeModel(stored);
+        }
+        
+        ByteBuffer content;
+        try {
+            content = read(absoulteTarget, null);
+        } catch (IOException e) {
+            throw createReadException(target, absoulteTarget, e);
+        }
+        
+        return storeModel(extract(target, absoulteTarget, content));
+    }
+    
+    /**
+     * In the incremental git mode, loads the model of a file that did not change between the base and target
+     * revision from the revision store, without reading the file.
+     * 
+     * @param target The file, relative to the source tree.
+     * @param absoluteTarget The absolute file.
+     * 
+     * @return The stored model, or <code>null</code> if the file has to be parsed.
+     */
+    private @Nullable SourceFile<CodeBlock> loadUnchanged(@NonNull File target, @NonNull File absoluteTarget) {
+        PhaseTimings timings = this.timings;
+        ExtractionCache revisionStore = this.revisionStore;
+        SourceFile<CodeBlock> result = null;
+        
+        if (revisionStore != null) {
+            String blobId = notNull(unchangedFiles).get(target.getPath().replace(File.separatorChar, '/'));
+            if (blobId != null) {
+                long start = timings != null ? System.nanoTime() : 0;
+                result = revisionStore.get(revisionStore.createGitBlobKey(blobId), target, absoluteTarget.length());
+                if (timings != null) {
+                    timings.add(Phase.CACHE, start);
+                }
+            }
+        }
+        
+        VariableIndex variableIndex = this.variableIndex;
+        if (result != null && variableIndex != null) {
+            variableIndex.addFile(result);
+        }
+        return result;
+    }
+    
+    /**
+     * Reads the content of a file, see {@link #readContent(File, ByteBuffer)}.
+     * 
+     * @param absoluteTarget The absolute file to read.
+     * @param reuse A buffer to read into if it is large enough, or <code>null</code>.
+     * 
+     * @return A buffer with the file content.
+     * 
+     * @throws IOException If reading the file fails.
+     */
+    private @NonNull ByteBuffer read(@NonNull File absoluteTarget, @Nullable ByteBuffer reuse) throws IOException {
+        PhaseTimings timings = this.timings;
+        long start = timings != null ? System.nanoTime() : 0;
+        ByteBuffer content = readContent(absoluteTarget, reuse);
+        if (timings != null) {
+            timings.add(Phase.READ, start);
+        }
+        return content;
+    }
+    
+    /**
+     * Creates the exception for a file that can not be read.
+     * 
+     * @param target The file, relative to the source tree.
+     * @param absoluteTarget The absolute file.
+     * @param cause The exception that occurred while reading.
+     * 
+     * @return The exception to throw.
+     */
+    private static @NonNull CodeExtractorException createReadException(@NonNull File target,
+            @NonNull File absoluteTarget, @NonNull IOException cause) {
+        
+        return notNull((CodeExtractorException)
+                new CodeExtractorException(target, "Can't read " + absoluteTarget).initCause(cause));
+    }
+    
+    /**
+     * Extracts the blocks from the content of a file. Uses and fills the extraction cache and the revision store, if
+     * they are enabled.
+     * 
+     * @param target The file, relative to the source tree.
+     * @param absoluteTarget The absolute file.
+     * @param content The content of the file.
+     * 
+     * @return The extracted model.
+     * 
+     * @throws ExtractorException If the file can not be parsed.
+     */
+    private @NonNull SourceFile<CodeBlock> extract(@NonNull File target, @NonNull File absoluteTarget,
+            @NonNull ByteBuffer content) throws ExtractorException {
+        
         SourceFile<CodeBlock> result = new SourceFile<>(target);
+        PhaseTimings timings = this.timings;
         
-        try (BlockParser parser = new BlockParser(new FileReader(absoulteTarget), target,
-                handleLinuxMacros, fuzzyParsing, notNull(invalidConditionHandling))) {
-            parser.setAddPseudoBlock(addPseudoBlock);
+        try {
+            if (extractWithoutParser(result, content)) {
+                storeRevision(target, result);
+                VariableIndex variableIndex = this.variableIndex;
+                if (variableIndex != null) {
+                    // no variables, but count the file
+                    variableIndex.addFile(result);
+                }
+                return result;
+            }
+            
+            ExtractionCache extractionCache = this.extractionCache;
+            String cacheKey = null;
+            if (extractionCache != null) {
+                long start = timings != null ? System.nanoTime() : 0;
+                cacheKey = extractionCache.createKey(content);
+                SourceFile<CodeBlock> cached = extractionCache.get(cacheKey, target, content.remaining());
+                if (timings != null) {
+                    timings.add(Phase.CACHE, start);
+                }
+                if (cached != null) {
+                    VariableIndex variableIndex = this.variableIndex;
+                    if (variableIndex != null) {
+                        variableIndex.addFile(cached);
+                    }
+                    return cached;
+                }
+            }
+            
+            BddManager bddManager = null;
+            if (bddStatistics != null) {
+                bddManager = new BddManager(bddMaxNodes);
+                bddManager.setFormulaFactory(formulaFactory);
+            }
+            try (BlockParser parser = new BlockParser(content, notNull(Charset.defaultCharset()), target,
+                    handleLinuxMacros, fuzzyParsing, notNull(invalidConditionHandling))) {
+                parser.setAddPseudoBlock(addPseudoBlock);
+                parser.setConditionCache(conditionCache);
+                parser.setParallelThreshold(parallelThreshold);
+                parser.setPhaseTimings(timings);
+                parser.setVariableIndex(variableIndex);
+                parser.setFormulaFactory(formulaFactory);
+                parser.setBddManager(bddManager);
+                parser.setLazyPresenceConditions(lazyPresenceConditions);
+                parser.setLazyConditions(lazyConditions);
+                parser.setMaxDepth(maxDepth);
+                
+                for (CodeBlock block : parser.readBlocks()) {
+                    result.addElement(block);
+                }
+            }
+            if (bddManager != null) {
+                notNull(bddStatistics).add(bddManager);
+            }
             
-            for (CodeBlock block : parser.readBlocks()) {
-                result.addElement(block);
+            long start = timings != null ? System.nanoTime() : 0;
+            if (extractionCache != null && cacheKey != null) {
+                store(extractionCache, cacheKey, result);
+            }
+            storeRevision(target, result);
+            if (timings != null && (extractionCache != null || this.revisionStore != null)) {
+                timings.add(Phase.CACHE, start);
             }
             
         } catch (IOException e) {
-            throw (CodeExtractorException)
-                new CodeExtractorException(target, "Can't read " + absoulteTarget).initCause(e);
+            throw createReadException(target, absoluteTarget, e);
         } catch (FormatException e) {
             throw new CodeExtractorException(target, e);
         }
         
         return result;
     }
+    
+    /**
+     * Creates the result for a file without conditional directives directly, without a {@link BlockParser}: a file
+     * without #if, #ifdef or #ifndef only has the pseudo block, if it contains any code outside of comments. The
+     * result is the same as the {@link BlockParser} would create; if that can't be determined cheaply, the file is
+     * parsed normally. The result is not stored in the extraction cache, since hashing the content is not cheaper
+     * than this.
+     * 
+     * @param result The source file to add the pseudo block to.
+     * @param content The content of the file.
+     * 
+     * @return Whether the fast path was taken; if <code>false</code>, the file has to be parsed.
+     */
+    private boolean extractWithoutParser(@NonNull SourceFile<CodeBlock> result, @NonNull ByteBuffer content) {
+        if (ConditionalDirectiveFilter.mayContainConditionals(content)) {
+            return false;
+        }
+        
+        if (addPseudoBlock) {
+            int lineEnd = ConditionalDirectiveFilter.findPseudoBlockEnd(content);
+            if (lineEnd == ConditionalDirectiveFilter.UNKNOWN) {
+                return false;
+            }
+            if (lineEnd > 0) {
+                result.addElement(new CodeBlock(1, lineEnd, result.getPath(), True.INSTANCE, True.INSTANCE));
+            }
+        }
+        
+        numFastPathFiles.increment();
+        return true;
+    }
+    
+    /**
+     * Stores the model of a file in the revision store, if the incremental git mode is enabled.
+     * 
+     * @param target The file, relative to the source tree.
+     * @param result The model of the file.
+     */
+    private void storeRevision(@NonNull File target, @NonNull SourceFile<CodeBlock> result) {
+        ExtractionCache revisionStore = this.revisionStore;
+        if (revisionStore != null) {
+            String blobId = notNull(targetFiles).get(target.getPath().replace(File.separatorChar, '/'));
+            if (blobId != null) {
+                store(revisionStore, revisionStore.createGitBlobKey(blobId), result);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of files that were extracted without a {@link BlockParser}, because they contain no
+     * conditional directives.
+     * 
+     * @return The number of files that took the fast path.
+     */
+    public long getNumFastPathFiles() {
+        return numFastPathFiles.sum();
+    }
+    
+    /**
+     * Makes {@link #runOnFiles(List, int, Consumer, Consumer)} read the files ahead in separate I/O threads. The
+     * extractor threads then take the file contents from a queue and don't block on the disk, which helps with cold
+     * file system caches and network file systems. This is not a setting, since it has no effect on normal
+     * KernelHaven runs (see {@link #runOnFiles(List, int, Consumer, Consumer)}).
+     * 
+     * @param ioThreads The number of threads that read files ahead.
+     * @param queueDepth The maximum number of files that are read ahead and wait for an extractor thread.
+     * @param buffers The number of reusable buffers for the contents of files that are read ahead. This bounds the
+     *      memory used for file contents; files that are memory-mapped don't need a buffer. Should be larger than the
+     *      queue depth plus the number of extractor threads, so that the I/O threads are limited by the queue instead
+     *      of the buffers.
+     * 
+     * @throws IllegalArgumentException If any of the values is smaller than 1.
+     */
+    public void setReadAhead(int ioThreads, int queueDepth, int buffers) throws IllegalArgumentException {
+        if (ioThreads < 1 || queueDepth < 1 || buffers < 1) {
+            throw new IllegalArgumentException("Need at least one I/O thread, a queue depth of at least one and at "
+                    + "least one buffer, got " + ioThreads + ", " + queueDepth + " and " + buffers);
+        }
+        this.readAhead = true;
+        this.readAheadIoThreads = ioThreads;
+        this.readAheadQueueDepth = queueDepth;
+        this.readAheadBuffers = buffers;
+    }
+    
+    /**
+     * Extracts all of the given files with the given number of threads. This is an API for callers that embed the
+     * extractor (e.g. the benchmarks): the framework does not call it, but distributes the files over its own threads
+     * and calls {@link #runOnFile(File)} for each file, so the scheduling and read-ahead of this method have no effect
+     * on normal KernelHaven runs; thus they are not configured by settings. In contrast to the framework, this knows
+     * all files up front: it uses a {@link FileScheduler} that starts the largest files first and batches small files
+     * together. If {@link #setReadAhead(int, int, int)} was called, a {@link ReadAheadPipeline} is used instead:
+     * separate I/O threads read the files ahead (in the given order) into pooled buffers, so that the extractor
+     * threads don't wait for the disk. This is only possible here, since {@link #runOnFile(File)} does not know which
+     * file is requested next. The statistics of the run, including the tail idle time of the threads and the
+     * occupancy of the read-ahead queue and buffers, are logged; at its end, {@link #finish()} is called like at the
+     * end of {@link #run()}. If
+     * {@link #OFF_HEAP_MODEL_STORE} is enabled, the receiver gets handles to the models in the
+     * {@link #getModelStore()}.
+     * 
+     * @param files The files to extract, relative to the source tree.
+     * @param numThreads The number of extractor threads to use.
+     * @param results Receives the extracted files. Called concurrently by multiple threads.
+     * @param errors Receives the exceptions for files that could not be extracted. Called concurrently by multiple
+     *      threads.
+     * 
+     * @return The statistics of the run.
+     * 
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public @NonNull Statistics runOnFiles(@NonNull List<@NonNull File> files, int numThreads,
+            @NonNull Consumer<@NonNull SourceFile<CodeBlock>> results,
+            @NonNull Consumer<@NonNull ExtractorException> errors) throws InterruptedException {
+        
+        Statistics statistics;
+        if (readAhead) {
+            BufferPool buffers = new BufferPool(readAheadBuffers);
+            ReadAheadPipeline<@NonNull LoadedFile> pipeline = new ReadAheadPipeline<>(readAheadIoThreads,
+                    readAheadQueueDepth);
+            statistics = pipeline.run(files, numThreads, (file) -> load(file, buffers), (loaded) -> {
+                try {
+                    results.accept(storeModel(loaded.extract()));
+                } catch (ExtractorException e) {
+                    errors.accept(e);
+                } finally {
+                    ByteBuffer buffer = loaded.pooledBuffer;
+                    if (buffer != null) {
+                        buffers.release(buffer);
+                    }
+                }
+            });
+            
+            LOGGER.logInfo("Extracted " + files.size() + " files with " + numThreads + " threads: " + statistics,
+                    getNumFastPathFiles() + " files without conditional directives were not parsed",
+                    pipeline.getSummary(),
+                    "read-ahead buffers: " + buffers.getMaxInUse() + " of " + buffers.getNumBuffers()
+                    + " used at most, I/O threads waited for a free buffer " + buffers.getNumWaits() + " times");
+            
+        } else {
+            FileScheduler scheduler = new FileScheduler(notNull(sourceTree), numThreads, Mode.LARGEST_FIRST,
+                    SCHEDULING_BATCH_SIZE);
+            statistics = scheduler.run(files, (file) -> {
+                try {
+                    SourceFile<CodeBlock> result = runOnFile(file);
+                    if (result != null) {
+                        results.accept(result);
+                    }
+                } catch (ExtractorException e) {
+                    errors.accept(e);
+                }
+            });
+            
+            LOGGER.logInfo("Extracted " + files.size() + " files with " + numThreads + " threads: " + statistics,
+                    getNumFastPathFiles() + " files without conditional directives were not parsed");
+        }
+        
+        finish();
+        
+        return statistics;
+    }
+    
+    /**
+     * Extracts all files of the source tree. The framework calls {@link #runOnFile(File)} for each file from its own
+     * threads, and has no hook that is called once all files are extracted; so this wraps the extraction of the
+     * framework and calls {@link #finish()} at its end.
+     */
+    @Override
+    public void run() {
+        try {
+            super.run();
+        } finally {
+            finish();
+        }
+    }
+    
+    /**
+     * Called once all files are extracted, by {@link #run()} or {@link #runOnFiles(List, int, Consumer, Consumer)}.
+     * Writes the {@link #getVariableIndex()} to the {@link #VARIABLE_INDEX_FILE}. Logs the statistics of the caches,
+     * the stores and the {@link #getPhaseTimings()}. Unregisters the MBean of the timings, clears the shared formulas
+     * of the {@link #getFormulaFactory()} and deletes the files of the {@link #getModelStore()}. The model store
+     * itself is not closed, since the handles that were passed on read from it while the analysis runs; its memory is
+     * freed once it is no longer referenced.
+     */
+    private void finish() {
+        VariableIndex variableIndex = this.variableIndex;
+        File variableIndexFile = this.variableIndexFile;
+        if (variableIndex != null && variableIndexFile != null) {
+            try {
+                variableIndex.write(variableIndexFile);
+                LOGGER.logInfo("Variable index with " + variableIndex.getVariables().size() + " variables in "
+                        + variableIndex.getNumFiles() + " files written to " + variableIndexFile);
+            } catch (IOException e) {
+                LOGGER.logException("Can't write variable index to " + variableIndexFile, e);
+            }
+        }
+        ConditionCache conditionCache = this.conditionCache;
+        if (conditionCache != null) {
+            LOGGER.logInfo(conditionCache.toString());
+        }
+        ExtractionCache extractionCache = this.extractionCache;
+        if (extractionCache != null) {
+            LOGGER.logInfo("Extraction cache: " + extractionCache);
+        }
+        ExtractionCache revisionStore = this.revisionStore;
+        if (revisionStore != null) {
+            LOGGER.logInfo("Git revision store: " + revisionStore);
+        }
+        BddManager.Statistics bddStatistics = this.bddStatistics;
+        if (bddStatistics != null) {
+            LOGGER.logInfo(bddStatistics.getSummary());
+        }
+        OffHeapModelStore modelStore = this.modelStore;
+        if (modelStore != null) {
+            LOGGER.logInfo(modelStore.toString());
+            modelStore.deleteSpillFiles();
+        }
+        PhaseTimings timings = this.timings;
+        if (timings != null) {
+            LOGGER.logInfo(timings.getSummary());
+            unregisterPhaseTimings(timings);
+        }
+        FormulaFactory formulaFactory = this.formulaFactory;
+        if (formulaFactory != null) {
+            formulaFactory.clear();
+        }
+    }
+    
+    /**
+     * Writes an extracted model into the {@link #modelStore}, if it is enabled. Failures to store the model are only
+     * logged, since the model is still valid.
+     * 
+     * @param result The extracted model.
+     * 
+     * @return A handle that reads the model from the store, or the given model if the store is disabled or storing
+     *      failed.
+     */
+    private @NonNull SourceFile<CodeBlock> storeModel(@NonNull SourceFile<CodeBlock> result) {
+        OffHeapModelStore modelStore = this.modelStore;
+        SourceFile<CodeBlock> handle = result;
+        if (modelStore != null) {
+            PhaseTimings timings = this.timings;
+            long start = timings != null ? System.nanoTime() : 0;
+            try {
+                handle = modelStore.put(result);
+            } catch (IOException e) {
+                LOGGER.logException("Can't store model of " + result.getPath() + " in off-heap store", e);
+            }
+            if (timings != null) {
+                timings.add(Phase.CACHE, start);
+            }
+        }
+        return handle;
+    }
+    
+    /**
+     * Loads a file in an I/O thread of the {@link ReadAheadPipeline}: either its stored model in the incremental git
+     * mode, or its content.
+     * 
+     * @param target The file, relative to the source tree.
+     * @param buffers The pool of buffers to read the content into.
+     * 
+     * @return The loaded file.
+     * 
+     * @throws InterruptedException If interrupted while waiting for a buffer.
+     */
+    private @NonNull LoadedFile load(@NonNull File target, @NonNull BufferPool buffers) throws InterruptedException {
+        File absoluteTarget = new File(sourceTree, target.getPath());
+        LoadedFile result = new LoadedFile(target, absoluteTarget);
+        
+        result.stored = loadUnchanged(target, absoluteTarget);
+        if (result.stored == null) {
+            ByteBuffer buffer = buffers.acquire();
+            try {
+                ByteBuffer content = read(absoluteTarget, buffer);
+                result.content = content;
+                // keep a larger heap buffer in the pool instead of the acquired one; mapped buffers are not pooled
+                result.pooledBuffer = content.hasArray() ? content : buffer;
+            } catch (IOException e) {
+                result.pooledBuffer = buffer;
+                result.readError = e;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * A file that was loaded by an I/O thread of the {@link ReadAheadPipeline}.
+     */
+    private final class LoadedFile {
+        
+        private final @NonNull File target;
+        
+        private final @NonNull File absoluteTarget;
+        
+        private @Nullable SourceFile<CodeBlock> stored;
+        
+        private @Nullable ByteBuffer content;
+        
+        private @Nullable IOException readError;
+        
+        /**
+         * The buffer to return to the {@link BufferPool} after the file is extracted.
+         */
+        private @Nullable ByteBuffer pooledBuffer;
+        
+        /**
+         * Creates a loaded file.
+         * 
+         * @param target The file, relative to the source tree.
+         * @param absoluteTarget The absolute file.
+         */
+        LoadedFile(@NonNull File target, @NonNull File absoluteTarget) {
+            this.target = target;
+            this.absoluteTarget = absoluteTarget;
+        }
+        
+        /**
+         * Extracts the model of this file.
+         * 
+         * @return The extracted model.
+         * 
+         * @throws ExtractorException If reading the file failed or it can not be parsed.
+         */
+        @NonNull SourceFile<CodeBlock> extract() throws ExtractorException {
+            SourceFile<CodeBlock> result = stored;
+            if (result == null) {
+                IOException readError = this.readError;
+                if (readError != null) {
+                    throw createReadException(target, absoluteTarget, readError);
+                }
+                result = CodeBlockExtractor.this.extract(target, absoluteTarget, notNull(content));
+            }
+            return result;
+        }
+        
+    }
+    
+    /**
+     * Stores an extraction result in the given store. Failures are only logged, since the result is still valid.
+     * 
+     * @param store The store.
+     * @param key The key for the result.
+     * @param result The extraction result.
+     */
+    private static void store(@NonNull ExtractionCache store, @NonNull String key,
+            @NonNull SourceFile<CodeBlock> result) {
+        
+        try {
+            store.put(key, result);
+        } catch (IOException e) {
+            LOGGER.logException("Can't store extraction result for " + result.getPath() + " in cache", e);
+        }
+    }
+    
+    /**
+     * Reads the complete content of the given file into a buffer. Large files are memory-mapped, all others are read
+     * with a single bulk read into a heap buffer. The given buffer is used for this if it is large enough.
+     * 
+     * @param file The file to read.
+     * @param reuse A heap buffer to read into if it is large enough, or <code>null</code>. Its content is overwritten.
+     * 
+     * @return A buffer with the file content between its position and limit. This is either the given buffer, a new
+     *      heap buffer or a memory-mapped buffer.
+     * 
+     * @throws IOException If reading the file fails.
+     */
+    static @NonNull ByteBuffer readContent(@NonNull File file, @Nullable ByteBuffer reuse) throws IOException {
+        ByteBuffer result;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + file);
+            }
+            
+            if (size >= MAPPING_THRESHOLD) {
+                result = channel.map(MapMode.READ_ONLY, 0, size);
+            } else {
+                if (reuse != null && reuse.capacity() >= size) {
+                    result = reuse;
+                    result.clear();
+                    result.limit((int) size);
+                } else {
+                    result = ByteBuffer.allocate((int) size);
+                }
+                while (result.hasRemaining() && channel.read(result) != -1) {
+                    // read until buffer is full or end of file is reached
+                }
+                result.flip();
+            }
+        }
+        return notNull(result);
+    }
+
+    /**
+     * Returns the cache for parsed conditions that is shared between all extractor threads. Its counters can be used
+     * to find a good value for {@link #CONDITION_CACHE_SIZE}.
+     * 
+     * @return The condition cache, or <code>null</code> if caching is disabled.
+     */
+    public @Nullable ConditionCache getConditionCache() {
+        return conditionCache;
+    }
+
+    /**
+     * Returns the persistent cache for extraction results. Its counters show the hit rate and the number of source
+     * bytes that did not need to be parsed in this run.
+     * 
+     * @return The extraction cache, or <code>null</code> if it is disabled.
+     */
+    public @Nullable ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+
+    /**
+     * Returns the store for models of the incremental git mode. Its hits are the files that were not parsed because
+     * they did not change between the base and target revision.
+     * 
+     * @return The revision store, or <code>null</code> if the git mode is disabled.
+     */
+    public @Nullable ExtractionCache getRevisionStore() {
+        return revisionStore;
+    }
+
+    /**
+     * Returns the index from variables to the blocks whose conditions mention them. It contains all files that were
+     * extracted so far, including files that were loaded from the caches instead of being parsed. It is written to
+     * the {@link #VARIABLE_INDEX_FILE} once all files are extracted.
+     * 
+     * @return The index, or <code>null</code> if {@link #VARIABLE_INDEX_FILE} is not set.
+     */
+    public @Nullable VariableIndex getVariableIndex() {
+        return variableIndex;
+    }
+    
+    /**
+     * Returns the factory that the formulas of all parsed files are created with.
+     * 
+     * @return The factory, or <code>null</code> if {@link #SHARE_FORMULAS} is disabled.
+     */
+    public @Nullable FormulaFactory getFormulaFactory() {
+        return formulaFactory;
+    }
+    
+    /**
+     * Returns the statistics of the {@link BddManager}s that the presence conditions of the parsed files were
+     * canonicalized with. They show the size of the unique tables and the hit rate of the operation caches.
+     * 
+     * @return The statistics, or <code>null</code> if {@link #BDD_PRESENCE_CONDITIONS} is disabled.
+     */
+    public BddManager.@Nullable Statistics getBddStatistics() {
+        return bddStatistics;
+    }
+    
+    /**
+     * Returns the off-heap store that all extracted models are written into. Analyses can read the models from it,
+     * decoding each one only when it is needed.
+     * 
+     * @return The store, or <code>null</code> if {@link #OFF_HEAP_MODEL_STORE} is disabled.
+     */
+    public @Nullable OffHeapModelStore getModelStore() {
+        return modelStore;
+    }
+    
+    /**
+     * Returns the timings of the extraction phases, which are summed over all extractor threads.
+     * 
+     * @return The timings, or <code>null</code> if {@link #MEASURE_PHASE_TIMINGS} is disabled.
+     */
+    public @Nullable PhaseTimings getPhaseTimings() {
+        return timings;
+    }
 
     @Override
     protected @NonNull String getName() {
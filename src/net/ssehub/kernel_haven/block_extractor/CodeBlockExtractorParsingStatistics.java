@@ -19,27 +19,24 @@ import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.ssehub.kernel_haven.SetUpException;
 import net.ssehub.kernel_haven.analysis.AbstractAnalysis;
 import net.ssehub.kernel_haven.code_model.CodeBlock;
 import net.ssehub.kernel_haven.code_model.SourceFile;
 import net.ssehub.kernel_haven.config.Configuration;
-import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
 import net.ssehub.kernel_haven.cpp_utils.CppParsingSettings;
 import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
 import net.ssehub.kernel_haven.util.Util;
-import net.ssehub.kernel_haven.util.logic.Conjunction;
-import net.ssehub.kernel_haven.util.logic.Disjunction;
-import net.ssehub.kernel_haven.util.logic.False;
-import net.ssehub.kernel_haven.util.logic.IVoidFormulaVisitor;
-import net.ssehub.kernel_haven.util.logic.Negation;
-import net.ssehub.kernel_haven.util.logic.True;
-import net.ssehub.kernel_haven.util.logic.Variable;
 import net.ssehub.kernel_haven.util.null_checks.NonNull;
 
 /**
- * An "analysis" that collects statistics for the parsing of of the {@link CodeBlockExtractor}.
+ * An "analysis" that collects statistics for the parsing of of the {@link CodeBlockExtractor}. The extracted files
+ * are counted while the extractor is running and are not kept in memory.
  *
  * @author Adam
  */
@@ -56,8 +53,6 @@ public class CodeBlockExtractorParsingStatistics extends AbstractAnalysis {
 
     @Override
     public void run() {
-        List<@NonNull SourceFile<CodeBlock>> files = new ArrayList<>(200000);
-        
         long t0 = System.currentTimeMillis();
         try {
             cmProvider.start();
@@ -65,16 +60,6 @@ public class CodeBlockExtractorParsingStatistics extends AbstractAnalysis {
             LOGGER.logException("Can't start CM extractor", e);
         }
         
-        SourceFile<?> file;
-        while ((file = cmProvider.getNextResult()) != null) {
-            files.add(file.castTo(CodeBlock.class));
-        }
-        
-        long t1 = System.currentTimeMillis();
-
-        
-        // anaylze results
-        
         try {
             config.registerSetting(CppParsingSettings.INVALID_CONDITION_SETTING);
             if (config.getValue(CppParsingSettings.INVALID_CONDITION_SETTING)
@@ -87,88 +72,83 @@ public class CodeBlockExtractorParsingStatistics extends AbstractAnalysis {
             LOGGER.logException("Can't read setting " + CppParsingSettings.INVALID_CONDITION_SETTING.getKey(), e);
         }
         
-        ErrorVariableCounter counter = new ErrorVariableCounter();
+        BlockStatistics statistics = collectStatistics();
         
-        for (SourceFile<CodeBlock> f : files) {
-            for (CodeBlock b : f) {
-                countInBlok(b, counter);
-            }
-        }
+        long t1 = System.currentTimeMillis();
         
         int numExceptions = 0;
         while (cmProvider.getNextException() != null) {
             numExceptions++;
         }
         
+        long numConditions = statistics.getNumConditions();
+        long numLazy = statistics.getNumLazyPresenceConditions();
         LOGGER.logInfo("CodeBlockExtractor parsing statistics:",
                 "\tRuntime: " + Util.formatDurationMs(t1 - t0),
-                "\tNumber of files: " + files.size(),
+                "\tNumber of files: " + statistics.getNumFiles(),
                 "\tNumber of exceptions (unparseable files): " + numExceptions,
-                "\tNumber of conditions: " + counter.numConditions,
-                "\tNumber of error variables in conditions (unparseable conditions): " + counter.count
+                "\tNumber of conditions: " + numConditions,
+                "\tNumber of error variables in conditions (unparseable conditions): "
+                        + statistics.getNumErrorVariables(),
+                "\tConditions with error variables: " + statistics.getNumConditionsWithErrors() + " ("
+                        + String.format("%.2f", numConditions == 0 ? 0.0
+                                : statistics.getNumConditionsWithErrors() * 100.0 / numConditions) + "%)",
+                "\tBlocks per file: " + statistics.getBlocksPerFile(),
+                "\tMaximum nesting depth per file: " + statistics.getNestingDepth(),
+                "\tBranches per #if/#elif/#else chain: " + statistics.getChainLength(),
+                "\tCondition size (variables, constants and operators): " + statistics.getConditionSize(),
+                "\tLazy presence conditions materialized during extraction: "
+                        + statistics.getNumMaterializedPresenceConditions() + " of " + numLazy + " ("
+                        + String.format("%.2f", numLazy == 0 ? 0.0
+                                : statistics.getNumMaterializedPresenceConditions() * 100.0 / numLazy) + "%)"
         );
     }
     
     /**
-     * Runs the given counter on the immediate conditions of the given block and all children.
+     * Consumes all results of the code model provider and folds them into statistics, while the extractor is still
+     * running. The results are counted by a thread pool; each thread has its own {@link BlockStatistics}, which are
+     * merged at the end. The queue of the pool is bounded, so only a few results are in memory at any time.
      * 
-     * @param block The block to run on.
-     * @param counter The counter to run.
-     */
-    private static void countInBlok(@NonNull CodeBlock block, @NonNull ErrorVariableCounter counter) {
-        if (block.getCondition() != null) {
-            counter.numConditions++;
-            notNull(block.getCondition()).accept(counter);
-        }
-        
-        for (CodeBlock child : block) {
-            countInBlok(child, counter);
-        }
-    }
-    
-    /**
-     * A visitor that counts the number of {@link CppConditionParser#ERROR_VARIBLE} occurrences.
+     * @return The merged statistics of all results.
      */
-    private static class ErrorVariableCounter implements IVoidFormulaVisitor {
-
-        private int count;
+    private @NonNull BlockStatistics collectStatistics() {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        List<@NonNull BlockStatistics> perThread = new ArrayList<>();
+        ThreadLocal<BlockStatistics> local = ThreadLocal.withInitial(() -> {
+            BlockStatistics statistics = new BlockStatistics();
+            synchronized (perThread) {
+                perThread.add(statistics);
+            }
+            return statistics;
+        });
         
-        private int numConditions = 0;
+        // if the queue is full, the reading thread counts the result itself, which also slows down reading
+        ExecutorService pool = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(numThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
         
-        @Override
-        public void visitFalse(@NonNull False falseConstant) {
-            // do nothing
-        }
-
-        @Override
-        public void visitTrue(@NonNull True trueConstant) {
-            // do nothing
+        SourceFile<?> file;
+        while ((file = cmProvider.getNextResult()) != null) {
+            SourceFile<CodeBlock> result = file.castTo(CodeBlock.class);
+            pool.execute(() -> notNull(local.get()).addFile(result));
         }
-
-        @Override
-        public void visitVariable(@NonNull Variable variable) {
-            if (variable.equals(CppConditionParser.ERROR_VARIBLE)) {
-                count++;
+        
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // continue waiting
             }
-        }
-
-        @Override
-        public void visitNegation(@NonNull Negation formula) {
-            formula.getFormula().accept(this);
-        }
-
-        @Override
-        public void visitDisjunction(@NonNull Disjunction formula) {
-            formula.getLeft().accept(this);
-            formula.getRight().accept(this);
-        }
-
-        @Override
-        public void visitConjunction(@NonNull Conjunction formula) {
-            formula.getLeft().accept(this);
-            formula.getRight().accept(this);
+        } catch (InterruptedException e) {
+            LOGGER.logException("Interrupted while waiting for statistics", e);
+            Thread.currentThread().interrupt();
         }
         
+        BlockStatistics merged = new BlockStatistics();
+        synchronized (perThread) {
+            for (BlockStatistics statistics : perThread) {
+                merged.merge(statistics);
+            }
+        }
+        return merged;
     }
-
+    
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A thread-safe, size-bounded cache for parsed #if and #elif conditions. A single instance can be shared between
+ * all {@link BlockParser}s (and thus all extractor threads); the keys contain the settings of the
+ * {@link CppConditionParser}, so parsers with different settings never see each other's results.
+ * <p>
+ * The cache is split into segments that are locked individually. Each segment evicts its least recently used entry
+ * when it is full. Failed parses (i.e. exceptions) are never cached.
+ *
+ * @author Adam
+ */
+public class ConditionCache {
+
+    private static final int DEFAULT_NUM_SEGMENTS = 16;
+
+    private final @NonNull Segment @NonNull [] segments;
+
+    private final int capacity;
+
+    private final @NonNull LongAdder hits;
+
+    private final @NonNull LongAdder misses;
+
+    private final @NonNull LongAdder evictions;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param capacity The maximum number of conditions to store. Must be at least 1.
+     */
+    public ConditionCache(int capacity) {
+        this(capacity, Math.min(capacity, DEFAULT_NUM_SEGMENTS));
+    }
+
+    /**
+     * Creates a new, empty cache with the given number of segments.
+     *
+     * @param capacity The maximum number of conditions to store. Must be at least 1.
+     * @param numSegments The number of individually locked segments. Must be between 1 and capacity.
+     */
+    ConditionCache(int capacity, int numSegments) {
+        if (capacity < 1 || numSegments < 1 || numSegments > capacity) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or segment count " + numSegments);
+        }
+
+        this.capacity = capacity;
+        this.segments = new @NonNull Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            // distribute the capacity so that the sum of all segments is exactly the capacity
+            int segmentCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+            segments[i] = new Segment(segmentCapacity);
+        }
+
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Creates the part of the cache keys that represents the settings of a {@link CppConditionParser}.
+     *
+     * @param handleLinuxMacros Whether the parser handles preprocessor macros found in the Linux Kernel.
+     * @param fuzzyParsing Whether the parser does fuzzy parsing.
+     * @param invalidConditionHandling How the parser handles unparseable conditions.
+     *
+     * @return A prefix to pass to {@link #createKey(String, String)}.
+     */
+    static @NonNull String createFlags(boolean handleLinuxMacros, boolean fuzzyParsing,
+            @NonNull InvalidConditionHandling invalidConditionHandling) {
+
+        return (handleLinuxMacros ? "L" : "-") + (fuzzyParsing ? "F" : "-") + invalidConditionHandling.ordinal() + ":";
+    }
+
+    /**
+     * Creates the key for the given expression. Leading and trailing whitespace is removed and all other sequences of
+     * whitespace are replaced by a single space, since this does not change the meaning of the expression.
+     *
+     * @param flags The settings of the parser, as created by
+     *      {@link #createFlags(boolean, boolean, InvalidConditionHandling)}.
+     * @param expression The expression to create the key for.
+     *
+     * @return The key for the given expression.
+     */
+    static @NonNull String createKey(@NonNull String flags, @NonNull String expression) {
+        StringBuilder key = new StringBuilder(flags.length() + expression.length());
+        key.append(flags);
+
+        boolean pendingSpace = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = key.length() > flags.length();
+            } else {
+                if (pendingSpace) {
+                    key.append(' ');
+                    pendingSpace = false;
+                }
+                key.append(c);
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached condition for the given key. Counts as a hit or a miss.
+     *
+     * @param key The key, as created by {@link #createKey(String, String)}.
+     *
+     * @return The cached condition, or <code>null</code> if it is not in the cache.
+     */
+    @Nullable Formula get(@NonNull String key) {
+        Formula result = getSegment(key).get(key);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Stores the given condition. If the cache is full, the least recently used entry of the segment is evicted.
+     *
+     * @param key The key, as created by {@link #createKey(String, String)}.
+     * @param condition The parsed condition.
+     */
+    void put(@NonNull String key, @NonNull Formula condition) {
+        getSegment(key).put(key, condition);
+    }
+
+    /**
+     * Returns the segment responsible for the given key.
+     *
+     * @param key The key.
+     *
+     * @return The segment for the key.
+     */
+    private @NonNull Segment getSegment(@NonNull String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Returns the maximum number of conditions this cache stores.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of conditions currently stored in this cache.
+     *
+     * @return The number of entries.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached condition.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached condition.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of conditions that were removed because the cache was full.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public @NonNull String toString() {
+        long numHits = getHits();
+        long numLookups = numHits + getMisses();
+        return "ConditionCache[size=" + getSize() + "/" + capacity + ", hits=" + numHits + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", hit rate="
+                + (numLookups == 0 ? 0 : numHits * 100 / numLookups) + "%]";
+    }
+
+    /**
+     * A single segment of the cache. A synchronized {@link LinkedHashMap} in access order, that removes the least
+     * recently used entry when it grows beyond its capacity.
+     */
+    private final class Segment extends LinkedHashMap<@NonNull String, @NonNull Formula> {
+
+        private static final long serialVersionUID = 7925264862474961394L;
+
+        private final int segmentCapacity;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param segmentCapacity The maximum number of entries of this segment.
+         */
+        Segment(int segmentCapacity) {
+            super(16, 0.75f, true);
+            this.segmentCapacity = segmentCapacity;
+        }
+
+        @Override
+        public synchronized Formula get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized Formula put(@NonNull String key, @NonNull Formula value) {
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<@NonNull String, @NonNull Formula> eldest) {
+            boolean remove = super.size() > segmentCapacity;
+            if (remove) {
+                evictions.increment();
+            }
+            return remove;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Thrown by {@link net.ssehub.kernel_haven.code_model.CodeBlock#getCondition()} and
+ * {@link net.ssehub.kernel_haven.code_model.CodeBlock#getPresenceCondition()} if the condition of a block is parsed
+ * lazily (see {@link BlockParser#setLazyConditions(boolean)}) and can not be parsed, i.e. if eager parsing would fail
+ * the file (e.g. with {@link net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling#EXCEPTION}). Unchecked,
+ * since the methods of the code model don't declare any exceptions.
+ *
+ * @author Adam
+ */
+public class ConditionParseException extends RuntimeException {
+
+    private static final long serialVersionUID = 2787407468337958245L;
+
+    /**
+     * Creates an exception for the given parsing error.
+     *
+     * @param sourceFile The file that the condition is in.
+     * @param cause The error that the parser reported, which contains the line of the condition.
+     */
+    public ConditionParseException(@NonNull File sourceFile, @NonNull FormatException cause) {
+        super("Can't parse condition in " + sourceFile + ": " + cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized @NonNull FormatException getCause() {
+        return (FormatException) notNull(super.getCause());
+    }
+
+}
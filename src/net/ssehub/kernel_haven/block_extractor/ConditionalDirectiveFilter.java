@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.nio.ByteBuffer;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Raw byte searches that find out whether a file can be extracted without a {@link BlockParser}. A file without any
+ * #if, #ifdef, #ifndef, #elif, #else or #endif has no blocks, only the pseudo block for the whole file if it contains
+ * code. Both searches are conservative: when the result of the {@link DirectiveLexer} can't be determined without
+ * tracking comments and line continuations the way it does, they give up, and the file has to be parsed.
+ *
+ * @author Adam
+ */
+final class ConditionalDirectiveFilter {
+
+    /**
+     * Returned by {@link #findPseudoBlockEnd(ByteBuffer)} if the file has to be parsed to find the end line.
+     */
+    static final int UNKNOWN = -1;
+
+    /**
+     * Don't allow any instances.
+     */
+    private ConditionalDirectiveFilter() {
+    }
+
+    /**
+     * Checks whether the given content may contain a conditional directive. This is the case if any '#' is followed,
+     * after spaces or tabs, by "if", "el" or "en". Comments and line continuations after the '#' are treated as
+     * possible conditionals, too.
+     *
+     * @param content The file content, between the position and the limit of the buffer. Not modified.
+     *
+     * @return <code>false</code> if the content definitely contains no conditional directive.
+     */
+    static boolean mayContainConditionals(@NonNull ByteBuffer content) {
+        int limit = content.limit();
+        for (int i = content.position(); i < limit; i++) {
+            if (content.get(i) != '#') {
+                continue;
+            }
+            int next = i + 1;
+            while (next < limit && isSpace(content.get(next))) {
+                next++;
+            }
+            if (next + 1 >= limit) {
+                // a keyword needs two bytes; the end of the input is compared as 0
+                if (next < limit && isPossibleKeywordStart(content.get(next), (byte) 0)) {
+                    return true;
+                }
+            } else if (isPossibleKeywordStart(content.get(next), content.get(next + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the end line of the pseudo block for a file without conditional directives; see
+     * {@link #mayContainConditionals(ByteBuffer)}. This is the same as
+     * {@link IBlockListener#endOfFile(int, boolean)} receives from the {@link BlockParser}: the start line of the
+     * last (logical) line plus one.
+     *
+     * @param content The file content, between the position and the limit of the buffer. Not modified.
+     *
+     * @return The end line of the pseudo block; 0 if the file contains only whitespace and comments, so that no pseudo
+     *      block is created; {@link #UNKNOWN} if the file has to be parsed.
+     */
+    static int findPseudoBlockEnd(@NonNull ByteBuffer content) {
+        int start = content.position();
+        int limit = content.limit();
+
+        int firstCode = findFirstCode(content, start, limit);
+        if (firstCode == UNKNOWN) {
+            return UNKNOWN;
+        }
+        if (firstCode == limit) {
+            return 0;
+        }
+
+        // the final line break does not start a new line
+        int end = limit;
+        if (content.get(end - 1) == '\n' || content.get(end - 1) == '\r') {
+            end--;
+            if (end > start && content.get(end) == '\n' && content.get(end - 1) == '\r') {
+                end--;
+            }
+        }
+
+        int lineBreaks = 0;
+        // the start of the last line, and the last "/*" and "*/" before it
+        int lastLine = start;
+        int lastOpen = -1;
+        int lastClose = -1;
+        int open = -1;
+        int close = -1;
+        byte previous = 0;
+        for (int i = start; i < end; i++) {
+            byte b = content.get(i);
+            if (b == '\n' || b == '\r') {
+                if (b == '\r' || previous != '\r') {
+                    lineBreaks++;
+                }
+                lastLine = i + 1;
+                lastOpen = open;
+                lastClose = close;
+            } else if (b == '*' && previous == '/') {
+                open = i - 1;
+            } else if (b == '/' && previous == '*') {
+                close = i - 1;
+            } else if (b == '\\' && (previous == '/' || previous == '*')) {
+                // a comment delimiter may be split by a line continuation
+                return UNKNOWN;
+            }
+            previous = b;
+        }
+
+        // the last line is joined with the previous one by a line continuation, or by a block comment that started
+        // in a directive; the latter is only possible if a comment is not closed before the last line
+        if (lastLine > start && (isContinued(content, start, lastLine)
+                || lastOpen >= 0 && lastClose < lastOpen + 2 || hasBackslash(content, lastLine, limit))) {
+            return UNKNOWN;
+        }
+
+        // use last line + 1, like the parser
+        return lineBreaks + 2;
+    }
+
+    /**
+     * Finds the first character outside of leading whitespace and comments.
+     *
+     * @param content The file content.
+     * @param start The index to start at.
+     * @param limit The end of the content (exclusive).
+     *
+     * @return The index of the first character of code; <code>limit</code> if there is none; {@link #UNKNOWN} if a
+     *      backslash was found, which may be a line continuation that changes where the comments end.
+     */
+    private static int findFirstCode(@NonNull ByteBuffer content, int start, int limit) {
+        int i = start;
+        while (i < limit) {
+            byte b = content.get(i);
+            if (b == '\\') {
+                return UNKNOWN;
+
+            } else if (b == '/' && i + 1 < limit && content.get(i + 1) == '/') {
+                while (i < limit && content.get(i) != '\n' && content.get(i) != '\r') {
+                    if (content.get(i) == '\\') {
+                        return UNKNOWN;
+                    }
+                    i++;
+                }
+
+            } else if (b == '/' && i + 1 < limit && content.get(i + 1) == '*') {
+                i += 2;
+                // like the DirectiveLexer, a '*' followed by line breaks and a '/' ends the comment, too
+                boolean star = false;
+                while (i < limit) {
+                    byte c = content.get(i++);
+                    if (c == '\\') {
+                        return UNKNOWN;
+                    }
+                    if (star && c == '/') {
+                        break;
+                    }
+                    if (c != '\n' && c != '\r') {
+                        star = c == '*';
+                    }
+                }
+
+            } else if ((b & 0xFF) > ' ') {
+                return i;
+
+            } else {
+                i++;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Checks whether the line break before the given line start is a line continuation, i.e. preceded by a backslash
+     * and optional spaces or tabs.
+     *
+     * @param content The file content.
+     * @param start The start of the content.
+     * @param lineStart The index after a line break.
+     *
+     * @return Whether the line break is a line continuation.
+     */
+    private static boolean isContinued(@NonNull ByteBuffer content, int start, int lineStart) {
+        int i = lineStart - 1;
+        if (i > start && content.get(i) == '\n' && content.get(i - 1) == '\r') {
+            i--;
+        }
+        i--;
+        while (i >= start && (content.get(i) == ' ' || content.get(i) == '\t')) {
+            i--;
+        }
+        return i >= start && content.get(i) == '\\';
+    }
+
+    /**
+     * Checks whether the given range contains a backslash.
+     *
+     * @param content The file content.
+     * @param from The start of the range (inclusive).
+     * @param to The end of the range (exclusive).
+     *
+     * @return Whether a backslash was found.
+     */
+    private static boolean hasBackslash(@NonNull ByteBuffer content, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content.get(i) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given two bytes may start the keyword of a conditional directive.
+     *
+     * @param first The first byte after the '#' and whitespace.
+     * @param second The byte after that, or 0 at the end of the input.
+     *
+     * @return Whether a conditional directive may start here.
+     */
+    private static boolean isPossibleKeywordStart(byte first, byte second) {
+        boolean result;
+        if (first == '/' || first == '\\') {
+            result = true;
+        } else if (first == 'i') {
+            result = second == 'f' || second == '\\';
+        } else if (first == 'e') {
+            result = second == 'l' || second == 'n' || second == '\\';
+        } else {
+            result = false;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the given byte is whitespace within a line, as skipped by the {@link DirectiveLexer} after the
+     * '#' of a directive.
+     *
+     * @param b The byte.
+     *
+     * @return Whether the byte is whitespace, but not a line break.
+     */
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ' && b != '\n' && b != '\r';
+    }
+
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A state machine that finds preprocessor directives in C source code. The input is pushed character by character
+ * (or byte by byte) via the <code>feed()</code> methods; the state (comments, string and character literals, line
+ * continuations) is kept across lines and across calls. Nothing is allocated for normal lines; only directive lines
+ * are turned into a {@link String} and passed to a {@link DirectiveHandler}.
+ * <p>
+ * The lexer follows the C rules for comments: comment markers inside of string or character literals are ignored,
+ * and comments are replaced by a single space. A line is a directive if its first character outside of comments is a
+ * '#'. A backslash at the end of a line joins it with the next line only inside of a directive (also inside of its
+ * comments and literals); other lines are never joined. A block comment that starts in a directive and spans multiple
+ * lines belongs to the directive, but the directive ends with the comment: the rest of the line where the comment
+ * ends is handled like a new line. The directive is passed without comments and with the whitespace after the '#'
+ * removed, e.g. <code>#if defined(A)</code>.
+ * <p>
+ * Unterminated string or character literals end at the end of the line, so that an apostrophe in an #error message
+ * or in text inside of an #if 0 block does not affect the following lines.
+ *
+ * @author Adam
+ */
+final class DirectiveLexer {
+
+    /**
+     * A handler for the directives found by a {@link DirectiveLexer}.
+     */
+    interface DirectiveHandler {
+
+        /**
+         * Called for each directive line.
+         *
+         * @param directive The trimmed directive without comments, starting with '#'.
+         * @param lineNumber The line number of the '#'.
+         * @param contentBefore Whether non-whitespace characters outside of comments were found since the previous
+         *      directive (or the start of the file).
+         *
+         * @throws FormatException If handling the directive fails.
+         */
+        public void handleDirective(@NonNull String directive, int lineNumber, boolean contentBefore)
+                throws FormatException;
+
+    }
+
+    private static final int NORMAL = 0;
+
+    private static final int LINE_COMMENT = 1;
+
+    private static final int BLOCK_COMMENT = 2;
+
+    private static final int STRING = 3;
+
+    private static final int CHARACTER = 4;
+
+    private final @NonNull DirectiveHandler handler;
+
+    /**
+     * The charset to decode directive lines with, if the input units are bytes. <code>null</code> if the input units
+     * are characters.
+     */
+    private final @Nullable Charset charset;
+
+    private int mode;
+
+    /**
+     * The line number of the next unit.
+     */
+    private int lineNumber;
+
+    /**
+     * The line number where the current (logical) line started.
+     */
+    private int lineStart;
+
+    /**
+     * Whether the next unit starts a new line.
+     */
+    private boolean needLineStart;
+
+    /**
+     * Whether no non-whitespace character outside of comments was found in the current line, yet.
+     */
+    private boolean atLineStart;
+
+    /**
+     * Whether non-whitespace characters outside of comments were found since the last directive.
+     */
+    private boolean content;
+
+    /**
+     * Whether the current line is a directive.
+     */
+    private boolean directive;
+
+    private int directiveLine;
+
+    /**
+     * Whether the current {@link #BLOCK_COMMENT} started in a directive and crossed a line break, i.e. the directive
+     * ends where the comment ends.
+     */
+    private boolean commentEndsDirective;
+
+    /**
+     * Whether we are directly after the '#' of a directive, i.e. whitespace and comments are not added to the
+     * directive.
+     */
+    private boolean afterHash;
+
+    /**
+     * Whether the previous unit was a '\r', i.e. a following '\n' belongs to the same line break.
+     */
+    private boolean pendingCarriageReturn;
+
+    /**
+     * Whether the previous unit was a '\', which may start a line continuation.
+     */
+    private boolean pendingBackslash;
+
+    /**
+     * The number of spaces or tabs after a {@link #pendingBackslash}. Whitespace between the backslash and the line
+     * break is tolerated for line continuations.
+     */
+    private int pendingWhitespace;
+
+    /**
+     * Whether the previous unit in {@link #NORMAL} mode was a '/', which may start a comment.
+     */
+    private boolean pendingSlash;
+
+    /**
+     * Whether the previous unit in {@link #BLOCK_COMMENT} mode was a '*', which may end the comment.
+     */
+    private boolean pendingStar;
+
+    /**
+     * Whether the previous unit in a literal was an (unescaped) backslash.
+     */
+    private boolean escape;
+
+    /**
+     * The units of the current directive. Re-used for all directives.
+     */
+    private char @NonNull [] output;
+
+    private int outputLength;
+
+    /**
+     * Whether {@link #output} contains a unit outside of the ASCII range.
+     */
+    private boolean outputNonAscii;
+
+    /**
+     * Creates a new lexer.
+     *
+     * @param handler The handler to pass the found directives to.
+     * @param charset The charset to decode directive lines with, if bytes are passed to this lexer.
+     *      <code>null</code> if characters are passed to this lexer. The charset must be ASCII-compatible (e.g.
+     *      UTF-8 or ISO-8859-1).
+     */
+    DirectiveLexer(@NonNull DirectiveHandler handler, @Nullable Charset charset) {
+        this.handler = handler;
+        this.charset = charset;
+        this.lineNumber = 1;
+        this.needLineStart = true;
+        this.atLineStart = true;
+        this.output = new char[256];
+    }
+
+    /**
+     * Passes the bytes in the given range of the buffer to this lexer. Only valid if a charset was passed to the
+     * constructor.
+     *
+     * @param buffer The buffer to read the bytes from. Position and limit are not modified.
+     * @param start The start index (inclusive).
+     * @param end The end index (exclusive).
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    void feed(@NonNull ByteBuffer buffer, int start, int end) throws FormatException {
+        int i = start;
+        while (i < end) {
+            if (isAtCleanLineStart()) {
+                int next = skipPlainLine(buffer, i, end);
+                if (next != i) {
+                    i = next;
+                    continue;
+                }
+            }
+            feed(buffer.get(i) & 0xFF);
+            i++;
+        }
+    }
+
+    /**
+     * Skips a line that can not affect the directives, without passing its bytes through the state machine. This is
+     * the case for most lines of a source file: the line does not start with a '#' and contains no '/' that may
+     * start a comment. String and character literals and backslashes do not need to be tracked, since they can not
+     * affect the following lines outside of directives. Must only be called if {@link #isAtCleanLineStart()}.
+     *
+     * @param buffer The buffer to read the bytes from.
+     * @param start The index of the first byte of the line.
+     * @param end The end index of the available bytes (exclusive).
+     *
+     * @return The index after the line break of the skipped line; <code>start</code> if the line has to be passed
+     *      through the state machine, or its line break is not within the available bytes.
+     */
+    private int skipPlainLine(@NonNull ByteBuffer buffer, int start, int end) {
+        boolean significant = false;
+        for (int i = start; i < end; i++) {
+            int unit = buffer.get(i) & 0xFF;
+            if (unit == '\n' || unit == '\r') {
+                if (significant) {
+                    content = true;
+                }
+                lineStart = lineNumber;
+                lineNumber++;
+                pendingCarriageReturn = unit == '\r';
+                return i + 1;
+            }
+            if (unit == '/' || unit == '#' && !significant) {
+                return start;
+            }
+            if (unit > ' ') {
+                significant = true;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Passes the given characters to this lexer. Only valid if no charset was passed to the constructor.
+     *
+     * @param chars The array to read the characters from.
+     * @param start The start index (inclusive).
+     * @param end The end index (exclusive).
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    void feed(char @NonNull [] chars, int start, int end) throws FormatException {
+        for (int i = start; i < end; i++) {
+            feed(chars[i]);
+        }
+    }
+
+    /**
+     * Passes the next unit (character or byte) to this lexer.
+     *
+     * @param unit The next unit.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    void feed(int unit) throws FormatException {
+        if (pendingCarriageReturn) {
+            pendingCarriageReturn = false;
+            if (unit == '\n') {
+                return; // second half of a \r\n line break
+            }
+        }
+
+        if (needLineStart) {
+            needLineStart = false;
+            lineStart = lineNumber;
+        }
+
+        if (pendingBackslash) {
+            if ((unit == '\n' || unit == '\r') && directive) {
+                // line continuation: simply skip the backslash and the line break
+                pendingBackslash = false;
+                pendingWhitespace = 0;
+                pendingCarriageReturn = unit == '\r';
+                lineNumber++;
+                return;
+            }
+            if (unit == ' ' || unit == '\t') {
+                pendingWhitespace++;
+                return;
+            }
+            flushBackslash();
+        }
+
+        if (unit == '\\') {
+            pendingBackslash = true;
+        } else {
+            process(unit);
+        }
+    }
+
+    /**
+     * Processes a {@link #pendingBackslash} that turned out not to be a line continuation.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    private void flushBackslash() throws FormatException {
+        pendingBackslash = false;
+        process('\\');
+        for (; pendingWhitespace > 0; pendingWhitespace--) {
+            process(' ');
+        }
+    }
+
+    /**
+     * Processes a unit after line continuations are handled.
+     *
+     * @param unit The unit to process.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    private void process(int unit) throws FormatException {
+        if (unit == '\n' || unit == '\r') {
+            pendingCarriageReturn = unit == '\r';
+            lineBreak();
+            return;
+        }
+
+        switch (mode) {
+        case NORMAL:
+            if (pendingSlash) {
+                pendingSlash = false;
+                if (unit == '/') {
+                    mode = LINE_COMMENT;
+                    break;
+                } else if (unit == '*') {
+                    mode = BLOCK_COMMENT;
+                    pendingStar = false;
+                    break;
+                }
+                significant('/');
+            }
+
+            if (unit == '/') {
+                pendingSlash = true;
+            } else if (unit > ' ') {
+                if (unit == '"') {
+                    mode = STRING;
+                    escape = false;
+                } else if (unit == '\'') {
+                    mode = CHARACTER;
+                    escape = false;
+                }
+                significant(unit);
+            } else if (directive && !afterHash) {
+                append(unit);
+            }
+            break;
+
+        case BLOCK_COMMENT:
+            if (pendingStar && unit == '/') {
+                mode = NORMAL;
+                pendingStar = false;
+                if (commentEndsDirective) {
+                    // only the comment continues the directive; the rest of the line is handled like a new line
+                    endLine();
+                    lineStart = lineNumber;
+                } else if (directive && !afterHash) {
+                    append(' ');
+                }
+            } else {
+                pendingStar = unit == '*';
+            }
+            break;
+
+        case STRING:
+        case CHARACTER:
+            if (escape) {
+                escape = false;
+            } else if (unit == '\\') {
+                escape = true;
+            } else if (unit == (mode == STRING ? '"' : '\'')) {
+                mode = NORMAL;
+            }
+            if (directive) {
+                append(unit);
+            }
+            break;
+
+        default:
+            // LINE_COMMENT: ignore everything until the end of the line
+            break;
+        }
+    }
+
+    /**
+     * Handles a non-whitespace character outside of comments.
+     *
+     * @param unit The character.
+     */
+    private void significant(int unit) {
+        if (atLineStart) {
+            atLineStart = false;
+            if (unit == '#') {
+                directive = true;
+                directiveLine = lineNumber;
+                afterHash = true;
+                outputLength = 0;
+                outputNonAscii = false;
+                append('#');
+                return;
+            }
+            content = true;
+        }
+
+        if (directive) {
+            afterHash = false;
+            append(unit);
+        }
+    }
+
+    /**
+     * Handles a line break that is not part of a line continuation.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    private void lineBreak() throws FormatException {
+        lineNumber++;
+
+        if (mode == BLOCK_COMMENT) {
+            if (directive) {
+                // a block comment inside of a directive continues the directive until the comment ends
+                commentEndsDirective = true;
+                return;
+            }
+        } else {
+            if (pendingSlash) {
+                pendingSlash = false;
+                significant('/');
+            }
+            // line comments and unterminated literals end at the end of the line
+            mode = NORMAL;
+        }
+
+        endLine();
+        needLineStart = true;
+    }
+
+    /**
+     * Ends the current (logical) line. Passes it to the handler if it is a directive.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    private void endLine() throws FormatException {
+        atLineStart = true;
+        commentEndsDirective = false;
+        if (directive) {
+            directive = false;
+            boolean contentBefore = content;
+            content = false;
+            handler.handleDirective(createDirective(), directiveLine, contentBefore);
+        }
+    }
+
+    /**
+     * Signals the end of the input. Handles the last line, if it was not terminated by a line break.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    void finish() throws FormatException {
+        if (pendingBackslash) {
+            flushBackslash();
+        }
+        if (mode == NORMAL && pendingSlash) {
+            pendingSlash = false;
+            significant('/');
+        }
+        if (mode != BLOCK_COMMENT) {
+            mode = NORMAL;
+        }
+        endLine();
+    }
+
+    /**
+     * Returns the line number where the last line of the input starts. Lines joined by line continuations or by
+     * block comments inside of directives count as one line; the rest of the line where such a block comment ends
+     * counts as a new line.
+     *
+     * @return The line number of the last line; 0 if there was no input.
+     */
+    int getLastLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Returns the line number of the next unit, i.e. 1 plus the number of line breaks passed to this lexer so far.
+     *
+     * @return The current line number.
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns whether this lexer is in the state of a fresh lexer, except for the line number and the
+     * {@link #hasContent()} flag. This is the case if the last unit ended a line outside of any comment, literal,
+     * directive or line continuation.
+     *
+     * @return Whether the next unit starts a new line without any state carried over from the previous lines.
+     */
+    boolean isAtCleanLineStart() {
+        return needLineStart && mode == NORMAL && !directive && !pendingCarriageReturn && !pendingBackslash
+                && !pendingSlash;
+    }
+
+    /**
+     * Returns whether non-whitespace characters outside of comments were found since the last directive. Call this
+     * after {@link #finish()} to find out whether there is content after the last directive.
+     *
+     * @return Whether there is content after the last directive.
+     */
+    boolean hasContent() {
+        return content;
+    }
+
+    /**
+     * Appends a unit to the current directive.
+     *
+     * @param unit The unit to append.
+     */
+    private void append(int unit) {
+        if (outputLength == output.length) {
+            char[] newOutput = new char[output.length * 2];
+            System.arraycopy(output, 0, newOutput, 0, outputLength);
+            output = newOutput;
+        }
+        output[outputLength++] = (char) unit;
+        if (unit >= 0x80) {
+            outputNonAscii = true;
+        }
+    }
+
+    /**
+     * Creates the string for the current directive from the {@link #output}.
+     *
+     * @return The trimmed directive.
+     */
+    private @NonNull String createDirective() {
+        String result;
+        Charset charset = this.charset;
+        if (charset != null && outputNonAscii) {
+            byte[] bytes = new byte[outputLength];
+            for (int i = 0; i < outputLength; i++) {
+                bytes[i] = (byte) output[i];
+            }
+            result = new String(bytes, charset);
+        } else {
+            result = new String(output, 0, outputLength);
+        }
+        return result.trim();
+    }
+
+}
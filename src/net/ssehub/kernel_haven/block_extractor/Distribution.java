@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A constant-memory summary of a distribution of non-negative values. Besides count, minimum, maximum and mean, the
+ * values are counted in a histogram with power-of-two buckets, which allows estimating percentiles with a relative
+ * error of at most a factor of two. Not thread-safe; use one instance per thread and {@link #merge(Distribution)}
+ * them.
+ *
+ * @author Adam
+ */
+final class Distribution {
+
+    /**
+     * Bucket 0 contains the value 0, bucket <code>i</code> the values from <code>2^(i-1)</code> to
+     * <code>2^i - 1</code>.
+     */
+    private final long @NonNull [] buckets;
+
+    private long count;
+
+    private long sum;
+
+    private long min;
+
+    private long max;
+
+    /**
+     * Creates an empty distribution.
+     */
+    Distribution() {
+        this.buckets = new long[Long.SIZE];
+        this.min = Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value to add; must not be negative.
+     *
+     * @throws IllegalArgumentException If the value is negative.
+     */
+    void add(long value) throws IllegalArgumentException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all values of another distribution to this one.
+     *
+     * @param other The distribution to add. Not modified.
+     */
+    void merge(@NonNull Distribution other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return The number of values.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of all values.
+     *
+     * @return The sum.
+     */
+    long getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the smallest value.
+     *
+     * @return The minimum; 0 if there are no values.
+     */
+    long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Returns the largest value.
+     *
+     * @return The maximum; 0 if there are no values.
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of all values.
+     *
+     * @return The mean; 0 if there are no values.
+     */
+    double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Estimates a percentile. The result is the upper bound of the histogram bucket that contains the percentile,
+     * but never larger than the maximum.
+     *
+     * @param percent The percentile, between 0 and 100.
+     *
+     * @return An upper bound for the percentile, at most twice as large as the real value; 0 if there are no values.
+     */
+    long getPercentile(double percent) {
+        long rank = (long) Math.ceil(count * percent / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.max(Math.min(upperBound, max), getMin());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return "count=" + count + ", min=" + getMin() + ", mean=" + String.format("%.2f", getMean())
+                + ", median<=" + getPercentile(50) + ", 90%<=" + getPercentile(90) + ", 99%<=" + getPercentile(99)
+                + ", max=" + getMax();
+    }
+
+}
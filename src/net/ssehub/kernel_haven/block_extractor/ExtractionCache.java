@@ -0,0 +1,387 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A persistent cache for extraction results, stored in a directory. The results are keyed by a hash over the content
+ * of the source file and the extractor settings, so unchanged files are not parsed again in a later run, and
+ * results for other settings are never returned. The path of the source file is not part of the key; the stored
+ * blocks are assigned to the requested path when they are loaded.
+ * <p>
+ * The total size of all entries is bounded. When it is exceeded, the least recently used entries are deleted; this
+ * also removes stale entries of old file versions or old settings. Multiple threads may use the same cache
+ * concurrently. Entries that can not be read (e.g. because they are corrupted) are treated as misses and deleted.
+ *
+ * @author Adam
+ */
+public class ExtractionCache {
+
+    private static final String SUFFIX = ".cbc";
+
+    /**
+     * Increased whenever the content of the entries changes, so that entries of older versions are never read.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x4B48_4342; // "KHCB"
+
+    private static final int HEADER_SIZE = 8;
+
+    private final @NonNull File directory;
+
+    private final long maxSize;
+
+    private final @NonNull String settings;
+
+    private final @NonNull AtomicLong size;
+
+    private final @NonNull LongAdder hits;
+
+    private final @NonNull LongAdder misses;
+
+    private final @NonNull LongAdder bytesSaved;
+
+    private final @NonNull LongAdder evictions;
+
+    /**
+     * Creates a cache in the given directory. Existing entries in the directory are re-used.
+     *
+     * @param directory The directory to store the entries in. Created if it does not exist.
+     * @param maxSize The maximum total size of all entries in bytes.
+     * @param settings A string that represents all settings that influence the extraction result. Entries created
+     *      with other settings are never returned.
+     *
+     * @throws IOException If the directory can not be created.
+     */
+    public ExtractionCache(@NonNull File directory, long maxSize, @NonNull String settings) throws IOException {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Negative maximum size: " + maxSize);
+        }
+        Files.createDirectories(directory.toPath());
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.settings = FORMAT_VERSION + ":" + settings;
+
+        long existingSize = 0;
+        for (File entry : listEntries()) {
+            existingSize += entry.length();
+        }
+        this.size = new AtomicLong(existingSize);
+
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.bytesSaved = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Creates the key for the given source file content.
+     *
+     * @param content The content of the source file, between position and limit of the buffer. The position and
+     *      limit of the given buffer are not modified.
+     *
+     * @return The key for the content and the settings of this cache.
+     */
+    public @NonNull String createKey(@NonNull ByteBuffer content) {
+        return createKey("content", notNull(content.duplicate()));
+    }
+
+    /**
+     * Creates the key for a source file that is stored as a blob in a git repository. The git blob id is a hash over
+     * the content, so this can be used instead of {@link #createKey(ByteBuffer)} to avoid reading the file. The keys
+     * created by both methods differ for the same content.
+     *
+     * @param blobId The id of the git blob (in hexadecimal).
+     *
+     * @return The key for the blob and the settings of this cache.
+     */
+    public @NonNull String createGitBlobKey(@NonNull String blobId) {
+        return createKey("git blob", notNull(ByteBuffer.wrap(blobId.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Creates a key by hashing the settings, the kind of the data and the data.
+     *
+     * @param kind The kind of the data. Ensures that different kinds of data never create the same key.
+     * @param data The data to hash, between position and limit. The position is modified.
+     *
+     * @return The key.
+     */
+    private @NonNull String createKey(@NonNull String kind, @NonNull ByteBuffer data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        digest.update((settings + "\n" + kind + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(data);
+
+        StringBuilder key = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return notNull(key.toString());
+    }
+
+    /**
+     * Loads the result for the given key. Counts as a hit or miss.
+     *
+     * @param key The key, as created by {@link #createKey(ByteBuffer)}.
+     * @param path The path of the source file; the loaded {@link SourceFile} and all {@link CodeBlock}s get this
+     *      path.
+     * @param sourceSize The size of the source file in bytes. Counted as saved bytes on a hit.
+     *
+     * @return The stored result, or <code>null</code> if there is no (readable) entry for this key.
+     */
+    public @Nullable SourceFile<CodeBlock> get(@NonNull String key, @NonNull File path, long sourceSize) {
+        File entry = new File(directory, key + SUFFIX);
+        SourceFile<CodeBlock> result = null;
+
+        if (entry.isFile()) {
+            try {
+                result = read(notNull(Files.readAllBytes(entry.toPath())), path);
+                // mark as recently used
+                entry.setLastModified(System.currentTimeMillis());
+
+            } catch (IOException | FormatException e) {
+                // corrupted or concurrently evicted; ignore it
+                long length = entry.length();
+                if (entry.delete()) {
+                    size.addAndGet(-length);
+                }
+            }
+        }
+
+        if (result != null) {
+            hits.increment();
+            bytesSaved.add(sourceSize);
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Stores the result for the given key. If the maximum size is exceeded afterwards, the least recently used
+     * entries are deleted.
+     *
+     * @param key The key, as created by {@link #createKey(ByteBuffer)}.
+     * @param result The extraction result to store.
+     *
+     * @throws IOException If writing the entry fails.
+     */
+    public void put(@NonNull String key, @NonNull SourceFile<CodeBlock> result) throws IOException {
+        byte[] data = write(result);
+        if (data.length > maxSize) {
+            return;
+        }
+
+        File entry = new File(directory, key + SUFFIX);
+        File tmp = new File(directory, key + "." + Thread.currentThread().getId() + ".tmp");
+        Files.write(tmp.toPath(), data);
+
+        long previousSize = entry.length(); // 0 if it doesn't exist
+        Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (size.addAndGet(data.length - previousSize) > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries, until the total size is below 90% of the maximum size.
+     */
+    private synchronized void evict() {
+        if (size.get() <= maxSize) {
+            return; // another thread already evicted
+        }
+
+        List<@NonNull File> entries = listEntries();
+        long[] lastModified = new long[entries.size()];
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            File entry = entries.get(i);
+            lastModified[i] = entry.lastModified();
+            total += entry.length();
+        }
+
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+
+        long target = maxSize / 10 * 9;
+        for (int i = 0; i < order.length && total > target; i++) {
+            File entry = entries.get(order[i]);
+            long length = entry.length();
+            if (entry.delete()) {
+                total -= length;
+                evictions.increment();
+            }
+        }
+
+        size.set(total);
+    }
+
+    /**
+     * Lists all entry files in the cache directory.
+     *
+     * @return The entry files.
+     */
+    private @NonNull List<@NonNull File> listEntries() {
+        List<@NonNull File> result = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serializes the given result, with a header that identifies the version of the entry format.
+     *
+     * @param result The result to serialize.
+     *
+     * @return The serialized result.
+     *
+     * @throws IOException If the result contains a {@link Formula} that can not be serialized.
+     */
+    private static byte @NonNull [] write(@NonNull SourceFile<CodeBlock> result) throws IOException {
+        byte[] encoded = BinaryCodeModelFormat.encode(result);
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + encoded.length);
+        data.putInt(MAGIC).putInt(FORMAT_VERSION).put(encoded);
+        return notNull(data.array());
+    }
+
+    /**
+     * De-serializes a result created by {@link #write(SourceFile)}.
+     *
+     * @param data The serialized result.
+     * @param path The path to assign to the {@link SourceFile} and all blocks.
+     *
+     * @return The de-serialized result.
+     *
+     * @throws FormatException If the data is malformed or truncated.
+     */
+    private static @NonNull SourceFile<CodeBlock> read(byte @NonNull [] data, @NonNull File path)
+            throws FormatException {
+
+        ByteBuffer buffer = notNull(ByteBuffer.wrap(data));
+        if (data.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new FormatException("Not a cache entry of version " + FORMAT_VERSION);
+        }
+        return BinaryCodeModelFormat.decode(buffer, path);
+    }
+
+    /**
+     * Returns the maximum total size of all entries.
+     *
+     * @return The maximum size in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current total size of all entries.
+     *
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of lookups that found a stored result.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a stored result.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the total size of all source files that did not need to be parsed, because their result was found
+     * in the cache.
+     *
+     * @return The number of source bytes that were not parsed.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Returns the number of entries that were deleted because the maximum size was exceeded.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public @NonNull String toString() {
+        long numHits = getHits();
+        long numLookups = numHits + getMisses();
+        return "ExtractionCache[size=" + getSize() + "/" + maxSize + " bytes, hits=" + numHits + ", misses="
+                + getMisses() + ", hit rate=" + (numLookups == 0 ? 0 : numHits * 100 / numLookups) + "%, bytes saved="
+                + getBytesSaved() + ", evictions=" + getEvictions() + "]";
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Distributes a list of source files over a number of worker threads. In the {@link Mode#LARGEST_FIRST} mode, the
+ * sizes of all files are determined up front, so that the largest files are started first and don't extend the end
+ * of the run when they are picked up last; small files are grouped into batches, so that they don't pay the per-task
+ * overhead each.
+ * <p>
+ * To quantify the effect, the {@link Statistics} contain the <i>tail idle time</i>: the sum over all workers of the
+ * time between the end of their last task and the end of the whole run.
+ * <p>
+ * The extractor only uses this in {@link CodeBlockExtractor#runOnFiles(List, int, Consumer, Consumer)}; the
+ * framework distributes the files over its own threads.
+ *
+ * @author Adam
+ */
+public class FileScheduler {
+
+    /**
+     * The order in which files are dispatched.
+     */
+    public enum Mode {
+
+        /**
+         * One task per file, in the given order, on a pool with a shared FIFO queue.
+         */
+        IN_ORDER,
+
+        /**
+         * The largest files first, small files batched together, on a work-stealing pool.
+         */
+        LARGEST_FIRST,
+
+    }
+
+    /**
+     * The statistics of a run.
+     */
+    public static final class Statistics {
+
+        private final int numTasks;
+
+        private final long wallNanos;
+
+        private final long tailIdleNanos;
+
+        /**
+         * Creates statistics.
+         *
+         * @param numTasks The number of tasks that the files were split into.
+         * @param wallNanos The duration of the run.
+         * @param tailIdleNanos The tail idle time of all workers.
+         */
+        Statistics(int numTasks, long wallNanos, long tailIdleNanos) {
+            this.numTasks = numTasks;
+            this.wallNanos = wallNanos;
+            this.tailIdleNanos = tailIdleNanos;
+        }
+
+        /**
+         * Returns the number of tasks that the files were split into.
+         *
+         * @return The number of tasks.
+         */
+        public int getNumTasks() {
+            return numTasks;
+        }
+
+        /**
+         * Returns the wall-clock duration of the run.
+         *
+         * @return The duration in nanoseconds.
+         */
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the sum over all workers of the time between the end of their last task and the end of the run.
+         * Workers that did not get any task are idle for the whole run.
+         *
+         * @return The tail idle time in nanoseconds.
+         */
+        public long getTailIdleNanos() {
+            return tailIdleNanos;
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return numTasks + " tasks in " + (wallNanos / 1_000_000) + " ms, tail idle time "
+                    + (tailIdleNanos / 1_000_000) + " ms";
+        }
+
+    }
+
+    private final @NonNull File sourceTree;
+
+    private final int numThreads;
+
+    private final @NonNull Mode mode;
+
+    private final long batchSize;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param sourceTree The directory that the files are relative to. Used to determine the file sizes.
+     * @param numThreads The number of worker threads.
+     * @param mode The order in which files are dispatched.
+     * @param batchSize In the {@link Mode#LARGEST_FIRST} mode, files smaller than this many bytes are batched, so
+     *      that each batch has at least this size.
+     */
+    public FileScheduler(@NonNull File sourceTree, int numThreads, @NonNull Mode mode, long batchSize) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + numThreads);
+        }
+        this.sourceTree = sourceTree;
+        this.numThreads = numThreads;
+        this.mode = mode;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs the given operation on all files and waits until it is finished for all of them.
+     *
+     * @param files The files to process, relative to the source tree.
+     * @param operation The operation to run for each file. Called concurrently by all worker threads. Must not throw
+     *      any exceptions.
+     *
+     * @return The statistics of the run.
+     *
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public @NonNull Statistics run(@NonNull List<@NonNull File> files, @NonNull Consumer<@NonNull File> operation)
+            throws InterruptedException {
+
+        List<@NonNull File @NonNull []> tasks = mode == Mode.LARGEST_FIRST ? createBatches(files) : createSingle(files);
+        ExecutorService pool = mode == Mode.LARGEST_FIRST
+                ? new ForkJoinPool(numThreads) : Executors.newFixedThreadPool(numThreads);
+
+        ConcurrentHashMap<Thread, Long> lastTaskEnd = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        for (File[] task : tasks) {
+            pool.execute(() -> {
+                for (File file : task) {
+                    operation.accept(file);
+                }
+                lastTaskEnd.put(Thread.currentThread(), System.nanoTime());
+            });
+        }
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+            // continue waiting
+        }
+
+        long end = System.nanoTime();
+        long tailIdle = (numThreads - lastTaskEnd.size()) * (end - start);
+        for (long workerEnd : lastTaskEnd.values()) {
+            tailIdle += end - workerEnd;
+        }
+
+        return new Statistics(tasks.size(), end - start, tailIdle);
+    }
+
+    /**
+     * Creates one task per file, in the given order.
+     *
+     * @param files The files.
+     *
+     * @return The tasks.
+     */
+    private static @NonNull List<@NonNull File @NonNull []> createSingle(@NonNull List<@NonNull File> files) {
+        List<@NonNull File @NonNull []> result = new ArrayList<>(files.size());
+        for (File file : files) {
+            result.add(new @NonNull File[] {file});
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the files by descending size and creates a task for each file that is at least {@link #batchSize} large,
+     * and batches of consecutive smaller files.
+     *
+     * @param files The files.
+     *
+     * @return The tasks, largest first.
+     */
+    private @NonNull List<@NonNull File @NonNull []> createBatches(@NonNull List<@NonNull File> files) {
+        int numFiles = files.size();
+        long[] sizes = new long[numFiles];
+        Integer[] order = new Integer[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            sizes[i] = new File(sourceTree, files.get(i).getPath()).length();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer index) -> sizes[index]).reversed());
+
+        List<@NonNull File @NonNull []> result = new ArrayList<>();
+        List<@NonNull File> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (int index : order) {
+            batch.add(files.get(index));
+            batchBytes += sizes[index];
+            if (batchBytes >= batchSize) {
+                result.add(batch.toArray(new @NonNull File[batch.size()]));
+                batch.clear();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.add(batch.toArray(new @NonNull File[batch.size()]));
+        }
+        return result;
+    }
+
+}
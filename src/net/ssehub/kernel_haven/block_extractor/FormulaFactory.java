@@ -0,0 +1,384 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Creates hash-consed {@link Formula}s: structurally equal formulas created by the same factory are the same
+ * instance. So a variable like <code>CONFIG_PCI</code>, which is found in thousands of conditions, exists only once,
+ * and the presence conditions of nested blocks share their common parts. Formulas of the same factory can be compared
+ * with <code>==</code> instead of the recursive {@link Object#equals(Object)}.
+ * <p>
+ * A node is looked up by its kind and the identities of its (already hash-consed) operands, so creating or
+ * {@link #intern(Formula) interning} a formula only costs a hash lookup per node that is not yet hash-consed.
+ * <p>
+ * The factory only references its formulas weakly, so formulas that are no longer part of any model can be garbage
+ * collected, and their entries are removed when the next formula is added. An entry keeps the operands of its
+ * formula, so the nodes of a discarded formula are released from the root to the leaves over multiple garbage
+ * collections. {@link #clear()} drops all entries at once. This class is thread-safe.
+ *
+ * @author Adam
+ */
+public final class FormulaFactory {
+
+    private static final int NEGATION = 0;
+
+    private static final int CONJUNCTION = 1;
+
+    private static final int DISJUNCTION = 2;
+
+    /**
+     * The key of a hash-consed operator node: its kind and the identities of its operands.
+     */
+    private static final class Node {
+
+        private final int kind;
+
+        private final @NonNull Formula left;
+
+        private final @Nullable Formula right;
+
+        /**
+         * Creates a key.
+         *
+         * @param kind The kind of the node.
+         * @param left The (only) operand.
+         * @param right The second operand, or <code>null</code> for a negation.
+         */
+        Node(int kind, @NonNull Formula left, @Nullable Formula right) {
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            boolean result = false;
+            if (obj instanceof Node) {
+                Node other = (Node) obj;
+                result = kind == other.kind && left == other.left && right == other.right;
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(left) * 31 + System.identityHashCode(right)) * 3 + kind;
+        }
+
+    }
+
+    /**
+     * A weak reference to a formula of this factory, that knows its key for removing it from the table once the
+     * formula is garbage collected.
+     *
+     * @param <F> The type of the formula.
+     */
+    private static final class Entry<F extends Formula> extends WeakReference<F> {
+
+        private final @NonNull Object key;
+
+        /**
+         * Creates an entry.
+         *
+         * @param formula The formula.
+         * @param key The key of the formula in its table: a {@link String} for variables, a {@link Node} otherwise.
+         * @param queue The queue that the entry is added to once the formula is garbage collected.
+         */
+        Entry(@NonNull F formula, @NonNull Object key, @NonNull ReferenceQueue<Formula> queue) {
+            super(formula, queue);
+            this.key = key;
+        }
+
+    }
+
+    private final @NonNull ConcurrentHashMap<@NonNull String, @NonNull Entry<Variable>> variables;
+
+    private final @NonNull ConcurrentHashMap<@NonNull Node, @NonNull Entry<Formula>> nodes;
+
+    /**
+     * Receives the entries whose formulas were garbage collected.
+     */
+    private final @NonNull ReferenceQueue<Formula> collected;
+
+    /**
+     * Creates an empty factory.
+     */
+    public FormulaFactory() {
+        this.variables = new ConcurrentHashMap<>();
+        this.nodes = new ConcurrentHashMap<>();
+        this.collected = new ReferenceQueue<>();
+    }
+
+    /**
+     * Returns the variable with the given name.
+     *
+     * @param name The name of the variable.
+     *
+     * @return The single instance of the variable in this factory.
+     */
+    public @NonNull Variable variable(@NonNull String name) {
+        Variable result = get(variables.get(name));
+        if (result == null) {
+            result = create(new Variable(name));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the negation of the given formula.
+     *
+     * @param formula The formula to negate. Interned, if it is not yet.
+     *
+     * @return The single instance of the negation in this factory.
+     */
+    public @NonNull Formula not(@NonNull Formula formula) {
+        Formula operand = intern(formula);
+        Formula result = get(nodes.get(new Node(NEGATION, operand, null)));
+        if (result == null) {
+            result = create(NEGATION, new Negation(operand), operand, null);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the conjunction of the given formulas.
+     *
+     * @param left The left operand. Interned, if it is not yet.
+     * @param right The right operand. Interned, if it is not yet.
+     *
+     * @return The single instance of the conjunction in this factory.
+     */
+    public @NonNull Formula and(@NonNull Formula left, @NonNull Formula right) {
+        Formula leftOperand = intern(left);
+        Formula rightOperand = intern(right);
+        Formula result = get(nodes.get(new Node(CONJUNCTION, leftOperand, rightOperand)));
+        if (result == null) {
+            result = create(CONJUNCTION, new Conjunction(leftOperand, rightOperand), leftOperand, rightOperand);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the disjunction of the given formulas.
+     *
+     * @param left The left operand. Interned, if it is not yet.
+     * @param right The right operand. Interned, if it is not yet.
+     *
+     * @return The single instance of the disjunction in this factory.
+     */
+    public @NonNull Formula or(@NonNull Formula left, @NonNull Formula right) {
+        Formula leftOperand = intern(left);
+        Formula rightOperand = intern(right);
+        Formula result = get(nodes.get(new Node(DISJUNCTION, leftOperand, rightOperand)));
+        if (result == null) {
+            result = create(DISJUNCTION, new Disjunction(leftOperand, rightOperand), leftOperand, rightOperand);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the instance of this factory that is structurally equal to the given formula. Formulas that were
+     * created by this factory are returned as they are, after a single lookup; other formulas are rebuilt bottom-up
+     * from the instances of this factory. Formulas of unknown types are returned as they are.
+     *
+     * @param formula The formula to intern.
+     *
+     * @return The single instance of the formula in this factory.
+     */
+    public @NonNull Formula intern(@NonNull Formula formula) {
+        Formula result;
+        if (formula instanceof Variable) {
+            Variable variable = (Variable) formula;
+            Variable existing = get(variables.get(variable.getName()));
+            result = existing != null ? existing : create(variable);
+
+        } else if (formula instanceof Conjunction) {
+            Conjunction conjunction = (Conjunction) formula;
+            result = isInterned(CONJUNCTION, formula, conjunction.getLeft(), conjunction.getRight())
+                    ? formula : and(conjunction.getLeft(), conjunction.getRight());
+
+        } else if (formula instanceof Disjunction) {
+            Disjunction disjunction = (Disjunction) formula;
+            result = isInterned(DISJUNCTION, formula, disjunction.getLeft(), disjunction.getRight())
+                    ? formula : or(disjunction.getLeft(), disjunction.getRight());
+
+        } else if (formula instanceof Negation) {
+            Negation negation = (Negation) formula;
+            result = isInterned(NEGATION, formula, negation.getFormula(), null)
+                    ? formula : not(negation.getFormula());
+
+        } else if (formula instanceof True) {
+            result = True.INSTANCE;
+
+        } else if (formula instanceof False) {
+            result = False.INSTANCE;
+
+        } else {
+            result = formula;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct variables that were created.
+     *
+     * @return The number of variables.
+     */
+    public int getNumVariables() {
+        removeCollected();
+        return variables.size();
+    }
+
+    /**
+     * Returns the number of distinct negations, conjunctions and disjunctions that were created.
+     *
+     * @return The number of operator nodes.
+     */
+    public int getNumOperators() {
+        removeCollected();
+        return nodes.size();
+    }
+
+    /**
+     * Removes all formulas from this factory. Formulas that are created afterwards are not shared with the formulas
+     * that were created before.
+     */
+    public void clear() {
+        variables.clear();
+        nodes.clear();
+        while (collected.poll() != null) {
+            // the entries are already removed
+        }
+    }
+
+    /**
+     * Checks whether the given operator node is the instance of this factory.
+     *
+     * @param kind The kind of the node.
+     * @param formula The node.
+     * @param left The (first) operand of the node.
+     * @param right The second operand of the node, or <code>null</code> for a negation.
+     *
+     * @return Whether the node was created by this factory.
+     */
+    private boolean isInterned(int kind, @NonNull Formula formula, @NonNull Formula left, @Nullable Formula right) {
+        // the key only matches if the operands are interned, too
+        return get(nodes.get(new Node(kind, left, right))) == formula;
+    }
+
+    /**
+     * Returns the formula of an entry.
+     *
+     * @param entry The entry, or <code>null</code>.
+     *
+     * @param <F> The type of the formula.
+     *
+     * @return The formula, or <code>null</code> if there is no entry or its formula was garbage collected.
+     */
+    private static <F extends Formula> @Nullable F get(@Nullable Entry<F> entry) {
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * Removes the entries whose formulas were garbage collected.
+     */
+    private void removeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            Entry<?> entry = (Entry<?>) reference;
+            if (entry.key instanceof Node) {
+                nodes.remove(entry.key, entry);
+            } else {
+                variables.remove(entry.key, entry);
+            }
+        }
+    }
+
+    /**
+     * Adds a new variable, unless another thread added it in the meantime.
+     *
+     * @param variable The new variable.
+     *
+     * @return The instance of the variable in this factory.
+     */
+    private @NonNull Variable create(@NonNull Variable variable) {
+        return add(variables, variable.getName(), variable);
+    }
+
+    /**
+     * Adds a new operator node, unless another thread added it in the meantime.
+     *
+     * @param kind The kind of the node.
+     * @param formula The new node.
+     * @param left The (first) operand of the node, already interned.
+     * @param right The second operand of the node, already interned; <code>null</code> for a negation.
+     *
+     * @return The instance of the node in this factory.
+     */
+    private @NonNull Formula create(int kind, @NonNull Formula formula, @NonNull Formula left,
+            @Nullable Formula right) {
+
+        return add(nodes, new Node(kind, left, right), formula);
+    }
+
+    /**
+     * Adds a new formula to a table, unless another thread added it in the meantime. Replaces an entry whose
+     * formula was garbage collected, but not yet removed.
+     *
+     * @param table The table to add the formula to.
+     * @param key The key of the formula.
+     * @param formula The new formula.
+     *
+     * @param <K> The type of the key.
+     * @param <F> The type of the formula.
+     *
+     * @return The instance of the formula in this factory.
+     */
+    private <K, F extends Formula> @NonNull F add(@NonNull ConcurrentHashMap<K, Entry<F>> table, @NonNull K key,
+            @NonNull F formula) {
+
+        removeCollected();
+        Entry<F> entry = new Entry<>(formula, key, collected);
+        F result = null;
+        while (result == null) {
+            Entry<F> existing = table.putIfAbsent(key, entry);
+            if (existing == null) {
+                result = formula;
+            } else {
+                result = existing.get();
+                if (result == null && table.replace(key, existing, entry)) {
+                    result = formula;
+                }
+            }
+        }
+        return result;
+    }
+
+}
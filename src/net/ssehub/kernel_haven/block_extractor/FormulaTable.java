@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A table of distinct {@link Formula}s, which are identified by an integer id. Equal formulas get the same id and
+ * are stored only once. A table can be shared by many {@link BlockTable}s, e.g. for all files of a product line or
+ * even multiple versions of it, since most conditions are used many times. This class is thread-safe.
+ *
+ * @author Adam
+ */
+public final class FormulaTable {
+
+    private final @NonNull Map<Formula, Integer> ids;
+
+    private @NonNull Formula @NonNull [] formulas;
+
+    private int size;
+
+    /**
+     * Creates an empty table.
+     */
+    public FormulaTable() {
+        this.ids = new HashMap<>();
+        this.formulas = new @NonNull Formula[64];
+    }
+
+    /**
+     * Returns the id of the given formula. If the table does not contain an equal formula yet, the formula is added.
+     *
+     * @param formula The formula.
+     *
+     * @return The id of the formula; ids are assigned in ascending order, starting at 0.
+     */
+    public synchronized int add(@NonNull Formula formula) {
+        Integer id = ids.get(formula);
+        if (id == null) {
+            if (size == formulas.length) {
+                formulas = notNull(Arrays.copyOf(formulas, size * 2));
+            }
+            id = size;
+            formulas[size++] = formula;
+            ids.put(formula, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the formula with the given id.
+     *
+     * @param id The id, as returned by {@link #add(Formula)}.
+     *
+     * @return The formula with the given id.
+     *
+     * @throws IndexOutOfBoundsException If no formula has the given id.
+     */
+    public synchronized @NonNull Formula get(int id) throws IndexOutOfBoundsException {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Invalid formula id " + id);
+        }
+        return formulas[id];
+    }
+
+    /**
+     * Returns the number of distinct formulas in this table.
+     *
+     * @return The number of formulas.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,1136 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Read-only access to the object store of a local git repository, without the need for a git installation. Supports
+ * loose objects and pack files (including delta-compressed objects), loose and packed references, and revisions of
+ * the form <code>&lt;name&gt;[~n|^n]*</code>, where the name is a full or abbreviated commit id, <code>HEAD</code>, or
+ * a branch, tag or other reference name.
+ * <p>
+ * This is only meant to find the files that changed between two commits; it reads commits, trees and tags, but never
+ * checks out anything.
+ *
+ * @author Adam
+ */
+final class GitRepository {
+
+    private static final int ID_LENGTH = 20;
+
+    private static final int TYPE_COMMIT = 1;
+
+    private static final int TYPE_TREE = 2;
+
+    private static final int TYPE_BLOB = 3;
+
+    private static final int TYPE_TAG = 4;
+
+    private static final int TYPE_OFS_DELTA = 6;
+
+    private static final int TYPE_REF_DELTA = 7;
+
+    private static final int PACK_IDX_MAGIC = 0xFF744F63;
+
+    /**
+     * The default size of the windows that pack files are mapped in. A single mapping can not be larger than 2 GiB.
+     */
+    private static final long DEFAULT_PACK_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * The maximum total size of the delta base objects that are cached per pack file.
+     */
+    private static final long DELTA_BASE_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * The directory with the repository specific files (e.g. <code>HEAD</code>).
+     */
+    private final @NonNull File gitDir;
+
+    /**
+     * The directory with the files shared between all worktrees (e.g. <code>objects</code> and <code>refs</code>).
+     * Same as {@link #gitDir}, except for additional worktrees.
+     */
+    private final @NonNull File commonDir;
+
+    private final @NonNull List<@NonNull Pack> packs;
+
+    /**
+     * The size of the windows that pack files are mapped in.
+     */
+    private final long packWindowSize;
+
+    /**
+     * Opens the repository of the given worktree.
+     *
+     * @param workTree The top-level directory of the worktree, which contains the <code>.git</code> directory (or a
+     *      <code>.git</code> file pointing to it).
+     *
+     * @throws IOException If the directory is not a git repository or reading the pack indices fails.
+     */
+    GitRepository(@NonNull File workTree) throws IOException {
+        this(workTree, DEFAULT_PACK_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens the repository of the given worktree, with the given size of the windows that pack files are mapped in.
+     * Small windows allow testing reads across window boundaries without large pack files.
+     *
+     * @param workTree The top-level directory of the worktree, which contains the <code>.git</code> directory (or a
+     *      <code>.git</code> file pointing to it).
+     * @param packWindowSize The size of the windows that pack files are mapped in. Must be between 1 and 2 GiB.
+     *
+     * @throws IOException If the directory is not a git repository or reading the pack indices fails.
+     * @throws IllegalArgumentException If the window size is out of range.
+     */
+    GitRepository(@NonNull File workTree, long packWindowSize) throws IOException {
+        if (packWindowSize < 1 || packWindowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid pack window size: " + packWindowSize);
+        }
+        this.packWindowSize = packWindowSize;
+
+        File dotGit = new File(workTree, ".git");
+        if (dotGit.isFile()) {
+            // worktrees and submodules: .git file contains "gitdir: <path>"
+            String content = readString(dotGit).trim();
+            if (!content.startsWith("gitdir:")) {
+                throw new IOException("Invalid .git file: " + dotGit);
+            }
+            dotGit = resolvePath(workTree, notNull(content.substring("gitdir:".length()).trim()));
+        }
+        if (!new File(dotGit, "HEAD").isFile()) {
+            throw new IOException("Not a git repository: " + workTree);
+        }
+        this.gitDir = dotGit;
+
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            this.commonDir = resolvePath(gitDir, notNull(readString(commonDirFile).trim()));
+        } else {
+            this.commonDir = gitDir;
+        }
+
+        this.packs = new ArrayList<>();
+        File[] packFiles = new File(commonDir, "objects/pack").listFiles();
+        if (packFiles != null) {
+            for (File idx : packFiles) {
+                String name = idx.getName();
+                if (name.endsWith(".idx")) {
+                    packs.add(new Pack(idx, new File(idx.getParentFile(),
+                            name.substring(0, name.length() - ".idx".length()) + ".pack")));
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves a path that may be relative to the given directory.
+     *
+     * @param base The directory that relative paths are relative to.
+     * @param path The path.
+     *
+     * @return The resolved path.
+     */
+    private static @NonNull File resolvePath(@NonNull File base, @NonNull String path) {
+        File result = new File(path);
+        if (!result.isAbsolute()) {
+            result = new File(base, path);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves the given revision to a commit id. Tags are peeled to the commit they point to.
+     *
+     * @param revision The revision, e.g. <code>HEAD~1</code>, <code>v4.19</code> or an (abbreviated) commit id.
+     *
+     * @return The full commit id in hexadecimal.
+     *
+     * @throws IOException If the revision can not be resolved or reading the repository fails.
+     */
+    @NonNull String resolveCommit(@NonNull String revision) throws IOException {
+        int suffixStart = 0;
+        while (suffixStart < revision.length() && revision.charAt(suffixStart) != '~'
+                && revision.charAt(suffixStart) != '^') {
+            suffixStart++;
+        }
+
+        String id = resolveName(notNull(revision.substring(0, suffixStart)));
+        if (id == null) {
+            throw new IOException("Unknown revision: " + revision);
+        }
+        id = peelToCommit(id);
+
+        int i = suffixStart;
+        while (i < revision.length()) {
+            char operator = revision.charAt(i++);
+            int numberStart = i;
+            while (i < revision.length() && Character.isDigit(revision.charAt(i))) {
+                i++;
+            }
+            int number = i > numberStart ? Integer.parseInt(revision.substring(numberStart, i)) : 1;
+
+            if (operator == '~') {
+                // n-th generation ancestor, following the first parents
+                for (int generation = 0; generation < number; generation++) {
+                    id = getParent(id, 1, revision);
+                }
+            } else if (operator == '^') {
+                // n-th parent; ^0 is the commit itself
+                if (number > 0) {
+                    id = getParent(id, number, revision);
+                }
+            } else {
+                throw new IOException("Invalid revision: " + revision);
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns a parent of the given commit.
+     *
+     * @param commitId The commit id.
+     * @param number The number of the parent, starting with 1.
+     * @param revision The revision that is resolved, for error messages.
+     *
+     * @return The id of the parent.
+     *
+     * @throws IOException If the commit does not have this parent.
+     */
+    private @NonNull String getParent(@NonNull String commitId, int number, @NonNull String revision)
+            throws IOException {
+
+        List<@NonNull String> parents = getHeaderValues(readObject(commitId, TYPE_COMMIT), "parent");
+        if (number > parents.size()) {
+            throw new IOException("Commit " + commitId + " has no parent " + number + " (in revision " + revision
+                    + ")");
+        }
+        return notNull(parents.get(number - 1));
+    }
+
+    /**
+     * Resolves a revision name without suffixes to an object id.
+     *
+     * @param name The name.
+     *
+     * @return The object id, or <code>null</code> if it can not be resolved.
+     *
+     * @throws IOException If reading the repository fails or an abbreviated id is ambiguous.
+     */
+    private @Nullable String resolveName(@NonNull String name) throws IOException {
+        if (name.matches("[0-9a-f]{40}")) {
+            return name;
+        }
+
+        String[] candidates = {
+            name, "refs/" + name, "refs/tags/" + name, "refs/heads/" + name, "refs/remotes/" + name,
+            "refs/remotes/" + name + "/HEAD",
+        };
+        for (String candidate : candidates) {
+            String id = readRef(notNull(candidate), 0);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        if (name.matches("[0-9a-f]{4,39}")) {
+            return findAbbreviated(name);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the object id a reference points to. Follows symbolic references.
+     *
+     * @param ref The full name of the reference, e.g. <code>HEAD</code> or <code>refs/heads/master</code>.
+     * @param depth The number of symbolic references that were already followed.
+     *
+     * @return The object id, or <code>null</code> if the reference does not exist.
+     *
+     * @throws IOException If reading the reference fails.
+     */
+    private @Nullable String readRef(@NonNull String ref, int depth) throws IOException {
+        if (depth > 5) {
+            throw new IOException("Too many levels of symbolic references: " + ref);
+        }
+
+        // HEAD and other pseudo-refs are per worktree, all others are shared
+        File file = new File(ref.startsWith("refs/") ? commonDir : gitDir, ref);
+        if (file.isFile()) {
+            String content = readString(file).trim();
+            if (content.startsWith("ref:")) {
+                return readRef(notNull(content.substring("ref:".length()).trim()), depth + 1);
+            }
+            if (content.matches("[0-9a-f]{40}")) {
+                return content;
+            }
+            throw new IOException("Invalid reference " + ref + ": " + content);
+        }
+
+        File packedRefs = new File(commonDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (String line : Files.readAllLines(packedRefs.toPath(), StandardCharsets.UTF_8)) {
+                // format: "<id> <ref>"; lines starting with '#' are comments, lines starting with '^' are peeled tags
+                if (line.length() > 41 && line.charAt(40) == ' ' && line.substring(41).equals(ref)) {
+                    return line.substring(0, 40);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the object with the given abbreviated id.
+     *
+     * @param prefix The abbreviated id.
+     *
+     * @return The full object id, or <code>null</code> if no object has this prefix.
+     *
+     * @throws IOException If the prefix is ambiguous.
+     */
+    private @Nullable String findAbbreviated(@NonNull String prefix) throws IOException {
+        List<@NonNull String> found = new ArrayList<>();
+
+        String[] loose = new File(commonDir, "objects/" + prefix.substring(0, 2)).list();
+        if (loose != null) {
+            for (String name : loose) {
+                String id = prefix.substring(0, 2) + name;
+                if (id.startsWith(prefix) && !found.contains(id)) {
+                    found.add(id);
+                }
+            }
+        }
+
+        for (Pack pack : packs) {
+            for (String id : pack.findPrefix(prefix)) {
+                if (!found.contains(id)) {
+                    found.add(id);
+                }
+            }
+        }
+
+        if (found.size() > 1) {
+            throw new IOException("Ambiguous abbreviated id: " + prefix);
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Follows annotated tags until a commit is reached.
+     *
+     * @param id The id of a commit or tag.
+     *
+     * @return The id of the commit.
+     *
+     * @throws IOException If the object is neither a commit nor a tag pointing to a commit.
+     */
+    private @NonNull String peelToCommit(@NonNull String id) throws IOException {
+        String result = id;
+        GitObject object = readObject(result);
+        while (object.type == TYPE_TAG) {
+            List<@NonNull String> target = getHeaderValues(object.content, "object");
+            if (target.isEmpty()) {
+                throw new IOException("Invalid tag object " + result);
+            }
+            result = notNull(target.get(0));
+            object = readObject(result);
+        }
+        if (object.type != TYPE_COMMIT) {
+            throw new IOException(id + " does not point to a commit");
+        }
+        return result;
+    }
+
+    /**
+     * Lists the files in the tree of the given commit, with the ids of their blobs. Submodules are not included.
+     *
+     * @param commitId The commit id.
+     * @param filter Only files whose path (separated by '/', relative to the top-level directory) matches this are
+     *      included, e.g. the source files.
+     *
+     * @return A map from the file paths to the blob ids.
+     *
+     * @throws IOException If reading the repository fails.
+     */
+    @NonNull Map<@NonNull String, @NonNull String> readFiles(@NonNull String commitId, @NonNull Pattern filter)
+            throws IOException {
+        List<@NonNull String> tree = getHeaderValues(readObject(commitId, TYPE_COMMIT), "tree");
+        if (tree.isEmpty()) {
+            throw new IOException("Invalid commit object " + commitId);
+        }
+
+        Map<@NonNull String, @NonNull String> result = new HashMap<>();
+        readTree(notNull(tree.get(0)), "", filter, result);
+        return result;
+    }
+
+    /**
+     * Adds all files in the given tree (recursively) to the given map.
+     *
+     * @param treeId The id of the tree.
+     * @param prefix The path of the tree, including a trailing '/'. Empty for the top-level tree.
+     * @param filter The pattern that the paths of the added files must match.
+     * @param result The map to add the files to.
+     *
+     * @throws IOException If reading the repository fails.
+     */
+    private void readTree(@NonNull String treeId, @NonNull String prefix, @NonNull Pattern filter,
+            @NonNull Map<@NonNull String, @NonNull String> result) throws IOException {
+
+        byte[] content = readObject(treeId, TYPE_TREE);
+        int i = 0;
+        while (i < content.length) {
+            // format of each entry: "<octal mode> <name>\0<20 byte id>"
+            int modeEnd = indexOf(content, (byte) ' ', i);
+            int nameEnd = indexOf(content, (byte) 0, modeEnd);
+            if (modeEnd < 0 || nameEnd < 0 || nameEnd + 1 + ID_LENGTH > content.length) {
+                throw new IOException("Invalid tree object " + treeId);
+            }
+
+            String mode = new String(content, i, modeEnd - i, StandardCharsets.US_ASCII);
+            String name = new String(content, modeEnd + 1, nameEnd - modeEnd - 1, StandardCharsets.UTF_8);
+            String id = toHex(content, nameEnd + 1);
+            i = nameEnd + 1 + ID_LENGTH;
+
+            if (mode.equals("40000")) {
+                readTree(id, prefix + name + "/", filter, result);
+            } else if (!mode.equals("160000")) {
+                // 160000 is a submodule; its id is a commit in another repository
+                String path = prefix + name;
+                if (filter.matcher(path).matches()) {
+                    result.put(path, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the content of the given object and checks its type.
+     *
+     * @param id The object id.
+     * @param expectedType The expected type of the object.
+     *
+     * @return The content of the object, without the header.
+     *
+     * @throws IOException If reading fails or the object has a different type.
+     */
+    private byte @NonNull [] readObject(@NonNull String id, int expectedType) throws IOException {
+        GitObject object = readObject(id);
+        if (object.type != expectedType) {
+            throw new IOException("Object " + id + " has type " + object.type + " instead of " + expectedType);
+        }
+        return object.content;
+    }
+
+    /**
+     * Reads the given object, either from a loose object file or from a pack file.
+     *
+     * @param id The object id.
+     *
+     * @return The object.
+     *
+     * @throws IOException If the object does not exist or reading it fails.
+     */
+    private @NonNull GitObject readObject(@NonNull String id) throws IOException {
+        File loose = new File(commonDir, "objects/" + id.substring(0, 2) + "/" + id.substring(2));
+        if (loose.isFile()) {
+            return readLooseObject(loose);
+        }
+
+        byte[] rawId = fromHex(id);
+        for (Pack pack : packs) {
+            long offset = pack.findOffset(rawId);
+            if (offset >= 0) {
+                return pack.readObject(offset);
+            }
+        }
+
+        throw new IOException("Object not found: " + id);
+    }
+
+    /**
+     * Reads a loose object file.
+     *
+     * @param file The object file.
+     *
+     * @return The object.
+     *
+     * @throws IOException If reading fails or the file is malformed.
+     */
+    private static @NonNull GitObject readLooseObject(@NonNull File file) throws IOException {
+        byte[] compressed = Files.readAllBytes(file.toPath());
+
+        // the header "<type> <size>\0" is compressed together with the content
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] header = new byte[32];
+            int headerLength = 0;
+            do {
+                if (inflater.inflate(header, headerLength, 1) == 0) {
+                    throw new IOException("Truncated loose object " + file);
+                }
+            } while (header[headerLength++] != 0 && headerLength < header.length);
+
+            String[] parts = new String(header, 0, headerLength - 1, StandardCharsets.US_ASCII).split(" ");
+            if (parts.length != 2) {
+                throw new IOException("Invalid loose object header in " + file);
+            }
+            int type;
+            switch (parts[0]) {
+            case "commit":
+                type = TYPE_COMMIT;
+                break;
+            case "tree":
+                type = TYPE_TREE;
+                break;
+            case "blob":
+                type = TYPE_BLOB;
+                break;
+            case "tag":
+                type = TYPE_TAG;
+                break;
+            default:
+                throw new IOException("Invalid object type " + parts[0] + " in " + file);
+            }
+
+            byte[] content = new byte[Integer.parseInt(parts[1])];
+            inflateFully(inflater, content);
+            return new GitObject(type, content);
+
+        } catch (DataFormatException | NumberFormatException e) {
+            throw new IOException("Malformed loose object " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates until the given array is full.
+     *
+     * @param inflater The inflater with the input already set.
+     * @param output The array to fill.
+     *
+     * @throws DataFormatException If the compressed data is malformed.
+     * @throws IOException If the compressed data ends before the array is full.
+     */
+    private static void inflateFully(@NonNull Inflater inflater, byte @NonNull [] output)
+            throws DataFormatException, IOException {
+
+        int length = 0;
+        while (length < output.length) {
+            int read = inflater.inflate(output, length, output.length - length);
+            if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                throw new IOException("Truncated compressed data");
+            }
+            length += read;
+        }
+    }
+
+    /**
+     * Returns the values of all header lines with the given key in a commit or tag object. The header ends at the
+     * first empty line.
+     *
+     * @param content The content of the commit or tag object.
+     * @param key The key, e.g. <code>parent</code>.
+     *
+     * @return The values, in order.
+     */
+    private static @NonNull List<@NonNull String> getHeaderValues(byte @NonNull [] content, @NonNull String key) {
+        List<@NonNull String> result = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < content.length && content[lineStart] != '\n') {
+            int lineEnd = indexOf(content, (byte) '\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = content.length;
+            }
+            String line = new String(content, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+            if (line.startsWith(key + " ")) {
+                result.add(notNull(line.substring(key.length() + 1)));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the first occurrence of a byte.
+     *
+     * @param array The array to search in.
+     * @param value The byte to search.
+     * @param start The index to start at.
+     *
+     * @return The index of the byte, or -1 if it is not found.
+     */
+    private static int indexOf(byte @NonNull [] array, byte value, int start) {
+        if (start < 0) {
+            return -1;
+        }
+        for (int i = start; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a binary object id to hexadecimal.
+     *
+     * @param array The array containing the id.
+     * @param offset The index of the id in the array.
+     *
+     * @return The id in hexadecimal.
+     */
+    private static @NonNull String toHex(byte @NonNull [] array, int offset) {
+        StringBuilder result = new StringBuilder(2 * ID_LENGTH);
+        for (int i = offset; i < offset + ID_LENGTH; i++) {
+            result.append(Character.forDigit((array[i] >> 4) & 0xF, 16)).append(Character.forDigit(array[i] & 0xF, 16));
+        }
+        return notNull(result.toString());
+    }
+
+    /**
+     * Converts a hexadecimal object id to binary.
+     *
+     * @param id The id in hexadecimal.
+     *
+     * @return The binary id.
+     *
+     * @throws IOException If the id is not a valid hexadecimal object id.
+     */
+    private static byte @NonNull [] fromHex(@NonNull String id) throws IOException {
+        if (!id.matches("[0-9a-f]{40}")) {
+            throw new IOException("Invalid object id: " + id);
+        }
+        byte[] result = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a small text file.
+     *
+     * @param file The file to read.
+     *
+     * @return The content of the file.
+     *
+     * @throws IOException If reading fails.
+     */
+    private static @NonNull String readString(@NonNull File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An object read from the repository.
+     */
+    private static final class GitObject {
+
+        private final int type;
+
+        private final byte @NonNull [] content;
+
+        /**
+         * Creates an object.
+         *
+         * @param type The type of the object; one of the <code>TYPE_*</code> constants, except the delta types.
+         * @param content The content of the object.
+         */
+        GitObject(int type, byte @NonNull [] content) {
+            this.type = type;
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * A pack file with its index (version 2). The pack file is mapped in windows of {@link #packWindowSize} when they
+     * are first needed, so that pack files larger than 2 GiB can be read. Recently used delta base objects are cached,
+     * so that objects sharing a delta chain do not inflate the whole chain again.
+     */
+    private final class Pack {
+
+        private final @NonNull File packFile;
+
+        private final @NonNull ByteBuffer index;
+
+        private final int numObjects;
+
+        private final @NonNull Map<@NonNull Long, @NonNull MappedByteBuffer> windows;
+
+        private final @NonNull LinkedHashMap<@NonNull Long, @NonNull GitObject> deltaBaseCache;
+
+        private long deltaBaseCacheSize;
+
+        /**
+         * Reads the index of a pack file. The pack file itself is only mapped when it is first needed.
+         *
+         * @param indexFile The <code>.idx</code> file.
+         * @param packFile The <code>.pack</code> file.
+         *
+         * @throws IOException If reading the index fails or it has an unsupported version.
+         */
+        Pack(@NonNull File indexFile, @NonNull File packFile) throws IOException {
+            this.packFile = packFile;
+            this.index = mapIndex(indexFile);
+            if (index.getInt(0) != PACK_IDX_MAGIC || index.getInt(4) != 2) {
+                throw new IOException("Unsupported pack index version: " + indexFile);
+            }
+            this.numObjects = index.getInt(8 + 255 * 4);
+            this.windows = new HashMap<>();
+            // access order, so that the least recently used base objects are evicted first
+            this.deltaBaseCache = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        /**
+         * Maps the given index file into memory.
+         *
+         * @param file The file to map.
+         *
+         * @return The mapped file.
+         *
+         * @throws IOException If mapping fails or the file is larger than 2 GiB.
+         */
+        private @NonNull MappedByteBuffer mapIndex(@NonNull File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Pack index larger than 2 GiB: " + file);
+                }
+                return notNull(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        /**
+         * Returns the window of the pack file that contains the given offset. Maps the window if it is not mapped yet.
+         *
+         * @param offset The offset in the pack file.
+         *
+         * @return The window, or <code>null</code> if the offset is beyond the end of the pack file.
+         *
+         * @throws IOException If mapping fails.
+         */
+        private @Nullable MappedByteBuffer getWindow(long offset) throws IOException {
+            long start = offset - offset % packWindowSize;
+            MappedByteBuffer window = windows.get(start);
+            if (window == null) {
+                try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if (offset < 0 || start >= size) {
+                        return null;
+                    }
+                    window = notNull(channel.map(MapMode.READ_ONLY, start, Math.min(packWindowSize, size - start)));
+                }
+                windows.put(start, window);
+            }
+            return window;
+        }
+
+        /**
+         * Reads a single byte of the pack file.
+         *
+         * @param offset The offset in the pack file.
+         *
+         * @return The byte.
+         *
+         * @throws IOException If the offset is beyond the end of the pack file or mapping fails.
+         */
+        private byte get(long offset) throws IOException {
+            MappedByteBuffer window = getWindow(offset);
+            int position = (int) (offset % packWindowSize);
+            if (window == null || position >= window.limit()) {
+                throw new IOException("Truncated pack file " + packFile);
+            }
+            return window.get(position);
+        }
+
+        /**
+         * Reads bytes of the pack file, up to the end of the window that contains the given offset.
+         *
+         * @param offset The offset in the pack file.
+         * @param output The array to read into, starting at index 0.
+         *
+         * @return The number of bytes read; 0 if the offset is at or beyond the end of the pack file.
+         *
+         * @throws IOException If mapping fails.
+         */
+        private int read(long offset, byte @NonNull [] output) throws IOException {
+            MappedByteBuffer window = getWindow(offset);
+            if (window == null) {
+                return 0;
+            }
+            int position = (int) (offset % packWindowSize);
+            int length = Math.max(0, Math.min(output.length, window.limit() - position));
+            if (length > 0) {
+                ByteBuffer view = window.duplicate();
+                view.position(position);
+                view.get(output, 0, length);
+            }
+            return length;
+        }
+
+        /**
+         * Returns the first index (in the sorted id table) of ids starting with the given byte.
+         *
+         * @param firstByte The first byte of the id (0 to 255).
+         *
+         * @return The first index.
+         */
+        private int fanoutStart(int firstByte) {
+            return firstByte == 0 ? 0 : index.getInt(8 + (firstByte - 1) * 4);
+        }
+
+        /**
+         * Compares the id at the given position in the id table with the given id.
+         *
+         * @param position The position in the sorted id table.
+         * @param id The binary id to compare with.
+         * @param length The number of bytes to compare.
+         *
+         * @return Negative, zero or positive, like {@link Comparable#compareTo(Object)}.
+         */
+        private int compareId(int position, byte @NonNull [] id, int length) {
+            int base = 8 + 256 * 4 + position * ID_LENGTH;
+            for (int i = 0; i < length; i++) {
+                int difference = (index.get(base + i) & 0xFF) - (id[i] & 0xFF);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Finds the offset of the given object in the pack file.
+         *
+         * @param id The binary object id.
+         *
+         * @return The offset, or -1 if this pack does not contain the object.
+         */
+        long findOffset(byte @NonNull [] id) {
+            int firstByte = id[0] & 0xFF;
+            int low = fanoutStart(firstByte);
+            int high = index.getInt(8 + firstByte * 4) - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compareId(middle, id, ID_LENGTH);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return getOffset(middle);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Finds all ids in this pack that start with the given prefix.
+         *
+         * @param prefix The hexadecimal prefix.
+         *
+         * @return The matching ids in hexadecimal.
+         */
+        @NonNull List<@NonNull String> findPrefix(@NonNull String prefix) {
+            List<@NonNull String> result = new ArrayList<>();
+            int firstByte = Integer.parseInt(prefix.substring(0, 2), 16);
+            int end = index.getInt(8 + firstByte * 4);
+            byte[] id = new byte[ID_LENGTH];
+            for (int position = fanoutStart(firstByte); position < end; position++) {
+                int base = 8 + 256 * 4 + position * ID_LENGTH;
+                for (int i = 0; i < ID_LENGTH; i++) {
+                    id[i] = index.get(base + i);
+                }
+                String hex = toHex(id, 0);
+                if (hex.startsWith(prefix)) {
+                    result.add(hex);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the pack file offset of the object at the given position in the id table.
+         *
+         * @param position The position in the sorted id table.
+         *
+         * @return The offset in the pack file.
+         */
+        private long getOffset(int position) {
+            int offsetTable = 8 + 256 * 4 + numObjects * (ID_LENGTH + 4);
+            int offset = index.getInt(offsetTable + position * 4);
+            if (offset >= 0) {
+                return offset;
+            }
+            // the most significant bit is set: index into the table of 8 byte offsets
+            int largeOffsetTable = offsetTable + numObjects * 4;
+            return index.getLong(largeOffsetTable + (offset & Integer.MAX_VALUE) * 8);
+        }
+
+        /**
+         * Reads the object at the given offset. Resolves delta-compressed objects.
+         *
+         * @param offset The offset of the object in the pack file.
+         *
+         * @return The object.
+         *
+         * @throws IOException If reading fails or the pack file is malformed.
+         */
+        @NonNull GitObject readObject(long offset) throws IOException {
+            long position = offset;
+            int b = get(position++) & 0xFF;
+            int type = (b >> 4) & 0x7;
+            long size = b & 0xF;
+            for (int shift = 4; (b & 0x80) != 0; shift += 7) {
+                b = get(position++) & 0xFF;
+                size |= (long) (b & 0x7F) << shift;
+            }
+
+            GitObject result;
+            switch (type) {
+            case TYPE_COMMIT:
+            case TYPE_TREE:
+            case TYPE_BLOB:
+            case TYPE_TAG:
+                result = new GitObject(type, inflate(position, size));
+                break;
+
+            case TYPE_OFS_DELTA:
+                b = get(position++) & 0xFF;
+                long distance = b & 0x7F;
+                while ((b & 0x80) != 0) {
+                    b = get(position++) & 0xFF;
+                    distance = ((distance + 1) << 7) | (b & 0x7F);
+                }
+                GitObject ofsBase = readDeltaBase(offset - distance);
+                result = new GitObject(ofsBase.type, applyDelta(ofsBase.content, inflate(position, size)));
+                break;
+
+            case TYPE_REF_DELTA:
+                byte[] baseId = new byte[ID_LENGTH];
+                for (int i = 0; i < ID_LENGTH; i++) {
+                    baseId[i] = get(position++);
+                }
+                long baseOffset = findOffset(baseId);
+                GitObject refBase = baseOffset >= 0 ? readDeltaBase(baseOffset)
+                        : GitRepository.this.readObject(toHex(baseId, 0));
+                result = new GitObject(refBase.type, applyDelta(refBase.content, inflate(position, size)));
+                break;
+
+            default:
+                throw new IOException("Invalid object type " + type + " at offset " + offset + " in " + packFile);
+            }
+            return result;
+        }
+
+        /**
+         * Reads the base object of a delta. Uses the cache of recently used base objects, so that the objects in a
+         * delta chain are only inflated once.
+         *
+         * @param offset The offset of the base object in the pack file.
+         *
+         * @return The base object.
+         *
+         * @throws IOException If reading fails or the pack file is malformed.
+         */
+        private @NonNull GitObject readDeltaBase(long offset) throws IOException {
+            GitObject result = deltaBaseCache.get(offset);
+            if (result == null) {
+                result = readObject(offset);
+                if (result.content.length <= DELTA_BASE_CACHE_SIZE) {
+                    deltaBaseCache.put(offset, result);
+                    deltaBaseCacheSize += result.content.length;
+
+                    Iterator<@NonNull GitObject> leastRecentlyUsed = deltaBaseCache.values().iterator();
+                    while (deltaBaseCacheSize > DELTA_BASE_CACHE_SIZE) {
+                        deltaBaseCacheSize -= leastRecentlyUsed.next().content.length;
+                        leastRecentlyUsed.remove();
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Inflates compressed data from the pack file.
+         *
+         * @param offset The start of the compressed data in the pack file.
+         * @param size The size of the uncompressed data.
+         *
+         * @return The uncompressed data.
+         *
+         * @throws IOException If the data is malformed.
+         */
+        private byte @NonNull [] inflate(long offset, long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Object too large in " + packFile);
+            }
+            byte[] result = new byte[(int) size];
+
+            Inflater inflater = new Inflater();
+            try {
+                byte[] input = new byte[8192];
+                long inputOffset = offset;
+                int length = 0;
+                while (!inflater.finished() && (length < result.length || result.length == 0)) {
+                    if (inflater.needsInput()) {
+                        int inputLength = read(inputOffset, input);
+                        if (inputLength <= 0) {
+                            throw new IOException("Truncated pack file " + packFile);
+                        }
+                        inputOffset += inputLength;
+                        inflater.setInput(input, 0, inputLength);
+                    }
+                    int read = inflater.inflate(result, length, result.length - length);
+                    if (read == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Malformed compressed data in " + packFile);
+                    }
+                    length += read;
+                }
+                if (length != result.length) {
+                    throw new IOException("Truncated object in " + packFile);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed compressed data in " + packFile, e);
+            } finally {
+                inflater.end();
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Applies a git delta to the given base object.
+     *
+     * @param base The content of the base object.
+     * @param delta The delta instructions.
+     *
+     * @return The content of the resulting object.
+     *
+     * @throws IOException If the delta is malformed.
+     */
+    static byte @NonNull [] applyDelta(byte @NonNull [] base, byte @NonNull [] delta) throws IOException {
+        int[] position = {0};
+        long baseSize = readDeltaSize(delta, position);
+        long resultSize = readDeltaSize(delta, position);
+        if (baseSize != base.length || resultSize > Integer.MAX_VALUE) {
+            throw new IOException("Delta does not match its base object");
+        }
+
+        byte[] result = new byte[(int) resultSize];
+        int resultLength = 0;
+        int i = position[0];
+        try {
+            while (i < delta.length) {
+                int instruction = delta[i++] & 0xFF;
+                if ((instruction & 0x80) != 0) {
+                    // copy from base: the lower 7 bits specify which offset and size bytes follow
+                    long copyOffset = 0;
+                    for (int bit = 0; bit < 4; bit++) {
+                        if ((instruction & (1 << bit)) != 0) {
+                            copyOffset |= (long) (delta[i++] & 0xFF) << (8 * bit);
+                        }
+                    }
+                    int copySize = 0;
+                    for (int bit = 0; bit < 3; bit++) {
+                        if ((instruction & (0x10 << bit)) != 0) {
+                            copySize |= (delta[i++] & 0xFF) << (8 * bit);
+                        }
+                    }
+                    if (copySize == 0) {
+                        copySize = 0x10000;
+                    }
+                    if (copyOffset + copySize > base.length) {
+                        throw new IOException("Delta copies beyond its base object");
+                    }
+                    System.arraycopy(base, (int) copyOffset, result, resultLength, copySize);
+                    resultLength += copySize;
+
+                } else if (instruction != 0) {
+                    // insert the next bytes of the delta
+                    System.arraycopy(delta, i, result, resultLength, instruction);
+                    i += instruction;
+                    resultLength += instruction;
+
+                } else {
+                    throw new IOException("Invalid delta instruction 0");
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Malformed delta", e);
+        }
+
+        if (resultLength != result.length) {
+            throw new IOException("Delta result has the wrong size");
+        }
+        return result;
+    }
+
+    /**
+     * Reads a size in the header of a delta (little-endian groups of 7 bits).
+     *
+     * @param delta The delta.
+     * @param position The position to read at; a single element array that is updated.
+     *
+     * @return The size.
+     *
+     * @throws IOException If the delta is truncated.
+     */
+    private static long readDeltaSize(byte @NonNull [] delta, int @NonNull [] position) throws IOException {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (position[0] >= delta.length) {
+                throw new IOException("Truncated delta");
+            }
+            b = delta[position[0]++] & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * A listener for the events that a {@link BlockParser} finds while walking through a file. This allows processing
+ * the blocks of a file without creating the hierarchy of {@link CodeBlock}s; the parser itself only keeps state for
+ * the currently open blocks. All methods do nothing by default.
+ *
+ * @author Adam
+ */
+public interface IBlockListener {
+
+    /**
+     * Called when a new block is opened by an #if, #ifdef, #ifndef, #elif or #else. For #elif and #else, the
+     * previous sibling is closed first.
+     * 
+     * @param lineStart The line of the opening directive.
+     * @param condition The immediate condition of the block.
+     * @param presenceCondition The presence condition of the block.
+     * @param depth The nesting depth of the block; top-level blocks have depth 0.
+     */
+    public default void blockOpened(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition,
+            int depth) {
+    }
+    
+    /**
+     * Called when a block is closed by an #elif, #else or #endif. All blocks nested inside of it have already been
+     * closed.
+     * 
+     * @param lineStart The line of the opening directive.
+     * @param lineEnd The last line of the block, i.e. the line before the closing directive.
+     * @param condition The immediate condition of the block.
+     * @param presenceCondition The presence condition of the block.
+     * @param depth The nesting depth of the block; top-level blocks have depth 0.
+     */
+    public default void blockClosed(int lineStart, int lineEnd, @NonNull Formula condition,
+            @NonNull Formula presenceCondition, int depth) {
+    }
+    
+    /**
+     * Called when the end of the file is reached and all blocks are correctly closed.
+     * 
+     * @param lineEnd The end line for a pseudo block that spans the whole file.
+     * @param pseudoBlock Whether a pseudo block with condition <code>true</code> should be created for the whole
+     *      file, i.e. if there is code outside of all blocks and pseudo blocks are enabled. If <code>true</code>, all
+     *      top-level blocks are nested inside of the pseudo block.
+     */
+    public default void endOfFile(int lineEnd, boolean pseudoBlock) {
+    }
+    
+    /**
+     * Called when the file is not formatted correctly. The exception is thrown by the parser after this call; no
+     * further events follow.
+     * 
+     * @param exception The exception that describes the error.
+     */
+    public default void parseError(@NonNull FormatException exception) {
+    }
+    
+}
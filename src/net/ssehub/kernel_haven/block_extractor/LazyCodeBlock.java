@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.util.Objects;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A {@link CodeBlock} whose presence condition is only created when it is first requested: the conjunction of the
+ * presence condition of the parent block and the immediate condition of this block. The result is memoized. Blocks
+ * whose presence condition is never requested thus don't allocate or retain it. Created by the
+ * {@link BlockTreeBuilder}; the parent is set once the parent block itself is finished.
+ * <p>
+ * If conditions are parsed lazily (see {@link BlockParser#setLazyConditions(boolean)}), the immediate condition is
+ * a {@link LazyCondition} as well, which is only parsed when it, or the presence condition, is first requested.
+ * <p>
+ * The presence condition (and possibly the condition) stored in the super class is only a placeholder, which is never
+ * equal to a real formula. Thus a {@link LazyCodeBlock} is never equal to an eagerly created {@link CodeBlock}, and
+ * {@link #equals(Object)} is overridden to compare {@link LazyCodeBlock}s through their accessors. It compares the
+ * conditions of the blocks and their parents instead of creating the presence conditions. {@link #hashCode()} and
+ * {@link #toString()} do not parse or create anything.
+ *
+ * @author Adam
+ */
+final class LazyCodeBlock extends CodeBlock {
+
+    /**
+     * The placeholder for the presence condition of the super class. Not a valid C identifier, so it does not occur in
+     * real formulas.
+     */
+    private static final @NonNull Formula PRESENCE_CONDITION_PLACEHOLDER = new Variable("<lazy presence condition>");
+
+    /**
+     * The placeholder for the condition of the super class, if it is parsed lazily.
+     */
+    private static final @NonNull Formula CONDITION_PLACEHOLDER = new Variable("<lazy condition>");
+
+    /**
+     * The parent block. <code>null</code> for top-level blocks, whose presence condition is their condition.
+     */
+    private @Nullable CodeBlock parent;
+
+    /**
+     * The factory that creates the presence condition. <code>null</code> if the formulas are not shared.
+     */
+    private final @Nullable FormulaFactory formulaFactory;
+
+    /**
+     * The unparsed condition. <code>null</code> if the condition was already parsed by the {@link BlockParser}.
+     */
+    private final @Nullable LazyCondition lazyCondition;
+
+    /**
+     * The memoized presence condition. <code>null</code> until it is first requested.
+     */
+    private volatile @Nullable Formula presenceCondition;
+
+    /**
+     * Creates a block with a lazy presence condition.
+     *
+     * @param lineStart The line of the opening #if, #elif or #else.
+     * @param lineEnd The last line of the block.
+     * @param sourceFile The source file of the block.
+     * @param condition The immediate condition of the block.
+     * @param formulaFactory The factory to create the presence condition with, or <code>null</code> to create a
+     *      plain {@link Conjunction}.
+     */
+    LazyCodeBlock(int lineStart, int lineEnd, @NonNull File sourceFile, @NonNull Formula condition,
+            @Nullable FormulaFactory formulaFactory) {
+        super(lineStart, lineEnd, sourceFile, condition, PRESENCE_CONDITION_PLACEHOLDER);
+        this.formulaFactory = formulaFactory;
+        this.lazyCondition = null;
+    }
+
+    /**
+     * Creates a block with a lazy condition and a lazy presence condition.
+     *
+     * @param lineStart The line of the opening #if, #elif or #else.
+     * @param lineEnd The last line of the block.
+     * @param sourceFile The source file of the block.
+     * @param condition The unparsed immediate condition of the block.
+     * @param formulaFactory The factory to create the presence condition with, or <code>null</code> to create a
+     *      plain {@link Conjunction}.
+     */
+    LazyCodeBlock(int lineStart, int lineEnd, @NonNull File sourceFile, @NonNull LazyCondition condition,
+            @Nullable FormulaFactory formulaFactory) {
+        super(lineStart, lineEnd, sourceFile, CONDITION_PLACEHOLDER, PRESENCE_CONDITION_PLACEHOLDER);
+        this.formulaFactory = formulaFactory;
+        this.lazyCondition = condition;
+    }
+
+    /**
+     * Sets the parent block. Must be called before the presence condition is requested.
+     *
+     * @param parent The block that this block is nested in.
+     */
+    void setParent(@NonNull CodeBlock parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Returns whether the presence condition was already created.
+     *
+     * @return Whether {@link #getPresenceCondition()} was called.
+     */
+    boolean isMaterialized() {
+        return presenceCondition != null;
+    }
+
+    /**
+     * Returns whether the condition was already parsed.
+     *
+     * @return Whether the condition of this block is available without parsing.
+     */
+    boolean isConditionParsed() {
+        LazyCondition lazyCondition = this.lazyCondition;
+        return lazyCondition == null || lazyCondition.isParsed();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ConditionParseException If the condition is parsed lazily and can not be parsed.
+     */
+    @Override
+    public @NonNull Formula getCondition() throws ConditionParseException {
+        LazyCondition lazyCondition = this.lazyCondition;
+        return lazyCondition != null ? lazyCondition.get() : notNull(super.getCondition());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ConditionParseException If the condition of this or a parent block is parsed lazily and can not be
+     *      parsed.
+     */
+    @Override
+    public @NonNull Formula getPresenceCondition() throws ConditionParseException {
+        Formula result = presenceCondition;
+        if (result == null) {
+            // a race only creates an equal formula twice
+            Formula condition = getCondition();
+            CodeBlock parent = this.parent;
+            if (parent == null) {
+                result = condition;
+            } else {
+                FormulaFactory factory = this.formulaFactory;
+                result = factory != null ? factory.and(parent.getPresenceCondition(), condition)
+                        : new Conjunction(parent.getPresenceCondition(), condition);
+            }
+            presenceCondition = result;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether this block has the same presence condition as the given block, without creating it: either both
+     * are already created, or the conditions of the blocks and all of their parents are the same.
+     *
+     * @param other The other block.
+     *
+     * @return Whether the presence conditions are equal.
+     *
+     * @throws ConditionParseException If a condition is parsed lazily and can not be parsed.
+     */
+    private boolean hasSamePresenceCondition(@NonNull LazyCodeBlock other) throws ConditionParseException {
+        boolean result;
+        LazyCodeBlock block = this;
+        LazyCodeBlock otherBlock = other;
+        while (true) {
+            Formula presenceCondition = block.presenceCondition;
+            Formula otherPresenceCondition = otherBlock.presenceCondition;
+            if (presenceCondition != null && otherPresenceCondition != null) {
+                result = presenceCondition.equals(otherPresenceCondition);
+                break;
+            }
+            if (!block.getCondition().equals(otherBlock.getCondition())) {
+                result = false;
+                break;
+            }
+
+            CodeBlock parent = block.parent;
+            CodeBlock otherParent = otherBlock.parent;
+            if (parent == null || otherParent == null) {
+                result = parent == otherParent;
+                break;
+            }
+            if (!(parent instanceof LazyCodeBlock) || !(otherParent instanceof LazyCodeBlock)) {
+                result = parent.getPresenceCondition().equals(otherParent.getPresenceCondition());
+                break;
+            }
+            block = (LazyCodeBlock) parent;
+            otherBlock = (LazyCodeBlock) otherParent;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ConditionParseException If a condition is parsed lazily and can not be parsed.
+     */
+    @Override
+    public boolean equals(@Nullable Object obj) throws ConditionParseException {
+        boolean equal = false;
+        if (obj instanceof LazyCodeBlock) {
+            LazyCodeBlock other = (LazyCodeBlock) obj;
+            equal = getLineStart() == other.getLineStart() && getLineEnd() == other.getLineEnd()
+                    && getSourceFile().equals(other.getSourceFile())
+                    && getNestedElementCount() == other.getNestedElementCount()
+                    && hasSamePresenceCondition(other);
+
+            for (int i = 0; equal && i < getNestedElementCount(); i++) {
+                equal = getNestedElement(i).equals(other.getNestedElement(i));
+            }
+        }
+        return equal;
+    }
+
+    /**
+     * {@inheritDoc} Only hashes the lines, the source file and the number of nested blocks, so that hashing never
+     * parses a lazy condition. This is consistent with {@link #equals(Object)}, which compares these as well.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getLineStart(), getLineEnd(), getSourceFile(), getNestedElementCount());
+    }
+
+    @Override
+    public @NonNull String toString() {
+        Object condition = isConditionParsed() ? getCondition() : CONDITION_PLACEHOLDER;
+        Formula presenceCondition = this.presenceCondition;
+        return "CodeBlock[" + getLineStart() + "-" + getLineEnd() + "; " + getSourceFile() + "; " + condition
+                + "; " + (presenceCondition != null ? presenceCondition : PRESENCE_CONDITION_PLACEHOLDER) + "; "
+                + getNestedElementCount() + " nested]";
+    }
+
+}
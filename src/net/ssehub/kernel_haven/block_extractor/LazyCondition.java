@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * The immediate condition of a block, which is kept as the raw expression of its directive and only parsed when it
+ * is first requested. The result is memoized. An #elif or #else refers to the condition of the previous sibling, since
+ * its condition includes the negations of all previous conditions of the #if chain; the resulting formulas have the
+ * same structure as the ones that the {@link BlockParser} creates while parsing.
+ * <p>
+ * An expression that can not be parsed is handled like in eager parsing, but only when it is requested: the condition
+ * parser replaces it according to the {@link InvalidConditionHandling}. If parsing fails anyway (always with
+ * {@link InvalidConditionHandling#EXCEPTION}), eager parsing fails the whole file; here, a
+ * {@link ConditionParseException} is thrown instead, whatever the handling, since the methods of the code model can't
+ * declare checked exceptions.
+ *
+ * @author Adam
+ */
+final class LazyCondition {
+
+    /**
+     * The settings to parse the conditions of one file with. Shared by all conditions of the file.
+     */
+    static final class Context {
+
+        private final @NonNull File sourceFile;
+
+        private final boolean handleLinuxMacros;
+
+        private final boolean fuzzyParsing;
+
+        private final @NonNull InvalidConditionHandling invalidConditionHandling;
+
+        /**
+         * The parser for the expressions. <code>null</code> until the first expression is parsed.
+         */
+        private @Nullable CppConditionParser conditionParser;
+
+        private final @NonNull String conditionFlags;
+
+        private final @Nullable ConditionCache conditionCache;
+
+        private final @Nullable FormulaFactory formulaFactory;
+
+        /**
+         * Creates a context.
+         *
+         * @param sourceFile The file that the conditions are in, for the log messages.
+         * @param handleLinuxMacros Whether to handle preprocessor macros found in the Linux Kernel.
+         * @param fuzzyParsing Whether to do fuzzy parsing for non-boolean integer comparisons.
+         * @param invalidConditionHandling How to handle unparseable conditions.
+         * @param conditionFlags The settings of the condition parser, as used in the keys of the condition cache.
+         * @param conditionCache The cache of parsed conditions, or <code>null</code>.
+         * @param formulaFactory The factory to create the conditions with, or <code>null</code>.
+         */
+        Context(@NonNull File sourceFile, boolean handleLinuxMacros, boolean fuzzyParsing,
+                @NonNull InvalidConditionHandling invalidConditionHandling, @NonNull String conditionFlags,
+                @Nullable ConditionCache conditionCache, @Nullable FormulaFactory formulaFactory) {
+            this.sourceFile = sourceFile;
+            this.handleLinuxMacros = handleLinuxMacros;
+            this.fuzzyParsing = fuzzyParsing;
+            this.invalidConditionHandling = invalidConditionHandling;
+            this.conditionFlags = conditionFlags;
+            this.conditionCache = conditionCache;
+            this.formulaFactory = formulaFactory;
+        }
+
+        /**
+         * Parses an expression. Synchronized, since the conditions may be requested by multiple threads, but the
+         * condition parser is not thread-safe.
+         *
+         * @param expression The expression.
+         * @param line The line of the directive, for the error message.
+         *
+         * @return The parsed condition.
+         *
+         * @throws FormatException If the expression can not be parsed.
+         */
+        synchronized @NonNull Formula parse(@NonNull String expression, int line) throws FormatException {
+            CppConditionParser conditionParser = this.conditionParser;
+            if (conditionParser == null) {
+                // consumers that never request a condition don't need a parser at all
+                conditionParser = new CppConditionParser(handleLinuxMacros, fuzzyParsing, invalidConditionHandling);
+                this.conditionParser = conditionParser;
+            }
+            return BlockParser.parseCondition(conditionParser, conditionFlags, conditionCache, formulaFactory,
+                    expression, line);
+        }
+
+        /**
+         * Creates a conjunction, through the factory if there is one.
+         *
+         * @param left The left operand.
+         * @param right The right operand.
+         *
+         * @return The conjunction.
+         */
+        @NonNull Formula and(@NonNull Formula left, @NonNull Formula right) {
+            FormulaFactory factory = this.formulaFactory;
+            return factory != null ? factory.and(left, right) : new Conjunction(left, right);
+        }
+
+        /**
+         * Creates a negation, through the factory if there is one.
+         *
+         * @param formula The formula to negate.
+         *
+         * @return The negation.
+         */
+        @NonNull Formula not(@NonNull Formula formula) {
+            FormulaFactory factory = this.formulaFactory;
+            return factory != null ? factory.not(formula) : new Negation(formula);
+        }
+
+    }
+
+    private final @NonNull Context context;
+
+    /**
+     * The normalized expression of the #if or #elif. <code>null</code> for an #else.
+     */
+    private final @Nullable String expression;
+
+    /**
+     * The condition of the previous #if or #elif in the chain. <code>null</code> for an #if.
+     */
+    private final @Nullable LazyCondition previous;
+
+    private final int line;
+
+    /**
+     * The memoized parsed expression. <code>null</code> until it is first needed, and for an #else.
+     */
+    private volatile @Nullable Formula immediateCondition;
+
+    /**
+     * The memoized condition. <code>null</code> until it is first requested.
+     */
+    private volatile @Nullable Formula condition;
+
+    /**
+     * The memoized result of {@link #negateChain()}. <code>null</code> until it is first needed.
+     */
+    private volatile @Nullable Formula negatedChain;
+
+    /**
+     * Creates a lazy condition.
+     *
+     * @param context The context to parse the expression with.
+     * @param expression The expression of an #if or #elif; <code>null</code> for an #else.
+     * @param previous The condition of the previous #if or #elif; <code>null</code> for an #if.
+     * @param line The line of the directive.
+     */
+    LazyCondition(@NonNull Context context, @Nullable String expression, @Nullable LazyCondition previous,
+            int line) {
+        this.context = context;
+        this.expression = expression != null ? expression.trim() : null;
+        this.previous = previous;
+        this.line = line;
+    }
+
+    /**
+     * Returns the condition; parses it on the first call.
+     *
+     * @return The condition.
+     *
+     * @throws ConditionParseException If the expression of this or a previous #if or #elif in the chain can not be
+     *      parsed.
+     */
+    @NonNull Formula get() throws ConditionParseException {
+        Formula result = condition;
+        if (result == null) {
+            // a race only creates an equal formula twice
+            LazyCondition previous = this.previous;
+            if (previous == null) {
+                result = getImmediateCondition();
+            } else if (expression == null) {
+                result = previous.negateChain();
+            } else {
+                result = context.and(previous.negateChain(), getImmediateCondition());
+            }
+            condition = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the expression was already parsed.
+     *
+     * @return Whether the condition of an #if or #elif is available without parsing; for an #else, whether
+     *      {@link #get()} was called.
+     */
+    boolean isParsed() {
+        return expression != null ? immediateCondition != null : condition != null;
+    }
+
+    /**
+     * Returns the parsed expression of an #if or #elif; parses it on the first call.
+     *
+     * @return The immediate condition.
+     *
+     * @throws ConditionParseException If the expression can not be parsed.
+     */
+    private @NonNull Formula getImmediateCondition() throws ConditionParseException {
+        Formula result = immediateCondition;
+        if (result == null) {
+            result = parse();
+            immediateCondition = result;
+        }
+        return result;
+    }
+
+    /**
+     * Creates the conjunction of the negations of the immediate conditions of this and all previous #if and #elif in
+     * the chain. This is the condition of an #else following this, and the left part of the condition of an #elif.
+     * The chain is walked iteratively, so that long #elif chains don't overflow the stack.
+     *
+     * @return The negated chain.
+     *
+     * @throws ConditionParseException If an expression in the chain can not be parsed.
+     */
+    private @NonNull Formula negateChain() throws ConditionParseException {
+        // collect the conditions up to the last one whose negated chain is already known
+        List<@NonNull LazyCondition> chain = new ArrayList<>();
+        LazyCondition current = this;
+        while (current != null && current.negatedChain == null) {
+            chain.add(current);
+            current = current.previous;
+        }
+
+        Formula result = current != null ? current.negatedChain : null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            LazyCondition element = chain.get(i);
+            Formula negated = context.not(element.getImmediateCondition());
+            // an #if is negated as a whole; an #elif adds its negation to the negated previous chain
+            result = result == null ? negated : context.and(result, negated);
+            element.negatedChain = result;
+        }
+        return notNull(result);
+    }
+
+    /**
+     * Parses the expression of this #if or #elif.
+     *
+     * @return The parsed immediate condition.
+     *
+     * @throws ConditionParseException If the expression can not be parsed, i.e. if eager parsing would fail the file.
+     */
+    private @NonNull Formula parse() throws ConditionParseException {
+        String expression = this.expression;
+        if (expression == null) {
+            throw new IllegalStateException("An #else has no expression");
+        }
+        Formula result;
+        try {
+            result = context.parse(expression, line);
+        } catch (FormatException e) {
+            throw new ConditionParseException(context.sourceFile, e);
+        }
+        return result;
+    }
+
+}
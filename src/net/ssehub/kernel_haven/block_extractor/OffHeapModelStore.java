@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.CodeElement;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * Holds extracted models outside of the Java heap, so that the number of live {@link CodeBlock} and formula objects
+ * (and thus the GC pauses) does not grow with the number of extracted files. The models are stored in the
+ * {@link BinaryCodeModelFormat} and only decoded when they are requested with {@link #get(File)}, or through the
+ * handle returned by {@link #put(SourceFile)}; {@link #getView(File)} gives zero-copy access to the encoded data.
+ * <p>
+ * The encoded models are appended to large segments. Direct {@link ByteBuffer}s are used for the segments until the
+ * memory budget is reached (note that the JVM limits the total size of direct buffers, see
+ * <code>-XX:MaxDirectMemorySize</code>); after that, further segments are memory-mapped temporary files in the spill
+ * directory, so the resident size is left to the operating system. Storing a model for a path again replaces the
+ * previous model. The space of replaced models is not reclaimed: views of them may still be in use, and moving the
+ * other models would invalidate their views. Since the extractor stores each file once per run, this only matters if
+ * a store is filled repeatedly; see {@link #getReplacedSize()}. Multiple threads may store and read models
+ * concurrently.
+ *
+ * @author Adam
+ */
+public class OffHeapModelStore implements Closeable {
+
+    /**
+     * The default size of a segment. Larger models get a segment of their own size.
+     */
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * A read-only handle for a stored model, which decodes the model from the store when its elements are accessed.
+     * The decoded model is kept softly referenced, so that the garbage collector can free it again.
+     * <p>
+     * The list of elements inherited from {@link SourceFile} stays empty, so all methods that read it are overridden
+     * to read the decoded model instead. A handle is equal to the decoded model (and to other handles for equal
+     * models); since {@link SourceFile#equals(Object)} reads the inherited list of the other file, a plain
+     * {@link SourceFile} is only equal to a handle if it is compared with the handle as the receiver.
+     */
+    private final class StoredSourceFile extends SourceFile<CodeBlock> {
+
+        private final int numElements;
+
+        private @NonNull SoftReference<SourceFile<CodeBlock>> decoded;
+
+        /**
+         * Creates a handle for a model that was just stored.
+         *
+         * @param model The stored model, which is not referenced by this handle.
+         */
+        StoredSourceFile(@NonNull SourceFile<CodeBlock> model) {
+            super(model.getPath());
+            this.numElements = model.getTopElementCount();
+            this.decoded = new SoftReference<>(null);
+        }
+
+        /**
+         * Returns the decoded model; decodes it from the store if it was not decoded yet or has been freed.
+         *
+         * @return The decoded model.
+         *
+         * @throws IllegalStateException If the store was closed or the stored model is malformed.
+         */
+        private synchronized @NonNull SourceFile<CodeBlock> decode() throws IllegalStateException {
+            SourceFile<CodeBlock> result = decoded.get();
+            if (result == null) {
+                try {
+                    result = get(getPath());
+                } catch (FormatException e) {
+                    throw new IllegalStateException("Stored model of " + getPath() + " is malformed", e);
+                }
+                if (result == null) {
+                    throw new IllegalStateException("Model store is closed");
+                }
+                decoded = new SoftReference<>(result);
+            }
+            return result;
+        }
+
+        @Override
+        public void addElement(@NonNull CodeBlock element) {
+            throw new UnsupportedOperationException("Stored models are read-only");
+        }
+
+        @Override
+        public int getTopElementCount() {
+            return numElements;
+        }
+
+        @Override
+        public @NonNull CodeBlock getElement(int index) {
+            return decode().getElement(index);
+        }
+
+        @Override
+        public @NonNull Iterator<@NonNull CodeBlock> iterator() {
+            return decode().iterator();
+        }
+
+        @Override
+        public <T extends CodeElement<T>> @NonNull SourceFile<T> castTo(@NonNull Class<T> target)
+                throws ClassCastException {
+            // checks the types of the decoded elements; the handle itself is returned, so that it stays lazy
+            decode().castTo(target);
+            @SuppressWarnings("unchecked")
+            SourceFile<T> result = (SourceFile<T>) (SourceFile<?>) this;
+            return result;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            Object other = obj;
+            if (other instanceof StoredSourceFile) {
+                other = ((StoredSourceFile) other).decode();
+            }
+            return decode().equals(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return decode().hashCode();
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return "StoredSourceFile[" + getPath() + "; " + numElements + " elements]";
+        }
+
+    }
+
+    private final long memoryBudget;
+
+    private final @NonNull File spillDirectory;
+
+    private final int segmentSize;
+
+    /**
+     * Read-only views of the encoded models.
+     */
+    private final @NonNull Map<@NonNull File, @NonNull ByteBuffer> models;
+
+    /**
+     * The segment that new models are appended to. <code>null</code> until the first model is stored. Guarded by
+     * <code>this</code>, as are all following fields.
+     */
+    private @Nullable ByteBuffer currentSegment;
+
+    private final @NonNull List<@NonNull File> spillFiles;
+
+    private long directSize;
+
+    private long mappedSize;
+
+    private long size;
+
+    private long replacedSize;
+
+    private boolean closed;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param memoryBudget The maximum number of bytes of direct buffers to allocate. Further models are stored in
+     *      memory-mapped files.
+     * @param spillDirectory The directory for the memory-mapped files. Created when the first file is needed.
+     */
+    public OffHeapModelStore(long memoryBudget, @NonNull File spillDirectory) {
+        this(memoryBudget, spillDirectory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates an empty store with the given segment size.
+     *
+     * @param memoryBudget The maximum number of bytes of direct buffers to allocate.
+     * @param spillDirectory The directory for the memory-mapped files.
+     * @param segmentSize The size of the segments in bytes.
+     */
+    OffHeapModelStore(long memoryBudget, @NonNull File spillDirectory, int segmentSize) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Negative memory budget: " + memoryBudget);
+        }
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.segmentSize = segmentSize;
+        this.models = new ConcurrentHashMap<>();
+        this.spillFiles = new ArrayList<>();
+    }
+
+    /**
+     * Stores the model of a source file. The model is not referenced by this store afterwards.
+     *
+     * @param model The model to store; its path is the key.
+     *
+     * @return A read-only handle that decodes the model from this store when its elements are accessed, so that the
+     *      given model can be freed. If the model is replaced, the handle reads the new one. The handle can not be
+     *      used after the store is closed.
+     *
+     * @throws IOException If the model contains a formula that can not be encoded, or a memory-mapped file can not
+     *      be created.
+     */
+    public @NonNull SourceFile<CodeBlock> put(@NonNull SourceFile<CodeBlock> model) throws IOException {
+        byte[] data = BinaryCodeModelFormat.encode(model);
+
+        ByteBuffer view;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Store is closed");
+            }
+
+            ByteBuffer segment = currentSegment;
+            if (segment == null || segment.remaining() < data.length) {
+                // the rest of the current segment is wasted
+                segment = createSegment(data.length);
+                currentSegment = segment;
+            }
+
+            ByteBuffer slice = notNull(segment.slice());
+            slice.limit(data.length);
+            slice.put(data);
+            slice.flip();
+            segment.position(segment.position() + data.length);
+            view = notNull(slice.asReadOnlyBuffer());
+            size += data.length;
+        }
+
+        // publishing through the concurrent map makes the written data visible to all readers
+        ByteBuffer replaced = models.put(model.getPath(), view);
+        if (replaced != null) {
+            synchronized (this) {
+                replacedSize += replaced.remaining();
+            }
+        }
+        return new StoredSourceFile(model);
+    }
+
+    /**
+     * Creates a new segment, in direct memory if the budget allows it, otherwise in a memory-mapped file. Must be
+     * called while holding the lock of this store.
+     *
+     * @param minSize The minimum size of the segment.
+     *
+     * @return The new segment, with its position at 0.
+     *
+     * @throws IOException If creating the memory-mapped file fails.
+     */
+    private @NonNull ByteBuffer createSegment(int minSize) throws IOException {
+        int segmentSize = Math.max(this.segmentSize, minSize);
+        long remainingBudget = memoryBudget - directSize;
+
+        ByteBuffer result;
+        if (remainingBudget >= minSize) {
+            // the last direct segment may be smaller, to stay within the budget
+            int size = (int) Math.min(segmentSize, remainingBudget);
+            result = ByteBuffer.allocateDirect(size);
+            directSize += size;
+
+        } else {
+            Files.createDirectories(spillDirectory.toPath());
+            File file = File.createTempFile("models", ".spill", spillDirectory);
+            file.deleteOnExit();
+            spillFiles.add(file);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // the mapping stays valid after the channel is closed
+                result = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+            }
+            mappedSize += segmentSize;
+        }
+        return notNull(result);
+    }
+
+    /**
+     * Returns a zero-copy view of the encoded model of the given source file.
+     *
+     * @param path The path of the source file.
+     *
+     * @return A read-only buffer with the encoded model between its position and limit, or <code>null</code> if no
+     *      model is stored for the path. The encoding is described in {@link BinaryCodeModelFormat}.
+     */
+    public @Nullable ByteBuffer getView(@NonNull File path) {
+        ByteBuffer view = models.get(path);
+        // each caller gets its own position and limit
+        return view != null ? view.duplicate() : null;
+    }
+
+    /**
+     * Decodes the model of the given source file. Each call creates new {@link CodeBlock}s.
+     *
+     * @param path The path of the source file.
+     *
+     * @return The model, or <code>null</code> if no model is stored for the path.
+     *
+     * @throws FormatException If the stored model is malformed.
+     */
+    public @Nullable SourceFile<CodeBlock> get(@NonNull File path) throws FormatException {
+        ByteBuffer view = getView(path);
+        return view != null ? BinaryCodeModelFormat.decode(view, path) : null;
+    }
+
+    /**
+     * Returns the paths of all stored models.
+     *
+     * @return An unmodifiable view of the paths.
+     */
+    public @NonNull Set<@NonNull File> getPaths() {
+        return notNull(Collections.unmodifiableSet(models.keySet()));
+    }
+
+    /**
+     * Returns the number of stored models.
+     *
+     * @return The number of models.
+     */
+    public int getNumModels() {
+        return models.size();
+    }
+
+    /**
+     * Returns the total size of all models stored so far, including replaced ones.
+     *
+     * @return The size of the encoded models in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the total size of all models that were replaced by storing a model for the same path again. This space
+     * is not reclaimed until the store is closed.
+     *
+     * @return The size of the replaced models in bytes.
+     */
+    public synchronized long getReplacedSize() {
+        return replacedSize;
+    }
+
+    /**
+     * Returns the size of all direct buffers allocated by this store.
+     *
+     * @return The direct memory in bytes; at most the memory budget.
+     */
+    public synchronized long getDirectSize() {
+        return directSize;
+    }
+
+    /**
+     * Returns the size of all memory-mapped files created by this store, because the memory budget was exceeded.
+     *
+     * @return The size of the spilled segments in bytes.
+     */
+    public synchronized long getMappedSize() {
+        return mappedSize;
+    }
+
+    /**
+     * Deletes the memory-mapped files, while the stored models stay readable: a mapping stays valid after its file
+     * is deleted, and the disk space is released once the mapping is garbage collected. Files that are still mapped
+     * can not be deleted on all platforms; they are deleted when the JVM exits. Models that are stored afterwards may
+     * create new files.
+     */
+    public synchronized void deleteSpillFiles() {
+        spillFiles.removeIf((file) -> file.delete());
+    }
+
+    /**
+     * Removes all models and deletes the memory-mapped files. Views returned by {@link #getView(File)} must not be
+     * used afterwards. Files that are still mapped can not be deleted on all platforms; they are deleted when the JVM
+     * exits.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        models.clear();
+        currentSegment = null;
+        for (File file : spillFiles) {
+            file.delete();
+        }
+        spillFiles.clear();
+    }
+
+    @Override
+    public synchronized @NonNull String toString() {
+        return "OffHeapModelStore[models=" + models.size() + ", size=" + size + " bytes, replaced=" + replacedSize
+                + " bytes, direct=" + directSize + "/" + memoryBudget + " bytes, mapped=" + mappedSize + " bytes in "
+                + spillFiles.size() + " files]";
+    }
+
+}
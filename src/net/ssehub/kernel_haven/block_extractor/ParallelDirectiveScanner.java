@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.ssehub.kernel_haven.block_extractor.DirectiveLexer.DirectiveHandler;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Finds the preprocessor directives in a large buffer by scanning chunks of it in parallel. The result is exactly
+ * the same as passing the whole buffer to a single {@link DirectiveLexer}.
+ * <p>
+ * The buffer is split into chunks that start directly after a '\n'. Each chunk is scanned on a {@link ForkJoinPool}
+ * by its own {@link DirectiveLexer}, which speculatively assumes that the chunk starts with a fresh line (i.e. not
+ * inside of a comment, literal, directive or line continuation) at line 1. Afterwards, the chunk results are stitched
+ * together in order: the line numbers are shifted by the number of line breaks in the previous chunks. If the
+ * previous chunk did not end in a clean state (e.g. a block comment or a line continuation crosses the chunk
+ * boundary), the speculative result is discarded and the chunk is scanned again by the lexer of the previous chunk,
+ * which continues with the correct state. This is rare in practice, since chunks are large.
+ *
+ * @author Adam
+ */
+final class ParallelDirectiveScanner {
+
+    private final @NonNull ByteBuffer buffer;
+
+    private final @NonNull Charset charset;
+
+    private final int chunkSize;
+
+    private final @NonNull ForkJoinPool pool;
+
+    private int lastLineStart;
+
+    private boolean content;
+
+    /**
+     * Creates a scanner for the given buffer.
+     *
+     * @param buffer The content of the file, between the position and the limit of the buffer. The position and limit
+     *      of the given buffer are not modified.
+     * @param charset The charset to decode directive lines with. Must be ASCII-compatible.
+     * @param chunkSize The approximate number of bytes per chunk. Must be at least 1.
+     * @param pool The pool to scan the chunks on.
+     */
+    ParallelDirectiveScanner(@NonNull ByteBuffer buffer, @NonNull Charset charset, int chunkSize,
+            @NonNull ForkJoinPool pool) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.buffer = buffer;
+        this.charset = charset;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Scans the buffer and passes all directives, in order, to the given handler. The handler is only called by the
+     * calling thread.
+     *
+     * @param handler The handler to pass the directives to.
+     *
+     * @throws FormatException If the handler throws an exception.
+     */
+    void scan(@NonNull DirectiveHandler handler) throws FormatException {
+        List<@NonNull ChunkScan> chunks = split();
+
+        pool.invoke(new RecursiveAction() {
+
+            private static final long serialVersionUID = -3181476227035364914L;
+
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+
+        });
+
+        ChunkScan current = chunks.get(0);
+        int nextLineOffset = current.lineBreaks;
+        boolean pendingContent = current.replay(handler, false);
+
+        for (int i = 1; i < chunks.size(); i++) {
+            ChunkScan next = chunks.get(i);
+            if (current.lexer.isAtCleanLineStart()) {
+                // the speculative result of the next chunk is valid
+                pendingContent |= current.lexer.hasContent();
+                next.lineOffset = nextLineOffset;
+                current = next;
+
+            } else {
+                // state crosses the boundary: let the lexer of the previous chunk continue with the correct state
+                current.lexer.feed(buffer, next.start, next.end);
+            }
+            nextLineOffset += next.lineBreaks;
+            pendingContent = current.replay(handler, pendingContent);
+        }
+
+        current.lexer.finish();
+        pendingContent = current.replay(handler, pendingContent);
+
+        this.lastLineStart = current.lexer.getLastLineStart() + current.lineOffset;
+        this.content = pendingContent || current.lexer.hasContent();
+    }
+
+    /**
+     * Splits the buffer into chunks. Each chunk (except the first) starts directly after a '\n'.
+     *
+     * @return The chunks, in order. Contains at least one chunk.
+     */
+    private @NonNull List<@NonNull ChunkScan> split() {
+        List<@NonNull ChunkScan> result = new ArrayList<>();
+        int limit = buffer.limit();
+        int start = buffer.position();
+        while (start < limit || result.isEmpty()) {
+            int end = (int) Math.min((long) start + chunkSize, limit);
+            while (end < limit && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            result.add(new ChunkScan(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the line number where the last line of the input starts. Only valid after
+     * {@link #scan(DirectiveHandler)}.
+     *
+     * @return The line number of the last line; 0 if there was no input.
+     *
+     * @see DirectiveLexer#getLastLineStart()
+     */
+    int getLastLineStart() {
+        return lastLineStart;
+    }
+
+    /**
+     * Returns whether non-whitespace characters outside of comments were found after the last directive. Only valid
+     * after {@link #scan(DirectiveHandler)}.
+     *
+     * @return Whether there is content after the last directive.
+     *
+     * @see DirectiveLexer#hasContent()
+     */
+    boolean hasContent() {
+        return content;
+    }
+
+    /**
+     * A directive found in a chunk, with the line number relative to the start of the chunk.
+     */
+    private static final class FoundDirective {
+
+        private final @NonNull String directive;
+
+        private final int lineNumber;
+
+        private final boolean contentBefore;
+
+        /**
+         * Creates a found directive.
+         *
+         * @param directive The directive line.
+         * @param lineNumber The line number, relative to the start of the chunk.
+         * @param contentBefore Whether content was found before the directive.
+         */
+        FoundDirective(@NonNull String directive, int lineNumber, boolean contentBefore) {
+            this.directive = directive;
+            this.lineNumber = lineNumber;
+            this.contentBefore = contentBefore;
+        }
+
+    }
+
+    /**
+     * The scan of a single chunk. Collects the found directives until they are replayed to the real handler.
+     */
+    private final class ChunkScan extends RecursiveAction implements DirectiveHandler {
+
+        private static final long serialVersionUID = 4380625167542826302L;
+
+        private final int start;
+
+        private final int end;
+
+        private final @NonNull DirectiveLexer lexer;
+
+        private final @NonNull List<@NonNull FoundDirective> found;
+
+        /**
+         * The number of line breaks in this chunk. Set by {@link #compute()}.
+         */
+        private int lineBreaks;
+
+        /**
+         * The number of lines before the start of this chunk.
+         */
+        private int lineOffset;
+
+        /**
+         * Creates the scan for the given chunk.
+         *
+         * @param start The start index in the buffer (inclusive).
+         * @param end The end index in the buffer (exclusive).
+         */
+        ChunkScan(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.lexer = new DirectiveLexer(this, charset);
+            this.found = new ArrayList<>();
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                lexer.feed(buffer, start, end);
+            } catch (FormatException e) {
+                // can't happen, since our handleDirective() does not throw
+                throw new IllegalStateException(e);
+            }
+            lineBreaks = lexer.getLineNumber() - 1;
+        }
+
+        @Override
+        public void handleDirective(@NonNull String directive, int lineNumber, boolean contentBefore) {
+            found.add(new FoundDirective(directive, lineNumber, contentBefore));
+        }
+
+        /**
+         * Passes all directives that were collected since the last call to the given handler and forgets them.
+         *
+         * @param handler The handler to pass the directives to.
+         * @param pendingContent Whether content was found in the previous chunks after their last directive.
+         *
+         * @return Whether there is still pending content, i.e. whether the given pending content was not passed to
+         *      a directive.
+         *
+         * @throws FormatException If the handler throws an exception.
+         */
+        boolean replay(@NonNull DirectiveHandler handler, boolean pendingContent) throws FormatException {
+            boolean result = pendingContent;
+            for (FoundDirective directive : found) {
+                handler.handleDirective(directive.directive, directive.lineNumber + lineOffset,
+                        directive.contentBefore || result);
+                result = false;
+            }
+            found.clear();
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+
+/**
+ * Accumulates the time and number of calls per phase of the extraction, over all extractor threads. The counters
+ * are {@link LongAdder}s, so concurrent updates don't contend on a single memory location.
+ * <p>
+ * Instrumented code only measures if an instance is set, e.g. via
+ * {@link BlockParser#setPhaseTimings(PhaseTimings)}; otherwise the only overhead is a <code>null</code> check. A
+ * phase is measured like this:
+ * <pre>
+ * long start = timings != null ? System.nanoTime() : 0;
+ * // ... the measured phase ...
+ * if (timings != null) {
+ *     timings.add(Phase.READ, start);
+ * }
+ * </pre>
+ *
+ * @author Adam
+ */
+public class PhaseTimings implements PhaseTimingsMBean {
+
+    /**
+     * The measured phases of the extraction.
+     */
+    public enum Phase {
+
+        /**
+         * Reading a source file into memory.
+         */
+        READ("reading files"),
+
+        /**
+         * Lookups and stores in the extraction cache and the revision store.
+         */
+        CACHE("extraction cache"),
+
+        /**
+         * Parsing a whole source file, including the nested phases below.
+         */
+        PARSE("parsing (total)"),
+
+        /**
+         * Parsing a single #if or #elif condition, nested in {@link #PARSE}.
+         */
+        CONDITION_PARSING("condition parsing"),
+
+        /**
+         * Handling a single block listener event, nested in {@link #PARSE}.
+         */
+        TREE_CONSTRUCTION("tree construction");
+
+        private final @NonNull String description;
+
+        /**
+         * Creates a phase.
+         *
+         * @param description A human-readable description.
+         */
+        Phase(@NonNull String description) {
+            this.description = description;
+        }
+
+    }
+
+    private final @NonNull LongAdder @NonNull [] nanos;
+
+    private final @NonNull LongAdder @NonNull [] counts;
+
+    /**
+     * Creates timings with all counters set to zero.
+     */
+    public PhaseTimings() {
+        int numPhases = Phase.values().length;
+        this.nanos = new @NonNull LongAdder[numPhases];
+        this.counts = new @NonNull LongAdder[numPhases];
+        for (int i = 0; i < numPhases; i++) {
+            nanos[i] = new LongAdder();
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds one call of a phase that started at the given time and ends now.
+     *
+     * @param phase The phase.
+     * @param startNanos The start of the phase, as returned by {@link System#nanoTime()}.
+     */
+    public void add(@NonNull Phase phase, long startNanos) {
+        nanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+        counts[phase.ordinal()].increment();
+    }
+
+    /**
+     * Returns the accumulated time of a phase.
+     *
+     * @param phase The phase.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getNanos(@NonNull Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of calls of a phase.
+     *
+     * @param phase The phase.
+     *
+     * @return The number of calls.
+     */
+    public long getCount(@NonNull Phase phase) {
+        return counts[phase.ordinal()].sum();
+    }
+
+    @Override
+    public long getReadNanos() {
+        return getNanos(Phase.READ);
+    }
+
+    @Override
+    public long getReadCount() {
+        return getCount(Phase.READ);
+    }
+
+    @Override
+    public long getCacheNanos() {
+        return getNanos(Phase.CACHE);
+    }
+
+    @Override
+    public long getCacheCount() {
+        return getCount(Phase.CACHE);
+    }
+
+    @Override
+    public long getParseNanos() {
+        return getNanos(Phase.PARSE);
+    }
+
+    @Override
+    public long getParseCount() {
+        return getCount(Phase.PARSE);
+    }
+
+    @Override
+    public long getScanNanos() {
+        return Math.max(0, getParseNanos() - getConditionParsingNanos() - getTreeConstructionNanos());
+    }
+
+    @Override
+    public long getConditionParsingNanos() {
+        return getNanos(Phase.CONDITION_PARSING);
+    }
+
+    @Override
+    public long getConditionParsingCount() {
+        return getCount(Phase.CONDITION_PARSING);
+    }
+
+    @Override
+    public long getTreeConstructionNanos() {
+        return getNanos(Phase.TREE_CONSTRUCTION);
+    }
+
+    @Override
+    public long getTreeConstructionCount() {
+        return getCount(Phase.TREE_CONSTRUCTION);
+    }
+
+    @Override
+    public @NonNull String getSummary() {
+        StringBuilder result = new StringBuilder("CodeBlockExtractor phase timings (summed over all threads):");
+        appendLine(result, "", Phase.READ.description, getReadNanos(), getReadCount());
+        appendLine(result, "", Phase.CACHE.description, getCacheNanos(), getCacheCount());
+        appendLine(result, "", Phase.PARSE.description, getParseNanos(), getParseCount());
+        appendLine(result, "  ", "directive scanning", getScanNanos(), -1);
+        appendLine(result, "  ", Phase.CONDITION_PARSING.description, getConditionParsingNanos(),
+                getConditionParsingCount());
+        appendLine(result, "  ", Phase.TREE_CONSTRUCTION.description, getTreeConstructionNanos(),
+                getTreeConstructionCount());
+        return notNull(result.toString());
+    }
+
+    /**
+     * Appends a line for a phase to the summary.
+     *
+     * @param summary The summary to append to.
+     * @param indentation The indentation of the line, after the leading tab.
+     * @param description The description of the phase.
+     * @param phaseNanos The time of the phase.
+     * @param count The number of calls of the phase; negative if not applicable.
+     */
+    private static void appendLine(@NonNull StringBuilder summary, @NonNull String indentation,
+            @NonNull String description, long phaseNanos, long count) {
+
+        summary.append("\n\t").append(indentation).append(description).append(": ")
+                .append(phaseNanos / 1_000_000).append(" ms");
+        if (count >= 0) {
+            summary.append(" (").append(count).append(" calls");
+            if (count > 0) {
+                summary.append(", ").append(phaseNanos / count / 1000).append(" \u00B5s per call");
+            }
+            summary.append(')');
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i].reset();
+            counts[i].reset();
+        }
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return getSummary();
+    }
+
+}
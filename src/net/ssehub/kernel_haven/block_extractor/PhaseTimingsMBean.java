@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+/**
+ * The management interface of {@link PhaseTimings}. All times are in nanoseconds, summed over all threads.
+ *
+ * @author Adam
+ */
+public interface PhaseTimingsMBean {
+
+    /**
+     * Returns the time spent reading source files.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getReadNanos();
+
+    /**
+     * Returns the number of read source files.
+     *
+     * @return The number of files.
+     */
+    public long getReadCount();
+
+    /**
+     * Returns the time spent in the extraction cache and the revision store, including hashing the content.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getCacheNanos();
+
+    /**
+     * Returns the number of cache operations (lookups and stores).
+     *
+     * @return The number of operations.
+     */
+    public long getCacheCount();
+
+    /**
+     * Returns the total time spent parsing source files, including condition parsing and tree construction.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getParseNanos();
+
+    /**
+     * Returns the number of parsed source files.
+     *
+     * @return The number of files.
+     */
+    public long getParseCount();
+
+    /**
+     * Returns the time spent scanning for directives, i.e. joining continued lines and removing comments. This is
+     * the parsing time without condition parsing and tree construction.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getScanNanos();
+
+    /**
+     * Returns the time spent parsing conditions, including condition cache lookups.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getConditionParsingNanos();
+
+    /**
+     * Returns the number of parsed conditions.
+     *
+     * @return The number of conditions.
+     */
+    public long getConditionParsingCount();
+
+    /**
+     * Returns the time spent in the block listeners, i.e. constructing the block tree.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getTreeConstructionNanos();
+
+    /**
+     * Returns the number of block listener events.
+     *
+     * @return The number of events.
+     */
+    public long getTreeConstructionCount();
+
+    /**
+     * Returns a human-readable summary of all phases.
+     *
+     * @return The summary.
+     */
+    public String getSummary();
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset();
+
+}
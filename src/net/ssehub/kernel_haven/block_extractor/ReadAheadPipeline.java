@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * A two-stage pipeline that decouples reading files from processing them. A few I/O threads load the files in the
+ * given order and put them into a bounded queue; a fixed number of CPU threads take the loaded files from the queue
+ * and process them. So the CPU threads don't block on the disk as long as the I/O threads keep up, and the I/O threads
+ * stop reading ahead when the queue is full.
+ * <p>
+ * The occupancy of the queue is sampled whenever a CPU thread takes an item. A mostly empty queue means that the
+ * I/O stage is the bottleneck, a mostly full queue means that the CPU stage is.
+ *
+ * @param <T> The type of the loaded items.
+ *
+ * @author Adam
+ */
+final class ReadAheadPipeline<T> {
+
+    /**
+     * Loads a file in an I/O thread.
+     *
+     * @param <T> The type of the loaded items.
+     */
+    interface Loader<T> {
+
+        /**
+         * Loads the given file. Errors should be stored in the returned item, so that they are handled by the
+         * {@link Processor}.
+         *
+         * @param file The file to load.
+         *
+         * @return The loaded item.
+         *
+         * @throws InterruptedException If interrupted while waiting for resources.
+         */
+        public @NonNull T load(@NonNull File file) throws InterruptedException;
+
+    }
+
+    /**
+     * Processes a loaded item in a CPU thread.
+     *
+     * @param <T> The type of the loaded items.
+     */
+    interface Processor<T> {
+
+        /**
+         * Processes the given item.
+         *
+         * @param item The item created by the {@link Loader}.
+         */
+        public void process(@NonNull T item);
+
+    }
+
+    /**
+     * An element of the queue. The end of the input is marked by an element without item.
+     *
+     * @param <T> The type of the loaded items.
+     */
+    private static final class Slot<T> {
+
+        private final @Nullable T item;
+
+        /**
+         * Creates a slot.
+         *
+         * @param item The item, or <code>null</code> to mark the end of the input.
+         */
+        Slot(@Nullable T item) {
+            this.item = item;
+        }
+
+    }
+
+    private final int numIoThreads;
+
+    private final int queueDepth;
+
+    private long numTakes;
+
+    private long sumQueueSize;
+
+    private long numEmptyTakes;
+
+    private long numFullPuts;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param numIoThreads The number of threads that load files.
+     * @param queueDepth The maximum number of loaded items that wait for processing.
+     */
+    ReadAheadPipeline(int numIoThreads, int queueDepth) {
+        if (numIoThreads < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("Need at least one I/O thread and a queue depth of at least one");
+        }
+        this.numIoThreads = numIoThreads;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Loads and processes all files and waits until all are finished.
+     *
+     * @param files The files to load and process.
+     * @param numCpuThreads The number of threads that process the loaded items.
+     * @param loader Loads a file; called concurrently by all I/O threads.
+     * @param processor Processes a loaded item; called concurrently by all CPU threads.
+     *
+     * @return The statistics of the CPU stage; the tail idle time is the time between the last processed item of each
+     *      CPU thread and the end of the run.
+     *
+     * @throws InterruptedException If interrupted while waiting for the threads. All threads are interrupted, too.
+     * @throws RuntimeException The first exception thrown by the loader or processor, after all threads finished.
+     *      The I/O threads stop loading new files after an exception.
+     */
+    FileScheduler.@NonNull Statistics run(@NonNull List<@NonNull File> files, int numCpuThreads,
+            @NonNull Loader<T> loader, @NonNull Processor<T> processor) throws InterruptedException {
+
+        BlockingQueue<@NonNull Slot<T>> queue = new ArrayBlockingQueue<>(queueDepth);
+        AtomicInteger nextFile = new AtomicInteger();
+        AtomicInteger runningIoThreads = new AtomicInteger(numIoThreads);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        long[] lastItemEnd = new long[numCpuThreads];
+
+        List<Thread> threads = new ArrayList<>(numIoThreads + numCpuThreads);
+        for (int i = 0; i < numIoThreads; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    int index;
+                    while (failure.get() == null && (index = nextFile.getAndIncrement()) < files.size()) {
+                        Slot<T> slot = new Slot<>(loader.load(files.get(index)));
+                        if (queue.remainingCapacity() == 0) {
+                            synchronized (this) {
+                                numFullPuts++;
+                            }
+                        }
+                        queue.put(slot);
+                    }
+                } catch (InterruptedException e) {
+                    // stop reading
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (runningIoThreads.decrementAndGet() == 0) {
+                        try {
+                            for (int j = 0; j < numCpuThreads; j++) {
+                                queue.put(new Slot<>(null));
+                            }
+                        } catch (InterruptedException e) {
+                            // all threads are interrupted, so the CPU threads don't wait for the markers
+                        }
+                    }
+                }
+            }, "CodeBlockExtractor-IO-" + i));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numCpuThreads; i++) {
+            int thread = i;
+            lastItemEnd[thread] = start;
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        int size = queue.size();
+                        synchronized (this) {
+                            numTakes++;
+                            sumQueueSize += size;
+                            if (size == 0) {
+                                numEmptyTakes++;
+                            }
+                        }
+
+                        T item = queue.take().item;
+                        if (item == null) {
+                            break;
+                        }
+                        // process the remaining items even after a failure, so that their resources are released
+                        try {
+                            processor.process(item);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        lastItemEnd[thread] = System.nanoTime();
+                    }
+                } catch (InterruptedException e) {
+                    // stop processing
+                }
+            }, "CodeBlockExtractor-CPU-" + i));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+
+        RuntimeException error = failure.get();
+        if (error != null) {
+            throw error;
+        }
+
+        long end = System.nanoTime();
+        long tailIdle = 0;
+        for (long threadEnd : lastItemEnd) {
+            tailIdle += end - threadEnd;
+        }
+        return new FileScheduler.Statistics(files.size(), end - start, tailIdle);
+    }
+
+    /**
+     * Returns a summary of the queue occupancy of all runs.
+     *
+     * @return A human-readable summary.
+     */
+    synchronized @NonNull String getSummary() {
+        return "read-ahead queue (depth " + queueDepth + ", " + numIoThreads + " I/O threads): average occupancy "
+                + (numTakes > 0 ? sumQueueSize * 100 / (numTakes * queueDepth) : 0) + "%, found empty by parser "
+                + "threads " + numEmptyTakes + " of " + numTakes + " times, found full by I/O threads " + numFullPuts
+                + " times";
+    }
+
+    /**
+     * Returns the average number of items in the queue when a CPU thread took an item.
+     *
+     * @return The average queue size.
+     */
+    synchronized double getAverageQueueSize() {
+        return numTakes > 0 ? (double) sumQueueSize / numTakes : 0;
+    }
+
+}
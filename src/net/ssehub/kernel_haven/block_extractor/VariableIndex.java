@@ -0,0 +1,771 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.null_checks.NullHelpers.notNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.IVoidFormulaVisitor;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+import net.ssehub.kernel_haven.util.null_checks.NonNull;
+import net.ssehub.kernel_haven.util.null_checks.Nullable;
+
+/**
+ * An inverted index from variable names to the blocks whose immediate condition mentions the variable. This answers
+ * "which blocks in which files use CONFIG_X" without walking all {@link CodeBlock}s and their formulas.
+ * <p>
+ * The index is filled while the files are parsed (see {@link BlockParser#setVariableIndex(VariableIndex)}); files
+ * that are not parsed (e.g. cached models) are added via {@link #addFile(SourceFile)}. The entries of a variable are
+ * stored in a single primitive array, four integers per entry: the id of the file, the id of the block, its start
+ * line and its end line. The id of a block is its index in the pre-order of the blocks of the file, as in a
+ * {@link BlockTable}: 0 is the first top-level block (or the pseudo block for the whole file, if there is one).
+ * <p>
+ * The index can be {@link #write(File) written} next to the models (e.g. an archive of a
+ * {@link BinaryCodeModelWriter}) and {@link #read(File) read} again; the {@link CodeBlockExtractor} writes it to its
+ * {@link CodeBlockExtractor#VARIABLE_INDEX_FILE}. This class is thread-safe.
+ *
+ * @author Adam
+ */
+public final class VariableIndex {
+
+    static final int MAGIC = 0x4B48_5649; // "KHVI"
+
+    static final int VERSION = 1;
+
+    private static final int ENTRY_SIZE = 4;
+
+    /**
+     * A block that mentions a variable.
+     */
+    public static final class Entry {
+
+        private final @NonNull File file;
+
+        private final int blockId;
+
+        private final int lineStart;
+
+        private final int lineEnd;
+
+        /**
+         * Creates an entry.
+         *
+         * @param file The source file of the block.
+         * @param blockId The index of the block in the pre-order of the blocks of the file.
+         * @param lineStart The start line of the block.
+         * @param lineEnd The end line of the block.
+         */
+        public Entry(@NonNull File file, int blockId, int lineStart, int lineEnd) {
+            this.file = file;
+            this.blockId = blockId;
+            this.lineStart = lineStart;
+            this.lineEnd = lineEnd;
+        }
+
+        /**
+         * Returns the source file of the block.
+         *
+         * @return The source file.
+         */
+        public @NonNull File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the index of the block in the pre-order of the blocks of the file.
+         *
+         * @return The block id.
+         */
+        public int getBlockId() {
+            return blockId;
+        }
+
+        /**
+         * Returns the start line of the block.
+         *
+         * @return The start line.
+         */
+        public int getLineStart() {
+            return lineStart;
+        }
+
+        /**
+         * Returns the end line of the block.
+         *
+         * @return The end line.
+         */
+        public int getLineEnd() {
+            return lineEnd;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            boolean result = false;
+            if (obj instanceof Entry) {
+                Entry other = (Entry) obj;
+                result = file.equals(other.file) && blockId == other.blockId && lineStart == other.lineStart
+                        && lineEnd == other.lineEnd;
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + blockId;
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return file.getPath() + ":" + lineStart + "-" + lineEnd + " (block " + blockId + ")";
+        }
+
+    }
+
+    /**
+     * The entries of a single variable.
+     */
+    private static final class Postings {
+
+        private int @NonNull [] data = new int[ENTRY_SIZE * 2];
+
+        private int size;
+
+        /**
+         * Adds an entry.
+         *
+         * @param fileId The id of the file.
+         * @param blockId The id of the block.
+         * @param lineStart The start line of the block.
+         * @param lineEnd The end line of the block.
+         */
+        synchronized void add(int fileId, int blockId, int lineStart, int lineEnd) {
+            if (size + ENTRY_SIZE > data.length) {
+                data = notNull(Arrays.copyOf(data, data.length * 2));
+            }
+            data[size++] = fileId;
+            data[size++] = blockId;
+            data[size++] = lineStart;
+            data[size++] = lineEnd;
+        }
+
+        /**
+         * Returns a copy of the used part of the data.
+         *
+         * @return The entries, {@link #ENTRY_SIZE} integers each.
+         */
+        synchronized int @NonNull [] copy() {
+            return notNull(Arrays.copyOf(data, size));
+        }
+
+    }
+
+    private final @NonNull Map<@NonNull String, @NonNull Postings> postings;
+
+    private final @NonNull List<@NonNull File> files;
+
+    private final @NonNull Map<@NonNull File, Integer> fileIds;
+
+    /**
+     * Creates an empty index.
+     */
+    public VariableIndex() {
+        this.postings = new ConcurrentHashMap<>();
+        this.files = new ArrayList<>();
+        this.fileIds = new HashMap<>();
+    }
+
+    /**
+     * Assigns an id to a new file.
+     *
+     * @param file The file.
+     *
+     * @return The id of the file; -1 if the file is already in this index.
+     */
+    private synchronized int addFileId(@NonNull File file) {
+        if (fileIds.containsKey(file)) {
+            return -1;
+        }
+        int id = files.size();
+        files.add(file);
+        fileIds.put(file, id);
+        return id;
+    }
+
+    /**
+     * Returns the file with the given id.
+     *
+     * @param id The id of the file.
+     *
+     * @return The file.
+     */
+    private synchronized @NonNull File getFile(int id) {
+        return notNull(files.get(id));
+    }
+
+    /**
+     * Adds the entries of a file, collected by a {@link Builder} or from a {@link SourceFile}.
+     *
+     * @param file The file.
+     * @param variables The variable of each entry.
+     * @param entries The block id, start line and end line of each entry.
+     *
+     * @return Whether the file was added; <code>false</code> if it is already in this index.
+     */
+    private boolean add(@NonNull File file, @NonNull List<@NonNull String> variables, int @NonNull [] entries) {
+        int fileId = addFileId(file);
+        if (fileId < 0) {
+            return false;
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            postings.computeIfAbsent(variables.get(i), (name) -> new Postings())
+                    .add(fileId, entries[i * 3], entries[i * 3 + 1], entries[i * 3 + 2]);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the blocks of a source file that was not parsed with this index, e.g. because it was loaded from a cache.
+     * This walks all blocks and their conditions.
+     *
+     * @param file The source file to add.
+     *
+     * @return Whether the file was added; <code>false</code> if a file with the same path is already in this index.
+     */
+    public boolean addFile(@NonNull SourceFile<CodeBlock> file) {
+        Collector collector = new Collector();
+        for (CodeBlock block : file) {
+            collector.addTree(block, 0);
+        }
+        return add(file.getPath(), collector.variables, collector.getEntries());
+    }
+
+    /**
+     * Creates a listener that collects the blocks of a file while it is parsed and adds them to this index at the
+     * end of the file. If the file can't be parsed, nothing is added.
+     *
+     * @param sourceFile The file that is parsed.
+     * @param next The listener to pass all events to.
+     *
+     * @return The listener to pass to the parser.
+     */
+    @NonNull IBlockListener createBuilder(@NonNull File sourceFile, @NonNull IBlockListener next) {
+        return new Builder(sourceFile, next);
+    }
+
+    /**
+     * Returns all variables that are mentioned by at least one block.
+     *
+     * @return The variable names, sorted.
+     */
+    public @NonNull Set<@NonNull String> getVariables() {
+        return notNull(Collections.unmodifiableSet(new TreeSet<>(postings.keySet())));
+    }
+
+    /**
+     * Returns the blocks whose immediate condition mentions the given variable.
+     *
+     * @param variable The variable name.
+     *
+     * @return The blocks, grouped by file in the order the files were added; empty if no block mentions the variable.
+     */
+    public @NonNull List<@NonNull Entry> getEntries(@NonNull String variable) {
+        Postings list = postings.get(variable);
+        if (list == null) {
+            return notNull(Collections.emptyList());
+        }
+        int[] data = list.copy();
+        List<@NonNull Entry> result = new ArrayList<>(data.length / ENTRY_SIZE);
+        for (int i = 0; i < data.length; i += ENTRY_SIZE) {
+            result.add(new Entry(getFile(data[i]), data[i + 1], data[i + 2], data[i + 3]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the files that contain a block whose immediate condition mentions the given variable.
+     *
+     * @param variable The variable name.
+     *
+     * @return The files, in the order they were added.
+     */
+    public @NonNull Set<@NonNull File> getFiles(@NonNull String variable) {
+        Set<@NonNull File> result = new LinkedHashSet<>();
+        Postings list = postings.get(variable);
+        if (list != null) {
+            int[] data = list.copy();
+            for (int i = 0; i < data.length; i += ENTRY_SIZE) {
+                result.add(getFile(data[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of files in this index, including files without any variables.
+     *
+     * @return The number of files.
+     */
+    public synchronized int getNumFiles() {
+        return files.size();
+    }
+
+    /**
+     * Returns the number of entries of all variables.
+     *
+     * @return The number of entries.
+     */
+    public long getNumEntries() {
+        long result = 0;
+        for (Postings list : postings.values()) {
+            synchronized (list) {
+                result += list.size / ENTRY_SIZE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes this index to a file. The files and variables are sorted, so the output does not depend on the order in
+     * which the files were added. The layout is: {@link #MAGIC} and {@link #VERSION} (4 bytes each), the number of
+     * files and their paths, then the number of variables and for each the name, the number of entries and the
+     * entries (file id, block id, start line, number of lines), all as variable-length integers.
+     *
+     * @param file The file to write to. An existing file is overwritten.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void write(@NonNull File file) throws IOException {
+        List<@NonNull File> sortedFiles;
+        synchronized (this) {
+            sortedFiles = new ArrayList<>(files);
+        }
+        sortedFiles.sort(Comparator.comparing(File::getPath));
+        int[] newIds = new int[sortedFiles.size()];
+        for (int i = 0; i < sortedFiles.size(); i++) {
+            newIds[getFileId(sortedFiles.get(i))] = i;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            BinaryCodeModelFormat.writeVarInt(chunk, sortedFiles.size());
+            for (File sourceFile : sortedFiles) {
+                writeString(chunk, sourceFile.getPath());
+            }
+            chunk.writeTo(out);
+
+            Set<@NonNull String> variables = getVariables();
+            chunk.reset();
+            BinaryCodeModelFormat.writeVarInt(chunk, variables.size());
+            for (String variable : variables) {
+                int[] data = notNull(postings.get(variable)).copy();
+                Integer[] order = new Integer[data.length / ENTRY_SIZE];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i * ENTRY_SIZE;
+                }
+                Arrays.sort(order, Comparator.comparingInt((Integer i) -> newIds[data[i]])
+                        .thenComparingInt((Integer i) -> data[i + 1]));
+
+                writeString(chunk, variable);
+                BinaryCodeModelFormat.writeVarInt(chunk, order.length);
+                for (int i : order) {
+                    BinaryCodeModelFormat.writeVarInt(chunk, newIds[data[i]]);
+                    BinaryCodeModelFormat.writeVarInt(chunk, data[i + 1]);
+                    BinaryCodeModelFormat.writeVarInt(chunk, data[i + 2]);
+                    BinaryCodeModelFormat.writeVarInt(chunk, data[i + 3] - data[i + 2]);
+                }
+                chunk.writeTo(out);
+                chunk.reset();
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a file in this index.
+     *
+     * @param file The file.
+     *
+     * @return The id.
+     */
+    private synchronized int getFileId(@NonNull File file) {
+        return notNull(fileIds.get(file));
+    }
+
+    /**
+     * Reads an index written by {@link #write(File)}.
+     *
+     * @param file The file to read.
+     *
+     * @return The index.
+     *
+     * @throws IOException If reading the file fails.
+     * @throws FormatException If the file is not a valid index.
+     */
+    public static @NonNull VariableIndex read(@NonNull File file) throws IOException, FormatException {
+        ByteBuffer in = notNull(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+        VariableIndex result = new VariableIndex();
+
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new FormatException("Not a variable index of version " + VERSION);
+            }
+
+            int numFiles = BinaryCodeModelFormat.readVarInt(in);
+            for (int i = 0; i < numFiles; i++) {
+                result.addFileId(new File(readString(in)));
+            }
+
+            int numVariables = BinaryCodeModelFormat.readVarInt(in);
+            for (int i = 0; i < numVariables; i++) {
+                String variable = readString(in);
+                int numEntries = BinaryCodeModelFormat.readVarInt(in);
+                Postings list = new Postings();
+                for (int j = 0; j < numEntries; j++) {
+                    int fileId = BinaryCodeModelFormat.readVarInt(in);
+                    int blockId = BinaryCodeModelFormat.readVarInt(in);
+                    int lineStart = BinaryCodeModelFormat.readVarInt(in);
+                    int lineEnd = lineStart + BinaryCodeModelFormat.readVarInt(in);
+                    if (fileId < 0 || fileId >= numFiles) {
+                        throw new FormatException("Invalid file id " + fileId + " for variable " + variable);
+                    }
+                    list.add(fileId, blockId, lineStart, lineEnd);
+                }
+                result.postings.put(variable, list);
+            }
+
+        } catch (BufferUnderflowException e) {
+            throw new FormatException("Variable index is truncated");
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes.
+     *
+     * @param out The stream to write to.
+     * @param value The string to write.
+     */
+    private static void writeString(@NonNull ByteArrayOutputStream out, @NonNull String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        BinaryCodeModelFormat.writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(ByteArrayOutputStream, String)}.
+     *
+     * @param in The buffer to read from.
+     *
+     * @return The string.
+     *
+     * @throws FormatException If the length is invalid.
+     */
+    private static @NonNull String readString(@NonNull ByteBuffer in) throws FormatException {
+        int length = BinaryCodeModelFormat.readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new FormatException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects the entries of a single file. Each block gets its id when it is added; the lines can be set later.
+     * <p>
+     * The condition of the k-th #elif (or the #else) of a chain is the conjunction of the negated previous conditions
+     * and its own expression, and the negated previous conditions are shared with the previous #elif of the chain (see
+     * {@link BlockParser}). To not walk this shared part again for every block of the chain, the variables of the
+     * left operand of the last conjunction are cached per nesting depth. Thus, the work per block is proportional to
+     * the number of its entries plus the size of its own expression.
+     */
+    private static class Collector implements IVoidFormulaVisitor {
+
+        private final @NonNull List<@NonNull String> variables = new ArrayList<>();
+
+        /**
+         * The block id, start line and end line of each entry in {@link #variables}.
+         */
+        private int @NonNull [] entries = new int[3 * 8];
+
+        /**
+         * The number of blocks that were added so far.
+         */
+        private int numBlocks;
+
+        /**
+         * The variables of the current condition that were already added; used to skip duplicates.
+         */
+        private final @NonNull Set<@NonNull String> conditionVariables = new HashSet<>();
+
+        /**
+         * The left operand of the last conjunction that was the condition of a block, per nesting depth.
+         */
+        private @Nullable Formula @NonNull [] prefixes = new @Nullable Formula[16];
+
+        /**
+         * The variables of the formulas in {@link #prefixes}.
+         */
+        private @NonNull String @NonNull [] @Nullable [] prefixVariables = new @NonNull String[16][];
+
+        /**
+         * The nesting depth of the current block.
+         */
+        private int depth;
+
+        /**
+         * Adds the entries for a block.
+         *
+         * @param condition The immediate condition of the block.
+         * @param lineStart The start line of the block.
+         * @param lineEnd The end line of the block, or 0 if it is not yet known.
+         * @param depth The nesting depth of the block.
+         *
+         * @return The index of the first entry of the block in {@link #variables}.
+         */
+        int addBlock(@NonNull Formula condition, int lineStart, int lineEnd, int depth) {
+            int blockId = numBlocks++;
+            int conditionStart = variables.size();
+            conditionVariables.clear();
+            if (depth >= prefixes.length) {
+                prefixes = notNull(Arrays.copyOf(prefixes, Math.max(prefixes.length * 2, depth + 1)));
+                prefixVariables = notNull(Arrays.copyOf(prefixVariables, prefixes.length));
+            }
+            this.depth = depth;
+
+            if (condition instanceof Conjunction) {
+                // the left operand may be the negated previous conditions of an #elif chain, which the next #elif or
+                // #else of the chain shares
+                Formula left = ((Conjunction) condition).getLeft();
+                left.accept(this);
+                prefixes[depth] = left;
+                prefixVariables[depth] = notNull(variables.subList(conditionStart, variables.size())
+                        .toArray(new String[0]));
+                ((Conjunction) condition).getRight().accept(this);
+            } else {
+                condition.accept(this);
+            }
+
+            for (int i = conditionStart; i < variables.size(); i++) {
+                entries[i * 3] = blockId;
+                entries[i * 3 + 1] = lineStart;
+                entries[i * 3 + 2] = lineEnd;
+            }
+            return conditionStart;
+        }
+
+        /**
+         * Sets the end line of the entries of a block.
+         *
+         * @param firstEntry The index of the first entry of the block, as returned by
+         *      {@link #addBlock(Formula, int, int, int)}.
+         * @param endEntry The index after the last entry of the block.
+         * @param lineEnd The end line of the block.
+         */
+        void setLineEnd(int firstEntry, int endEntry, int lineEnd) {
+            for (int i = firstEntry; i < endEntry; i++) {
+                entries[i * 3 + 2] = lineEnd;
+            }
+        }
+
+        /**
+         * Adds a block and all of its nested blocks, in pre-order.
+         *
+         * @param block The block to add.
+         * @param depth The nesting depth of the block.
+         */
+        void addTree(@NonNull CodeBlock block, int depth) {
+            addBlock(notNull(block.getCondition()), block.getLineStart(), block.getLineEnd(), depth);
+            for (CodeBlock nested : block) {
+                addTree(nested, depth + 1);
+            }
+        }
+
+        /**
+         * Shifts the ids of all blocks by one, because a pseudo block was added in front of them.
+         */
+        void shiftForPseudoBlock() {
+            for (int i = 0; i < variables.size(); i++) {
+                entries[i * 3]++;
+            }
+        }
+
+        /**
+         * Returns the block id, start line and end line of each entry.
+         *
+         * @return The entries, three integers each.
+         */
+        int @NonNull [] getEntries() {
+            return entries;
+        }
+
+        /**
+         * Adds a variable of the current condition, unless it was already added.
+         *
+         * @param name The name of the variable.
+         */
+        private void addVariable(@NonNull String name) {
+            if (conditionVariables.add(name)) {
+                if (variables.size() * 3 == entries.length) {
+                    entries = notNull(Arrays.copyOf(entries, entries.length * 2));
+                }
+                variables.add(name);
+            }
+        }
+
+        @Override
+        public void visitVariable(@NonNull Variable variable) {
+            addVariable(variable.getName());
+        }
+
+        @Override
+        public void visitNegation(@NonNull Negation formula) {
+            formula.getFormula().accept(this);
+        }
+
+        @Override
+        public void visitDisjunction(@NonNull Disjunction formula) {
+            formula.getLeft().accept(this);
+            formula.getRight().accept(this);
+        }
+
+        @Override
+        public void visitConjunction(@NonNull Conjunction formula) {
+            String[] cached = prefixes[depth] == formula ? prefixVariables[depth] : null;
+            if (cached != null) {
+                for (String name : cached) {
+                    addVariable(notNull(name));
+                }
+            } else {
+                formula.getLeft().accept(this);
+                formula.getRight().accept(this);
+            }
+        }
+
+        @Override
+        public void visitFalse(@NonNull False falseConstant) {
+        }
+
+        @Override
+        public void visitTrue(@NonNull True trueConstant) {
+        }
+
+    }
+
+    /**
+     * Collects the blocks of a file while it is parsed and adds them to the index at the end of the file.
+     */
+    private final class Builder implements IBlockListener {
+
+        private final @NonNull File sourceFile;
+
+        private final @NonNull IBlockListener next;
+
+        private final @NonNull Collector collector;
+
+        /**
+         * The first and end entry of each open block, innermost last.
+         */
+        private int @NonNull [] open;
+
+        private int openSize;
+
+        /**
+         * Creates a builder.
+         *
+         * @param sourceFile The file that is parsed.
+         * @param next The listener to pass all events to.
+         */
+        Builder(@NonNull File sourceFile, @NonNull IBlockListener next) {
+            this.sourceFile = sourceFile;
+            this.next = next;
+            this.collector = new Collector();
+            this.open = new int[16];
+        }
+
+        @Override
+        public void blockOpened(int lineStart, @NonNull Formula condition, @NonNull Formula presenceCondition,
+                int depth) {
+
+            if (openSize + 2 > open.length) {
+                open = notNull(Arrays.copyOf(open, open.length * 2));
+            }
+            open[openSize++] = collector.addBlock(condition, lineStart, 0, depth);
+            open[openSize++] = collector.variables.size();
+            next.blockOpened(lineStart, condition, presenceCondition, depth);
+        }
+
+        @Override
+        public void blockClosed(int lineStart, int lineEnd, @NonNull Formula condition,
+                @NonNull Formula presenceCondition, int depth) {
+
+            openSize -= 2;
+            collector.setLineEnd(open[openSize], open[openSize + 1], lineEnd);
+            next.blockClosed(lineStart, lineEnd, condition, presenceCondition, depth);
+        }
+
+        @Override
+        public void endOfFile(int lineEnd, boolean pseudoBlock) {
+            next.endOfFile(lineEnd, pseudoBlock);
+            if (pseudoBlock) {
+                collector.shiftForPseudoBlock();
+            }
+            add(sourceFile, collector.variables, collector.getEntries());
+        }
+
+        @Override
+        public void parseError(@NonNull FormatException exception) {
+            next.parseError(exception);
+        }
+
+    }
+
+}
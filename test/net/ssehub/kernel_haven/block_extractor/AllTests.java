@@ -27,8 +27,30 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
     CodeBlockExtractorTest.class,
+    BddManagerTest.class,
+    BinaryCodeModelFormatTest.class,
+    BinaryCodeModelReaderTest.class,
     BlockParserTest.class,
+    BlockStatisticsTest.class,
+    BlockTableTest.class,
+    BufferPoolTest.class,
+    ConditionCacheTest.class,
+    ConditionalDirectiveFilterTest.class,
+    DistributionTest.class,
+    ExtractionCacheTest.class,
+    FileSchedulerTest.class,
+    FormulaFactoryTest.class,
+    FormulaTableTest.class,
+    GitRepositoryTest.class,
+    LazyCodeBlockTest.class,
+    LazyConditionTest.class,
+    OffHeapModelStoreTest.class,
+    ParallelDirectiveScannerTest.class,
+    PhaseTimingsTest.class,
+    ReadAheadPipelineTest.class,
     ScenarioTests.class,
+    SyntheticCorpusTest.class,
+    VariableIndexTest.class,
     })
 public class AllTests {
 
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.and;
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.not;
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.or;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link BddManager}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class BddManagerTest {
+
+    private static final String[] VARIABLES = {"A", "B", "C", "D"};
+
+    /**
+     * Tests that equivalent formulas have the same BDD and the same simplified formula.
+     */
+    @Test
+    public void testCanonical() {
+        BddManager manager = new BddManager(1000);
+
+        int aAndB = manager.fromFormula(and("A", "B"));
+        assertThat(manager.fromFormula(and("B", "A")), is(aAndB));
+        assertThat(manager.fromFormula(not(or(not("A"), not("B")))), is(aAndB));
+        assertSame(manager.toFormula(aAndB), manager.toFormula(manager.fromFormula(and("B", and("A", "B")))));
+
+        assertThat(manager.fromFormula(and("A", not("A"))), is(BddManager.FALSE));
+        assertThat(manager.fromFormula(or("A", not("A"))), is(BddManager.TRUE));
+        assertSame(False.INSTANCE, manager.toFormula(BddManager.FALSE));
+        assertSame(True.INSTANCE, manager.toFormula(BddManager.TRUE));
+
+        assertThat(manager.toFormula(manager.fromFormula(and("A", or("A", "B")))), is(new Variable("A")));
+        assertThat(manager.toFormula(manager.fromFormula(not("A"))), is(new Negation(new Variable("A"))));
+
+        assertThat(manager.and(aAndB, not("B")), is(BddManager.FALSE));
+        assertThat(manager.and(BddManager.TRUE, and("A", "B")), is(aAndB));
+        assertThat(manager.and(BddManager.UNKNOWN, new Variable("A")), is(BddManager.UNKNOWN));
+    }
+
+    /**
+     * Tests random formulas: the simplified formula must be equivalent to the original one, and formulas must have
+     * the same BDD if, and only if, they have the same truth table.
+     */
+    @Test
+    public void testRandom() {
+        BddManager manager = new BddManager(100000);
+        Random random = new Random(42);
+        Map<Integer, Integer> bddsByTruthTable = new HashMap<>();
+        Map<Integer, Integer> truthTablesByBdd = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            Formula formula = randomFormula(random, 5);
+            int truthTable = truthTable(formula);
+
+            int bdd = manager.fromFormula(formula);
+            assertThat(truthTable(manager.toFormula(bdd)), is(truthTable));
+
+            Integer previousBdd = bddsByTruthTable.putIfAbsent(truthTable, bdd);
+            assertThat(previousBdd == null ? bdd : previousBdd, is(bdd));
+            Integer previousTruthTable = truthTablesByBdd.putIfAbsent(bdd, truthTable);
+            assertThat(previousTruthTable == null ? truthTable : previousTruthTable, is(truthTable));
+        }
+
+        assertThat(manager.getNumVariables(), is(4));
+        assertTrue(manager.getNumCacheHits() > 0);
+        assertTrue(manager.getNumCacheHits() <= manager.getNumCacheLookups());
+        assertThat(manager.getNumLimitExceeded(), is(0L));
+    }
+
+    /**
+     * Tests that operations that need more than the maximum number of nodes return {@link BddManager#UNKNOWN}.
+     */
+    @Test
+    public void testNodeLimit() {
+        BddManager manager = new BddManager(4);
+
+        int a = manager.fromFormula(new Variable("A"));
+        int b = manager.fromFormula(new Variable("B"));
+        assertThat(manager.getNumNodes(), is(4));
+
+        assertThat(manager.fromFormula(and("A", "B")), is(BddManager.UNKNOWN));
+        assertThat(manager.getNumLimitExceeded(), is(1L));
+
+        // no new nodes needed
+        assertThat(manager.fromFormula(and("A", or("A", "A"))), is(a));
+        assertThat(manager.and(b, new Variable("B")), is(b));
+        assertThat(manager.getNumLimitExceeded(), is(1L));
+    }
+
+    /**
+     * Tests that the manager grows beyond its initial capacity.
+     */
+    @Test
+    public void testGrow() {
+        BddManager manager = new BddManager(100000);
+        Formula formula = True.INSTANCE;
+        for (int i = 2999; i >= 0; i--) {
+            formula = new Conjunction(new Variable("V" + i), formula);
+        }
+        int bdd = manager.fromFormula(formula);
+        // a node for each variable, and one for each conjunction, except the innermost
+        assertThat(manager.getNumNodes(), is(2 + 3000 + 2999));
+        assertTrue(manager.fromFormula(new Variable("V1")) != BddManager.UNKNOWN);
+        assertSame(manager.toFormula(bdd), manager.toFormula(manager.and(bdd, new Variable("V2999"))));
+    }
+
+    /**
+     * Tests that the formulas are created through a {@link FormulaFactory}, if one is set.
+     */
+    @Test
+    public void testFormulaFactory() {
+        FormulaFactory factory = new FormulaFactory();
+        BddManager first = new BddManager(1000);
+        first.setFormulaFactory(factory);
+        BddManager second = new BddManager(1000);
+        second.setFormulaFactory(factory);
+
+        Formula formula = first.toFormula(first.fromFormula(or(and("A", "B"), not("C"))));
+        assertSame(formula, factory.intern(formula));
+        assertSame(formula, second.toFormula(second.fromFormula(or(and("A", "B"), not("C")))));
+    }
+
+    /**
+     * Tests the presence conditions that the parser creates with a manager.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testParser() throws IOException, FormatException {
+        String code = "#ifdef A\n"
+                + "  #ifndef A\n"
+                + "  #endif\n"
+                + "  #if defined(A) && defined(B)\n"
+                + "  #elif defined(B)\n"
+                + "  #else\n"
+                + "  #endif\n"
+                + "#endif\n"
+                + "#if defined(B) && defined(A)\n"
+                + "#endif\n";
+
+        List<CodeBlock> blocks;
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"))) {
+            parser.setBddManager(new BddManager(1000));
+            blocks = parser.readBlocks();
+        }
+
+        CodeBlock outer = blocks.get(0);
+        // dead block
+        assertSame(False.INSTANCE, outer.getNestedElement(0).getPresenceCondition());
+        assertThat(outer.getNestedElement(0).getCondition(), is(not("A")));
+
+        CodeBlock ifBlock = outer.getNestedElement(1);
+        assertThat(ifBlock.getPresenceCondition(), is(and("A", "B")));
+        assertSame(ifBlock.getPresenceCondition(), blocks.get(1).getPresenceCondition());
+
+        // !(A && B) && B within A is unsatisfiable
+        assertSame(False.INSTANCE, outer.getNestedElement(2).getPresenceCondition());
+        assertThat(outer.getNestedElement(3).getPresenceCondition(), is(and("A", not("B"))));
+    }
+
+    /**
+     * Tests a chain of formulas that each reference the previous one twice. The formula is only linear in size as a
+     * DAG, and so is its BDD, but the simplified formula is exponential when written as a tree.
+     */
+    @Test(timeout = 10000)
+    public void testSharedChain() {
+        BddManager manager = new BddManager(100000);
+        Formula parity = new Variable("V0");
+        for (int i = 1; i < 40; i++) {
+            Variable variable = new Variable("V" + i);
+            parity = new Disjunction(new Conjunction(parity, new Negation(variable)),
+                    new Conjunction(new Negation(parity), variable));
+        }
+
+        int bdd = manager.fromFormula(parity);
+        // each step copies the previous BDD below its new variable, so the intermediate nodes are quadratic
+        assertTrue(manager.getNumNodes() < 40 * 40 * 4);
+        assertTrue(manager.getFormulaSize(bdd) > 1L << 40);
+        assertThat(manager.getFormulaSize(manager.fromFormula(not("V0"))), is(2L));
+        assertThat(manager.getFormulaSize(BddManager.TRUE), is(1L));
+    }
+
+    /**
+     * Tests that the parser keeps the syntactic presence conditions if their simplified formulas would be larger.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test(timeout = 10000)
+    public void testParserSharedChain() throws IOException, FormatException {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            code.append("#if defined(X").append(i).append(") && !defined(Y").append(i).append(") || !defined(X")
+                    .append(i).append(") && defined(Y").append(i).append(")\n");
+        }
+        for (int i = 0; i < 30; i++) {
+            code.append("#endif\n");
+        }
+
+        BddManager manager = new BddManager(100000);
+        CodeBlock bddBlock;
+        try (BlockParser parser = new BlockParser(new StringReader(code.toString()), new File("test.c"))) {
+            parser.setBddManager(manager);
+            bddBlock = parser.readBlocks().get(0);
+        }
+        CodeBlock block;
+        try (BlockParser parser = new BlockParser(new StringReader(code.toString()), new File("test.c"))) {
+            block = parser.readBlocks().get(0);
+        }
+
+        // the outermost presence condition is simplified
+        assertThat(bddBlock.getPresenceCondition(), is(manager.toFormula(manager.fromFormula(
+                block.getPresenceCondition()))));
+        for (int i = 0; i < 29; i++) {
+            bddBlock = bddBlock.getNestedElement(0);
+            block = block.getNestedElement(0);
+        }
+        assertThat(bddBlock.getPresenceCondition(), is(block.getPresenceCondition()));
+        assertThat(manager.getNumLimitExceeded(), is(0L));
+    }
+
+    /**
+     * Creates a random formula over {@link #VARIABLES}.
+     *
+     * @param random The random number generator.
+     * @param depth The maximum depth of the formula.
+     *
+     * @return The formula.
+     */
+    private static Formula randomFormula(Random random, int depth) {
+        Formula result;
+        int kind = depth == 0 ? 0 : random.nextInt(5);
+        switch (kind) {
+        case 1:
+            result = new Negation(randomFormula(random, depth - 1));
+            break;
+        case 2:
+            result = new Conjunction(randomFormula(random, depth - 1), randomFormula(random, depth - 1));
+            break;
+        case 3:
+            result = new Disjunction(randomFormula(random, depth - 1), randomFormula(random, depth - 1));
+            break;
+        default:
+            result = new Variable(VARIABLES[random.nextInt(VARIABLES.length)]);
+            break;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the truth table of the given formula over {@link #VARIABLES}.
+     *
+     * @param formula The formula.
+     *
+     * @return A bit mask with a bit for each assignment of the variables.
+     */
+    private static int truthTable(Formula formula) {
+        int result = 0;
+        for (int assignment = 0; assignment < 1 << VARIABLES.length; assignment++) {
+            if (evaluate(formula, assignment)) {
+                result |= 1 << assignment;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the given formula.
+     *
+     * @param formula The formula.
+     * @param assignment A bit mask with the values of {@link #VARIABLES}.
+     *
+     * @return The value of the formula.
+     */
+    private static boolean evaluate(Formula formula, int assignment) {
+        boolean result;
+        if (formula instanceof Variable) {
+            String name = ((Variable) formula).getName();
+            int index = 0;
+            while (!VARIABLES[index].equals(name)) {
+                index++;
+            }
+            result = (assignment & (1 << index)) != 0;
+        } else if (formula instanceof Negation) {
+            result = !evaluate(((Negation) formula).getFormula(), assignment);
+        } else if (formula instanceof Conjunction) {
+            Conjunction conjunction = (Conjunction) formula;
+            result = evaluate(conjunction.getLeft(), assignment) && evaluate(conjunction.getRight(), assignment);
+        } else if (formula instanceof Disjunction) {
+            Disjunction disjunction = (Disjunction) formula;
+            result = evaluate(disjunction.getLeft(), assignment) || evaluate(disjunction.getRight(), assignment);
+        } else {
+            result = formula instanceof True;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.JsonCodeModelCache;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link BinaryCodeModelFormat}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class BinaryCodeModelFormatTest {
+
+    static final File TESTDATA = new File("testdata/scenario");
+
+    static final String[] SCENARIO_FILES = {"test1.c", "linux1.c", "linux2.c", "linux3.c"};
+
+    /**
+     * Reads the manually verified result of a scenario test.
+     *
+     * @param name The name of the scenario file.
+     *
+     * @return The verified result.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    static SourceFile<CodeBlock> readScenario(String name) throws IOException, FormatException {
+        return new JsonCodeModelCache(TESTDATA).read(new File(name)).castTo(CodeBlock.class);
+    }
+
+    /**
+     * Asserts that two source files contain the same block trees.
+     *
+     * @param actual The actual source file.
+     * @param expected The expected source file.
+     */
+    static void assertSameFile(SourceFile<CodeBlock> actual, SourceFile<CodeBlock> expected) {
+        assertThat(actual.getPath(), is(expected.getPath()));
+        assertThat(actual.getTopElementCount(), is(expected.getTopElementCount()));
+        for (int i = 0; i < expected.getTopElementCount(); i++) {
+            assertThat(actual.getElement(i), is(expected.getElement(i)));
+            assertThat(actual.getElement(i).toString(), is(expected.getElement(i).toString()));
+        }
+    }
+
+    /**
+     * Tests that the verified results of the scenario tests are reproduced exactly, and that the encoding is much
+     * smaller than the JSON cache.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testScenarioRoundTrip() throws IOException, FormatException {
+        for (String name : SCENARIO_FILES) {
+            SourceFile<CodeBlock> expected = readScenario(name);
+
+            byte[] encoded = BinaryCodeModelFormat.encode(expected);
+            SourceFile<CodeBlock> actual = BinaryCodeModelFormat.decode(ByteBuffer.wrap(encoded),
+                    expected.getPath());
+
+            assertSameFile(actual, expected);
+            assertTrue(name + ": " + encoded.length,
+                    encoded.length * 4 < new File(TESTDATA, name + ".json").length());
+        }
+    }
+
+    /**
+     * Tests all formula types, <code>null</code> conditions and line numbers that are not in order.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testAllElements() throws IOException, FormatException {
+        File path = new File("dir/file.c");
+        Formula a = new Variable("A");
+        Formula complex = new Disjunction(new Negation(a), new Conjunction(True.INSTANCE, False.INSTANCE));
+
+        CodeBlock outer = new CodeBlock(100, 200, path, complex, complex);
+        outer.addNestedElement(new CodeBlock(5, 3, path, null, complex));
+        outer.addNestedElement(new CodeBlock(-1, -1, path, a, new Conjunction(complex, a)));
+        SourceFile<CodeBlock> file = new SourceFile<>(path);
+        file.addElement(outer);
+        file.addElement(new CodeBlock(Integer.MAX_VALUE, Integer.MAX_VALUE, path, new Variable("\u00C4\u00D6\u00DC"),
+                new Variable("\u00C4\u00D6\u00DC")));
+
+        SourceFile<CodeBlock> result = BinaryCodeModelFormat.decode(
+                ByteBuffer.wrap(BinaryCodeModelFormat.encode(file)), path);
+
+        assertSameFile(result, file);
+    }
+
+    /**
+     * Tests that equal sub-formulas are only encoded once, and are the same instance after decoding.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSharedFormulas() throws IOException, FormatException {
+        File path = new File("file.c");
+        CodeBlock outer = new CodeBlock(1, 10, path, new Variable("A"), new Variable("A"));
+        outer.addNestedElement(new CodeBlock(2, 3, path, new Variable("B"),
+                new Conjunction(new Variable("A"), new Variable("B"))));
+        SourceFile<CodeBlock> file = new SourceFile<>(path);
+        file.addElement(outer);
+
+        CodeBlock result = BinaryCodeModelFormat.decode(ByteBuffer.wrap(BinaryCodeModelFormat.encode(file)), path)
+                .getElement(0);
+        CodeBlock nested = result.getNestedElement(0);
+
+        assertThat(result.getPresenceCondition(), sameInstance(result.getCondition()));
+        assertThat(((Conjunction) nested.getPresenceCondition()).getLeft(), sameInstance(result.getCondition()));
+        assertThat(((Conjunction) nested.getPresenceCondition()).getRight(), sameInstance(nested.getCondition()));
+    }
+
+    /**
+     * Tests that truncated or extended data is detected.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testInvalidData() throws IOException, FormatException {
+        byte[] encoded = BinaryCodeModelFormat.encode(readScenario("linux3.c"));
+
+        for (int length = 0; length < encoded.length; length++) {
+            try {
+                BinaryCodeModelFormat.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, length)), new File("a.c"));
+                fail("Truncated data with length " + length + " was accepted");
+            } catch (FormatException e) {
+                // expected
+            }
+        }
+
+        try {
+            BinaryCodeModelFormat.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length + 1)),
+                    new File("a.c"));
+            fail("Data after the end was accepted");
+        } catch (FormatException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests the variable-length integer encoding at the boundaries.
+     *
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testVarInts() throws FormatException {
+        int[] ints = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        long[] longs = {0, 127, 128, Integer.MAX_VALUE + 1L, Long.MAX_VALUE, -1};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int value : ints) {
+            BinaryCodeModelFormat.writeVarInt(out, value);
+        }
+        for (long value : longs) {
+            BinaryCodeModelFormat.writeVarLong(out, value);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (int value : ints) {
+            assertThat(BinaryCodeModelFormat.readVarInt(in), is(value));
+        }
+        for (long value : longs) {
+            assertThat(BinaryCodeModelFormat.readVarLong(in), is(value));
+        }
+        assertThat(in.hasRemaining(), is(false));
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link BinaryCodeModelReader} and {@link BinaryCodeModelWriter}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class BinaryCodeModelReaderTest {
+
+    private File archive;
+
+    /**
+     * Creates the path for a temporary archive.
+     *
+     * @throws IOException unwanted.
+     */
+    @Before
+    public void createArchive() throws IOException {
+        archive = File.createTempFile("code_model", ".khcm");
+    }
+
+    /**
+     * Deletes the temporary archive.
+     */
+    @After
+    public void deleteArchive() {
+        archive.delete();
+    }
+
+    /**
+     * Writes all scenario results into the archive.
+     *
+     * @return The written results, in order.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private List<SourceFile<CodeBlock>> writeScenarios() throws IOException, FormatException {
+        List<SourceFile<CodeBlock>> written = new ArrayList<>();
+        try (BinaryCodeModelWriter writer = new BinaryCodeModelWriter(archive)) {
+            for (String name : BinaryCodeModelFormatTest.SCENARIO_FILES) {
+                SourceFile<CodeBlock> file = BinaryCodeModelFormatTest.readScenario(name);
+                writer.write(file);
+                written.add(file);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Tests that all files are read back exactly, in any order.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testRoundTrip() throws IOException, FormatException {
+        List<SourceFile<CodeBlock>> written = writeScenarios();
+
+        try (BinaryCodeModelReader reader = new BinaryCodeModelReader(archive)) {
+            List<File> paths = new ArrayList<>();
+            for (SourceFile<CodeBlock> file : written) {
+                paths.add(file.getPath());
+            }
+            assertThat(new ArrayList<>(reader.getPaths()), is(paths));
+
+            for (int i = written.size() - 1; i >= 0; i--) {
+                BinaryCodeModelFormatTest.assertSameFile(reader.read(written.get(i).getPath()), written.get(i));
+            }
+            assertThat(reader.read(new File("unknown.c")), nullValue());
+        }
+    }
+
+    /**
+     * Tests that a nested path is stored with '/' as the separator, and read back as the same {@link File}.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testNestedPath() throws IOException, FormatException {
+        File path = new File(new File("dir", "sub"), "nested.c");
+        SourceFile<CodeBlock> file = new SourceFile<>(path);
+        file.addElement(new CodeBlock(1, 2, path, new Variable("A"), new Variable("A")));
+
+        try (BinaryCodeModelWriter writer = new BinaryCodeModelWriter(archive)) {
+            writer.write(file);
+        }
+
+        String content = new String(Files.readAllBytes(archive.toPath()), StandardCharsets.UTF_8);
+        assertThat(content.contains("dir/sub/nested.c"), is(true));
+
+        try (BinaryCodeModelReader reader = new BinaryCodeModelReader(archive)) {
+            assertThat(new ArrayList<>(reader.getPaths()), is(Arrays.asList(path)));
+            BinaryCodeModelFormatTest.assertSameFile(reader.read(path), file);
+        }
+    }
+
+    /**
+     * Tests that an empty archive is valid.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testEmpty() throws IOException, FormatException {
+        new BinaryCodeModelWriter(archive).close();
+
+        try (BinaryCodeModelReader reader = new BinaryCodeModelReader(archive)) {
+            assertThat(reader.getPaths().isEmpty(), is(true));
+        }
+    }
+
+    /**
+     * Tests that writing the same path twice is rejected.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatePath() throws IOException, FormatException {
+        try (BinaryCodeModelWriter writer = new BinaryCodeModelWriter(archive)) {
+            writer.write(BinaryCodeModelFormatTest.readScenario("test1.c"));
+            writer.write(BinaryCodeModelFormatTest.readScenario("test1.c"));
+        }
+    }
+
+    /**
+     * Tests that incomplete archives (e.g. because the writer was not closed) are detected.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testIncompleteArchive() throws IOException, FormatException {
+        writeScenarios();
+        byte[] data = Files.readAllBytes(archive.toPath());
+
+        for (int length : new int[] {0, 8, 100, data.length - 1}) {
+            Files.write(archive.toPath(), Arrays.copyOf(data, length));
+            try {
+                new BinaryCodeModelReader(archive).close();
+                fail("Archive with length " + length + " was accepted");
+            } catch (FormatException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -19,20 +19,32 @@ import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.and;
 import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.not;
 import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.or;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 
 import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
 import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.False;
 import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
 import net.ssehub.kernel_haven.util.logic.True;
 import net.ssehub.kernel_haven.util.logic.Variable;
 
@@ -995,4 +1007,643 @@ public class BlockParserTest {
         parser.close();
     }
     
+    /**
+     * Tests that the {@link ByteBuffer} based parser creates the same nested blocks and pseudo block as the
+     * {@link java.io.Reader} based one.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBufferNesting() throws IOException, FormatException {
+        String code = "a;\n"
+                + "#if defined(A)\n"
+                + " someCode;\n"
+                + " #  if defined(B) \\\n"
+                + "     || defined(C) // comment\n"
+                + "     moreCode;\n"
+                + " #endif\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, new File("test.c"), false, false, InvalidConditionHandling.EXCEPTION);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        CodeBlock expected = new CodeBlock(1, 9, new File("test.c"), True.INSTANCE, True.INSTANCE);
+        CodeBlock outer = new CodeBlock(2, 7, new File("test.c"), new Variable("A"), new Variable("A"));
+        outer.addNestedElement(new CodeBlock(4, 6, new File("test.c"), or("B", "C"), and("A", or("B", "C"))));
+        expected.addNestedElement(outer);
+        
+        assertThat(result, is(Arrays.asList(expected)));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that the {@link ByteBuffer} based parser considers all kinds of line breaks for the line numbers.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBufferLineBreaks() throws IOException, FormatException {
+        String code = "#if defined(A)\r\n"
+                + " someCode;\r"
+                + " moreCode;\n"
+                + "#endif\r\n"
+                + "\r\n"
+                + "#ifdef B\r"
+                + "#endif";
+        
+        BlockParser parser = new BlockParser(ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, new File("test.c"), false, false, InvalidConditionHandling.EXCEPTION);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 3, new File("test.c"), new Variable("A"), new Variable("A")),
+                new CodeBlock(6, 6, new File("test.c"), new Variable("B"), new Variable("B")))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that the {@link ByteBuffer} based parser handles comments like the {@link java.io.Reader} based one,
+     * including a directive that follows an inline comment and directives inside a multi line comment.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBufferComments() throws IOException, FormatException {
+        String code = "/* comment */ #if defined(A)\n"
+                + " someCode; /* start of comment\n"
+                + "#if defined(B)\n"
+                + "#endif */\n"
+                + "#endif\n"
+                + "// a / b\n";
+        
+        BlockParser parser = new BlockParser(ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, new File("test.c"), false, false, InvalidConditionHandling.EXCEPTION);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 4, new File("test.c"), new Variable("A"), new Variable("A")))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that the {@link ByteBuffer} based parser only considers the content between position and limit of the
+     * buffer.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBufferPositionAndLimit() throws IOException, FormatException {
+        String code = "garbage\n"
+                + "#if defined(A)\n"
+                + " someCode;\n"
+                + "#endif\n"
+                + "garbage\n";
+        
+        ByteBuffer buffer = ByteBuffer.allocateDirect(code.length());
+        buffer.put(code.getBytes(StandardCharsets.UTF_8));
+        buffer.position("garbage\n".length());
+        buffer.limit(code.length() - "garbage\n".length());
+        
+        BlockParser parser = new BlockParser(buffer, StandardCharsets.UTF_8, new File("test.c"), false, false,
+                InvalidConditionHandling.EXCEPTION);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 2, new File("test.c"), new Variable("A"), new Variable("A")))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that comment markers inside of string and character literals are ignored.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testCommentMarkersInLiterals() throws IOException, FormatException {
+        String code = "#if defined(A)\n"
+                + " printf(\"/* not a comment\");\n"
+                + " c = '/'; d = '\\''; s = \"\\\" //\";\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 3, new File("test.c"), new Variable("A"), new Variable("A")))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that an unterminated character literal (e.g. an apostrophe in text) ends at the end of the line.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testUnterminatedLiteral() throws IOException, FormatException {
+        String code = "#if 0\n"
+                + " Don't /* use this\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 2, new File("test.c"), False.INSTANCE, False.INSTANCE))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that the slash in /&#42;/ does not end the comment.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSlashStarSlash() throws IOException, FormatException {
+        String code = "/*/\n"
+                + "#if defined(A)\n"
+                + "#endif\n"
+                + "*/\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList()));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that a block comment spanning multiple lines inside of a condition ends the condition: the rest of the line
+     * where the comment ends is not part of the condition, like in the original comment removal.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMultiLineCommentInCondition() throws IOException, FormatException {
+        String code = "#if defined(A) /* start\n"
+                + " end */ || defined(B)\n"
+                + " someCode;\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result, is(Arrays.asList(
+                new CodeBlock(1, 3, new File("test.c"), new Variable("A"), new Variable("A")))));
+        
+        parser.close();
+    }
+    
+    /**
+     * Regression test: code after a block comment that starts in an #endif and ends on a later line is outside of all
+     * blocks, so the pseudo block is added like in the original comment removal.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMultiLineCommentAfterEndif() throws IOException, FormatException {
+        String code = "#ifdef A\n"
+                + "#endif /*\n"
+                + "*/ int x;\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        CodeBlock expected = new CodeBlock(1, 4, new File("test.c"), True.INSTANCE, True.INSTANCE);
+        expected.addNestedElement(new CodeBlock(1, 1, new File("test.c"), new Variable("A"), new Variable("A")));
+        
+        assertThat(result, is(Arrays.asList(expected)));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that a backslash at the end of a line outside of a directive does not join it with the next line, even
+     * in a line comment.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testLineCommentContinuation() throws IOException, FormatException {
+        String code = "// comment \\\n"
+                + "#if defined(A)\n"
+                + "#if defined(B)\n"
+                + "#endif\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        CodeBlock expected = new CodeBlock(2, 4, new File("test.c"), new Variable("A"), new Variable("A"));
+        expected.addNestedElement(new CodeBlock(3, 3, new File("test.c"), new Variable("B"), and("A", "B")));
+        
+        assertThat(result, is(Arrays.asList(expected)));
+        
+        parser.close();
+    }
+    
+    /**
+     * Regression test: a line continuation in code after the last #endif must not shift the end of the pseudo block.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testContinuationAfterLastEndif() throws IOException, FormatException {
+        String code = "#if defined(A)\n"
+                + " someCode;\n"
+                + "#endif\n"
+                + "int a = 1 + \\\n"
+                + "    2;\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        CodeBlock expected = new CodeBlock(1, 6, new File("test.c"), True.INSTANCE, True.INSTANCE);
+        expected.addNestedElement(new CodeBlock(1, 2, new File("test.c"), new Variable("A"), new Variable("A")));
+        
+        assertThat(result, is(Arrays.asList(expected)));
+        
+        parser.close();
+    }
+    
+    /**
+     * Regression test for a generated #elif chain with 500 branches. The conjunction of the negated previous
+     * conditions must be shared between the siblings, so that the number of distinct {@link Formula} nodes only grows
+     * linearly with the number of branches. Building the conjunction from scratch for every branch needs more than
+     * 250000 nodes for this chain.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testLongElifChain() throws IOException, FormatException {
+        int numBranches = 500;
+        StringBuilder code = new StringBuilder("#if defined(V0)\n");
+        for (int i = 1; i < numBranches; i++) {
+            code.append("#elif defined(V").append(i).append(")\n");
+        }
+        code.append("#else\n")
+            .append("#endif\n");
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.toString().getBytes())), new File("test.c"));
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result.size(), is(numBranches + 1));
+        assertThat(result.get(3).getCondition(), is(and(and(and(not("V0"), not("V1")), not("V2")), "V3")));
+        
+        for (int i = 2; i < numBranches; i++) {
+            Conjunction condition = (Conjunction) result.get(i).getCondition();
+            Conjunction previous = (Conjunction) result.get(i - 1).getCondition();
+            
+            assertThat(condition.getRight(), is(new Variable("V" + i)));
+            assertThat(((Conjunction) condition.getLeft()).getLeft(), sameInstance(previous.getLeft()));
+        }
+        
+        Set<Formula> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CodeBlock block : result) {
+            collectNodes(block.getCondition(), nodes);
+        }
+        assertThat(nodes.size() <= 5 * numBranches, is(true));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests the generated {@link WorstCaseInputs} that are used by the benchmarks in the <code>benchmark</code> source
+     * folder, so that the benchmarks measure the intended structures.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testWorstCaseInputs() throws IOException, FormatException {
+        List<CodeBlock> nested = parseWithoutPseudoBlock(WorstCaseInputs.deepNesting(100));
+        CodeBlock innermost = nested.get(0);
+        for (int depth = 1; depth < 100; depth++) {
+            assertThat(innermost.getNestedElementCount(), is(1));
+            innermost = innermost.getNestedElement(0);
+        }
+        assertThat(innermost.getCondition(), is(new Variable("CONFIG_NESTED_99")));
+        assertThat(innermost.getLineStart(), is(199));
+        
+        List<CodeBlock> ladder = parseWithoutPseudoBlock(WorstCaseInputs.elifLadder(10));
+        assertThat(ladder.size(), is(12));
+        
+        List<CodeBlock> continued = parseWithoutPseudoBlock(WorstCaseInputs.longContinuationLines(3, 20));
+        assertThat(continued.size(), is(3));
+        assertThat(continued.get(1).getLineStart(), is(23));
+        assertThat(continued.get(1).getLineEnd(), is(43));
+        
+        List<CodeBlock> commented = parseWithoutPseudoBlock(WorstCaseInputs.commentHeavy(5));
+        assertThat(commented.size(), is(5));
+        assertThat(commented.get(4).getCondition(), is(new Variable("CONFIG_C_4")));
+    }
+    
+    /**
+     * Parses the given code with a {@link BlockParser} that does not add a pseudo block.
+     * 
+     * @param code The code to parse.
+     * 
+     * @return The top-level blocks.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static List<CodeBlock> parseWithoutPseudoBlock(String code) throws IOException, FormatException {
+        try (BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"))) {
+            parser.setAddPseudoBlock(false);
+            return parser.readBlocks();
+        }
+    }
+    
+    /**
+     * Tests that the events sent to an {@link IBlockListener} are correct.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testListenerEvents() throws IOException, FormatException {
+        String code = "a;\n"
+                + "#if defined(A)\n"
+                + " #ifdef B\n"
+                + " #endif\n"
+                + "#else\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<String> events = new ArrayList<>();
+        parser.parse(new IBlockListener() {
+            
+            @Override
+            public void blockOpened(int lineStart, Formula condition, Formula presenceCondition, int depth) {
+                events.add("open " + lineStart + " " + condition + " " + presenceCondition + " " + depth);
+            }
+            
+            @Override
+            public void blockClosed(int lineStart, int lineEnd, Formula condition, Formula presenceCondition,
+                    int depth) {
+                events.add("close " + lineStart + "-" + lineEnd + " " + condition + " " + depth);
+            }
+            
+            @Override
+            public void endOfFile(int lineEnd, boolean pseudoBlock) {
+                events.add("eof " + lineEnd + " " + pseudoBlock);
+            }
+            
+            @Override
+            public void parseError(FormatException exception) {
+                events.add("error");
+            }
+            
+        });
+        
+        assertThat(events, is(Arrays.asList(
+                "open 2 A A 0",
+                "open 3 B A && B 1",
+                "close 3-3 B 1",
+                "close 2-4 A 0",
+                "open 5 !A !A 0",
+                "close 5-5 !A 0",
+                "eof 7 true")));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that an {@link IBlockListener} is notified about a missing #endif.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testListenerParseError() throws IOException {
+        String code = "#if defined(A)\n"
+                + " someCode;\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        
+        List<FormatException> errors = new ArrayList<>();
+        try {
+            parser.parse(new IBlockListener() {
+                
+                @Override
+                public void parseError(FormatException exception) {
+                    errors.add(exception);
+                }
+                
+            });
+            fail("Expected FormatException");
+        } catch (FormatException e) {
+            assertThat(errors, is(Arrays.asList(e)));
+        }
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that blocks deeper than the maximum depth are not created, and that their conditions are not parsed.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMaxDepth() throws IOException, FormatException {
+        String code = "code;\n"
+                + "#ifdef A\n"
+                + "  #if defined(B)\n"
+                + "    #if this is not parseable\n"
+                + "      #ifdef D\n"
+                + "      #endif\n"
+                + "    #elif defined(E) ||\n"
+                + "    #else\n"
+                + "    #endif\n"
+                + "  #else\n"
+                + "  #endif\n"
+                + "#elif defined(F)\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        parser.setMaxDepth(2);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result.size(), is(1));
+        CodeBlock pseudoBlock = result.get(0);
+        assertThat(pseudoBlock.getNestedElementCount(), is(2));
+        
+        CodeBlock outer = pseudoBlock.getNestedElement(0);
+        assertThat(outer.getNestedElementCount(), is(2));
+        assertThat(outer.getNestedElement(0), is(new CodeBlock(3, 9, new File("test.c"), new Variable("B"),
+                and("A", "B"))));
+        assertThat(outer.getNestedElement(1), is(new CodeBlock(10, 10, new File("test.c"), not("B"),
+                and("A", not("B")))));
+        assertThat(pseudoBlock.getNestedElement(1).getCondition(), is(and(not("A"), "F")));
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that only the top-level blocks are created with a maximum depth of 1.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMaxDepthTopLevel() throws IOException, FormatException {
+        List<CodeBlock> nested = parseWithoutPseudoBlock(WorstCaseInputs.deepNesting(100));
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(WorstCaseInputs.deepNesting(100).getBytes())),
+                new File("test.c"));
+        parser.setAddPseudoBlock(false);
+        parser.setMaxDepth(1);
+        
+        List<CodeBlock> result = parser.readBlocks();
+        
+        assertThat(result.size(), is(nested.size()));
+        for (int i = 0; i < result.size(); i++) {
+            assertThat(result.get(i).getLineStart(), is(nested.get(i).getLineStart()));
+            assertThat(result.get(i).getLineEnd(), is(nested.get(i).getLineEnd()));
+            assertThat(result.get(i).getCondition(), is(nested.get(i).getCondition()));
+            assertThat(result.get(i).getNestedElementCount(), is(0));
+        }
+        
+        parser.close();
+    }
+    
+    /**
+     * Tests that an #else after an #else is detected in a skipped block.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException wanted.
+     */
+    @Test(expected = FormatException.class)
+    public void testMaxDepthElseAfterElse() throws IOException, FormatException {
+        String code = "#ifdef A\n"
+                + "  #ifdef B\n"
+                + "  #else\n"
+                + "  #else\n"
+                + "  #endif\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        parser.setMaxDepth(1);
+        
+        parser.readBlocks();
+        parser.close();
+    }
+    
+    /**
+     * Tests that a missing #endif is detected if the last opening is skipped.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException wanted.
+     */
+    @Test(expected = FormatException.class)
+    public void testMaxDepthMissingEndif() throws IOException, FormatException {
+        String code = "#ifdef A\n"
+                + "  #ifdef B\n"
+                + "  #endif\n"
+                + "  #ifdef C\n"
+                + "#endif\n";
+        
+        BlockParser parser = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+        parser.setMaxDepth(1);
+        
+        parser.readBlocks();
+        parser.close();
+    }
+    
+    /**
+     * Tests that a missing #endif of a skipped block is reported at the line of the innermost open #if, the same as
+     * without a maximum depth.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testMaxDepthMissingSkippedEndif() throws IOException {
+        String code = "#ifdef A\n"
+                + "  #ifdef B\n"
+                + "    #ifdef C\n"
+                + "      #ifdef D\n"
+                + "      #endif\n"
+                + "    #endif\n";
+        
+        for (int maxDepth : new int[] {0, 1, 2}) {
+            BlockParser parser = new BlockParser(
+                    new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+            parser.setMaxDepth(maxDepth);
+            
+            try {
+                parser.readBlocks();
+                fail("Expected FormatException");
+            } catch (FormatException e) {
+                assertThat(e.getMessage(), is("Found opening at line 2 but no closing #endif"));
+            }
+            parser.close();
+        }
+    }
+    
+    /**
+     * Adds the given formula and all of its sub-formulas to the given set.
+     * 
+     * @param formula The formula to collect the nodes of.
+     * @param nodes The set to add the nodes to.
+     */
+    private static void collectNodes(Formula formula, Set<Formula> nodes) {
+        if (nodes.add(formula)) {
+            if (formula instanceof Conjunction) {
+                collectNodes(((Conjunction) formula).getLeft(), nodes);
+                collectNodes(((Conjunction) formula).getRight(), nodes);
+            } else if (formula instanceof Negation) {
+                collectNodes(((Negation) formula).getFormula(), nodes);
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+
+/**
+ * Tests the {@link BlockStatistics}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class BlockStatisticsTest {
+
+    /**
+     * Parses the given code, without pseudo block.
+     *
+     * @param code The code to parse.
+     *
+     * @return The parsed file.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static SourceFile<CodeBlock> parse(String code) throws IOException, FormatException {
+        return parse(code, false);
+    }
+
+    /**
+     * Parses the given code, without pseudo block.
+     *
+     * @param code The code to parse.
+     * @param lazy Whether to create the presence conditions lazily.
+     *
+     * @return The parsed file.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static SourceFile<CodeBlock> parse(String code, boolean lazy) throws IOException, FormatException {
+        SourceFile<CodeBlock> result = new SourceFile<>(new File("test.c"));
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"))) {
+            parser.setAddPseudoBlock(false);
+            parser.setLazyPresenceConditions(lazy);
+            for (CodeBlock block : parser.readBlocks()) {
+                result.addElement(block);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests the counters and distributions for a single file.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSingleFile() throws IOException, FormatException {
+        BlockStatistics statistics = new BlockStatistics();
+        statistics.addFile(parse("#ifdef A\n"
+                + "  #if defined(B) && defined(C)\n"
+                + "  #endif\n"
+                + "#elif defined(D)\n"
+                + "#else\n"
+                + "#endif\n"
+                + "#ifdef E\n"
+                + "#endif\n"));
+
+        assertThat(statistics.getNumFiles(), is(1L));
+        assertThat(statistics.getBlocksPerFile().getSum(), is(5L));
+        assertThat(statistics.getNestingDepth().getMax(), is(2L));
+
+        // chains: #ifdef A / #elif D / #else; #if B && C; #ifdef E
+        assertThat(statistics.getChainLength().getCount(), is(3L));
+        assertThat(statistics.getChainLength().getMax(), is(3L));
+        assertThat(statistics.getChainLength().getSum(), is(5L));
+
+        // A: 1; B && C: 3; !A && D: 4; !A && !D: 5; E: 1
+        assertThat(statistics.getNumConditions(), is(5L));
+        assertThat(statistics.getConditionSize().getMin(), is(1L));
+        assertThat(statistics.getConditionSize().getMax(), is(5L));
+        assertThat(statistics.getNumConditionsWithErrors(), is(0L));
+    }
+
+    /**
+     * Tests counting error variables.
+     */
+    @Test
+    public void testErrorVariables() {
+        File path = new File("test.c");
+        SourceFile<CodeBlock> file = new SourceFile<>(path);
+        file.addElement(new CodeBlock(1, 2, path, CppConditionParser.ERROR_VARIBLE, CppConditionParser.ERROR_VARIBLE));
+        file.addElement(new CodeBlock(4, 5, path, new Conjunction(CppConditionParser.ERROR_VARIBLE,
+                CppConditionParser.ERROR_VARIBLE), CppConditionParser.ERROR_VARIBLE));
+        file.addElement(new CodeBlock(7, 8, path, null, CppConditionParser.ERROR_VARIBLE));
+
+        BlockStatistics statistics = new BlockStatistics();
+        statistics.addFile(file);
+
+        assertThat(statistics.getNumConditions(), is(2L));
+        assertThat(statistics.getNumConditionsWithErrors(), is(2L));
+        assertThat(statistics.getNumErrorVariables(), is(3L));
+    }
+
+    /**
+     * Tests counting the lazy presence conditions that are already materialized.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testLazyPresenceConditions() throws IOException, FormatException {
+        String code = "#ifdef A\n"
+                + "  #ifdef B\n"
+                + "  #endif\n"
+                + "#endif\n"
+                + "#ifdef C\n"
+                + "#endif\n";
+
+        BlockStatistics statistics = new BlockStatistics();
+        statistics.addFile(parse(code));
+        assertThat(statistics.getNumLazyPresenceConditions(), is(0L));
+
+        SourceFile<CodeBlock> lazy = parse(code, true);
+        // creates the presence condition of the parent, too
+        lazy.getElement(0).getNestedElement(0).getPresenceCondition();
+        statistics.addFile(lazy);
+        assertThat(statistics.getNumLazyPresenceConditions(), is(3L));
+        assertThat(statistics.getNumMaterializedPresenceConditions(), is(2L));
+    }
+
+    /**
+     * Tests merging statistics of multiple threads, including files without blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMerge() throws IOException, FormatException {
+        BlockStatistics first = new BlockStatistics();
+        first.addFile(parse("#ifdef A\n#endif\n"));
+        BlockStatistics second = new BlockStatistics();
+        second.addFile(parse("code;\n"));
+        second.addFile(parse("#ifdef A\n#ifdef B\n#endif\n#endif\n"));
+
+        BlockStatistics merged = new BlockStatistics();
+        merged.merge(first);
+        merged.merge(second);
+
+        assertThat(merged.getNumFiles(), is(3L));
+        assertThat(merged.getNumConditions(), is(3L));
+        assertThat(merged.getBlocksPerFile().getMin(), is(0L));
+        assertThat(merged.getBlocksPerFile().getSum(), is(3L));
+        assertThat(merged.getNestingDepth().getMax(), is(2L));
+        assertThat(merged.getChainLength().getCount(), is(3L));
+    }
+
+}
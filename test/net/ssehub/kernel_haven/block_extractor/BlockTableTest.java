@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link BlockTable}, as created by {@link BlockParser#readBlockTable(FormulaTable)}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class BlockTableTest {
+
+    private static final String CODE = "code;\n"
+            + "#ifdef A\n"
+            + "  #ifdef B\n"
+            + "  #elif defined(C)\n"
+            + "  #endif\n"
+            + "#else\n"
+            + "#endif\n"
+            + "#ifdef A\n"
+            + "#endif\n";
+
+    /**
+     * Parses the given code into a table.
+     *
+     * @param code The code to parse.
+     * @param pseudoBlock Whether to add a pseudo block.
+     * @param formulas The formula table to use.
+     *
+     * @return The table.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static BlockTable readTable(String code, boolean pseudoBlock, FormulaTable formulas)
+            throws IOException, FormatException {
+
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"))) {
+            parser.setAddPseudoBlock(pseudoBlock);
+            return parser.readBlockTable(formulas);
+        }
+    }
+
+    /**
+     * Tests the primitive arrays of a table without pseudo block.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testStructure() throws IOException, FormatException {
+        FormulaTable formulas = new FormulaTable();
+        BlockTable table = readTable(CODE, false, formulas);
+
+        // #ifdef A, #ifdef B, #elif C, #else, #ifdef A
+        assertThat(table.size(), is(5));
+        int[][] expected = {
+            // lineStart, lineEnd, parent, subtreeSize
+            {2, 5, -1, 3},
+            {3, 3, 0, 1},
+            {4, 4, 0, 1},
+            {6, 6, -1, 1},
+            {8, 8, -1, 1},
+        };
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(table.getLineStart(i), is(expected[i][0]));
+            assertThat(table.getLineEnd(i), is(expected[i][1]));
+            assertThat(table.getParent(i), is(expected[i][2]));
+            assertThat(table.getSubtreeSize(i), is(expected[i][3]));
+        }
+
+        assertThat(table.getCondition(0), is(new Variable("A")));
+        assertThat(table.getPresenceCondition(1), is(new Conjunction(new Variable("A"), new Variable("B"))));
+        assertThat(table.getCondition(3), is(new Negation(new Variable("A"))));
+
+        // equal formulas share an id
+        assertThat(table.getConditionId(4), is(table.getConditionId(0)));
+        assertThat(table.getPresenceConditionId(0), is(table.getConditionId(0)));
+        assertThat(table.getFormulas(), is(formulas));
+    }
+
+    /**
+     * Tests that the pseudo block is the first entry and the parent of all top-level blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testPseudoBlock() throws IOException, FormatException {
+        BlockTable table = readTable(CODE, true, new FormulaTable());
+
+        assertThat(table.size(), is(6));
+        assertThat(table.getLineStart(0), is(1));
+        assertThat(table.getLineEnd(0), is(10));
+        assertThat(table.getParent(0), is(-1));
+        assertThat(table.getSubtreeSize(0), is(6));
+        assertThat(table.getCondition(0), is(True.INSTANCE));
+
+        assertThat(table.getParent(1), is(0));
+        assertThat(table.getParent(2), is(1));
+        assertThat(table.getParent(5), is(0));
+    }
+
+    /**
+     * Tests that the materialized {@link CodeBlock}s are equal to the ones created by
+     * {@link BlockParser#readBlocks()}, with and without pseudo block.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSameAsReadBlocks() throws IOException, FormatException {
+        FormulaTable formulas = new FormulaTable();
+        for (String name : BinaryCodeModelFormatTest.SCENARIO_FILES) {
+            String code = new String(Files.readAllBytes(new File(BinaryCodeModelFormatTest.TESTDATA, name).toPath()),
+                    StandardCharsets.UTF_8);
+
+            for (boolean pseudoBlock : new boolean[] {false, true}) {
+                List<CodeBlock> expected;
+                try (BlockParser parser = new BlockParser(new StringReader(code), new File(name), true, false,
+                        InvalidConditionHandling.EXCEPTION)) {
+                    parser.setAddPseudoBlock(pseudoBlock);
+                    expected = parser.readBlocks();
+                }
+
+                BlockTable table;
+                try (BlockParser parser = new BlockParser(new StringReader(code), new File(name), true, false,
+                        InvalidConditionHandling.EXCEPTION)) {
+                    parser.setAddPseudoBlock(pseudoBlock);
+                    table = parser.readBlockTable(formulas);
+                }
+
+                SourceFile<CodeBlock> result = table.toSourceFile();
+                assertThat(result.getPath(), is(new File(name)));
+                assertThat(result.getTopElementCount(), is(expected.size()));
+                for (int i = 0; i < expected.size(); i++) {
+                    assertThat(result.getElement(i), is(expected.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests a file without blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testEmpty() throws IOException, FormatException {
+        BlockTable table = readTable("code;\n", false, new FormulaTable());
+
+        assertThat(table.size(), is(0));
+        assertThat(table.toSourceFile().getTopElementCount(), is(0));
+    }
+
+    /**
+     * Tests that multiple files share the formulas of one table.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSharedFormulaTable() throws IOException, FormatException {
+        FormulaTable formulas = new FormulaTable();
+        BlockTable table1 = readTable(CODE, false, formulas);
+        int size = formulas.size();
+        BlockTable table2 = readTable(CODE, true, formulas);
+
+        // only True for the pseudo block is new
+        assertThat(formulas.size(), is(size + 1));
+        assertThat(table2.getConditionId(1), is(table1.getConditionId(0)));
+        assertThat(table2.getBlock(1), is(table1.getBlock(0)));
+    }
+
+}
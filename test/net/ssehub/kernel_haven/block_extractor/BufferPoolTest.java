@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link BufferPool}.
+ *
+ * @author Adam
+ */
+public class BufferPoolTest {
+
+    /**
+     * Tests that released buffers, including larger replacements, are handed out again.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testReuse() throws InterruptedException {
+        BufferPool pool = new BufferPool(1);
+        ByteBuffer first = pool.acquire();
+        assertThat(pool.getNumInUse(), is(1));
+
+        ByteBuffer larger = ByteBuffer.allocate(100);
+        pool.release(larger);
+        assertThat(pool.getNumInUse(), is(0));
+
+        assertThat(pool.acquire(), sameInstance(larger));
+        assertThat(first.capacity(), is(0));
+        assertThat(pool.getMaxInUse(), is(1));
+        assertThat(pool.getNumWaits(), is(0L));
+    }
+
+    /**
+     * Tests that {@link BufferPool#acquire()} blocks until a buffer is released.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test(timeout = 10000)
+    public void testBlocking() throws InterruptedException {
+        BufferPool pool = new BufferPool(2);
+        ByteBuffer first = pool.acquire();
+        pool.acquire();
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // release earlier
+            }
+            pool.release(first);
+        });
+        releaser.start();
+
+        assertThat(pool.acquire(), sameInstance(first));
+        releaser.join();
+        assertThat(pool.getNumWaits(), is(1L));
+        assertThat(pool.getMaxInUse(), is(2));
+    }
+
+    /**
+     * Tests that releasing more buffers than acquired is detected.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTooMany() {
+        new BufferPool(1).release(ByteBuffer.allocate(0));
+    }
+
+}
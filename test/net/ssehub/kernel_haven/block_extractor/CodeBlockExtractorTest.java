@@ -17,10 +17,23 @@ package net.ssehub.kernel_haven.block_extractor;
 
 import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.or;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
@@ -34,6 +47,8 @@ import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
 import net.ssehub.kernel_haven.test_utils.TestConfiguration;
 import net.ssehub.kernel_haven.util.CodeExtractorException;
 import net.ssehub.kernel_haven.util.ExtractorException;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.True;
 import net.ssehub.kernel_haven.util.logic.Variable;
 
 /**
@@ -69,6 +84,287 @@ public class CodeBlockExtractorTest {
                 new CodeBlock(2, 3, new File("simpleIf.c"), new Variable("A"), new Variable("A"))));
     }
     
+    /**
+     * Tests that a file without conditional directives is extracted without the parser, with the same result.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testNoConditionals() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> result = extractor.runOnFile(new File("noConditionals.c"));
+        
+        assertThat(result.getTopElementCount(), is(1));
+        assertThat(result.getElement(0), is(
+                new CodeBlock(1, 7, new File("noConditionals.c"), True.INSTANCE, True.INSTANCE)));
+        assertThat(extractor.getNumFastPathFiles(), is(1L));
+        
+        extractor.runOnFile(new File("simpleIf.c"));
+        assertThat(extractor.getNumFastPathFiles(), is(1L));
+    }
+    
+    /**
+     * Tests that the fast path for files without conditional directives respects the
+     * {@link CodeBlockExtractor#ADD_PSEUDO_BLOCK} setting.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testNoConditionalsWithoutPseudoBlock() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.ADD_PSEUDO_BLOCK);
+        config.setValue(CodeBlockExtractor.ADD_PSEUDO_BLOCK, false);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> result = extractor.runOnFile(new File("noConditionals.c"));
+        
+        assertThat(result.getTopElementCount(), is(0));
+        assertThat(extractor.getNumFastPathFiles(), is(1L));
+    }
+    
+    /**
+     * Tests that the extractor builds the variable index if a file is configured, and writes it to that file once all
+     * files are extracted.
+     * 
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testVariableIndex() throws SetUpException, InterruptedException, IOException, FormatException {
+        File indexFile = File.createTempFile("variable_index", ".bin");
+        indexFile.delete();
+        
+        try {
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+            config.registerSetting(CodeBlockExtractor.VARIABLE_INDEX_FILE);
+            config.setValue(CodeBlockExtractor.VARIABLE_INDEX_FILE, indexFile.getPath());
+            
+            CodeBlockExtractor extractor = new CodeBlockExtractor();
+            extractor.init(config);
+            
+            extractor.runOnFiles(Arrays.asList(new File("simpleIf.c"), new File("noConditionals.c")), 2,
+                    (result) -> { }, (error) -> { });
+            
+            List<VariableIndex.Entry> expected
+                    = Arrays.asList(new VariableIndex.Entry(new File("simpleIf.c"), 0, 2, 3));
+            assertThat(extractor.getVariableIndex().getNumFiles(), is(2));
+            assertThat(extractor.getVariableIndex().getEntries("A"), is(expected));
+            
+            VariableIndex read = VariableIndex.read(indexFile);
+            assertThat(read.getNumFiles(), is(2));
+            assertThat(read.getEntries("A"), is(expected));
+            
+        } finally {
+            indexFile.delete();
+        }
+    }
+    
+    /**
+     * Tests that the extractor builds no variable index if no file is configured.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testNoVariableIndex() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        extractor.runOnFile(new File("simpleIf.c"));
+        
+        assertThat(extractor.getVariableIndex(), nullValue());
+    }
+    
+    /**
+     * Tests that the conditions of multiple files are shared.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testShareFormulas() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.SHARE_FORMULAS);
+        config.setValue(CodeBlockExtractor.SHARE_FORMULAS, true);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> first = extractor.runOnFile(new File("simpleIf.c"));
+        SourceFile<CodeBlock> second = extractor.runOnFile(new File("simpleIf.c"));
+        
+        assertThat(first.getElement(0).getCondition(), is(new Variable("A")));
+        assertSame(first.getElement(0).getCondition(), second.getElement(0).getCondition());
+        assertSame(extractor.getFormulaFactory().variable("A"), first.getElement(0).getCondition());
+    }
+    
+    /**
+     * Tests that formulas are not shared by default.
+     * 
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testShareFormulasDisabled() throws SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        assertThat(extractor.getFormulaFactory(), nullValue());
+    }
+    
+    /**
+     * Tests canonicalizing the presence conditions with a BDD.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testBddPresenceConditions() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.BDD_PRESENCE_CONDITIONS);
+        config.setValue(CodeBlockExtractor.BDD_PRESENCE_CONDITIONS, true);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> result = extractor.runOnFile(new File("simpleIf.c"));
+        
+        assertThat(result.getElement(0), is(new CodeBlock(2, 3, new File("simpleIf.c"), new Variable("A"),
+                new Variable("A"))));
+        assertThat(extractor.getBddStatistics().getNumNodes(), is(3L));
+        
+        // each file gets its own manager
+        extractor.runOnFile(new File("simpleIf.c"));
+        assertThat(extractor.getBddStatistics().getNumManagers(), is(2L));
+        assertThat(extractor.getBddStatistics().getNumNodes(), is(6L));
+        assertThat(extractor.getBddStatistics().getMaxNodes(), is(3L));
+    }
+    
+    /**
+     * Tests creating the presence conditions lazily.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testLazyPresenceConditions() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.LAZY_PRESENCE_CONDITIONS);
+        config.setValue(CodeBlockExtractor.LAZY_PRESENCE_CONDITIONS, true);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> result = extractor.runOnFile(new File("simpleIf.c"));
+        
+        assertThat(result.getElement(0) instanceof LazyCodeBlock, is(true));
+        LazyCodeBlockTest.assertSameValues(new CodeBlock(2, 3, new File("simpleIf.c"), new Variable("A"),
+                new Variable("A")), result.getElement(0));
+    }
+    
+    /**
+     * Tests running the extractor with lazily parsed conditions.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     */
+    @Test
+    public void testLazyConditions() throws ExtractorException, SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.LAZY_CONDITIONS);
+        config.setValue(CodeBlockExtractor.LAZY_CONDITIONS, true);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        SourceFile<CodeBlock> result = extractor.runOnFile(new File("simpleIf.c"));
+        
+        LazyCodeBlock block = (LazyCodeBlock) result.getElement(0);
+        assertThat(block.isConditionParsed(), is(false));
+        assertThat(block.getLineStart(), is(2));
+        assertThat(block.getLineEnd(), is(3));
+        assertThat(block.isConditionParsed(), is(false));
+        
+        assertThat(block.getCondition(), is(new Variable("A")));
+        assertThat(block.getPresenceCondition(), is(new Variable("A")));
+        assertThat(block.isConditionParsed(), is(true));
+    }
+    
+    /**
+     * Tests that the extractor only creates blocks up to the maximum depth.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testMaxDepth() throws ExtractorException, SetUpException, IOException {
+        File sourceTree = Files.createTempDirectory("source_tree").toFile();
+        File file = new File(sourceTree, "nested.c");
+        
+        try {
+            Files.write(file.toPath(), WorstCaseInputs.deepNesting(10).getBytes());
+            
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, sourceTree);
+            config.registerSetting(CodeBlockExtractor.MAX_DEPTH);
+            config.setValue(CodeBlockExtractor.MAX_DEPTH, 2);
+            
+            CodeBlockExtractor extractor = new CodeBlockExtractor();
+            extractor.init(config);
+            
+            SourceFile<CodeBlock> result = extractor.runOnFile(new File("nested.c"));
+            
+            // all code is inside of the blocks, so there is no pseudo block
+            assertThat(result.getTopElementCount(), is(1));
+            CodeBlock outer = result.getElement(0);
+            assertThat(outer.getCondition(), is(new Variable("CONFIG_NESTED_0")));
+            assertThat(outer.getNestedElementCount(), is(1));
+            assertThat(outer.getNestedElement(0).getCondition(), is(new Variable("CONFIG_NESTED_1")));
+            assertThat(outer.getNestedElement(0).getNestedElementCount(), is(0));
+            
+        } finally {
+            file.delete();
+            sourceTree.delete();
+        }
+    }
+    
+    /**
+     * Tests that the maximum depth must not be negative.
+     * 
+     * @throws SetUpException wanted.
+     */
+    @Test(expected = SetUpException.class)
+    public void testNegativeMaxDepth() throws SetUpException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.MAX_DEPTH);
+        config.setValue(CodeBlockExtractor.MAX_DEPTH, -1);
+        
+        new CodeBlockExtractor().init(config);
+    }
+    
     /**
      * Tests running the extractor on a file using a Linux macro.
      * 
@@ -154,6 +450,350 @@ public class CodeBlockExtractorTest {
         extractor.runOnFile(new File("invalid.c"));
     }
     
+    /**
+     * Tests that the extraction cache returns the stored result in a second run.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testExtractionCache() throws ExtractorException, SetUpException, IOException {
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        File entryDir = new File(cacheDir, "code_block_extractor");
+        
+        try {
+            SourceFile<CodeBlock> first = null;
+            for (int run = 0; run < 2; run++) {
+                Configuration config = new TestConfiguration(new Properties());
+                config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+                config.setValue(DefaultSettings.CACHE_DIR, cacheDir);
+                config.registerSetting(CodeBlockExtractor.USE_EXTRACTION_CACHE);
+                config.setValue(CodeBlockExtractor.USE_EXTRACTION_CACHE, true);
+                
+                CodeBlockExtractor extractor = new CodeBlockExtractor();
+                extractor.init(config);
+                
+                SourceFile<CodeBlock> result = extractor.runOnFile(new File("simpleIf.c"));
+                ExtractionCache cache = extractor.getExtractionCache();
+                
+                if (run == 0) {
+                    first = result;
+                    assertThat(cache.getMisses(), is(1L));
+                    assertThat(entryDir.list().length, is(1));
+                } else {
+                    assertThat(cache.getHits(), is(1L));
+                    assertThat(cache.getBytesSaved(), is(new File(TESTDATA, "simpleIf.c").length()));
+                    assertThat(result.getPath(), is(first.getPath()));
+                    assertThat(result.getTopElementCount(), is(first.getTopElementCount()));
+                    assertThat(result.getElement(0), is(first.getElement(0)));
+                }
+            }
+            
+        } finally {
+            for (File entry : entryDir.listFiles()) {
+                entry.delete();
+            }
+            entryDir.delete();
+            cacheDir.delete();
+        }
+    }
+    
+    /**
+     * Tests the incremental git mode: files that did not change between the base and target revision are loaded from
+     * the revision store, if they were stored in a previous run.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testGitMode() throws ExtractorException, SetUpException, IOException {
+        File sourceTree = Files.createTempDirectory("git_source_tree").toFile();
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        
+        try {
+            GitRepositoryTest.createRepository(sourceTree);
+            
+            for (int run = 0; run < 2; run++) {
+                Configuration config = new TestConfiguration(new Properties());
+                config.setValue(DefaultSettings.SOURCE_TREE, sourceTree);
+                config.setValue(DefaultSettings.CACHE_DIR, cacheDir);
+                config.registerSetting(CodeBlockExtractor.GIT_BASE_REVISION);
+                config.setValue(CodeBlockExtractor.GIT_BASE_REVISION, "HEAD~1");
+                
+                CodeBlockExtractor extractor = new CodeBlockExtractor();
+                extractor.init(config);
+                
+                SourceFile<CodeBlock> changed = extractor.runOnFile(new File("a.c"));
+                SourceFile<CodeBlock> unchanged = extractor.runOnFile(new File("dir/b.c"));
+                ExtractionCache store = extractor.getRevisionStore();
+                
+                assertThat(changed.getTopElementCount(), is(2));
+                assertThat(unchanged.getTopElementCount(), is(1));
+                assertThat(unchanged.getElement(0).getCondition(), is(new Variable("C")));
+                
+                if (run == 0) {
+                    assertThat(store.getMisses(), is(1L));
+                    assertThat(store.getHits(), is(0L));
+                } else {
+                    // only the unchanged file is looked up
+                    assertThat(store.getMisses(), is(0L));
+                    assertThat(store.getHits(), is(1L));
+                }
+            }
+            
+        } finally {
+            GitRepositoryTest.delete(sourceTree);
+            GitRepositoryTest.delete(cacheDir);
+        }
+    }
+    
+    /**
+     * Tests that an invalid base revision is reported as a setup problem.
+     * 
+     * @throws SetUpException wanted.
+     * @throws IOException unwanted.
+     */
+    @Test(expected = SetUpException.class)
+    public void testGitModeInvalidRevision() throws SetUpException, IOException {
+        File sourceTree = Files.createTempDirectory("git_source_tree").toFile();
+        
+        try {
+            GitRepositoryTest.createRepository(sourceTree);
+            
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, sourceTree);
+            config.registerSetting(CodeBlockExtractor.GIT_BASE_REVISION);
+            config.setValue(CodeBlockExtractor.GIT_BASE_REVISION, "unknown");
+            
+            new CodeBlockExtractor().init(config);
+            
+        } finally {
+            GitRepositoryTest.delete(sourceTree);
+        }
+    }
+    
+    /**
+     * Tests that the git mode fails if the target revision is not checked out.
+     * 
+     * @throws SetUpException wanted.
+     * @throws IOException unwanted.
+     */
+    @Test(expected = SetUpException.class)
+    public void testGitModeTargetNotCheckedOut() throws SetUpException, IOException {
+        File sourceTree = Files.createTempDirectory("git_source_tree").toFile();
+        
+        try {
+            GitRepositoryTest.createRepository(sourceTree);
+            
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, sourceTree);
+            config.registerSetting(CodeBlockExtractor.GIT_BASE_REVISION);
+            config.setValue(CodeBlockExtractor.GIT_BASE_REVISION, "HEAD~1");
+            config.registerSetting(CodeBlockExtractor.GIT_TARGET_REVISION);
+            config.setValue(CodeBlockExtractor.GIT_TARGET_REVISION, "v1");
+            
+            new CodeBlockExtractor().init(config);
+            
+        } finally {
+            GitRepositoryTest.delete(sourceTree);
+        }
+    }
+    
+    /**
+     * Tests that the phase timings are measured and published as an MBean, if enabled.
+     * 
+     * @throws ExtractorException unwanted.
+     * @throws SetUpException unwanted.
+     * @throws JMException unwanted.
+     */
+    @Test
+    public void testPhaseTimings() throws ExtractorException, SetUpException, JMException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        assertThat(extractor.getPhaseTimings(), nullValue());
+        
+        config.registerSetting(CodeBlockExtractor.MEASURE_PHASE_TIMINGS);
+        config.setValue(CodeBlockExtractor.MEASURE_PHASE_TIMINGS, true);
+        extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        extractor.runOnFile(new File("simpleIf.c"));
+        PhaseTimings timings = extractor.getPhaseTimings();
+        
+        assertThat(timings.getReadCount(), is(1L));
+        assertThat(timings.getParseCount(), is(1L));
+        assertThat(timings.getCacheCount(), is(0L));
+        assertThat(timings.getConditionParsingCount(), is(1L));
+        // block opened, block closed and end of file
+        assertThat(timings.getTreeConstructionCount(), is(3L));
+        
+        ObjectName name = new ObjectName(
+                "net.ssehub.kernel_haven.block_extractor:type=CodeBlockExtractor,name=PhaseTimings");
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ParseCount"), is(1L));
+    }
+    
+    /**
+     * Tests that {@link CodeBlockExtractor#runOnFiles(List, int, Consumer, Consumer)} unregisters the MBean of the
+     * phase timings at its end.
+     * 
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     * @throws JMException unwanted.
+     */
+    @Test
+    public void testPhaseTimingsRunOnFiles() throws SetUpException, InterruptedException, JMException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        config.registerSetting(CodeBlockExtractor.MEASURE_PHASE_TIMINGS);
+        config.setValue(CodeBlockExtractor.MEASURE_PHASE_TIMINGS, true);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        ObjectName name = new ObjectName(
+                "net.ssehub.kernel_haven.block_extractor:type=CodeBlockExtractor,name=PhaseTimings");
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(true));
+        
+        extractor.runOnFiles(Arrays.asList(new File("simpleIf.c"), new File("simpleIf.c")), 2, (result) -> { },
+                (error) -> { });
+        
+        assertThat(extractor.getPhaseTimings().getParseCount(), is(2L));
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+    
+    /**
+     * Tests extracting a list of files with {@link CodeBlockExtractor#runOnFiles(List, int, Consumer, Consumer)}.
+     * 
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testRunOnFiles() throws SetUpException, InterruptedException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        
+        List<SourceFile<CodeBlock>> results = Collections.synchronizedList(new ArrayList<>());
+        List<ExtractorException> errors = Collections.synchronizedList(new ArrayList<>());
+        FileScheduler.Statistics statistics = extractor.runOnFiles(
+                Arrays.asList(new File("simpleIf.c"), new File("invalid.c"), new File("doesnt_exist.c")), 2,
+                results::add, errors::add);
+        
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getPath(), is(new File("simpleIf.c")));
+        assertThat(errors.size(), is(2));
+        assertThat(statistics.getNumTasks(), is(1));
+    }
+    
+    /**
+     * Tests extracting a list of files with the read-ahead pipeline.
+     * 
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testRunOnFilesReadAhead() throws SetUpException, InterruptedException {
+        Configuration config = new TestConfiguration(new Properties());
+        config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+        
+        CodeBlockExtractor extractor = new CodeBlockExtractor();
+        extractor.init(config);
+        extractor.setReadAhead(4, 32, 1);
+        
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(new File("simpleIf.c"));
+        }
+        files.add(new File("invalid.c"));
+        files.add(new File("doesnt_exist.c"));
+        
+        List<SourceFile<CodeBlock>> results = Collections.synchronizedList(new ArrayList<>());
+        List<ExtractorException> errors = Collections.synchronizedList(new ArrayList<>());
+        extractor.runOnFiles(files, 3, results::add, errors::add);
+        
+        assertThat(results.size(), is(20));
+        assertThat(errors.size(), is(2));
+        for (SourceFile<CodeBlock> result : results) {
+            assertThat(result.getElement(0), is(
+                    new CodeBlock(2, 3, new File("simpleIf.c"), new Variable("A"), new Variable("A"))));
+        }
+    }
+    
+    /**
+     * Tests that {@link CodeBlockExtractor#runOnFiles(List, int, Consumer, Consumer)} writes the models into the
+     * off-heap store.
+     * 
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     * @throws ExtractorException unwanted.
+     */
+    @Test
+    public void testOffHeapModelStore() throws SetUpException, InterruptedException, IOException, FormatException,
+            ExtractorException {
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        
+        try {
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, TESTDATA);
+            config.setValue(DefaultSettings.CACHE_DIR, cacheDir);
+            config.registerSetting(CodeBlockExtractor.OFF_HEAP_MODEL_STORE);
+            config.setValue(CodeBlockExtractor.OFF_HEAP_MODEL_STORE, true);
+            config.registerSetting(CodeBlockExtractor.OFF_HEAP_MODEL_STORE_BUDGET);
+            config.setValue(CodeBlockExtractor.OFF_HEAP_MODEL_STORE_BUDGET, 0);
+            
+            CodeBlockExtractor extractor = new CodeBlockExtractor();
+            extractor.init(config);
+            
+            List<SourceFile<CodeBlock>> results = Collections.synchronizedList(new ArrayList<>());
+            List<ExtractorException> errors = Collections.synchronizedList(new ArrayList<>());
+            extractor.runOnFiles(Arrays.asList(new File("simpleIf.c"), new File("invalid.c")), 2,
+                    results::add, errors::add);
+            
+            CodeBlock expected = new CodeBlock(2, 3, new File("simpleIf.c"), new Variable("A"), new Variable("A"));
+            OffHeapModelStore store = extractor.getModelStore();
+            assertThat(store.getNumModels(), is(1));
+            assertThat(errors.size(), is(1));
+            assertThat(store.get(new File("simpleIf.c")).getElement(0), is(expected));
+            // the budget is 0, so the model was spilled; the file is deleted once all files are extracted
+            assertThat(store.getDirectSize(), is(0L));
+            assertThat(new File(cacheDir, "code_block_extractor_spill").list().length, is(0));
+            
+            // the receiver gets a handle to the stored model
+            assertThat(results.size(), is(1));
+            assertThat(results.get(0).getClass() == SourceFile.class, is(false));
+            assertThat(results.get(0).getElement(0), is(expected));
+            
+            // models extracted by the framework are stored, too
+            SourceFile<CodeBlock> result = extractor.runOnFile(new File("noConditionals.c"));
+            assertThat(store.getNumModels(), is(2));
+            assertThat(result.getTopElementCount(), is(store.get(new File("noConditionals.c")).getTopElementCount()));
+            assertThat(result.getClass() == SourceFile.class, is(false));
+            store.close();
+            
+        } finally {
+            File spillDir = new File(cacheDir, "code_block_extractor_spill");
+            spillDir.delete();
+            cacheDir.delete();
+        }
+    }
+    
+    /**
+     * Tests that the read-ahead parameters must be positive.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadAheadInvalidQueueDepth() {
+        new CodeBlockExtractor().setReadAhead(4, 0, 64);
+    }
+    
     /**
      * Silly test, but we need it for 100% coverage.
      */
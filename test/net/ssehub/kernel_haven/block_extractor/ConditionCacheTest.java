@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link ConditionCache}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class ConditionCacheTest {
+
+    /**
+     * Tests that hits and misses are counted correctly.
+     */
+    @Test
+    public void testHitsAndMisses() {
+        ConditionCache cache = new ConditionCache(10);
+        
+        assertThat(cache.get("a"), nullValue());
+        cache.put("a", new Variable("A"));
+        assertThat(cache.get("a"), is(new Variable("A")));
+        assertThat(cache.get("a"), is(new Variable("A")));
+        
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getEvictions(), is(0L));
+        assertThat(cache.getSize(), is(1));
+    }
+    
+    /**
+     * Tests that the least recently used entry is evicted when the cache is full.
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        ConditionCache cache = new ConditionCache(2, 1);
+        
+        cache.put("a", new Variable("A"));
+        cache.put("b", new Variable("B"));
+        cache.get("a"); // a is now more recently used than b
+        cache.put("c", new Variable("C"));
+        
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), is(new Variable("A")));
+        assertThat(cache.get("c"), is(new Variable("C")));
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getSize(), is(2));
+    }
+    
+    /**
+     * Tests that the size of the cache never exceeds its capacity, even with multiple segments.
+     */
+    @Test
+    public void testCapacity() {
+        ConditionCache cache = new ConditionCache(100);
+        
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, new Variable("V" + i));
+        }
+        
+        assertThat(cache.getCapacity(), is(100));
+        assertThat(cache.getSize() <= 100, is(true));
+        assertThat(cache.getEvictions(), is((long) 1000 - cache.getSize()));
+    }
+    
+    /**
+     * Tests that an invalid capacity throws an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new ConditionCache(0);
+    }
+    
+    /**
+     * Tests that keys ignore differences in whitespace, but consider the parser settings.
+     */
+    @Test
+    public void testKeys() {
+        String flags = ConditionCache.createFlags(false, false, InvalidConditionHandling.EXCEPTION);
+        
+        assertThat(ConditionCache.createKey(flags, " defined(A)  &&\tdefined(B) "),
+                is(ConditionCache.createKey(flags, "defined(A) && defined(B)")));
+        
+        assertThat(ConditionCache.createKey(flags, "defined(A)"), not(ConditionCache.createKey(
+                ConditionCache.createFlags(true, false, InvalidConditionHandling.EXCEPTION), "defined(A)")));
+        assertThat(ConditionCache.createKey(flags, "defined(A)"), not(ConditionCache.createKey(
+                ConditionCache.createFlags(false, true, InvalidConditionHandling.EXCEPTION), "defined(A)")));
+        assertThat(ConditionCache.createKey(flags, "defined(A)"), not(ConditionCache.createKey(
+                ConditionCache.createFlags(false, false, InvalidConditionHandling.TRUE), "defined(A)")));
+    }
+    
+    /**
+     * Tests that two {@link BlockParser}s sharing a cache reuse the parsed conditions.
+     * 
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSharedBetweenParsers() throws IOException, FormatException {
+        String code = "#if defined(A)\n"
+                + "#endif\n"
+                + "#if  defined(A)\n"
+                + "#endif\n";
+        
+        ConditionCache cache = new ConditionCache(10);
+        
+        BlockParser parser1 = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test1.c"));
+        parser1.setConditionCache(cache);
+        List<CodeBlock> result1 = parser1.readBlocks();
+        parser1.close();
+        
+        BlockParser parser2 = new BlockParser(
+                new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test2.c"));
+        parser2.setConditionCache(cache);
+        List<CodeBlock> result2 = parser2.readBlocks();
+        parser2.close();
+        
+        assertThat(result1.get(0).getCondition(), is(new Variable("A")));
+        assertThat(result2.get(1).getCondition(), sameInstance(result1.get(0).getCondition()));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(3L));
+    }
+    
+    /**
+     * Tests that unparseable conditions are not cached and throw an exception every time.
+     * 
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testExceptionNotCached() throws IOException {
+        String code = "#if defined(A) ||\n"
+                + "#endif\n";
+        
+        ConditionCache cache = new ConditionCache(10);
+        
+        for (int i = 0; i < 2; i++) {
+            BlockParser parser = new BlockParser(
+                    new InputStreamReader(new ByteArrayInputStream(code.getBytes())), new File("test.c"));
+            parser.setConditionCache(cache);
+            try {
+                parser.readBlocks();
+                fail("Expected FormatException");
+            } catch (FormatException e) {
+                // expected
+            }
+            parser.close();
+        }
+        
+        assertThat(cache.getSize(), is(0));
+        assertThat(cache.getMisses(), is(2L));
+    }
+    
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.True;
+
+/**
+ * Tests the {@link ConditionalDirectiveFilter}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class ConditionalDirectiveFilterTest {
+
+    /**
+     * Tests the detection of conditional directives.
+     */
+    @Test
+    public void testMayContainConditionals() {
+        assertThat(mayContainConditionals("int a;\n"), is(false));
+        assertThat(mayContainConditionals("#include <stdio.h>\n#define A(x) #x\n#error no\n"), is(false));
+        assertThat(mayContainConditionals("a ## b\n#"), is(false));
+
+        assertThat(mayContainConditionals("#if A\n#endif\n"), is(true));
+        assertThat(mayContainConditionals("  #  \tifdef A\n"), is(true));
+        assertThat(mayContainConditionals("#else"), is(true));
+        assertThat(mayContainConditionals("#endif"), is(true));
+        // might be hidden by comments or line continuations
+        assertThat(mayContainConditionals("# /* comment */ if A\n"), is(true));
+        assertThat(mayContainConditionals("#i\\\nf A\n"), is(true));
+        assertThat(mayContainConditionals("#\\\nifdef A\n"), is(true));
+        // found in strings or comments, too
+        assertThat(mayContainConditionals("// #ifdef A\n"), is(true));
+    }
+
+    /**
+     * Tests the end line of the pseudo block for some special cases.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testPseudoBlockEnd() throws IOException, FormatException {
+        assertSameAsParser("int a;\nint b;\n", 3);
+        assertSameAsParser("int a;\nint b;", 3);
+        assertSameAsParser("int a;\r\nint b;\r\n", 3);
+        assertSameAsParser("int a;\rint b;\r", 3);
+        assertSameAsParser("int a;\n\n\n", 4);
+        assertSameAsParser("/* header */\n// comment\nint a; /* trailing */\n", 4);
+        assertSameAsParser("#include <stdio.h>\n", 2);
+
+        // only comments and whitespace: no pseudo block
+        assertSameAsParser("", 0);
+        assertSameAsParser(" \n\t\n", 0);
+        assertSameAsParser("/* a\n * b\n */\n// c\n", 0);
+        assertSameAsParser("/* unterminated\n", 0);
+
+        // cases that are left to the parser
+        assertSameAsParser("\\\nint a;\n", ConditionalDirectiveFilter.UNKNOWN);
+        assertSameAsParser("int a;\n#define A \\\n    1\n", ConditionalDirectiveFilter.UNKNOWN);
+        assertSameAsParser("int a;\n#define A /* multi\n line */\n", ConditionalDirectiveFilter.UNKNOWN);
+        assertSameAsParser("int a;\n#define A /* unterminated\nb\n", ConditionalDirectiveFilter.UNKNOWN);
+    }
+
+    /**
+     * Compares the filter with the {@link BlockParser} on random inputs that consist of the characters that are
+     * relevant for line numbers and comments.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testRandomInputs() throws IOException, FormatException {
+        String[] tokens = {"a", " ", "\n", "\r", "\r\n", "\\", "/", "*", "/*", "*/", "//", "#", "#define X", "\""};
+        Random random = new Random(42);
+        int numFastPath = 0;
+
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                input.append(tokens[random.nextInt(tokens.length)]);
+            }
+            // inputs with possible conditionals are always parsed
+            if (!mayContainConditionals(input.toString()) && assertSameAsParser(input.toString(), null)) {
+                numFastPath++;
+            }
+        }
+
+        // make sure that the fast path is actually tested
+        assertTrue(String.valueOf(numFastPath), numFastPath > 2000);
+    }
+
+    /**
+     * Checks whether the given input may contain conditional directives.
+     *
+     * @param input The input.
+     *
+     * @return The result of {@link ConditionalDirectiveFilter#mayContainConditionals(ByteBuffer)}.
+     */
+    private static boolean mayContainConditionals(String input) {
+        return ConditionalDirectiveFilter.mayContainConditionals(wrap(input));
+    }
+
+    /**
+     * Asserts that the filter finds the same pseudo block as the {@link BlockParser}, if it finds one.
+     *
+     * @param input The input without conditional directives.
+     * @param expectedEnd The expected result of {@link ConditionalDirectiveFilter#findPseudoBlockEnd(ByteBuffer)},
+     *      or <code>null</code> to only compare with the parser.
+     *
+     * @return Whether the filter found the result without the parser.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static boolean assertSameAsParser(String input, Integer expectedEnd) throws IOException, FormatException {
+        ByteBuffer buffer = wrap(input);
+        assertThat(input, ConditionalDirectiveFilter.mayContainConditionals(buffer), is(false));
+
+        int end = ConditionalDirectiveFilter.findPseudoBlockEnd(buffer);
+        if (expectedEnd != null) {
+            assertThat(input, end, is(expectedEnd));
+        }
+        assertThat(buffer.position(), is(1));
+
+        if (end != ConditionalDirectiveFilter.UNKNOWN) {
+            File file = new File("test.c");
+            List<CodeBlock> blocks;
+            try (BlockParser parser = new BlockParser(buffer, StandardCharsets.UTF_8, file, false, false,
+                    InvalidConditionHandling.EXCEPTION)) {
+                blocks = parser.readBlocks();
+            }
+            if (end == 0) {
+                assertThat(input, blocks.size(), is(0));
+            } else {
+                assertThat(input, blocks.size(), is(1));
+                assertThat(input, blocks.get(0), is(new CodeBlock(1, end, file, True.INSTANCE, True.INSTANCE)));
+            }
+        }
+        return end != ConditionalDirectiveFilter.UNKNOWN;
+    }
+
+    /**
+     * Wraps the given input in a buffer that doesn't start at index 0, to test that the position is respected.
+     *
+     * @param input The input.
+     *
+     * @return A buffer with the input between its position and limit.
+     */
+    private static ByteBuffer wrap(String input) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2);
+        buffer.put((byte) '#').put(bytes).put((byte) '#');
+        buffer.position(1);
+        buffer.limit(bytes.length + 1);
+        return buffer;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link Distribution}.
+ *
+ * @author Adam
+ */
+public class DistributionTest {
+
+    /**
+     * Tests an empty distribution.
+     */
+    @Test
+    public void testEmpty() {
+        Distribution distribution = new Distribution();
+
+        assertThat(distribution.getCount(), is(0L));
+        assertThat(distribution.getMin(), is(0L));
+        assertThat(distribution.getMax(), is(0L));
+        assertThat(distribution.getMean(), is(0.0));
+        assertThat(distribution.getPercentile(50), is(0L));
+    }
+
+    /**
+     * Tests the summary values and the percentile estimates.
+     */
+    @Test
+    public void testValues() {
+        Distribution distribution = new Distribution();
+        for (int i = 1; i <= 100; i++) {
+            distribution.add(i);
+        }
+
+        assertThat(distribution.getCount(), is(100L));
+        assertThat(distribution.getSum(), is(5050L));
+        assertThat(distribution.getMin(), is(1L));
+        assertThat(distribution.getMax(), is(100L));
+        assertThat(distribution.getMean(), is(50.5));
+
+        // 50 is in the bucket 32..63, 90 and 99 are in the bucket 64..127, which is capped by the maximum
+        assertThat(distribution.getPercentile(50), is(63L));
+        assertThat(distribution.getPercentile(90), is(100L));
+        assertThat(distribution.getPercentile(0), is(1L));
+        assertThat(distribution.getPercentile(100), is(100L));
+    }
+
+    /**
+     * Tests that zeros are counted in their own bucket.
+     */
+    @Test
+    public void testZeros() {
+        Distribution distribution = new Distribution();
+        for (int i = 0; i < 9; i++) {
+            distribution.add(0);
+        }
+        distribution.add(1000);
+
+        assertThat(distribution.getPercentile(50), is(0L));
+        assertThat(distribution.getPercentile(90), is(0L));
+        assertThat(distribution.getPercentile(99), is(1000L));
+    }
+
+    /**
+     * Tests that merging gives the same result as adding all values to one distribution.
+     */
+    @Test
+    public void testMerge() {
+        Distribution all = new Distribution();
+        Distribution first = new Distribution();
+        Distribution second = new Distribution();
+        for (int i = 0; i < 1000; i++) {
+            all.add(i * 7 % 113);
+            (i % 3 == 0 ? first : second).add(i * 7 % 113);
+        }
+
+        first.merge(second);
+        first.merge(new Distribution());
+
+        assertThat(first.toString(), is(all.toString()));
+        assertThat(first.getSum(), is(all.getSum()));
+    }
+
+    /**
+     * Tests that negative values are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new Distribution().add(-1);
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link ExtractionCache}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class ExtractionCacheTest {
+
+    private File directory;
+
+    /**
+     * Creates an empty temporary cache directory.
+     *
+     * @throws IOException unwanted.
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("extraction_cache").toFile();
+    }
+
+    /**
+     * Deletes the temporary cache directory.
+     */
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Creates a buffer for the given content.
+     *
+     * @param content The content.
+     *
+     * @return A buffer with the UTF-8 bytes of the content.
+     */
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a result with nested blocks and all supported formula types.
+     *
+     * @param path The path of the source file.
+     *
+     * @return The result.
+     */
+    private static SourceFile<CodeBlock> createResult(File path) {
+        Formula a = new Variable("A");
+        Formula notA = new Negation(a);
+        Formula b = new Disjunction(new Variable("B"), False.INSTANCE);
+
+        CodeBlock pseudo = new CodeBlock(1, 20, path, True.INSTANCE, True.INSTANCE);
+        CodeBlock outer = new CodeBlock(2, 10, path, a, a);
+        outer.addNestedElement(new CodeBlock(3, 4, path, b, new Conjunction(a, b)));
+        pseudo.addNestedElement(outer);
+        pseudo.addNestedElement(new CodeBlock(11, 12, path, notA, notA));
+        pseudo.addNestedElement(new CodeBlock(13, 14, path, null, True.INSTANCE));
+
+        SourceFile<CodeBlock> result = new SourceFile<>(path);
+        result.addElement(pseudo);
+        return result;
+    }
+
+    /**
+     * Tests that a stored result is loaded again, with the requested path.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        ExtractionCache cache = new ExtractionCache(directory, 1024 * 1024, "settings");
+        String key = cache.createKey(buffer("content"));
+
+        assertThat(cache.get(key, new File("a.c"), 7), nullValue());
+
+        cache.put(key, createResult(new File("a.c")));
+
+        SourceFile<CodeBlock> result = cache.get(key, new File("b.c"), 7);
+        assertThat(result.getPath(), is(new File("b.c")));
+        assertThat(result.getTopElementCount(), is(1));
+        assertThat(result.getElement(0), is(createResult(new File("b.c")).getElement(0)));
+
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getBytesSaved(), is(7L));
+    }
+
+    /**
+     * Tests that the entries persist, i.e. a new cache on the same directory finds them.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testPersistent() throws IOException {
+        ExtractionCache cache = new ExtractionCache(directory, 1024 * 1024, "settings");
+        String key = cache.createKey(buffer("content"));
+        cache.put(key, createResult(new File("a.c")));
+
+        ExtractionCache newCache = new ExtractionCache(directory, 1024 * 1024, "settings");
+        assertThat(newCache.getSize(), is(cache.getSize()));
+        assertThat(newCache.get(key, new File("a.c"), 7), is(not(nullValue())));
+    }
+
+    /**
+     * Tests that shared sub-formulas are still shared after loading.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSharedFormulas() throws IOException {
+        ExtractionCache cache = new ExtractionCache(directory, 1024 * 1024, "settings");
+        String key = cache.createKey(buffer("content"));
+        cache.put(key, createResult(new File("a.c")));
+
+        CodeBlock pseudo = cache.get(key, new File("a.c"), 7).getElement(0);
+        CodeBlock outer = pseudo.getNestedElement(0);
+        CodeBlock inner = outer.getNestedElement(0);
+
+        assertThat(((Conjunction) inner.getPresenceCondition()).getLeft(), sameInstance(outer.getCondition()));
+        assertThat(((Conjunction) inner.getPresenceCondition()).getRight(), sameInstance(inner.getCondition()));
+    }
+
+    /**
+     * Tests that the keys depend on the content and the settings.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testKeys() throws IOException {
+        ExtractionCache cache1 = new ExtractionCache(directory, 1024 * 1024, "settings1");
+        ExtractionCache cache2 = new ExtractionCache(directory, 1024 * 1024, "settings2");
+
+        assertThat(cache1.createKey(buffer("content")), is(cache1.createKey(buffer("content"))));
+        assertThat(cache1.createKey(buffer("content")), not(cache1.createKey(buffer("other content"))));
+        assertThat(cache1.createKey(buffer("content")), not(cache2.createKey(buffer("content"))));
+
+        ByteBuffer content = buffer("some content");
+        content.position(5);
+        assertThat(cache1.createKey(content), is(cache1.createKey(buffer("content"))));
+        assertThat(content.position(), is(5));
+    }
+
+    /**
+     * Tests that the least recently used entries are deleted if the maximum size is exceeded.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testEviction() throws IOException {
+        ExtractionCache unbounded = new ExtractionCache(directory, 1024 * 1024, "settings");
+        unbounded.put("size", createResult(new File("a.c")));
+        long entrySize = unbounded.getSize();
+        new File(directory, "size.cbc").delete();
+
+        ExtractionCache cache = new ExtractionCache(directory, entrySize * 3, "settings");
+        for (int i = 0; i < 3; i++) {
+            cache.put("key" + i, createResult(new File("a.c")));
+            new File(directory, "key" + i + ".cbc").setLastModified(1000000000L + i * 1000000L);
+        }
+        assertThat(cache.getEvictions(), is(0L));
+
+        // use key0, so that key1 and key2 are the least recently used ones
+        assertThat(cache.get("key0", new File("a.c"), 0), is(not(nullValue())));
+
+        // exceeds the maximum size; evicts until the size is below 90% of the maximum
+        cache.put("key3", createResult(new File("a.c")));
+
+        assertThat(cache.getEvictions(), is(2L));
+        assertThat(cache.getSize(), is(entrySize * 2));
+        assertThat(cache.get("key1", new File("a.c"), 0), nullValue());
+        assertThat(cache.get("key2", new File("a.c"), 0), nullValue());
+        assertThat(cache.get("key0", new File("a.c"), 0), is(not(nullValue())));
+        assertThat(cache.get("key3", new File("a.c"), 0), is(not(nullValue())));
+    }
+
+    /**
+     * Tests that corrupted entries are treated as misses and deleted.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testCorruptedEntry() throws IOException {
+        ExtractionCache cache = new ExtractionCache(directory, 1024 * 1024, "settings");
+        cache.put("key", createResult(new File("a.c")));
+
+        File entry = new File(directory, "key.cbc");
+        byte[] data = Files.readAllBytes(entry.toPath());
+        Files.write(entry.toPath(), Arrays.copyOf(data, data.length / 2));
+
+        assertThat(cache.get("key", new File("a.c"), 0), nullValue());
+        assertThat(entry.exists(), is(false));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+}
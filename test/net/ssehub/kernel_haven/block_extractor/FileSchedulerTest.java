@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.block_extractor.FileScheduler.Mode;
+import net.ssehub.kernel_haven.block_extractor.FileScheduler.Statistics;
+
+/**
+ * Tests the {@link FileScheduler}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class FileSchedulerTest {
+
+    private File directory;
+
+    private List<File> files;
+
+    /**
+     * Creates files with the sizes 100, 2000, 10, 10, 10, 500 and 10.
+     *
+     * @throws IOException unwanted.
+     */
+    @Before
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("scheduler").toFile();
+        files = new ArrayList<>();
+        int[] sizes = {100, 2000, 10, 10, 10, 500, 10};
+        for (int i = 0; i < sizes.length; i++) {
+            File file = new File("file" + i + ".c");
+            Files.write(new File(directory, file.getPath()).toPath(), new byte[sizes[i]]);
+            files.add(file);
+        }
+    }
+
+    /**
+     * Deletes the created files.
+     */
+    @After
+    public void deleteFiles() {
+        GitRepositoryTest.delete(directory);
+    }
+
+    /**
+     * Tests that the {@link Mode#IN_ORDER} mode processes each file in its own task, in the given order.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testInOrder() throws InterruptedException {
+        List<File> processed = Collections.synchronizedList(new ArrayList<>());
+        Statistics statistics = new FileScheduler(directory, 1, Mode.IN_ORDER, 100).run(files, processed::add);
+
+        assertThat(processed, is(files));
+        assertThat(statistics.getNumTasks(), is(files.size()));
+    }
+
+    /**
+     * Tests that the {@link Mode#LARGEST_FIRST} mode starts with the largest files and batches the small ones.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testLargestFirst() throws InterruptedException {
+        List<File> processed = Collections.synchronizedList(new ArrayList<>());
+        Statistics statistics = new FileScheduler(directory, 1, Mode.LARGEST_FIRST, 100).run(files, processed::add);
+
+        // 2000, 500, 100 on their own; the four files with 10 bytes don't reach the batch size together
+        assertThat(processed.subList(0, 3), is(Arrays.asList(files.get(1), files.get(5), files.get(0))));
+        assertThat(new HashSet<>(processed), is(new HashSet<>(files)));
+        assertThat(processed.size(), is(files.size()));
+        assertThat(statistics.getNumTasks(), is(4));
+    }
+
+    /**
+     * Tests that all files are processed exactly once with multiple threads, and that the tail idle time is counted
+     * for every thread.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testMultipleThreads() throws InterruptedException {
+        for (Mode mode : Mode.values()) {
+            List<File> processed = Collections.synchronizedList(new ArrayList<>());
+            Statistics statistics = new FileScheduler(directory, 4, mode, 20).run(files, processed::add);
+
+            assertThat(processed.size(), is(files.size()));
+            assertThat(new HashSet<>(processed), is(new HashSet<>(files)));
+            assertTrue(statistics.getTailIdleNanos() >= 0);
+            assertTrue(statistics.getTailIdleNanos() <= 4 * statistics.getWallNanos());
+        }
+    }
+
+    /**
+     * Tests that at least one thread is required.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() {
+        new FileScheduler(directory, 0, Mode.IN_ORDER, 100);
+    }
+
+}
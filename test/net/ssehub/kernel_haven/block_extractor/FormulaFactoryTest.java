@@ -0,0 +1,254 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Disjunction;
+import net.ssehub.kernel_haven.util.logic.False;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link FormulaFactory}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class FormulaFactoryTest {
+
+    /**
+     * Tests that structurally equal formulas are the same instance.
+     */
+    @Test
+    public void testSharing() {
+        FormulaFactory factory = new FormulaFactory();
+
+        Variable a = factory.variable("A");
+        assertSame(a, factory.variable("A"));
+        assertNotSame(a, factory.variable("B"));
+
+        Formula aAndB = factory.and(a, factory.variable("B"));
+        assertSame(aAndB, factory.and(factory.variable("A"), factory.variable("B")));
+        assertNotSame(aAndB, factory.and(factory.variable("B"), a));
+        assertNotSame(aAndB, factory.or(a, factory.variable("B")));
+        assertThat(aAndB, is(new Conjunction(new Variable("A"), new Variable("B"))));
+
+        Formula notA = factory.not(a);
+        assertSame(notA, factory.not(factory.variable("A")));
+        assertThat(notA, is(new Negation(new Variable("A"))));
+
+        assertThat(factory.getNumVariables(), is(2));
+        assertThat(factory.getNumOperators(), is(4));
+    }
+
+    /**
+     * Tests interning formulas that were not created by the factory.
+     */
+    @Test
+    public void testIntern() {
+        FormulaFactory factory = new FormulaFactory();
+
+        Formula formula = new Disjunction(new Conjunction(new Variable("A"), new Negation(new Variable("B"))),
+                new Variable("A"));
+        Formula interned = factory.intern(formula);
+        assertThat(interned, is(formula));
+        assertNotSame(formula, interned);
+
+        // interning an interned formula returns it unchanged, and the sub-formulas are shared
+        assertSame(interned, factory.intern(interned));
+        assertSame(interned, factory.intern(new Disjunction(new Conjunction(new Variable("A"),
+                new Negation(new Variable("B"))), new Variable("A"))));
+        Disjunction disjunction = (Disjunction) interned;
+        assertSame(factory.variable("A"), disjunction.getRight());
+        assertSame(factory.variable("A"), ((Conjunction) disjunction.getLeft()).getLeft());
+
+        // not interned operands are interned by the operators
+        assertSame(disjunction.getLeft(), factory.and(new Variable("A"), new Negation(new Variable("B"))));
+
+        assertSame(True.INSTANCE, factory.intern(True.INSTANCE));
+        assertSame(False.INSTANCE, factory.intern(False.INSTANCE));
+    }
+
+    /**
+     * Tests that the formulas of a parser share their sub-formulas, also across files.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testParser() throws IOException, FormatException {
+        FormulaFactory factory = new FormulaFactory();
+        String code = "#ifdef A\n"
+                + "  #ifdef B\n"
+                + "  #elif defined(C)\n"
+                + "  #else\n"
+                + "  #endif\n"
+                + "#endif\n";
+
+        List<CodeBlock> first = parse(code, factory);
+        List<CodeBlock> second = parse(code, factory);
+
+        CodeBlock outer = first.get(0);
+        assertSame(factory.variable("A"), outer.getCondition());
+        assertSame(second.get(0).getCondition(), outer.getCondition());
+
+        CodeBlock elif = outer.getNestedElement(1);
+        CodeBlock otherElif = second.get(0).getNestedElement(1);
+        assertThat(elif.getPresenceCondition(), is(new Conjunction(new Variable("A"),
+                new Conjunction(new Negation(new Variable("B")), new Variable("C")))));
+        assertSame(otherElif.getCondition(), elif.getCondition());
+        assertSame(otherElif.getPresenceCondition(), elif.getPresenceCondition());
+
+        // the #else shares the negation of B with the #elif
+        CodeBlock elseBlock = outer.getNestedElement(2);
+        Conjunction elseCondition = (Conjunction) elseBlock.getCondition();
+        assertSame(((Conjunction) elif.getCondition()).getLeft(), elseCondition.getLeft());
+    }
+
+    /**
+     * Tests that parsers in multiple threads share the same formulas.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        FormulaFactory factory = new FormulaFactory();
+        String code = "#if defined(A) && (defined(B) || !defined(C))\n"
+                + "  #ifdef D\n"
+                + "  #endif\n"
+                + "#endif\n";
+
+        List<List<CodeBlock>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        List<CodeBlock> result = parse(code, factory);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (IOException | FormatException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(results.size(), is(400));
+        Formula pc = results.get(0).get(0).getNestedElement(0).getPresenceCondition();
+        for (List<CodeBlock> result : results) {
+            assertSame(pc, result.get(0).getNestedElement(0).getPresenceCondition());
+        }
+        assertThat(factory.getNumVariables(), is(4));
+    }
+
+    /**
+     * Tests that the formulas of a discarded model can be garbage collected, while the formulas of a model that is
+     * still used stay shared.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testGarbageCollected() throws IOException, FormatException, InterruptedException {
+        FormulaFactory factory = new FormulaFactory();
+        List<CodeBlock> kept = parse("#ifdef KEPT\n#endif\n", factory);
+
+        List<CodeBlock> discarded = parse("#if defined(A) && (defined(B) || !defined(C))\n"
+                + "  #ifdef D\n"
+                + "  #endif\n"
+                + "#endif\n", factory);
+        WeakReference<Formula> pc = new WeakReference<>(discarded.get(0).getNestedElement(0).getPresenceCondition());
+        WeakReference<Formula> variable = new WeakReference<>(factory.variable("C"));
+        assertThat(factory.getNumVariables(), is(5));
+        discarded = null;
+
+        // the nodes are released from the root to the leaves, one level per garbage collection
+        for (int i = 0; i < 100 && factory.getNumOperators() + factory.getNumVariables() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertThat(pc.get(), nullValue());
+        assertThat(variable.get(), nullValue());
+        assertThat(factory.getNumOperators(), is(0));
+        assertThat(factory.getNumVariables(), is(1));
+        assertSame(kept.get(0).getCondition(), factory.variable("KEPT"));
+    }
+
+    /**
+     * Tests that {@link FormulaFactory#clear()} removes all formulas.
+     */
+    @Test
+    public void testClear() {
+        FormulaFactory factory = new FormulaFactory();
+        Formula aAndB = factory.and(factory.variable("A"), factory.variable("B"));
+
+        factory.clear();
+        assertThat(factory.getNumVariables(), is(0));
+        assertThat(factory.getNumOperators(), is(0));
+
+        Formula other = factory.and(factory.variable("A"), factory.variable("B"));
+        assertThat(other, is(aAndB));
+        assertNotSame(aAndB, other);
+    }
+
+    /**
+     * Parses the given code with the given factory.
+     *
+     * @param code The code to parse.
+     * @param factory The factory to create the formulas with.
+     *
+     * @return The top-level blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static List<CodeBlock> parse(String code, FormulaFactory factory) throws IOException, FormatException {
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"))) {
+            parser.setFormulaFactory(factory);
+            return parser.readBlocks();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link FormulaTable}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class FormulaTableTest {
+
+    /**
+     * Tests that equal formulas get the same id, and that the first added instance is stored.
+     */
+    @Test
+    public void testAdd() {
+        FormulaTable table = new FormulaTable();
+        Formula a = new Variable("A");
+
+        assertThat(table.add(a), is(0));
+        assertThat(table.add(new Variable("B")), is(1));
+        assertThat(table.add(new Variable("A")), is(0));
+        assertThat(table.add(new Conjunction(a, a)), is(2));
+        assertThat(table.add(new Conjunction(new Variable("A"), new Variable("A"))), is(2));
+
+        assertThat(table.size(), is(3));
+        assertThat(table.get(0), sameInstance(a));
+        assertThat(table.get(2), is(new Conjunction(a, a)));
+    }
+
+    /**
+     * Tests that the table grows beyond its initial capacity.
+     */
+    @Test
+    public void testGrow() {
+        FormulaTable table = new FormulaTable();
+        for (int i = 0; i < 1000; i++) {
+            assertThat(table.add(new Variable("V" + i)), is(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(table.get(i), is(new Variable("V" + i)));
+        }
+    }
+
+    /**
+     * Tests that invalid ids throw an exception.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidId() {
+        FormulaTable table = new FormulaTable();
+        table.add(new Variable("A"));
+        table.get(1);
+    }
+
+}
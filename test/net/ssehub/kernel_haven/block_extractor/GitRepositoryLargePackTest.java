@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Tests reading a {@link GitRepository} with a pack file larger than 2 GiB. Slow and dependent on sparse files, so
+ * this is not part of {@link AllTests}; {@link GitRepositoryTest} covers the same code paths with small pack windows.
+ * Run it manually after changing how pack files are read.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class GitRepositoryLargePackTest {
+
+    /**
+     * Tests reading objects at offsets above 2 GiB in a (sparse) pack file, with the default pack windows. The second
+     * commit is an offset delta against the first commit, with a distance above 2 GiB.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testLargePackFile() throws IOException {
+        File directory = Files.createTempDirectory("git_repository_large").toFile();
+        try {
+            String[] ids = GitRepositoryTest.createGapRepository(directory, (1L << 31) + 100, false);
+            GitRepositoryTest.assertGapRepository(new GitRepository(directory), ids);
+        } finally {
+            GitRepositoryTest.delete(directory);
+        }
+    }
+
+}
@@ -0,0 +1,747 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link GitRepository}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class GitRepositoryTest {
+
+    static final String FILE_A_V1 = "#ifdef A\nint a;\n#endif\n";
+
+    static final String FILE_A_V2 = FILE_A_V1 + "#ifdef B\nint b;\n#endif\n";
+
+    static final String FILE_B = "#ifdef C\nint c;\n#endif\n";
+
+    static final String FILE_NEW = FILE_B + "int d;\n";
+
+    private static final Pattern ALL_FILES = Pattern.compile(".*");
+
+    private File directory;
+
+    private TestRepository repo;
+
+    /**
+     * The ids of the objects in a test repository created by {@link GitRepositoryTest#createRepository(File)}.
+     */
+    static final class TestRepository {
+
+        String blobA1;
+
+        String blobA2;
+
+        String blobB;
+
+        String blobNew;
+
+        String commit1;
+
+        String commit2;
+
+    }
+
+    /**
+     * Creates the test repository in a temporary directory.
+     *
+     * @throws IOException unwanted.
+     */
+    @Before
+    public void createRepository() throws IOException {
+        directory = Files.createTempDirectory("git_repository").toFile();
+        repo = createRepository(directory);
+    }
+
+    /**
+     * Deletes the temporary directory.
+     */
+    @After
+    public void deleteRepository() {
+        delete(directory);
+    }
+
+    /**
+     * Deletes the given file or directory recursively.
+     *
+     * @param file The file to delete.
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Tests resolving the different forms of revisions.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testResolve() throws IOException {
+        GitRepository git = new GitRepository(directory);
+
+        assertThat(git.resolveCommit("HEAD"), is(repo.commit2));
+        assertThat(git.resolveCommit("master"), is(repo.commit2));
+        assertThat(git.resolveCommit("refs/heads/master"), is(repo.commit2));
+        assertThat(git.resolveCommit(repo.commit2), is(repo.commit2));
+        assertThat(git.resolveCommit("HEAD^0"), is(repo.commit2));
+
+        assertThat(git.resolveCommit("HEAD~1"), is(repo.commit1));
+        assertThat(git.resolveCommit("HEAD~"), is(repo.commit1));
+        assertThat(git.resolveCommit("master^"), is(repo.commit1));
+        assertThat(git.resolveCommit("HEAD^1"), is(repo.commit1));
+
+        // packed ref and annotated tag
+        assertThat(git.resolveCommit("v1"), is(repo.commit1));
+        assertThat(git.resolveCommit("annotated"), is(repo.commit1));
+
+        // abbreviated ids of a loose object and an object in the pack
+        assertThat(git.resolveCommit(repo.commit1.substring(0, 8)), is(repo.commit1));
+        assertThat(git.resolveCommit(repo.commit2.substring(0, 8)), is(repo.commit2));
+    }
+
+    /**
+     * Tests that invalid revisions throw an exception.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testInvalidRevisions() throws IOException {
+        GitRepository git = new GitRepository(directory);
+
+        String[] invalid = {"unknown", "HEAD~2", "HEAD^2", repo.blobA1};
+        for (String revision : invalid) {
+            try {
+                git.resolveCommit(revision);
+                fail("Expected exception for " + revision);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests that a directory that is no git repository throws an exception.
+     */
+    @Test(expected = IOException.class)
+    public void testNoRepository() throws IOException {
+        new GitRepository(new File(directory, "dir"));
+    }
+
+    /**
+     * Tests reading the files of commits; the first commit consists of loose objects, the second one of objects in
+     * a pack file (with deltas). Only the files matching the filter are listed.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testReadFiles() throws IOException {
+        GitRepository git = new GitRepository(directory);
+
+        Map<String, String> expected1 = new HashMap<>();
+        expected1.put("a.c", repo.blobA1);
+        expected1.put("dir/b.c", repo.blobB);
+        assertThat(git.readFiles(repo.commit1, ALL_FILES), is(expected1));
+
+        Map<String, String> expected2 = new HashMap<>();
+        expected2.put("a.c", repo.blobA2);
+        expected2.put("dir/b.c", repo.blobB);
+        expected2.put("new.c", repo.blobNew);
+        assertThat(git.readFiles(repo.commit2, ALL_FILES), is(expected2));
+
+        Map<String, String> expected3 = new HashMap<>();
+        expected3.put("dir/b.c", repo.blobB);
+        assertThat(git.readFiles(repo.commit2, Pattern.compile("dir/.*")), is(expected3));
+    }
+
+    /**
+     * Tests applying a delta with a large copy and an insert.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testApplyDelta() throws IOException {
+        byte[] base = new byte[0x10000 + 10];
+        for (int i = 0; i < base.length; i++) {
+            base[i] = (byte) i;
+        }
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        writeDeltaSize(delta, base.length);
+        writeDeltaSize(delta, 0x10000 + 2);
+        delta.write(0x80 | 0x01); // copy: offset byte 0 follows, size 0 means 0x10000
+        delta.write(5);
+        delta.write(2); // insert 2 bytes
+        delta.write('x');
+        delta.write('y');
+
+        byte[] result = GitRepository.applyDelta(base, delta.toByteArray());
+        assertThat(result.length, is(0x10000 + 2));
+        assertThat(result[0], is((byte) 5));
+        assertThat(result[0xFFFF], is((byte) (0xFFFF + 5)));
+        assertThat(result[0x10000], is((byte) 'x'));
+        assertThat(result[0x10001], is((byte) 'y'));
+    }
+
+    /**
+     * Tests reading the test repository with pack windows that are much smaller than the objects, so that reading an
+     * object crosses window boundaries.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testSmallPackWindows() throws IOException {
+        GitRepository git = new GitRepository(directory, 7);
+        assertThat(git.resolveCommit("HEAD"), is(repo.commit2));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a.c", repo.blobA2);
+        expected.put("dir/b.c", repo.blobB);
+        expected.put("new.c", repo.blobNew);
+        assertThat(git.readFiles(repo.commit2, ALL_FILES), is(expected));
+    }
+
+    /**
+     * Tests reading objects through the table of 8 byte offsets of the pack index, with small pack windows. The
+     * second commit is an offset delta against the first commit, across a gap that spans many windows.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testLargeOffsetTable() throws IOException {
+        File gapDirectory = Files.createTempDirectory("git_repository_gap").toFile();
+        try {
+            String[] ids = createGapRepository(gapDirectory, 1000, true);
+            assertGapRepository(new GitRepository(gapDirectory, 16), ids);
+        } finally {
+            delete(gapDirectory);
+        }
+    }
+
+    /**
+     * Creates a repository whose only pack contains two commits with a gap of zeros between them. The gap is written
+     * as a hole in a sparse file. The second commit is an offset delta against the first commit, across the gap.
+     * <code>HEAD</code> points to the second commit. Check it with
+     * {@link #assertGapRepository(GitRepository, String[])}.
+     *
+     * @param directory The directory of the worktree.
+     * @param gapLength The length of the gap.
+     * @param largeOffsetTable Whether to store all offsets in the table of 8 byte offsets of the pack index, instead
+     *      of only the offsets above 2 GiB.
+     *
+     * @return The ids of the blob, the first commit and the second commit.
+     *
+     * @throws IOException unwanted.
+     */
+    static String[] createGapRepository(File directory, long gapLength, boolean largeOffsetTable)
+            throws IOException {
+
+        File gitDir = new File(directory, ".git");
+        new File(gitDir, "objects/pack").mkdirs();
+
+        String blob = id("blob", bytes(FILE_B));
+        byte[] tree = tree("100644", "b.c", blob);
+        String treeId = id("tree", tree);
+        String commit1Text = "tree " + treeId + "\n"
+                + "author A <a@example.com> 0 +0000\ncommitter A <a@example.com> 0 +0000\n\nFirst\n";
+        String commit1 = id("commit", bytes(commit1Text));
+        String commit2 = id("commit", bytes(commit1Text + "Second\n"));
+
+        PackWriter pack = new PackWriter(largeOffsetTable);
+        long commit1Offset = pack.add(commit1, 1, bytes(commit1Text), -1, null);
+        pack.skip(gapLength);
+        pack.add(treeId, 2, tree, -1, null);
+        pack.add(commit2, 6, appendDelta(commit1Text, commit1Text + "Second\n"), commit1Offset, null);
+        pack.write(new File(gitDir, "objects/pack"));
+
+        write(new File(gitDir, "HEAD"), commit2 + "\n");
+        return new String[] {blob, commit1, commit2};
+    }
+
+    /**
+     * Asserts that the given repository, created by {@link #createGapRepository(File, long, boolean)}, is read
+     * correctly.
+     *
+     * @param git The repository.
+     * @param ids The ids returned by {@link #createGapRepository(File, long, boolean)}.
+     *
+     * @throws IOException unwanted.
+     */
+    static void assertGapRepository(GitRepository git, String[] ids) throws IOException {
+        assertThat(git.resolveCommit("HEAD"), is(ids[2]));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("b.c", ids[0]);
+        assertThat(git.readFiles(ids[2], ALL_FILES), is(expected));
+        assertThat(git.readFiles(ids[1], ALL_FILES), is(expected));
+    }
+
+    /**
+     * Creates a test repository with two commits. The first commit (and its tree and blobs) are stored as loose
+     * objects, the second one in a pack file. The blob of <code>a.c</code> in the second commit is an offset delta,
+     * the blob of <code>new.c</code> is a reference delta against the loose blob of <code>dir/b.c</code>.
+     * <code>HEAD</code> points to <code>master</code> (second commit), the packed tag <code>v1</code> and the
+     * annotated tag <code>annotated</code> point to the first commit. The worktree contains the files of the second
+     * commit.
+     *
+     * @param directory The directory of the worktree.
+     *
+     * @return The ids of the created objects.
+     *
+     * @throws IOException unwanted.
+     */
+    static TestRepository createRepository(File directory) throws IOException {
+        File gitDir = new File(directory, ".git");
+        new File(gitDir, "objects/pack").mkdirs();
+        new File(gitDir, "refs/heads").mkdirs();
+        new File(gitDir, "refs/tags").mkdirs();
+        TestRepository repo = new TestRepository();
+
+        // first commit: loose objects
+        repo.blobA1 = writeLoose(gitDir, "blob", bytes(FILE_A_V1));
+        repo.blobB = writeLoose(gitDir, "blob", bytes(FILE_B));
+        String dirTree = writeLoose(gitDir, "tree", tree("100644", "b.c", repo.blobB));
+        String tree1 = writeLoose(gitDir, "tree", tree("100644", "a.c", repo.blobA1, "40000", "dir", dirTree,
+                "160000", "sub", repo.blobB));
+        repo.commit1 = writeLoose(gitDir, "commit", bytes("tree " + tree1 + "\n"
+                + "author A <a@example.com> 0 +0000\ncommitter A <a@example.com> 0 +0000\n\nFirst\n"));
+
+        // second commit: in a pack file, with deltas
+        repo.blobA2 = id("blob", bytes(FILE_A_V2));
+        repo.blobNew = id("blob", bytes(FILE_NEW));
+        byte[] tree2 = tree("100644", "a.c", repo.blobA2, "40000", "dir", dirTree, "100644", "new.c", repo.blobNew);
+        String tree2Id = id("tree", tree2);
+        byte[] commit2 = bytes("tree " + tree2Id + "\nparent " + repo.commit1 + "\n"
+                + "author A <a@example.com> 0 +0000\ncommitter A <a@example.com> 0 +0000\n\nSecond\n");
+        repo.commit2 = id("commit", commit2);
+
+        PackWriter pack = new PackWriter(false);
+        long blobA1Offset = pack.add(repo.blobA1, 3, bytes(FILE_A_V1), -1, null);
+        pack.add(repo.blobA2, 6, appendDelta(FILE_A_V1, FILE_A_V2), blobA1Offset, null);
+        pack.add(repo.blobNew, 7, appendDelta(FILE_B, FILE_NEW), -1, repo.blobB);
+        pack.add(tree2Id, 2, tree2, -1, null);
+        pack.add(repo.commit2, 1, commit2, -1, null);
+        pack.write(new File(gitDir, "objects/pack"));
+
+        // references
+        String tag = writeLoose(gitDir, "tag", bytes("object " + repo.commit1 + "\ntype commit\ntag annotated\n"
+                + "tagger A <a@example.com> 0 +0000\n\nTag\n"));
+        write(new File(gitDir, "HEAD"), "ref: refs/heads/master\n");
+        write(new File(gitDir, "refs/heads/master"), repo.commit2 + "\n");
+        write(new File(gitDir, "refs/tags/annotated"), tag + "\n");
+        write(new File(gitDir, "packed-refs"), "# pack-refs with: peeled fully-peeled sorted \n"
+                + repo.commit1 + " refs/tags/v1\n");
+
+        // worktree
+        new File(directory, "dir").mkdirs();
+        write(new File(directory, "a.c"), FILE_A_V2);
+        write(new File(directory, "dir/b.c"), FILE_B);
+        write(new File(directory, "new.c"), FILE_NEW);
+
+        return repo;
+    }
+
+    /**
+     * Converts a string to UTF-8 bytes.
+     *
+     * @param string The string.
+     *
+     * @return The bytes.
+     */
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a text file.
+     *
+     * @param file The file.
+     * @param content The content.
+     *
+     * @throws IOException unwanted.
+     */
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), bytes(content));
+    }
+
+    /**
+     * Calculates the id of an object.
+     *
+     * @param type The object type.
+     * @param content The content of the object.
+     *
+     * @return The id in hexadecimal.
+     */
+    private static String id(String type, byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        digest.update(bytes(type + " " + content.length + "\0"));
+        digest.update(content);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Converts bytes to hexadecimal.
+     *
+     * @param bytes The bytes.
+     *
+     * @return The hexadecimal string.
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Converts hexadecimal to bytes.
+     *
+     * @param hex The hexadecimal string.
+     *
+     * @return The bytes.
+     */
+    private static byte[] unhex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Compresses data with zlib.
+     *
+     * @param data The data.
+     *
+     * @return The compressed data.
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            result.write(buffer, 0, length);
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes a loose object.
+     *
+     * @param gitDir The git directory.
+     * @param type The object type.
+     * @param content The content of the object.
+     *
+     * @return The id of the object.
+     *
+     * @throws IOException unwanted.
+     */
+    private static String writeLoose(File gitDir, String type, byte[] content) throws IOException {
+        String id = id(type, content);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        raw.write(bytes(type + " " + content.length + "\0"));
+        raw.write(content);
+
+        File file = new File(gitDir, "objects/" + id.substring(0, 2) + "/" + id.substring(2));
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), deflate(raw.toByteArray()));
+        return id;
+    }
+
+    /**
+     * Creates the content of a tree object.
+     *
+     * @param entries Triples of mode, name and id. Must be sorted by name.
+     *
+     * @return The content of the tree object.
+     *
+     * @throws IOException unwanted.
+     */
+    private static byte[] tree(String... entries) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int i = 0; i < entries.length; i += 3) {
+            result.write(bytes(entries[i] + " " + entries[i + 1] + "\0"));
+            result.write(unhex(entries[i + 2]));
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes a size in the delta header format.
+     *
+     * @param out The stream to write to.
+     * @param size The size.
+     */
+    private static void writeDeltaSize(ByteArrayOutputStream out, long size) {
+        long remaining = size;
+        while (remaining >= 0x80) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Creates a delta that copies the complete base and appends the rest of the result.
+     *
+     * @param base The base content; must be shorter than 256 bytes.
+     * @param result The result content; must start with the base and be shorter than 128 bytes longer.
+     *
+     * @return The delta.
+     */
+    private static byte[] appendDelta(String base, String result) {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        writeDeltaSize(delta, base.length());
+        writeDeltaSize(delta, result.length());
+        delta.write(0x80 | 0x10); // copy from offset 0, one size byte
+        delta.write(base.length());
+        byte[] insert = bytes(result.substring(base.length()));
+        delta.write(insert.length);
+        delta.write(insert, 0, insert.length);
+        return delta.toByteArray();
+    }
+
+    /**
+     * Creates a pack file with an index (version 2). The pack may contain a gap of zeros, which is written as a hole
+     * in a sparse file.
+     */
+    private static final class PackWriter {
+
+        private final boolean largeOffsetTable;
+
+        private final ByteArrayOutputStream pack;
+
+        private int gapPosition;
+
+        private long gapLength;
+
+        private final Map<String, Long> offsets;
+
+        private final Map<String, Long> crcs;
+
+        /**
+         * Creates an empty pack.
+         *
+         * @param largeOffsetTable Whether to store all offsets in the table of 8 byte offsets of the index, instead of
+         *      only the offsets above 2 GiB.
+         */
+        PackWriter(boolean largeOffsetTable) {
+            this.largeOffsetTable = largeOffsetTable;
+            this.pack = new ByteArrayOutputStream();
+            this.offsets = new TreeMap<>();
+            this.crcs = new HashMap<>();
+        }
+
+        /**
+         * Adds an object to the pack.
+         *
+         * @param id The id of the (resolved) object.
+         * @param type The pack object type.
+         * @param data The content or delta.
+         * @param baseOffset The offset of the base object, for offset deltas.
+         * @param baseId The id of the base object, for reference deltas.
+         *
+         * @return The offset of the object in the pack.
+         */
+        long add(String id, int type, byte[] data, long baseOffset, String baseId) {
+            long offset = 12 + gapLength + pack.size();
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+
+            long size = data.length;
+            int first = (type << 4) | (int) (size & 0xF);
+            size >>>= 4;
+            while (size != 0) {
+                entry.write(first | 0x80);
+                first = (int) (size & 0x7F);
+                size >>>= 7;
+            }
+            entry.write(first);
+
+            if (type == 6) {
+                long distance = offset - baseOffset;
+                List<Integer> encoded = new ArrayList<>();
+                encoded.add((int) (distance & 0x7F));
+                distance >>>= 7;
+                while (distance != 0) {
+                    distance--;
+                    encoded.add(0, (int) (0x80 | (distance & 0x7F)));
+                    distance >>>= 7;
+                }
+                for (int b : encoded) {
+                    entry.write(b);
+                }
+            } else if (type == 7) {
+                byte[] base = unhex(baseId);
+                entry.write(base, 0, base.length);
+            }
+
+            byte[] compressed = deflate(data);
+            entry.write(compressed, 0, compressed.length);
+
+            byte[] bytes = entry.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            pack.write(bytes, 0, bytes.length);
+
+            offsets.put(id, offset);
+            crcs.put(id, crc.getValue());
+            return offset;
+        }
+
+        /**
+         * Adds a gap of zeros at the current end of the pack. Only one gap is supported.
+         *
+         * @param length The length of the gap.
+         */
+        void skip(long length) {
+            this.gapPosition = pack.size();
+            this.gapLength = length;
+        }
+
+        /**
+         * Writes the pack and its index to the given directory.
+         *
+         * @param directory The pack directory.
+         *
+         * @throws IOException unwanted.
+         */
+        void write(File directory) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.put(bytes("PACK")).putInt(2).putInt(offsets.size());
+
+            // the gap is not included in the checksum, so that it does not need to be hashed; it is not verified
+            ByteArrayOutputStream packFile = new ByteArrayOutputStream();
+            packFile.write(header.array());
+            packFile.write(pack.toByteArray());
+            byte[] packChecksum = sha1(packFile.toByteArray());
+            packFile.write(packChecksum);
+
+            int numLargeOffsets = 0;
+            for (long offset : offsets.values()) {
+                if (largeOffsetTable || offset > Integer.MAX_VALUE) {
+                    numLargeOffsets++;
+                }
+            }
+
+            ByteBuffer index = ByteBuffer.allocate(8 + 256 * 4 + offsets.size() * (20 + 4 + 4) + numLargeOffsets * 8
+                    + 40);
+            index.putInt(0xFF744F63).putInt(2);
+            int count = 0;
+            for (int b = 0; b < 256; b++) {
+                for (String id : offsets.keySet()) {
+                    if (Integer.parseInt(id.substring(0, 2), 16) == b) {
+                        count++;
+                    }
+                }
+                index.putInt(count);
+            }
+            for (String id : offsets.keySet()) {
+                index.put(unhex(id));
+            }
+            for (String id : offsets.keySet()) {
+                index.putInt((int) (long) crcs.get(id));
+            }
+            List<Long> largeOffsets = new ArrayList<>();
+            for (String id : offsets.keySet()) {
+                long offset = offsets.get(id);
+                if (largeOffsetTable || offset > Integer.MAX_VALUE) {
+                    // the most significant bit is set: index into the table of 8 byte offsets
+                    index.putInt(0x80000000 | largeOffsets.size());
+                    largeOffsets.add(offset);
+                } else {
+                    index.putInt((int) offset);
+                }
+            }
+            for (long offset : largeOffsets) {
+                index.putLong(offset);
+            }
+            index.put(packChecksum);
+            index.put(sha1(Arrays.copyOf(index.array(), index.position())));
+
+            String name = "pack-" + hex(packChecksum);
+            byte[] packBytes = packFile.toByteArray();
+            try (FileChannel channel = FileChannel.open(new File(directory, name + ".pack").toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                // writing behind the end of the file leaves the gap as a hole
+                int split = 12 + gapPosition;
+                channel.write(ByteBuffer.wrap(packBytes, 0, split), 0);
+                channel.write(ByteBuffer.wrap(packBytes, split, packBytes.length - split), split + gapLength);
+            }
+            Files.write(new File(directory, name + ".idx").toPath(), index.array());
+        }
+
+        /**
+         * Calculates a SHA-1 hash.
+         *
+         * @param data The data to hash.
+         *
+         * @return The hash.
+         */
+        private static byte[] sha1(byte[] data) {
+            try {
+                return MessageDigest.getInstance("SHA-1").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.and;
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.not;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.True;
+
+/**
+ * Tests the {@link LazyCodeBlock}s created by the {@link BlockParser}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class LazyCodeBlockTest {
+
+    private static final String CODE = "code;\n"
+            + "#ifdef A\n"
+            + "  #if defined(B) && defined(C)\n"
+            + "    #ifndef D\n"
+            + "    #endif\n"
+            + "  #elif defined(E)\n"
+            + "  #else\n"
+            + "  #endif\n"
+            + "#endif\n"
+            + "#ifdef F\n"
+            + "#endif\n";
+
+    /**
+     * Parses the given code.
+     *
+     * @param code The code to parse.
+     * @param lazy Whether to create the presence conditions lazily.
+     * @param factory The factory to create the formulas with, or <code>null</code>.
+     *
+     * @return The top-level blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static List<CodeBlock> parse(String code, boolean lazy, FormulaFactory factory)
+            throws IOException, FormatException {
+
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"))) {
+            parser.setAddPseudoBlock(true);
+            parser.setLazyPresenceConditions(lazy);
+            parser.setFormulaFactory(factory);
+            return parser.readBlocks();
+        }
+    }
+
+    /**
+     * Asserts that the given blocks have the same values, compared through their accessors.
+     *
+     * @param expected The expected blocks.
+     * @param actual The actual blocks, which may be {@link LazyCodeBlock}s.
+     */
+    static void assertSameValues(List<CodeBlock> expected, List<CodeBlock> actual) {
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameValues(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Asserts that the given blocks and their nested blocks have the same values, compared through their accessors.
+     *
+     * @param expected The expected block.
+     * @param actual The actual block, which may be a {@link LazyCodeBlock}.
+     */
+    static void assertSameValues(CodeBlock expected, CodeBlock actual) {
+        assertThat(actual.getLineStart(), is(expected.getLineStart()));
+        assertThat(actual.getLineEnd(), is(expected.getLineEnd()));
+        assertThat(actual.getSourceFile(), is(expected.getSourceFile()));
+        assertThat(actual.getCondition(), is(expected.getCondition()));
+        assertThat(actual.getPresenceCondition(), is(expected.getPresenceCondition()));
+        assertThat(actual.getNestedElementCount(), is(expected.getNestedElementCount()));
+        for (int i = 0; i < expected.getNestedElementCount(); i++) {
+            assertSameValues(expected.getNestedElement(i), actual.getNestedElement(i));
+        }
+    }
+
+    /**
+     * Tests that the lazy presence conditions are the same as the eagerly created ones.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSameAsEager() throws IOException, FormatException {
+        List<CodeBlock> eager = parse(CODE, false, null);
+        List<CodeBlock> lazy = parse(CODE, true, null);
+
+        assertSameValues(eager, lazy);
+
+        // the pseudo block is created eagerly
+        CodeBlock pseudoBlock = lazy.get(0);
+        assertFalse(pseudoBlock instanceof LazyCodeBlock);
+        assertSame(True.INSTANCE, pseudoBlock.getPresenceCondition());
+
+        CodeBlock nested = pseudoBlock.getNestedElement(0).getNestedElement(0).getNestedElement(0);
+        assertThat(nested.getPresenceCondition(), is(and(and("A", and("B", "C")), not("D"))));
+    }
+
+    /**
+     * Tests that presence conditions are only created when they are requested, including the ones of the parents.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testMaterialization() throws IOException, FormatException {
+        List<CodeBlock> lazy = parse(CODE, true, null);
+
+        LazyCodeBlock outer = (LazyCodeBlock) lazy.get(0).getNestedElement(0);
+        LazyCodeBlock middle = (LazyCodeBlock) outer.getNestedElement(0);
+        LazyCodeBlock inner = (LazyCodeBlock) middle.getNestedElement(0);
+        LazyCodeBlock elif = (LazyCodeBlock) outer.getNestedElement(1);
+        assertFalse(outer.isMaterialized());
+        assertFalse(middle.isMaterialized());
+        assertFalse(inner.isMaterialized());
+
+        // the immediate conditions don't need the presence conditions
+        assertThat(inner.getCondition(), is(not("D")));
+        assertFalse(inner.isMaterialized());
+
+        assertThat(middle.getPresenceCondition(), is(and("A", and("B", "C"))));
+        assertTrue(middle.isMaterialized());
+        assertTrue(outer.isMaterialized());
+        assertFalse(inner.isMaterialized());
+        assertFalse(elif.isMaterialized());
+
+        // memoized
+        assertSame(middle.getPresenceCondition(), middle.getPresenceCondition());
+        assertSame(outer.getPresenceCondition(), outer.getCondition());
+    }
+
+    /**
+     * Tests that lazy blocks are equal to each other without creating their presence conditions, but never equal to
+     * eager blocks, in both directions.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testEquals() throws IOException, FormatException {
+        List<CodeBlock> eager = parse(CODE, false, null);
+        List<CodeBlock> lazy = parse(CODE, true, null);
+        List<CodeBlock> otherLazy = parse(CODE, true, null);
+
+        CodeBlock eagerBlock = eager.get(0).getNestedElement(0).getNestedElement(0);
+        LazyCodeBlock lazyBlock = (LazyCodeBlock) lazy.get(0).getNestedElement(0).getNestedElement(0);
+        LazyCodeBlock otherLazyBlock = (LazyCodeBlock) otherLazy.get(0).getNestedElement(0).getNestedElement(0);
+
+        assertFalse(eagerBlock.equals(lazyBlock));
+        assertFalse(lazyBlock.equals(eagerBlock));
+
+        assertTrue(lazyBlock.equals(otherLazyBlock));
+        assertTrue(otherLazyBlock.equals(lazyBlock));
+        assertThat(lazyBlock.hashCode(), is(otherLazyBlock.hashCode()));
+        assertThat(lazyBlock.toString(), is("CodeBlock[3-5; test.c; B && C; <lazy presence condition>; 1 nested]"));
+        assertFalse(lazyBlock.isMaterialized());
+        assertFalse(((LazyCodeBlock) lazyBlock.getNestedElement(0)).isMaterialized());
+
+        // created on one side only
+        otherLazyBlock.getNestedElement(0).getPresenceCondition();
+        assertTrue(lazyBlock.equals(otherLazyBlock));
+        assertFalse(lazyBlock.equals(lazy.get(0).getNestedElement(0).getNestedElement(1)));
+
+        // same lines and conditions, but different parents
+        List<CodeBlock> different = parse(CODE.replace("#ifdef A", "#ifdef X"), true, null);
+        CodeBlock differentBlock = different.get(0).getNestedElement(0).getNestedElement(0);
+        assertFalse(lazyBlock.equals(differentBlock));
+        assertFalse(differentBlock.equals(lazyBlock));
+    }
+
+    /**
+     * Tests that lazy presence conditions are created with the factory of the parser.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testFormulaFactory() throws IOException, FormatException {
+        FormulaFactory factory = new FormulaFactory();
+        List<CodeBlock> first = parse(CODE, true, factory);
+        List<CodeBlock> second = parse(CODE, true, factory);
+
+        CodeBlock firstElse = first.get(0).getNestedElement(0).getNestedElement(2);
+        CodeBlock secondElse = second.get(0).getNestedElement(0).getNestedElement(2);
+        assertSame(firstElse.getPresenceCondition(), secondElse.getPresenceCondition());
+    }
+
+    /**
+     * Tests that the parser ignores the lazy setting if presence conditions are canonicalized with a BDD.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testIgnoredWithBdd() throws IOException, FormatException {
+        try (BlockParser parser = new BlockParser(new StringReader(CODE), new File("test.c"))) {
+            parser.setLazyPresenceConditions(true);
+            parser.setBddManager(new BddManager(1000));
+            List<CodeBlock> blocks = parser.readBlocks();
+            assertFalse(blocks.get(0).getNestedElement(0) instanceof LazyCodeBlock);
+        }
+    }
+
+}
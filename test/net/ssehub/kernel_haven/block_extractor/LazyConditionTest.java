@@ -0,0 +1,370 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.and;
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.not;
+import static net.ssehub.kernel_haven.util.logic.FormulaBuilder.or;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.cpp_utils.CppConditionParser;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link LazyCondition}s created by the {@link BlockParser}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class LazyConditionTest {
+
+    private static final String CODE = "code;\n"
+            + "#ifdef A\n"
+            + "  #if defined(B) && defined(C)\n"
+            + "    #ifndef D\n"
+            + "    #endif\n"
+            + "  #elif defined(E)\n"
+            + "  #elif defined(F) || defined(G)\n"
+            + "  #else\n"
+            + "  #endif\n"
+            + "#else\n"
+            + "#endif\n"
+            + "#if defined(H)\n"
+            + "#elif defined(I)\n"
+            + "#endif\n";
+
+    private static final String INVALID_CODE = "#if defined(A)\n"
+            + " someCode;\n"
+            + "#elif defined(B) || \n"
+            + " someElseCode;\n"
+            + "#else\n"
+            + "#endif\n";
+
+    /**
+     * Parses the given code.
+     *
+     * @param code The code to parse.
+     * @param lazy Whether to parse the conditions lazily.
+     * @param factory The factory to create the formulas with, or <code>null</code>.
+     *
+     * @return The top-level blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static List<CodeBlock> parse(String code, boolean lazy, FormulaFactory factory)
+            throws IOException, FormatException {
+
+        return parse(code, lazy, factory, InvalidConditionHandling.EXCEPTION);
+    }
+
+    /**
+     * Parses the given code.
+     *
+     * @param code The code to parse.
+     * @param lazy Whether to parse the conditions lazily.
+     * @param factory The factory to create the formulas with, or <code>null</code>.
+     * @param invalidConditionHandling How to handle unparseable conditions.
+     *
+     * @return The top-level blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    private static List<CodeBlock> parse(String code, boolean lazy, FormulaFactory factory,
+            InvalidConditionHandling invalidConditionHandling) throws IOException, FormatException {
+
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File("test.c"), false, false,
+                invalidConditionHandling)) {
+            parser.setAddPseudoBlock(true);
+            parser.setLazyConditions(lazy);
+            parser.setFormulaFactory(factory);
+            return parser.readBlocks();
+        }
+    }
+
+    /**
+     * Tests that the lazily parsed conditions are the same as the eagerly parsed ones, including #elif and #else
+     * chains.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSameAsEager() throws IOException, FormatException {
+        List<CodeBlock> eager = parse(CODE, false, null);
+        List<CodeBlock> lazy = parse(CODE, true, null);
+
+        LazyCodeBlockTest.assertSameValues(eager, lazy);
+
+        CodeBlock secondElif = lazy.get(0).getNestedElement(0).getNestedElement(2);
+        assertThat(secondElif.getCondition(), is(and(and(not(and("B", "C")), not("E")), or("F", "G"))));
+        CodeBlock nestedElse = lazy.get(0).getNestedElement(0).getNestedElement(3);
+        assertThat(nestedElse.getPresenceCondition(), is(and("A",
+                and(and(not(and("B", "C")), not("E")), not(or("F", "G"))))));
+    }
+
+    /**
+     * Tests that nothing is parsed until a condition is requested, and that only the needed conditions are parsed.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testParsedOnDemand() throws IOException, FormatException {
+        List<CodeBlock> lazy = parse(CODE, true, null);
+
+        CodeBlock pseudoBlock = lazy.get(0);
+        LazyCodeBlock outer = (LazyCodeBlock) pseudoBlock.getNestedElement(0);
+        LazyCodeBlock ifBlock = (LazyCodeBlock) outer.getNestedElement(0);
+        LazyCodeBlock inner = (LazyCodeBlock) ifBlock.getNestedElement(0);
+        LazyCodeBlock elif = (LazyCodeBlock) outer.getNestedElement(1);
+        LazyCodeBlock secondElif = (LazyCodeBlock) outer.getNestedElement(2);
+        LazyCodeBlock elseBlock = (LazyCodeBlock) outer.getNestedElement(3);
+
+        // the structure is available without parsing
+        assertThat(pseudoBlock.getNestedElementCount(), is(4));
+        assertThat(outer.getNestedElementCount(), is(4));
+        assertThat(elif.getLineStart(), is(6));
+        assertThat(elseBlock.getLineEnd(), is(8));
+        assertFalse(outer.isConditionParsed());
+        assertFalse(ifBlock.isConditionParsed());
+        assertFalse(inner.isConditionParsed());
+
+        // an #elif needs the previous siblings, but not the following ones
+        assertThat(elif.getCondition(), is(and(not(and("B", "C")), "E")));
+        assertTrue(elif.isConditionParsed());
+        assertTrue(ifBlock.isConditionParsed());
+        assertFalse(secondElif.isConditionParsed());
+        assertFalse(outer.isConditionParsed());
+        assertFalse(inner.isConditionParsed());
+
+        // the presence condition needs the parents
+        assertThat(inner.getPresenceCondition(), is(and(and("A", and("B", "C")), not("D"))));
+        assertTrue(outer.isConditionParsed());
+        assertTrue(inner.isConditionParsed());
+        assertFalse(elseBlock.isConditionParsed());
+
+        // memoized
+        assertSame(elif.getCondition(), elif.getCondition());
+        assertSame(inner.getCondition(), inner.getCondition());
+    }
+
+    /**
+     * Tests that lazily parsed conditions are created with the factory of the parser.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testFormulaFactory() throws IOException, FormatException {
+        FormulaFactory factory = new FormulaFactory();
+        List<CodeBlock> eager = parse(CODE, false, factory);
+        List<CodeBlock> lazy = parse(CODE, true, factory);
+
+        CodeBlock eagerElse = eager.get(0).getNestedElement(0).getNestedElement(3);
+        CodeBlock lazyElse = lazy.get(0).getNestedElement(0).getNestedElement(3);
+        assertSame(eagerElse.getCondition(), lazyElse.getCondition());
+        assertSame(eagerElse.getPresenceCondition(), lazyElse.getPresenceCondition());
+    }
+
+    /**
+     * Tests that an unparseable condition is replaced by the error variable when it is requested, if invalid
+     * conditions are handled with {@link InvalidConditionHandling#ERROR_VARIABLE}.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testInvalidCondition() throws IOException, FormatException {
+        List<CodeBlock> blocks = parse(INVALID_CODE, true, null, InvalidConditionHandling.ERROR_VARIABLE);
+        assertThat(blocks.size(), is(3));
+        assertThat(blocks.get(0).getCondition(), is(new Variable("A")));
+
+        Formula error = CppConditionParser.ERROR_VARIBLE;
+        assertThat(blocks.get(1).getCondition(), is(and(not("A"), error)));
+        assertThat(blocks.get(2).getPresenceCondition(), is(and(not("A"), not(error))));
+
+        LazyCodeBlockTest.assertSameValues(parse(INVALID_CODE, false, null, InvalidConditionHandling.ERROR_VARIABLE),
+                blocks);
+    }
+
+    /**
+     * Tests that an unparseable condition is replaced by <code>true</code> when it is requested, if invalid conditions
+     * are handled with {@link InvalidConditionHandling#TRUE}.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testInvalidConditionTrue() throws IOException, FormatException {
+        List<CodeBlock> blocks = parse(INVALID_CODE, true, null, InvalidConditionHandling.TRUE);
+        assertThat(blocks.size(), is(3));
+        assertThat(blocks.get(1).getCondition(), is(and(not("A"), True.INSTANCE)));
+        assertThat(blocks.get(2).getPresenceCondition(), is(and(not("A"), not(True.INSTANCE))));
+
+        LazyCodeBlockTest.assertSameValues(parse(INVALID_CODE, false, null, InvalidConditionHandling.TRUE), blocks);
+    }
+
+    /**
+     * Tests that an unparseable condition is reported by a {@link ConditionParseException} when it is requested, if
+     * invalid conditions are handled with {@link InvalidConditionHandling#EXCEPTION}.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testInvalidConditionException() throws IOException, FormatException {
+        List<CodeBlock> blocks = parse(INVALID_CODE, true, null, InvalidConditionHandling.EXCEPTION);
+        assertThat(blocks.size(), is(3));
+        assertThat(blocks.get(0).getCondition(), is(new Variable("A")));
+
+        // hashing does not parse the condition
+        List<CodeBlock> other = parse(INVALID_CODE, true, null, InvalidConditionHandling.EXCEPTION);
+        assertThat(blocks.get(1).hashCode(), is(other.get(1).hashCode()));
+
+        try {
+            blocks.get(1).getCondition();
+            fail("Expected ConditionParseException");
+        } catch (ConditionParseException e) {
+            assertThat(e.getMessage(), startsWith("Can't parse condition in test.c: Can't parse expression in line 3: "
+                    + "defined(B) ||"));
+            assertThat(e.getCause().getMessage(), startsWith("Can't parse expression in line 3"));
+        }
+
+        // the #else needs the negation of the #elif
+        try {
+            blocks.get(2).getPresenceCondition();
+            fail("Expected ConditionParseException");
+        } catch (ConditionParseException e) {
+            assertThat(e.getCause().getMessage(), startsWith("Can't parse expression in line 3"));
+        }
+    }
+
+    /**
+     * Tests a long #elif chain, which is negated iteratively.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testLongChain() throws IOException, FormatException {
+        StringBuilder code = new StringBuilder("#if defined(A0)\n");
+        for (int i = 1; i < 20000; i++) {
+            code.append("#elif defined(A").append(i).append(")\n");
+        }
+        code.append("#else\n#endif\n");
+
+        List<CodeBlock> blocks = parse(code.toString(), true, null);
+        Formula condition = blocks.get(20000).getCondition();
+        for (int i = 19999; i >= 0; i--) {
+            Formula expected = not("A" + i);
+            if (i > 0) {
+                Conjunction conjunction = (Conjunction) condition;
+                assertThat(conjunction.getRight(), is(expected));
+                condition = conjunction.getLeft();
+            } else {
+                assertThat(condition, is(expected));
+            }
+        }
+        assertThat(blocks.get(2).getCondition(), is(and(and(not("A0"), not("A1")), "A2")));
+    }
+
+    /**
+     * Tests that the parser ignores the lazy setting if a {@link VariableIndex} is built.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testIgnoredWithVariableIndex() throws IOException, FormatException {
+        try (BlockParser parser = new BlockParser(new StringReader(CODE), new File("test.c"))) {
+            parser.setLazyConditions(true);
+            parser.setVariableIndex(new VariableIndex());
+            List<CodeBlock> blocks = parser.readBlocks();
+            assertFalse(blocks.get(0) instanceof LazyCodeBlock);
+        }
+    }
+
+    /**
+     * Tests requesting the conditions of one file from multiple threads.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     * @throws InterruptedException unwanted.
+     * @throws ExecutionException unwanted.
+     */
+    @Test
+    public void testConcurrent() throws IOException, FormatException, InterruptedException, ExecutionException {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            code.append("#if defined(A").append(i).append(") && defined(B)\n")
+                    .append("#elif defined(C").append(i % 7).append(")\n")
+                    .append("#else\n")
+                    .append("#endif\n");
+        }
+        List<CodeBlock> eager = parse(code.toString(), false, null);
+        List<CodeBlock> lazy = parse(code.toString(), true, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Formula>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    List<Formula> conditions = new ArrayList<>();
+                    for (CodeBlock block : lazy) {
+                        conditions.add(block.getPresenceCondition());
+                    }
+                    return conditions;
+                }));
+            }
+
+            for (Future<List<Formula>> future : futures) {
+                List<Formula> conditions = future.get();
+                for (int i = 0; i < eager.size(); i++) {
+                    assertThat(conditions.get(i), is(eager.get(i).getPresenceCondition()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Conjunction;
+import net.ssehub.kernel_haven.util.logic.Formula;
+import net.ssehub.kernel_haven.util.logic.Negation;
+import net.ssehub.kernel_haven.util.logic.True;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link OffHeapModelStore}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class OffHeapModelStoreTest {
+
+    private File directory;
+
+    /**
+     * Creates an empty temporary spill directory.
+     *
+     * @throws IOException unwanted.
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("model_store").toFile();
+    }
+
+    /**
+     * Deletes the temporary spill directory.
+     */
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Creates a model with the given number of blocks.
+     *
+     * @param path The path of the source file.
+     * @param numBlocks The number of nested blocks.
+     *
+     * @return The model.
+     */
+    private static SourceFile<CodeBlock> createModel(File path, int numBlocks) {
+        CodeBlock pseudo = new CodeBlock(1, numBlocks * 2 + 1, path, True.INSTANCE, True.INSTANCE);
+        for (int i = 0; i < numBlocks; i++) {
+            Formula condition = new Variable("VAR_" + i);
+            if (i % 2 == 1) {
+                condition = new Negation(new Conjunction(condition, new Variable("VAR_" + (i - 1))));
+            }
+            pseudo.addNestedElement(new CodeBlock(i * 2 + 1, i * 2 + 2, path, condition, condition));
+        }
+
+        SourceFile<CodeBlock> result = new SourceFile<>(path);
+        result.addElement(pseudo);
+        return result;
+    }
+
+    /**
+     * Tests that stored models are decoded again on request.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testRoundTrip() throws IOException, FormatException {
+        OffHeapModelStore store = new OffHeapModelStore(1024 * 1024, directory);
+        store.put(createModel(new File("a.c"), 3));
+        store.put(createModel(new File("dir/b.c"), 10));
+
+        assertThat(store.getNumModels(), is(2));
+        assertThat(store.get(new File("c.c")), nullValue());
+        assertThat(store.getView(new File("c.c")), nullValue());
+
+        SourceFile<CodeBlock> result = store.get(new File("dir/b.c"));
+        assertThat(result.getPath(), is(new File("dir/b.c")));
+        assertThat(result.getElement(0), is(createModel(new File("dir/b.c"), 10).getElement(0)));
+        // decoding again works on a fresh view
+        assertThat(store.get(new File("a.c")).getElement(0), is(createModel(new File("a.c"), 3).getElement(0)));
+        assertThat(store.get(new File("a.c")).getElement(0), is(createModel(new File("a.c"), 3).getElement(0)));
+
+        assertThat(store.getMappedSize(), is(0L));
+        assertThat(directory.list().length, is(0));
+        store.close();
+    }
+
+    /**
+     * Tests the zero-copy views of the encoded models.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testView() throws IOException, FormatException {
+        OffHeapModelStore store = new OffHeapModelStore(1024 * 1024, directory);
+        SourceFile<CodeBlock> model = createModel(new File("a.c"), 5);
+        store.put(model);
+        store.put(createModel(new File("b.c"), 5));
+
+        ByteBuffer view = store.getView(new File("a.c"));
+        assertTrue(view.isDirect());
+        assertTrue(view.isReadOnly());
+        byte[] expected = BinaryCodeModelFormat.encode(model);
+        assertThat(view.remaining(), is(expected.length));
+        assertThat(view, is(ByteBuffer.wrap(expected)));
+        assertThat(store.getSize(), is((long) expected.length * 2));
+
+        // consuming a view does not affect other views
+        BinaryCodeModelFormat.decode(view, new File("a.c"));
+        assertThat(view.remaining(), is(0));
+        assertThat(store.getView(new File("a.c")).remaining(), is(expected.length));
+        store.close();
+    }
+
+    /**
+     * Tests that models are spilled to memory-mapped files once the memory budget is exceeded.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSpill() throws IOException, FormatException {
+        int modelSize = BinaryCodeModelFormat.encode(createModel(new File("0.c"), 20)).length;
+        OffHeapModelStore store = new OffHeapModelStore(modelSize * 3, directory, modelSize * 2);
+        for (int i = 0; i < 10; i++) {
+            store.put(createModel(new File(i + ".c"), 20));
+        }
+
+        // two direct segments, the second one is cut to the budget
+        assertThat(store.getDirectSize(), is((long) modelSize * 3));
+        assertThat(store.getMappedSize(), is((long) modelSize * 8));
+        assertThat(directory.list().length, is(4));
+
+        for (int i = 0; i < 10; i++) {
+            File path = new File(i + ".c");
+            assertThat(store.get(path).getElement(0), is(createModel(path, 20).getElement(0)));
+        }
+
+        // a model larger than a segment gets its own segment
+        store.put(createModel(new File("large.c"), 200));
+        assertThat(store.get(new File("large.c")).getElement(0),
+                is(createModel(new File("large.c"), 200).getElement(0)));
+        assertThat(directory.list().length, is(5));
+
+        store.close();
+        assertThat(store.getNumModels(), is(0));
+        assertThat(directory.list().length, is(0));
+    }
+
+    /**
+     * Tests that the memory-mapped files can be deleted while the models stay readable.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testDeleteSpillFiles() throws IOException, FormatException {
+        OffHeapModelStore store = new OffHeapModelStore(0, directory, 1024);
+        SourceFile<CodeBlock> handle = store.put(createModel(new File("a.c"), 20));
+        assertThat(directory.list().length, is(1));
+
+        store.deleteSpillFiles();
+        assertThat(directory.list().length, is(0));
+        assertThat(handle.getElement(0), is(createModel(new File("a.c"), 20).getElement(0)));
+
+        // storing further models still works
+        store.put(createModel(new File("b.c"), 20));
+        assertThat(store.get(new File("b.c")).getElement(0), is(createModel(new File("b.c"), 20).getElement(0)));
+        store.close();
+    }
+
+    /**
+     * Tests that storing a model for a path again replaces the previous model.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testReplace() throws IOException, FormatException {
+        OffHeapModelStore store = new OffHeapModelStore(1024, directory);
+        store.put(createModel(new File("a.c"), 3));
+        store.put(createModel(new File("a.c"), 5));
+
+        assertThat(store.getNumModels(), is(1));
+        assertThat(store.get(new File("a.c")).getElement(0).getNestedElementCount(), is(5));
+        assertThat(store.getReplacedSize(), is((long) BinaryCodeModelFormat.encode(
+                createModel(new File("a.c"), 3)).length));
+        store.close();
+    }
+
+    /**
+     * Tests the handles that decode the stored models on access.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testHandle() throws IOException {
+        OffHeapModelStore store = new OffHeapModelStore(1024 * 1024, directory);
+        SourceFile<CodeBlock> handle = store.put(createModel(new File("a.c"), 3));
+
+        assertThat(handle.getPath(), is(new File("a.c")));
+        assertThat(handle.getTopElementCount(), is(1));
+        assertThat(handle.getElement(0), is(createModel(new File("a.c"), 3).getElement(0)));
+        assertThat(handle.iterator().next(), is(createModel(new File("a.c"), 3).getElement(0)));
+        assertSame(handle, handle.castTo(CodeBlock.class));
+
+        // equality and hash code use the decoded model instead of the empty list of the super class
+        SourceFile<CodeBlock> other = store.put(createModel(new File("c.c"), 3));
+        assertThat(handle.equals(createModel(new File("a.c"), 3)), is(true));
+        assertThat(handle.hashCode(), is(createModel(new File("a.c"), 3).hashCode()));
+        assertThat(handle.equals(store.put(createModel(new File("a.c"), 3))), is(true));
+        assertThat(handle.equals(other), is(false));
+        assertThat(handle.equals(new SourceFile<CodeBlock>(new File("a.c"))), is(false));
+
+        // replacing the model is visible through the handle
+        store.put(createModel(new File("a.c"), 5));
+        assertThat(store.put(createModel(new File("b.c"), 2)).getElement(0).getNestedElementCount(), is(2));
+        store.close();
+    }
+
+    /**
+     * Tests that the handles are read-only.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testHandleReadOnly() throws IOException {
+        OffHeapModelStore store = new OffHeapModelStore(1024 * 1024, directory);
+        try {
+            store.put(createModel(new File("a.c"), 3)).addElement(new CodeBlock(True.INSTANCE));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Tests that the handles can not be used after the store is closed.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testHandleClosed() throws IOException {
+        OffHeapModelStore store = new OffHeapModelStore(1024 * 1024, directory);
+        SourceFile<CodeBlock> handle = store.put(createModel(new File("a.c"), 3));
+        store.close();
+        handle.getElement(0);
+    }
+
+    /**
+     * Tests that a closed store does not accept models.
+     *
+     * @throws IOException wanted.
+     */
+    @Test(expected = IOException.class)
+    public void testClosed() throws IOException {
+        OffHeapModelStore store = new OffHeapModelStore(1024, directory);
+        store.close();
+        store.put(createModel(new File("a.c"), 3));
+    }
+
+    /**
+     * Tests storing and reading models from multiple threads.
+     *
+     * @throws InterruptedException unwanted.
+     * @throws ExecutionException unwanted.
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException, ExecutionException {
+        OffHeapModelStore store = new OffHeapModelStore(4096, directory, 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int first = thread * 50;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < first + 50; i++) {
+                        File path = new File(i + ".c");
+                        store.put(createModel(path, i % 7));
+                        assertThat(store.get(path).getElement(0), is(createModel(path, i % 7).getElement(0)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(store.getNumModels(), is(200));
+        assertTrue(store.getMappedSize() > 0);
+        store.close();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.cpp_utils.InvalidConditionHandling;
+import net.ssehub.kernel_haven.util.FormatException;
+import net.ssehub.kernel_haven.util.logic.Variable;
+
+/**
+ * Tests the {@link ParallelDirectiveScanner}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class ParallelDirectiveScannerTest {
+
+    /**
+     * Inputs with state that crosses line boundaries.
+     */
+    private static final String[] INPUTS = {
+        "",
+        "int a;\n",
+        "#if defined(A)\nint a;\n#endif\n",
+        "#if defined(A)\r\nint a;\r\n#else\r\n#endif",
+        "code;\n/* comment\n#if defined(A)\n */\n#ifdef B\n#endif\nmore code;\n",
+        "#if defined(A) /* comment\n spanning lines */ || defined(B)\n#endif\n",
+        "#if defined(A) \\\n || defined(B)\n#endif\n\n\n",
+        "// line comment \\\n#if defined(A)\ncode;\n#endif\n",
+        "char *s = \"/* no comment\";\n#if 0\nDon't\n#endif\nchar c = '\\\\';\n#ifdef X\n#endif\n",
+        "a\n\n\n#if defined(A)\n/* x */\n\n#elif defined(B)\n\n#endif\nx\n",
+        "#ifdef A\nx /\n/ y\n#endif\n/*/\n#ifdef B\n*/\n",
+        "int a = 1 + \\\n  2;\n#ifdef A\nchar *s = \"#if\";\r\n  x # y\n\t\n#endif\nz \\",
+    };
+
+    /**
+     * Tests that the parallel scanner finds exactly the same directives as a single {@link DirectiveLexer}, for all
+     * chunk sizes.
+     *
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSameAsSequential() throws FormatException {
+        for (String input : INPUTS) {
+            List<String> expected = scanSequential(input);
+            for (int chunkSize = 1; chunkSize <= input.length() + 1; chunkSize++) {
+                assertThat("Chunk size " + chunkSize + " for input " + input, scanParallel(input, chunkSize),
+                        is(expected));
+            }
+        }
+    }
+
+    /**
+     * Tests that skipping plain lines in byte buffers finds the same directives as passing each character through
+     * the {@link DirectiveLexer}.
+     *
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testSameAsCharacters() throws FormatException {
+        for (String input : INPUTS) {
+            List<String> expected = new ArrayList<>();
+            DirectiveLexer lexer = new DirectiveLexer((directive, lineNumber, contentBefore) -> {
+                expected.add(lineNumber + " " + contentBefore + " " + directive);
+            }, null);
+            lexer.feed(input.toCharArray(), 0, input.length());
+            lexer.finish();
+            expected.add("end " + lexer.getLastLineStart() + " " + lexer.hasContent());
+
+            assertThat("Input " + input, scanSequential(input), is(expected));
+        }
+    }
+
+    /**
+     * Tests that the {@link BlockParser} creates the same blocks in parallel mode.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBlockParser() throws IOException, FormatException {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            code.append("#ifdef A").append(i).append(" /* start\n  end */\n code;\n#endif\n");
+        }
+
+        BlockParser parser = new BlockParser(ByteBuffer.wrap(code.toString().getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, new File("test.c"), false, false, InvalidConditionHandling.EXCEPTION);
+        parser.setParallelThreshold(1);
+
+        List<CodeBlock> result = parser.readBlocks();
+
+        assertThat(result.size(), is(20000));
+        for (int i = 0; i < 20000; i++) {
+            CodeBlock block = result.get(i);
+            assertThat(block, is(new CodeBlock(i * 4 + 1, i * 4 + 3, new File("test.c"), new Variable("A" + i),
+                    new Variable("A" + i))));
+        }
+
+        parser.close();
+    }
+
+    /**
+     * Tests that exceptions thrown by the handler are passed to the caller.
+     */
+    @Test
+    public void testHandlerException() {
+        String input = "#ifdef A\n#endif\n#ifdef B\n#endif\n";
+        List<String> handled = new ArrayList<>();
+
+        ParallelDirectiveScanner scanner = new ParallelDirectiveScanner(
+                ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, 4,
+                ForkJoinPool.commonPool());
+        try {
+            scanner.scan((directive, lineNumber, contentBefore) -> {
+                handled.add(directive);
+                if (lineNumber == 3) {
+                    throw new FormatException("test");
+                }
+            });
+            fail("Expected exception");
+        } catch (FormatException e) {
+            assertThat(e.getMessage(), is("test"));
+        }
+
+        assertThat(handled, is(Arrays.asList("#ifdef A", "#endif", "#ifdef B")));
+    }
+
+    /**
+     * Scans the given input with a single {@link DirectiveLexer}.
+     *
+     * @param input The input to scan.
+     *
+     * @return The found directives and the final state.
+     *
+     * @throws FormatException unwanted.
+     */
+    private static List<String> scanSequential(String input) throws FormatException {
+        List<String> result = new ArrayList<>();
+        DirectiveLexer lexer = new DirectiveLexer((directive, lineNumber, contentBefore) -> {
+            result.add(lineNumber + " " + contentBefore + " " + directive);
+        }, StandardCharsets.UTF_8);
+
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        lexer.feed(ByteBuffer.wrap(bytes), 0, bytes.length);
+        lexer.finish();
+
+        result.add("end " + lexer.getLastLineStart() + " " + lexer.hasContent());
+        return result;
+    }
+
+    /**
+     * Scans the given input with a {@link ParallelDirectiveScanner}.
+     *
+     * @param input The input to scan.
+     * @param chunkSize The chunk size to use.
+     *
+     * @return The found directives and the final state.
+     *
+     * @throws FormatException unwanted.
+     */
+    private static List<String> scanParallel(String input, int chunkSize) throws FormatException {
+        List<String> result = new ArrayList<>();
+        ParallelDirectiveScanner scanner = new ParallelDirectiveScanner(
+                ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, chunkSize,
+                ForkJoinPool.commonPool());
+
+        scanner.scan((directive, lineNumber, contentBefore) -> {
+            result.add(lineNumber + " " + contentBefore + " " + directive);
+        });
+
+        result.add("end " + scanner.getLastLineStart() + " " + scanner.hasContent());
+        return result;
+    }
+
+}
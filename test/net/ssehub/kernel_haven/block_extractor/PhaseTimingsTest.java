@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.block_extractor.PhaseTimings.Phase;
+import net.ssehub.kernel_haven.util.FormatException;
+
+/**
+ * Tests the {@link PhaseTimings}.
+ *
+ * @author Adam
+ */
+public class PhaseTimingsTest {
+
+    /**
+     * Tests that the phases of a {@link BlockParser} are counted.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testBlockParser() throws IOException, FormatException {
+        PhaseTimings timings = new PhaseTimings();
+        try (BlockParser parser = new BlockParser(new StringReader("#ifdef A\n#elif defined(B)\n#endif\n"),
+                new File("test.c"))) {
+            parser.setPhaseTimings(timings);
+            parser.readBlocks();
+        }
+
+        assertThat(timings.getParseCount(), is(1L));
+        assertThat(timings.getConditionParsingCount(), is(2L));
+        // 2 opened, 2 closed, end of file
+        assertThat(timings.getTreeConstructionCount(), is(5L));
+        assertThat(timings.getReadCount(), is(0L));
+
+        long nestedNanos = timings.getConditionParsingNanos() + timings.getTreeConstructionNanos();
+        assertTrue(timings.getParseNanos() >= nestedNanos);
+        assertThat(timings.getScanNanos(), is(timings.getParseNanos() - nestedNanos));
+    }
+
+    /**
+     * Tests adding and resetting the counters.
+     */
+    @Test
+    public void testAddAndReset() {
+        PhaseTimings timings = new PhaseTimings();
+        long start = System.nanoTime();
+        timings.add(Phase.READ, start);
+        timings.add(Phase.READ, start);
+
+        assertThat(timings.getReadCount(), is(2L));
+        assertThat(timings.getCount(Phase.READ), is(2L));
+        assertTrue(timings.getReadNanos() >= 0);
+        assertTrue(timings.getSummary().contains("reading files: "));
+        assertTrue(timings.toString().contains("(2 calls"));
+
+        timings.reset();
+
+        assertThat(timings.getReadCount(), is(0L));
+        assertThat(timings.getReadNanos(), is(0L));
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ReadAheadPipeline}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class ReadAheadPipelineTest {
+
+    /**
+     * Creates a list of file names.
+     *
+     * @param count The number of files.
+     *
+     * @return The files.
+     */
+    private static List<File> createFiles(int count) {
+        List<File> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new File("file" + i + ".c"));
+        }
+        return result;
+    }
+
+    /**
+     * Tests that every file is loaded and processed exactly once, with more CPU threads than queue slots.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test(timeout = 10000)
+    public void testAllProcessed() throws InterruptedException {
+        List<File> files = createFiles(500);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+
+        ReadAheadPipeline<String> pipeline = new ReadAheadPipeline<>(3, 2);
+        FileScheduler.Statistics statistics = pipeline.run(files, 4, (file) -> file.getName(), processed::add);
+
+        assertThat(processed.size(), is(files.size()));
+        List<String> expected = new ArrayList<>();
+        files.forEach((file) -> expected.add(file.getName()));
+        assertThat(new HashSet<>(processed), is(new HashSet<>(expected)));
+
+        assertThat(statistics.getNumTasks(), is(500));
+        assertTrue(statistics.getTailIdleNanos() <= 4 * statistics.getWallNanos());
+        assertTrue(pipeline.getAverageQueueSize() <= 2);
+        assertTrue(pipeline.getSummary().contains("depth 2"));
+    }
+
+    /**
+     * Tests that the number of loaded but unprocessed items is bounded by the queue depth.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test(timeout = 10000)
+    public void testBounded() throws InterruptedException {
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+
+        new ReadAheadPipeline<Integer>(2, 5).run(createFiles(200), 1, (file) -> loaded.incrementAndGet(), (item) -> {
+            maxAhead.accumulateAndGet(loaded.get() - processed.get(), Math::max);
+            processed.incrementAndGet();
+        });
+
+        assertThat(processed.get(), is(200));
+        // queue depth + the item being processed + one item in each I/O thread that waits for the queue
+        assertTrue(String.valueOf(maxAhead.get()), maxAhead.get() <= 5 + 1 + 2);
+    }
+
+    /**
+     * Tests that an exception of the processor is thrown after all threads finished.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test(timeout = 10000)
+    public void testProcessorException() throws InterruptedException {
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            new ReadAheadPipeline<File>(1, 1).run(createFiles(100), 2, (file) -> file, (file) -> {
+                processed.incrementAndGet();
+                if (file.getName().equals("file10.c")) {
+                    throw new IllegalStateException("test");
+                }
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("test"));
+        }
+        assertTrue(processed.get() < 100);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.ssehub.kernel_haven.cpp_utils.CppParsingSettings;
+
+/**
+ * Generates a synthetic source tree that resembles the Linux kernel: a skewed distribution of file sizes, about a
+ * third of the files without any conditional directives, headers with include guards, nested #ifdef blocks with
+ * #elif and #else branches, and conditions using <code>defined()</code> and <code>IS_ENABLED()</code> on a pool of
+ * configuration variables where a few variables are used very often. Comments and continued lines are mixed in.
+ * <p>
+ * The output only depends on the seed and the number of files, so runs on different machines or commits process
+ * the same tree. The conditions require {@link CppParsingSettings#HANDLE_LINUX_MACROS} to be enabled. Used by tests
+ * and by the <code>CorpusBenchmark</code> in the <code>benchmark</code> source folder.
+ *
+ * @author Adam
+ */
+final class SyntheticCorpus {
+
+    private static final String[] DIRECTORIES = {
+        "arch/x86/kernel", "arch/arm/mach", "block", "drivers/gpu/drm", "drivers/net/ethernet", "drivers/usb/host",
+        "drivers/scsi", "fs/ext4", "fs/btrfs", "include/linux", "kernel/sched", "mm", "net/ipv4", "sound/core",
+    };
+
+    private static final int NUM_VARIABLES = 5000;
+
+    private static final int MEDIAN_LINES = 250;
+
+    private static final int MAX_LINES = 20000;
+
+    private static final int MAX_DEPTH = 6;
+
+    private final long seed;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed The seed for the random decisions.
+     */
+    SyntheticCorpus(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a source tree with the given number of files.
+     *
+     * @param directory The directory to write the tree to. Existing files with the same names are overwritten.
+     * @param numFiles The number of files to create.
+     *
+     * @return The paths of the created files, relative to the given directory.
+     *
+     * @throws IOException If writing the files fails.
+     */
+    List<File> generate(File directory, int numFiles) throws IOException {
+        Random random = new Random(seed);
+        List<File> result = new ArrayList<>(numFiles);
+
+        for (int i = 0; i < numFiles; i++) {
+            boolean header = random.nextDouble() < 0.3;
+            String dir = header ? "include/linux" : DIRECTORIES[random.nextInt(DIRECTORIES.length)];
+            File path = new File(dir, "file" + i + (header ? ".h" : ".c"));
+
+            File absolute = new File(directory, path.getPath());
+            absolute.getParentFile().mkdirs();
+            Files.write(absolute.toPath(), generateFile(random, header, i).getBytes(StandardCharsets.US_ASCII));
+            result.add(path);
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the content of a single file.
+     *
+     * @param random The source of the random decisions.
+     * @param header Whether to generate a header with an include guard.
+     * @param index The index of the file, used for unique names.
+     *
+     * @return The content of the file.
+     */
+    private static String generateFile(Random random, boolean header, int index) {
+        // log-normal size distribution: most files are small, a few are very large
+        int lines = (int) Math.min(MAX_LINES, Math.max(5, Math.exp(Math.log(MEDIAN_LINES)
+                + random.nextGaussian())));
+        boolean conditional = random.nextDouble() < 0.65;
+        // a few files are dense with directives, most have few
+        double blockProbability = conditional ? 0.01 + 0.08 * Math.pow(random.nextDouble(), 3) : 0;
+
+        StringBuilder out = new StringBuilder(lines * 40);
+        out.append("// SPDX-License-Identifier: GPL-2.0\n");
+        out.append("/*\n * Synthetic file ").append(index).append(".\n */\n");
+        if (header) {
+            out.append("#ifndef _SYNTHETIC_FILE").append(index).append("_H\n");
+            out.append("#define _SYNTHETIC_FILE").append(index).append("_H\n");
+        }
+        out.append("#include <linux/kernel.h>\n");
+
+        int depth = 0;
+        int written = 0;
+        while (written < lines) {
+            double choice = random.nextDouble();
+
+            if (choice < blockProbability && depth < MAX_DEPTH && random.nextDouble() < Math.pow(0.5, depth)) {
+                appendOpening(out, random);
+                depth++;
+            } else if (depth > 0 && choice < blockProbability * 2.5) {
+                double branch = random.nextDouble();
+                if (branch < 0.1) {
+                    out.append("#elif ").append(createCondition(random)).append('\n');
+                } else if (branch < 0.3) {
+                    out.append("#else\n");
+                    appendCode(out, random);
+                    out.append("#endif\n");
+                    depth--;
+                } else {
+                    out.append("#endif\n");
+                    depth--;
+                }
+            } else {
+                appendCode(out, random);
+            }
+            written++;
+        }
+
+        for (; depth > 0; depth--) {
+            out.append("#endif\n");
+        }
+        if (header) {
+            out.append("#endif /* _SYNTHETIC_FILE").append(index).append("_H */\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends an #if, #ifdef or #ifndef line.
+     *
+     * @param out The code to append to.
+     * @param random The source of the random decisions.
+     */
+    private static void appendOpening(StringBuilder out, Random random) {
+        double kind = random.nextDouble();
+        if (kind < 0.45) {
+            out.append("#ifdef ").append(createVariable(random)).append('\n');
+        } else if (kind < 0.55) {
+            out.append("#ifndef ").append(createVariable(random)).append('\n');
+        } else if (kind < 0.95) {
+            out.append("#if ").append(createCondition(random)).append('\n');
+        } else {
+            // condition continued over multiple lines
+            out.append("#if ").append(createCondition(random)).append(" || \\\n    ")
+                    .append(createCondition(random)).append('\n');
+        }
+    }
+
+    /**
+     * Creates a condition for an #if or #elif.
+     *
+     * @param random The source of the random decisions.
+     *
+     * @return The condition.
+     */
+    private static String createCondition(Random random) {
+        double kind = random.nextDouble();
+        String result;
+        if (kind < 0.4) {
+            result = "IS_ENABLED(" + createVariable(random) + ")";
+        } else if (kind < 0.7) {
+            result = "defined(" + createVariable(random) + ")";
+        } else if (kind < 0.85) {
+            result = "defined(" + createVariable(random) + ") && !defined(" + createVariable(random) + ")";
+        } else {
+            result = "IS_ENABLED(" + createVariable(random) + ") || (IS_ENABLED(" + createVariable(random)
+                    + ") && defined(" + createVariable(random) + "))";
+        }
+        return result;
+    }
+
+    /**
+     * Creates a configuration variable name. Variables with small numbers are much more likely.
+     *
+     * @param random The source of the random decisions.
+     *
+     * @return The variable name.
+     */
+    private static String createVariable(Random random) {
+        return "CONFIG_SYNTH_" + (int) (Math.pow(random.nextDouble(), 3) * NUM_VARIABLES);
+    }
+
+    /**
+     * Appends a line of code, a comment or a multi-line macro.
+     *
+     * @param out The code to append to.
+     * @param random The source of the random decisions.
+     */
+    private static void appendCode(StringBuilder out, Random random) {
+        double kind = random.nextDouble();
+        int value = random.nextInt(1000);
+        if (kind < 0.1) {
+            out.append("/* Comment about value ").append(value).append(" */\n");
+        } else if (kind < 0.15) {
+            out.append("#define SYNTH_MACRO_").append(value).append("(x) \\\n\tdo { (x) += ").append(value)
+                    .append("; } while (0)\n");
+        } else if (kind < 0.25) {
+            out.append('\n');
+        } else {
+            out.append("\tret = synth_call_").append(value).append("(dev, ").append(value)
+                    .append("); // update state\n");
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.SetUpException;
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.config.Configuration;
+import net.ssehub.kernel_haven.config.DefaultSettings;
+import net.ssehub.kernel_haven.cpp_utils.CppParsingSettings;
+import net.ssehub.kernel_haven.test_utils.TestConfiguration;
+import net.ssehub.kernel_haven.util.ExtractorException;
+
+/**
+ * Tests the {@link SyntheticCorpus}.
+ *
+ * @author Adam
+ */
+public class SyntheticCorpusTest {
+
+    /**
+     * Tests that the same seed generates the same tree.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testDeterministic() throws IOException {
+        File first = Files.createTempDirectory("corpus").toFile();
+        File second = Files.createTempDirectory("corpus").toFile();
+
+        try {
+            List<File> firstFiles = new SyntheticCorpus(42).generate(first, 50);
+            List<File> secondFiles = new SyntheticCorpus(42).generate(second, 50);
+
+            assertThat(secondFiles, is(firstFiles));
+            for (File file : firstFiles) {
+                byte[] firstContent = Files.readAllBytes(new File(first, file.getPath()).toPath());
+                byte[] secondContent = Files.readAllBytes(new File(second, file.getPath()).toPath());
+                assertTrue(file.getPath(), Arrays.equals(firstContent, secondContent));
+            }
+
+        } finally {
+            GitRepositoryTest.delete(first);
+            GitRepositoryTest.delete(second);
+        }
+    }
+
+    /**
+     * Tests that the extractor can parse all generated files, and that the corpus contains files with and without
+     * conditional blocks.
+     *
+     * @throws IOException unwanted.
+     * @throws SetUpException unwanted.
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testExtractable() throws IOException, SetUpException, InterruptedException {
+        File directory = Files.createTempDirectory("corpus").toFile();
+
+        try {
+            List<File> files = new SyntheticCorpus(1).generate(directory, 200);
+
+            int withoutBlocks = 0;
+            for (File file : files) {
+                String content = new String(Files.readAllBytes(new File(directory, file.getPath()).toPath()), "UTF-8");
+                if (!content.contains("#if")) {
+                    withoutBlocks++;
+                }
+            }
+            assertTrue(withoutBlocks > 0);
+            assertTrue(withoutBlocks < files.size());
+
+            Configuration config = new TestConfiguration(new Properties());
+            config.setValue(DefaultSettings.SOURCE_TREE, directory);
+            config.registerSetting(CppParsingSettings.HANDLE_LINUX_MACROS);
+            config.setValue(CppParsingSettings.HANDLE_LINUX_MACROS, true);
+            CodeBlockExtractor extractor = new CodeBlockExtractor();
+            extractor.init(config);
+
+            List<SourceFile<CodeBlock>> results = Collections.synchronizedList(new ArrayList<>());
+            List<ExtractorException> errors = Collections.synchronizedList(new ArrayList<>());
+            extractor.runOnFiles(files, 2, results::add, errors::add);
+            assertThat(errors.size(), is(0));
+            assertThat(results.size(), is(files.size()));
+
+        } finally {
+            GitRepositoryTest.delete(directory);
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.ssehub.kernel_haven.code_model.CodeBlock;
+import net.ssehub.kernel_haven.code_model.SourceFile;
+import net.ssehub.kernel_haven.util.FormatException;
+
+/**
+ * Tests the {@link VariableIndex}.
+ *
+ * @author Adam
+ */
+@SuppressWarnings("null")
+public class VariableIndexTest {
+
+    private static final String CODE = "code;\n"
+            + "#ifdef A\n"
+            + "  #if defined(B) && !defined(A)\n"
+            + "  #endif\n"
+            + "#elif defined(C)\n"
+            + "#else\n"
+            + "#endif\n"
+            + "#ifdef C\n"
+            + "#endif\n";
+
+    /**
+     * Parses the given code with the given index.
+     *
+     * @param code The code to parse.
+     * @param path The path of the file.
+     * @param pseudoBlock Whether to add a pseudo block.
+     * @param index The index to add the blocks to.
+     *
+     * @return The parsed source file.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException If the code can't be parsed.
+     */
+    private static SourceFile<CodeBlock> parse(String code, String path, boolean pseudoBlock, VariableIndex index)
+            throws IOException, FormatException {
+
+        SourceFile<CodeBlock> result = new SourceFile<>(new File(path));
+        try (BlockParser parser = new BlockParser(new StringReader(code), new File(path))) {
+            parser.setAddPseudoBlock(pseudoBlock);
+            parser.setVariableIndex(index);
+            for (CodeBlock block : parser.readBlocks()) {
+                result.addElement(block);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests the entries that are created while parsing, with and without a pseudo block.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testParse() throws IOException, FormatException {
+        VariableIndex index = new VariableIndex();
+        parse(CODE, "without.c", false, index);
+        parse(CODE, "with.c", true, index);
+
+        assertThat(index.getNumFiles(), is(2));
+        assertThat(index.getVariables(), is(new HashSet<>(Arrays.asList("A", "B", "C"))));
+        assertThat(index.getEntries("B"), is(Arrays.asList(
+                new VariableIndex.Entry(new File("without.c"), 1, 3, 3),
+                new VariableIndex.Entry(new File("with.c"), 2, 3, 3))));
+        assertThat(index.getFiles("C"), is(new HashSet<>(Arrays.asList(new File("without.c"), new File("with.c")))));
+
+        List<VariableIndex.Entry> entriesForC = new ArrayList<>();
+        for (VariableIndex.Entry entry : index.getEntries("C")) {
+            if (entry.getFile().equals(new File("without.c"))) {
+                entriesForC.add(entry);
+            }
+        }
+        assertThat(entriesForC.get(0), is(new VariableIndex.Entry(new File("without.c"), 2, 5, 5)));
+        assertThat(entriesForC.get(entriesForC.size() - 1),
+                is(new VariableIndex.Entry(new File("without.c"), 4, 8, 8)));
+
+        assertThat(index.getEntries("D"), is(Collections.emptyList()));
+        assertThat(index.getFiles("D").isEmpty(), is(true));
+    }
+
+    /**
+     * Tests that walking a parsed source file creates the same entries as building the index while parsing.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testAddFile() throws IOException, FormatException {
+        for (boolean pseudoBlock : new boolean[] {false, true}) {
+            VariableIndex whileParsing = new VariableIndex();
+            SourceFile<CodeBlock> file = parse(CODE, "test.c", pseudoBlock, whileParsing);
+
+            VariableIndex afterParsing = new VariableIndex();
+            assertThat(afterParsing.addFile(file), is(true));
+            assertThat(afterParsing.addFile(file), is(false));
+
+            assertThat(afterParsing.getVariables(), is(whileParsing.getVariables()));
+            for (String variable : whileParsing.getVariables()) {
+                assertThat(afterParsing.getEntries(variable), is(whileParsing.getEntries(variable)));
+            }
+            assertThat(afterParsing.getNumEntries(), is(whileParsing.getNumEntries()));
+        }
+    }
+
+    /**
+     * Tests a long #elif chain with nested blocks in each branch. The negated previous conditions that the blocks of
+     * the chain share are only indexed once per block, even if the own expression of an #elif mentions them again.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testElifChain() throws IOException, FormatException {
+        int branches = 500;
+        StringBuilder code = new StringBuilder("#if defined(V0)\n");
+        for (int i = 1; i <= branches; i++) {
+            code.append("#ifdef N").append(i).append("\n#endif\n");
+            code.append("#elif defined(V").append(i).append(") && defined(V0)\n");
+        }
+        code.append("#else\n#endif\n");
+
+        VariableIndex whileParsing = new VariableIndex();
+        SourceFile<CodeBlock> file = parse(code.toString(), "chain.c", false, whileParsing);
+
+        // the #if, all #elifs and the #else
+        assertThat(whileParsing.getEntries("V0").size(), is(branches + 2));
+        // the #elif and the #else
+        assertThat(whileParsing.getEntries("V" + branches), is(Arrays.asList(
+                new VariableIndex.Entry(new File("chain.c"), 2 * branches, 3 * branches + 1, 3 * branches + 1),
+                new VariableIndex.Entry(new File("chain.c"), 2 * branches + 1, 3 * branches + 2, 3 * branches + 2))));
+        // the nested block
+        assertThat(whileParsing.getEntries("N1"), is(Arrays.asList(
+                new VariableIndex.Entry(new File("chain.c"), 1, 2, 2))));
+
+        VariableIndex afterParsing = new VariableIndex();
+        afterParsing.addFile(file);
+        assertThat(afterParsing.getVariables(), is(whileParsing.getVariables()));
+        for (String variable : whileParsing.getVariables()) {
+            assertThat(afterParsing.getEntries(variable), is(whileParsing.getEntries(variable)));
+        }
+    }
+
+    /**
+     * Tests that nothing is added for a file that can't be parsed.
+     *
+     * @throws IOException unwanted.
+     */
+    @Test
+    public void testParseError() throws IOException {
+        VariableIndex index = new VariableIndex();
+        try {
+            parse("#ifdef A\n#ifdef B\n#endif\n", "invalid.c", true, index);
+            fail("Expected FormatException");
+        } catch (FormatException e) {
+            // expected
+        }
+
+        assertThat(index.getNumFiles(), is(0));
+        assertThat(index.getNumEntries(), is(0L));
+    }
+
+    /**
+     * Tests writing and reading an index. The written file must not depend on the order in which files were added.
+     *
+     * @throws IOException unwanted.
+     * @throws FormatException unwanted.
+     */
+    @Test
+    public void testWriteAndRead() throws IOException, FormatException {
+        VariableIndex first = new VariableIndex();
+        parse(CODE, "a.c", true, first);
+        parse("#if defined(B) || defined(E)\n#endif\n", "b.c", false, first);
+
+        VariableIndex second = new VariableIndex();
+        parse("#if defined(B) || defined(E)\n#endif\n", "b.c", false, second);
+        parse(CODE, "a.c", true, second);
+
+        File firstFile = File.createTempFile("variables", ".khvi");
+        File secondFile = File.createTempFile("variables", ".khvi");
+        try {
+            first.write(firstFile);
+            second.write(secondFile);
+            assertTrue(Arrays.equals(Files.readAllBytes(firstFile.toPath()), Files.readAllBytes(secondFile.toPath())));
+
+            VariableIndex read = VariableIndex.read(firstFile);
+            assertThat(read.getNumFiles(), is(2));
+            assertThat(read.getVariables(), is(first.getVariables()));
+            for (String variable : first.getVariables()) {
+                assertThat(new HashSet<>(read.getEntries(variable)), is(new HashSet<>(first.getEntries(variable))));
+            }
+
+            byte[] truncated = Arrays.copyOf(Files.readAllBytes(firstFile.toPath()), 20);
+            Files.write(secondFile.toPath(), truncated);
+            try {
+                VariableIndex.read(secondFile);
+                fail("Expected FormatException");
+            } catch (FormatException e) {
+                // expected
+            }
+
+        } finally {
+            firstFile.delete();
+            secondFile.delete();
+        }
+    }
+
+    /**
+     * Tests building one index in multiple threads.
+     *
+     * @throws InterruptedException unwanted.
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        VariableIndex index = new VariableIndex();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        parse(CODE, "file" + thread + "_" + i + ".c", true, index);
+                    } catch (IOException | FormatException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(index.getNumFiles(), is(400));
+        assertThat(index.getEntries("B").size(), is(400));
+        assertThat(index.getFiles("A").size(), is(400));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 University of Hildesheim, Software Systems Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ssehub.kernel_haven.block_extractor;
+
+/**
+ * Generates source files that are expensive to parse for the {@link BlockParser}. Used by tests and by the
+ * <code>ExtractorBenchmarks</code> in the <code>benchmark</code> source folder. The output only depends on the
+ * parameters.
+ *
+ * @author Adam
+ */
+final class WorstCaseInputs {
+
+    /**
+     * Don't allow any instances.
+     */
+    private WorstCaseInputs() {
+    }
+
+    /**
+     * Creates blocks that are nested into each other. The presence conditions grow with the depth.
+     *
+     * @param depth The number of nested blocks.
+     *
+     * @return The source code.
+     */
+    static String deepNesting(int depth) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            result.append("#ifdef CONFIG_NESTED_").append(i).append('\n');
+            result.append("int nested_").append(i).append(";\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            result.append("#endif\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Creates an #if with many #elif branches and a final #else. The condition of each branch contains the negated
+     * conditions of all previous branches.
+     *
+     * @param branches The number of #elif branches.
+     *
+     * @return The source code.
+     */
+    static String elifLadder(int branches) {
+        StringBuilder result = new StringBuilder("#if defined(CONFIG_ARCH_0)\n");
+        for (int i = 1; i <= branches; i++) {
+            result.append("#define ARCH ").append(i - 1).append('\n');
+            result.append("#elif defined(CONFIG_ARCH_").append(i).append(")\n");
+        }
+        result.append("#define ARCH ").append(branches).append('\n');
+        result.append("#else\n");
+        result.append("#error unknown architecture\n");
+        result.append("#endif\n");
+        return result.toString();
+    }
+
+    /**
+     * Creates #if directives that are continued over many lines. The lexer has to join all lines before the
+     * condition can be parsed.
+     *
+     * @param directives The number of #if directives.
+     * @param linesPerDirective The number of lines of each #if directive.
+     *
+     * @return The source code.
+     */
+    static String longContinuationLines(int directives, int linesPerDirective) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < directives; i++) {
+            result.append("#if defined(CONFIG_A_").append(i).append(')');
+            for (int j = 1; j < linesPerDirective; j++) {
+                result.append(" || \\\n    defined(CONFIG_B_").append(j).append(')');
+            }
+            result.append('\n');
+            result.append("static int value_").append(i).append(" = ").append(i).append(";\n");
+            result.append("#endif\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Creates code where most of the content is in comments, including comments inside of directives, comments that
+     * span multiple lines and directives inside of comments, which must be ignored.
+     *
+     * @param blocks The number of blocks.
+     *
+     * @return The source code.
+     */
+    static String commentHeavy(int blocks) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < blocks; i++) {
+            result.append("/*\n");
+            result.append(" * Documentation of block ").append(i).append(".\n");
+            result.append(" * #ifdef CONFIG_IN_COMMENT this is not a directive\n");
+            result.append(" */\n");
+            result.append("#ifdef /* inline comment */ CONFIG_C_").append(i).append(" // trailing comment\n");
+            result.append("// int disabled_").append(i).append(";\n");
+            result.append("int enabled_").append(i).append("; /* comment with // inside */\n");
+            result.append("#endif /* CONFIG_C_").append(i).append(" */\n");
+        }
+        return result.toString();
+    }
+
+}
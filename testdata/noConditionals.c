@@ -0,0 +1,6 @@
+// A file without conditional directives
+#include <stdio.h>
+
+int main(void) {
+    return 0;
+}